@@ -0,0 +1,159 @@
+package com.samsung.microbit.core;
+
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Keeps the camera of {@link com.samsung.microbit.ui.activity.CameraActivity_OldAPI} open and previewing
+ * while the activity is visible, and measures how fast pictures are taken.
+ * <p/>
+ * The camera is opened once while the activity is visible and stays open between pictures. It is
+ * released as soon as the activity leaves the screen. A picture is never taken in the background, as the
+ * person photographed wouldn't see the countdown, and newer Android versions don't allow background
+ * camera access anyway.
+ * <p/>
+ * Trigger to shutter latency is the time from a trigger arriving at
+ * {@link com.samsung.microbit.plugin.CameraPlugin} to the shutter, including bringing the activity to the
+ * front and the countdown. Shutter lag is the time from
+ * {@link Camera#takePicture(Camera.ShutterCallback, Camera.PictureCallback, Camera.PictureCallback)}
+ * to the shutter. Times are {@link SystemClock#elapsedRealtime()}, which is the same in all processes.
+ * <p/>
+ * Used on the main thread.
+ */
+public final class CameraSessionManager {
+    private static final String TAG = CameraSessionManager.class.getSimpleName();
+
+    private static CameraSessionManager instance;
+
+    private Camera camera;
+    private int cameraIdx = -1;
+
+    private int openCount;
+    private int reuseCount;
+
+    private long triggerTime;
+    private long takePictureTime;
+
+    private int shutterCount;
+    private long lastTriggerToShutter;
+    private long maxTriggerToShutter;
+    private long totalShutterLag;
+    private long maxShutterLag;
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private CameraSessionManager() {
+    }
+
+    public static synchronized CameraSessionManager getInstance() {
+        if(instance == null) {
+            instance = new CameraSessionManager();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the camera, opening it if it isn't open yet or a different one is open.
+     *
+     * @param idx Camera id.
+     * @return Open camera.
+     * @throws RuntimeException If the camera can't be opened.
+     */
+    public Camera open(int idx) {
+        if(camera != null && cameraIdx == idx) {
+            reuseCount++;
+            logi("open() :: reused camera " + idx);
+            return camera;
+        }
+
+        release();
+
+        camera = Camera.open(idx);
+        cameraIdx = idx;
+        openCount++;
+        logi("open() :: opened camera " + idx);
+        return camera;
+    }
+
+    /**
+     * Releases the camera, e.g. when the activity leaves the screen.
+     */
+    public void release() {
+        if(camera != null) {
+            try {
+                camera.stopPreview();
+            } catch(RuntimeException e) {
+                Log.e(TAG, e.toString());
+            }
+            camera.release();
+            camera = null;
+            cameraIdx = -1;
+        }
+    }
+
+    /**
+     * @param time Time a picture was triggered by micro:bit, see {@link SystemClock#elapsedRealtime()}.
+     */
+    public void onTrigger(long time) {
+        triggerTime = time;
+    }
+
+    /**
+     * Call right before {@link Camera#takePicture(Camera.ShutterCallback, Camera.PictureCallback,
+     * Camera.PictureCallback)}.
+     */
+    public void onTakePicture() {
+        takePictureTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Call from a shutter callback.
+     */
+    public void onShutter() {
+        long now = SystemClock.elapsedRealtime();
+
+        shutterCount++;
+
+        long shutterLag = now - takePictureTime;
+        totalShutterLag += shutterLag;
+        maxShutterLag = Math.max(maxShutterLag, shutterLag);
+
+        if(triggerTime != 0) {
+            lastTriggerToShutter = now - triggerTime;
+            maxTriggerToShutter = Math.max(maxTriggerToShutter, lastTriggerToShutter);
+            // Following frames of a burst belong to the same trigger
+            triggerTime = 0;
+        }
+
+        Log.i(TAG, "onShutter() :: shutter lag " + shutterLag + "ms, trigger to shutter " + lastTriggerToShutter +
+                "ms");
+    }
+
+    /**
+     * Prints the session and latency counters.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "CameraSessionManager{camera=" + cameraIdx +
+                ", opened=" + openCount +
+                ", reused=" + reuseCount +
+                ", shutters=" + shutterCount +
+                ", avgShutterLag=" + (shutterCount > 0 ? totalShutterLag / shutterCount : 0) + "ms" +
+                ", maxShutterLag=" + maxShutterLag + "ms" +
+                ", lastTriggerToShutter=" + lastTriggerToShutter + "ms" +
+                ", maxTriggerToShutter=" + maxTriggerToShutter + "ms" +
+                '}');
+    }
+}
@@ -8,6 +8,8 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
@@ -50,6 +52,23 @@ public class BLEManager {
     public static final int OP_READ_REMOTE_RSSI = 9;
     public static final int OP_MTU_CHANGED = 10;
 
+    /**
+     * Default ATT MTU, used until a larger one is negotiated.
+     */
+    public static final int DEFAULT_MTU = 23;
+    /**
+     * Largest ATT MTU allowed by bluetooth specification.
+     */
+    public static final int MAX_MTU = 517;
+    /**
+     * Size of ATT write/notification header (opcode and attribute handle).
+     */
+    public static final int ATT_HEADER_SIZE = 3;
+
+    public static final int CONNECTION_PRIORITY_BALANCED = 0;
+    public static final int CONNECTION_PRIORITY_HIGH = 1;
+    public static final int CONNECTION_PRIORITY_LOW_POWER = 2;
+
     /**
      * It represents ble device state.
      * Can be one of possible values:
@@ -70,7 +89,13 @@ public class BLEManager {
     private volatile int inBleOp = OP_NOOP;
     private volatile boolean callbackCompleted = false;
 
+    /**
+     * Number of synchronous requests waiting for the operation in flight to complete. Guarded by {@link #locker}.
+     */
+    private int idleWaiters;
+
     private volatile int rssi;
+    private volatile int mtu = DEFAULT_MTU;
     private volatile BluetoothGattCharacteristic lastCharacteristic;
     private volatile BluetoothGattDescriptor lastDescriptor;
 
@@ -84,6 +109,26 @@ public class BLEManager {
 
     private int extendedError = 0;
 
+    /**
+     * Queue of asynchronous operations submitted via {@link #submit(GattOperation)}.
+     */
+    private final GattOperationQueue operationQueue;
+
+    /**
+     * Latencies and results of synchronous and queued operations.
+     */
+    private final GattStatistics statistics;
+
+    /**
+     * Chooses how long synchronous requests and queued operations wait for their callbacks.
+     */
+    private final DeadlinePolicy deadlinePolicy;
+
+    /**
+     * Limits GATT operations running at the same time across connections, or null if there is no limit.
+     */
+    private volatile GattScheduler gattScheduler;
+
     /**
      * Provides simplified way to log app informational messages.
      *
@@ -95,14 +140,68 @@ public class BLEManager {
 
     public BLEManager(Context context, BluetoothDevice bluetoothDevice, CharacteristicChangeListener
             characteristicChangeListener, UnexpectedConnectionEventListener unexpectedDisconnectionListener) {
+        this(context, bluetoothDevice, characteristicChangeListener, unexpectedDisconnectionListener,
+                new GattStatistics(), new DeadlinePolicy());
+    }
+
+    /**
+     * @param statistics     Statistics to record operations to.
+     * @param deadlinePolicy Policy that chooses operation deadlines.
+     *                       Both allow to keep learned values across several managers, e.g. between reconnections.
+     */
+    public BLEManager(Context context, BluetoothDevice bluetoothDevice, CharacteristicChangeListener
+            characteristicChangeListener, UnexpectedConnectionEventListener unexpectedDisconnectionListener,
+                      GattStatistics statistics, DeadlinePolicy deadlinePolicy) {
         if(DEBUG) {
             logi("start1");
         }
 
         this.context = context;
+        this.statistics = statistics;
+        this.deadlinePolicy = deadlinePolicy;
         this.bluetoothDevice = bluetoothDevice;
         this.characteristicChangeListener = characteristicChangeListener;
         this.unexpectedDisconnectionListener = unexpectedDisconnectionListener;
+        this.operationQueue = new GattOperationQueue(locker, statistics, deadlinePolicy, new GattOperationQueue.Host() {
+            @Override
+            public BluetoothGatt getGatt() {
+                return gatt;
+            }
+
+            @Override
+            public BluetoothGatt connectGatt(boolean autoReconnect) {
+                gatt = BLEManager.this.bluetoothDevice.connectGatt(BLEManager.this.context, autoReconnect,
+                        bluetoothGattCallback);
+                return gatt;
+            }
+
+            @Override
+            public boolean isConnected() {
+                return BLEManager.this.isConnected();
+            }
+
+            @Override
+            public int getState() {
+                return bleState;
+            }
+
+            @Override
+            public boolean isSynchronousOperationPending() {
+                return inBleOp != OP_NOOP || idleWaiters > 0;
+            }
+
+            @Override
+            public boolean onStuck() {
+                BluetoothGatt gatt = BLEManager.this.gatt;
+                if(gatt == null || !isConnected()) {
+                    return false;
+                }
+
+                // Reported via onConnectionStateChange(), which fails queued operations
+                gatt.disconnect();
+                return true;
+            }
+        });
     }
 
     public void setBluetoothDevice(BluetoothDevice bluetoothDevice) {
@@ -149,18 +248,26 @@ public class BLEManager {
             logi("reset()");
         }
 
-        synchronized(locker) {
-            if(bleState != BLE_DISCONNECTED) {
-                disconnect();
-            }
+        // Let queued operations, e.g. disabling notifications, reach the device before disconnecting
+        awaitQueueDrained(BLE_WAIT_TIMEOUT);
+
+        if(bleState != BLE_DISCONNECTED) {
+            disconnect();
+        }
+
+        GattOperationQueue.Aborted aborted;
 
+        synchronized(locker) {
             if(bleState != BLE_DISCONNECTED) {
                 return false;
             }
 
+            aborted = operationQueue.detachAll();
+
             lastCharacteristic = null;
             lastDescriptor = null;
             rssi = 0;
+            mtu = DEFAULT_MTU;
             error = 0;
             inBleOp = OP_NOOP;
             callbackCompleted = false;
@@ -173,8 +280,10 @@ public class BLEManager {
             }
 
             gatt = null;
-            return true;
         }
+
+        aborted.complete(BLE_ERROR_FAIL | BLE_DISCONNECTED);
+        return true;
     }
 
     public int getExtendedError() {
@@ -189,7 +298,8 @@ public class BLEManager {
      * <ol>
      * <p/>
      * <li>Trigger asynchronous request</li>
-     * <li>Wait for defined delay ({@link BLEManager#BLE_WAIT_TIMEOUT}) for asynchronous callback is invoked.</li>
+     * <li>Wait for a delay chosen by {@link DeadlinePolicy} (at most {@link BLEManager#BLE_WAIT_TIMEOUT})
+     * for asynchronous callback is invoked.</li>
      * <li>If callback is invoked in that time, then just return {@link BLEManager#bleState}.</li>
      * <li>Else mask error using
      * {@link BLEManager#BLE_ERROR_FAIL} and {@link BLEManager#BLE_ERROR_TIMEOUT} and {@link BLEManager#bleState} and
@@ -207,9 +317,12 @@ public class BLEManager {
                 logi("connectMaybeInit() :: gatt == null");
             }
 
+            long startTime = SystemClock.elapsedRealtime();
+
             synchronized(locker) {
-                if(inBleOp == OP_NOOP) {
+                if(awaitIdle()) {
                     inBleOp = OP_CONNECT;
+                    callbackCompleted = false;
                     try {
                         if(DEBUG) {
                             logi("connectMaybeInit() :: bluetoothDevice.connectGatt(context, autoReconnect, bluetoothGattCallback)");
@@ -226,7 +339,7 @@ public class BLEManager {
 
                         if(gatt != null) {
                             error = 0;
-                            locker.wait(BLE_WAIT_TIMEOUT);
+                            awaitCallback(deadlinePolicy.getDeadline(OP_CONNECT));
 
                             if(DEBUG) {
                                 logi("connectMaybeInit() :: remote device = " + gatt.getDevice().getAddress());
@@ -243,8 +356,12 @@ public class BLEManager {
                     }
 
                     inBleOp = OP_NOOP;
+                    locker.notifyAll();
                 }
             }
+
+            recordOperation(OP_CONNECT, startTime, rc);
+            operationQueue.startNext();
         } else {
             rc = gattConnect();
         }
@@ -270,9 +387,10 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        long startTime = SystemClock.elapsedRealtime();
 
         synchronized(locker) {
-            if(gatt != null && inBleOp == OP_NOOP) {
+            if(awaitIdle() && gatt != null) {
                 if(DEBUG) {
                     logi("gattConnect() :: gatt != null");
                 }
@@ -289,7 +407,7 @@ public class BLEManager {
 
                         boolean result = gatt.connect();
                         logi("gatt.connectMaybeInit() returns = " + result);
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(deadlinePolicy.getDeadline(OP_CONNECT));
 
                         if(DEBUG) {
                             logi("gattConnect() :: remote device = " + gatt.getDevice().getAddress());
@@ -306,9 +424,13 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             }
         }
 
+        recordOperation(OP_CONNECT, startTime, rc);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("gattConnect() :: rc = " + rc);
         }
@@ -316,6 +438,35 @@ public class BLEManager {
         return rc;
     }
 
+    /**
+     * Requests a background connection: the system connects as soon as the device becomes available,
+     * without a time limit. Doesn't wait for a result, established connection is reported via
+     * {@link UnexpectedConnectionEventListener#handleConnectionEvent(int, boolean)}.
+     *
+     * @return True if request was sent.
+     */
+    public boolean connectInBackground() {
+        boolean rc = false;
+
+        synchronized(locker) {
+            if(awaitIdle() && !isConnected()) {
+                if(gatt == null) {
+                    gatt = bluetoothDevice.connectGatt(context, true, bluetoothGattCallback);
+                    rc = gatt != null;
+                } else {
+                    // Reconnection of an existing GATT client is always done in background
+                    rc = gatt.connect();
+                }
+            }
+        }
+
+        if(DEBUG) {
+            logi("connectInBackground() :: rc = " + rc);
+        }
+
+        return rc;
+    }
+
     /**
      * Trigger closing active connection with remote GATT.
      * <p/>
@@ -332,9 +483,13 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        GattOperationQueue.Aborted aborted;
 
         synchronized(locker) {
-            if(gatt != null && inBleOp == OP_NOOP) {
+            // Queued operations can't complete once disconnected, they are failed after leaving the lock
+            aborted = operationQueue.detachAll();
+
+            if(awaitIdle() && gatt != null) {
 
                 inBleOp = OP_CONNECT;
                 try {
@@ -342,7 +497,7 @@ public class BLEManager {
                     if(bleState != BLE_DISCONNECTED) {
                         callbackCompleted = false;
                         gatt.disconnect();
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(BLE_WAIT_TIMEOUT);
                         if(!callbackCompleted) {
                             error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
                         }
@@ -354,9 +509,13 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             }
         }
 
+        aborted.complete(BLE_ERROR_FAIL | BLE_DISCONNECTED);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("disconnect() :: rc = " + rc);
         }
@@ -381,17 +540,19 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        long startTime = SystemClock.elapsedRealtime();
         synchronized(locker) {
-            if(gatt != null && inBleOp == OP_NOOP) {
+            if(awaitIdle() && gatt != null) {
 
                 inBleOp = OP_DISCOVER_SERVICES;
                 error = 0;
                 try {
                     callbackCompleted = false;
                     if(gatt.discoverServices()) {
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(deadlinePolicy.getDeadline(OP_DISCOVER_SERVICES));
                         if(!callbackCompleted) {
                             error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
+                            operationQueue.onTimedOut(OP_DISCOVER_SERVICES, null);
                         }
 
                         rc = error | bleState;
@@ -401,9 +562,13 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             }
         }
 
+        recordOperation(OP_DISCOVER_SERVICES, startTime, rc);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("discoverServices() :: end : rc = " + rc);
         }
@@ -411,6 +576,105 @@ public class BLEManager {
         return rc;
     }
 
+    /**
+     * Negotiates ATT MTU with a remote device. Should be called after services are discovered.
+     * <p/>
+     * Simulating of synchronous request from asynchronous. For description of that process,
+     * and result encoding see {@link BLEManager#connect(boolean)}
+     * <p/>
+     * MTU negotiation is supported from Android 5.0. On older versions {@link #DEFAULT_MTU} stays in use.
+     * To negotiate from a GATT callback thread, submit {@link GattOperation#requestMtu(int, GattOperationCallback)}
+     * instead.
+     *
+     * @param requestedMtu Requested MTU, e.g. {@link #MAX_MTU}.
+     * @return Result of negotiation.
+     * @see #getMtu()
+     * @see #getMaxPayloadSize()
+     */
+    public int requestMtu(int requestedMtu) {
+        if(DEBUG) {
+            logi("requestMtu() :: start");
+        }
+
+        int rc = BLE_ERROR_NOOP;
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return rc;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+
+        synchronized(locker) {
+            if(awaitIdle() && gatt != null) {
+                inBleOp = OP_MTU_CHANGED;
+                error = 0;
+                try {
+                    callbackCompleted = false;
+                    if(gatt.requestMtu(requestedMtu)) {
+                        awaitCallback(deadlinePolicy.getDeadline(OP_MTU_CHANGED));
+                        if(!callbackCompleted) {
+                            error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
+                            operationQueue.onTimedOut(OP_MTU_CHANGED, null);
+                        }
+
+                        rc = error | bleState;
+                    }
+                } catch(InterruptedException e) {
+                    Log.e(TAG, e.toString());
+                }
+
+                inBleOp = OP_NOOP;
+                locker.notifyAll();
+            }
+        }
+
+        recordOperation(OP_MTU_CHANGED, startTime, rc);
+        operationQueue.startNext();
+
+        if(DEBUG) {
+            logi("requestMtu() :: end : rc = " + rc + " mtu = " + mtu);
+        }
+
+        return rc;
+    }
+
+    /**
+     * @return ATT MTU agreed with a remote device, or {@link #DEFAULT_MTU} if it wasn't negotiated.
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return Maximum number of bytes that can be written or notified in a single packet.
+     */
+    public int getMaxPayloadSize() {
+        return mtu - ATT_HEADER_SIZE;
+    }
+
+    /**
+     * Requests a connection parameter update. Use {@link #CONNECTION_PRIORITY_HIGH} for connection
+     * setup and bulk transfers, and {@link #CONNECTION_PRIORITY_BALANCED} or
+     * {@link #CONNECTION_PRIORITY_LOW_POWER} when the link is mostly idle.
+     * <p/>
+     * Request is applied immediately. To apply it after previously submitted operations,
+     * submit {@link GattOperation#requestConnectionPriority(int, GattOperationCallback)} instead.
+     * Supported from Android 5.0.
+     *
+     * @param priority Connection priority.
+     * @return True if request was sent.
+     */
+    public boolean requestConnectionPriority(int priority) {
+        BluetoothGatt gatt = this.gatt;
+        boolean rc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && gatt != null && gatt
+                .requestConnectionPriority(priority);
+
+        if(DEBUG) {
+            logi("requestConnectionPriority() :: priority = " + priority + " rc = " + rc);
+        }
+
+        return rc;
+    }
+
     public boolean isConnected() {
         return bleState == BLE_CONNECTED || bleState == BLE_SERVICES_DISCOVERED || bleState == (BLE_CONNECTED |
                 BLE_SERVICES_DISCOVERED);
@@ -432,19 +696,22 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        GattScheduler permit = acquirePermit(OP_WRITE_DESCRIPTOR);
+        long startTime = SystemClock.elapsedRealtime();
 
         synchronized(locker) {
-            if(gatt != null && inBleOp == OP_NOOP) {
+            if(awaitIdle() && gatt != null) {
 
                 inBleOp = OP_WRITE_DESCRIPTOR;
                 lastDescriptor = null;
                 error = 0;
                 try {
+                    callbackCompleted = false;
                     if(gatt.writeDescriptor(descriptor)) {
-                        callbackCompleted = false;
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(deadlinePolicy.getDeadline(OP_WRITE_DESCRIPTOR));
                         if(!callbackCompleted) {
                             error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
+                            operationQueue.onTimedOut(OP_WRITE_DESCRIPTOR, descriptor);
                         }
 
                         rc = error | bleState;
@@ -455,9 +722,14 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             }
         }
 
+        releasePermit(permit);
+        recordOperation(OP_WRITE_DESCRIPTOR, startTime, rc);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("writeDescriptor() :: end : rc = " + rc);
         }
@@ -481,9 +753,11 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        GattScheduler permit = acquirePermit(OP_READ_DESCRIPTOR);
+        long startTime = SystemClock.elapsedRealtime();
 
         synchronized(locker) {
-            if(gatt != null && inBleOp > OP_NOOP) {
+            if(awaitIdle() && gatt != null) {
 
                 inBleOp = OP_READ_DESCRIPTOR;
                 lastDescriptor = null;
@@ -491,9 +765,10 @@ public class BLEManager {
                 try {
                     callbackCompleted = false;
                     if(gatt.readDescriptor(descriptor)) {
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(deadlinePolicy.getDeadline(OP_READ_DESCRIPTOR));
                         if(!callbackCompleted) {
                             error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
+                            operationQueue.onTimedOut(OP_READ_DESCRIPTOR, descriptor);
                         }
 
                         rc = error | bleState;
@@ -503,9 +778,14 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             }
         }
 
+        releasePermit(permit);
+        recordOperation(OP_READ_DESCRIPTOR, startTime, rc);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("readDescriptor() :: end : rc = " + rc);
         }
@@ -529,18 +809,21 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        GattScheduler permit = acquirePermit(OP_WRITE_CHARACTERISTIC);
+        long startTime = SystemClock.elapsedRealtime();
 
         synchronized(locker) {
-            if(gatt != null && inBleOp == OP_NOOP) {
+            if(awaitIdle() && gatt != null) {
                 inBleOp = OP_WRITE_CHARACTERISTIC;
                 lastCharacteristic = null;
                 error = 0;
                 try {
                     callbackCompleted = false;
                     if(gatt.writeCharacteristic(characteristic)) {
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(deadlinePolicy.getDeadline(OP_WRITE_CHARACTERISTIC));
                         if(!callbackCompleted) {
                             error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
+                            operationQueue.onTimedOut(OP_WRITE_CHARACTERISTIC, characteristic);
                         }
 
                         rc = error | bleState;
@@ -556,12 +839,17 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             } else {
                 logi("Couldn't write to characteristic");
             }
 
         }
 
+        releasePermit(permit);
+        recordOperation(OP_WRITE_CHARACTERISTIC, startTime, rc);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("writeCharacteristic() :: end : rc = " + rc);
         }
@@ -585,9 +873,11 @@ public class BLEManager {
         }
 
         int rc = BLE_ERROR_NOOP;
+        GattScheduler permit = acquirePermit(OP_READ_CHARACTERISTIC);
+        long startTime = SystemClock.elapsedRealtime();
 
         synchronized(locker) {
-            if(gatt != null && inBleOp == OP_NOOP) {
+            if(awaitIdle() && gatt != null) {
 
                 inBleOp = OP_READ_CHARACTERISTIC;
                 lastCharacteristic = null;
@@ -596,9 +886,10 @@ public class BLEManager {
                 try {
                     callbackCompleted = false;
                     if(gatt.readCharacteristic(characteristic)) {
-                        locker.wait(BLE_WAIT_TIMEOUT);
+                        awaitCallback(deadlinePolicy.getDeadline(OP_READ_CHARACTERISTIC));
                         if(!callbackCompleted) {
                             error = (BLE_ERROR_FAIL | BLE_ERROR_TIMEOUT);
+                            operationQueue.onTimedOut(OP_READ_CHARACTERISTIC, characteristic);
                         } else {
                             bleState = this.bleState;
                         }
@@ -610,9 +901,14 @@ public class BLEManager {
                 }
 
                 inBleOp = OP_NOOP;
+                locker.notifyAll();
             }
         }
 
+        releasePermit(permit);
+        recordOperation(OP_READ_CHARACTERISTIC, startTime, rc);
+        operationQueue.startNext();
+
         if(DEBUG) {
             logi("readCharacteristic() :: end : rc = " + rc);
         }
@@ -654,6 +950,203 @@ public class BLEManager {
         return writeDescriptor(descriptor) | rc;
     }
 
+    /**
+     * Submits an operation to the queue of asynchronous operations. Operation is started as soon as
+     * all previously submitted operations are completed. Its callback is invoked from the bluetooth
+     * GATT callback thread, so it shouldn't block.
+     * <p/>
+     * Synchronous methods of the manager wait for a queued operation in flight to complete, and pending
+     * operations wait for them in turn. {@link #disconnect()} fails all queued operations,
+     * {@link #reset()} lets them complete first.
+     *
+     * @param operation Operation to submit.
+     */
+    public void submit(GattOperation operation) {
+        operationQueue.submit(operation);
+    }
+
+    /**
+     * Waits until neither a synchronous request nor a queued operation is in flight, and no late callback
+     * of a timed out request is expected. Pending queued operations aren't started meanwhile, so the caller
+     * goes next. Must be called holding {@link #locker}.
+     *
+     * @return True if nothing is in flight, false if waiting timed out or was interrupted.
+     */
+    private boolean awaitIdle() {
+        long deadline = SystemClock.elapsedRealtime() + BLE_WAIT_TIMEOUT;
+
+        idleWaiters++;
+        try {
+            while(inBleOp != OP_NOOP || !operationQueue.isIdle() || operationQueue.isAwaitingLateCallback()) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if(remaining <= 0) {
+                    Log.w(TAG, "awaitIdle() :: timed out, operation in flight = " + inBleOp + "/" +
+                            operationQueue.getCurrentType());
+                    return false;
+                }
+
+                locker.wait(remaining);
+            }
+
+            return true;
+        } catch(InterruptedException e) {
+            Log.e(TAG, e.toString());
+            return false;
+        } finally {
+            idleWaiters--;
+        }
+    }
+
+    /**
+     * Waits until all queued operations are completed, pending ones included.
+     *
+     * @param timeout Maximal time to wait, in milliseconds.
+     */
+    private void awaitQueueDrained(long timeout) {
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+
+        synchronized(locker) {
+            try {
+                while(!operationQueue.isEmpty()) {
+                    long remaining = deadline - SystemClock.elapsedRealtime();
+                    if(remaining <= 0) {
+                        Log.w(TAG, "awaitQueueDrained() :: timed out");
+                        return;
+                    }
+
+                    locker.wait(remaining);
+                }
+            } catch(InterruptedException e) {
+                Log.e(TAG, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Waits for the callback of a synchronous request. Other threads waiting for {@link #locker}
+     * may wake the caller earlier, so it waits again until the callback is completed or time is up.
+     * Must be called holding {@link #locker}.
+     *
+     * @param timeout Maximal time to wait, in milliseconds.
+     * @throws InterruptedException If waiting thread was interrupted.
+     */
+    private void awaitCallback(long timeout) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        long remaining = timeout;
+        while(!callbackCompleted && remaining > 0) {
+            locker.wait(remaining);
+            remaining = deadline - SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Records result of a synchronous request to statistics and deadline estimates.
+     *
+     * @param operation Operation code.
+     * @param startTime Time the request was started, see {@link SystemClock#elapsedRealtime()}.
+     * @param rc        Result of the request.
+     */
+    private void recordOperation(int operation, long startTime, int rc) {
+        long latency = SystemClock.elapsedRealtime() - startTime;
+        statistics.record(operation, latency, rc);
+        deadlinePolicy.onResult(operation, latency, rc);
+        statistics.setLastDeadline(operation, deadlinePolicy.getLastDeadline(operation));
+    }
+
+    /**
+     * Sets a scheduler that limits concurrent GATT operations across several managers, see
+     * {@link ConnectionPool}. Must be set before the manager is used.
+     *
+     * @param scheduler Scheduler to take permits from, or null to run operations without permits.
+     */
+    public void setGattScheduler(@Nullable GattScheduler scheduler) {
+        this.gattScheduler = scheduler;
+        operationQueue.setScheduler(scheduler);
+    }
+
+    /**
+     * Takes a permit for a synchronous read or write. Connecting, discovering services and requesting
+     * MTU don't take one. If no permit becomes available in time, the request proceeds without it, so
+     * a stuck connection can't block other ones forever.
+     *
+     * @param operation Operation code.
+     * @return Scheduler the permit was taken from, or null if no permit was taken.
+     */
+    @Nullable
+    private GattScheduler acquirePermit(int operation) {
+        GattScheduler scheduler = gattScheduler;
+        if(scheduler == null) {
+            return null;
+        }
+
+        try {
+            if(scheduler.acquire(BLE_WAIT_TIMEOUT)) {
+                return scheduler;
+            }
+
+            Log.w(TAG, "No GATT permit for operation " + operation + ", proceeding anyway");
+        } catch(InterruptedException e) {
+            Log.e(TAG, e.toString());
+        }
+
+        return null;
+    }
+
+    private static void releasePermit(@Nullable GattScheduler permit) {
+        if(permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * @return Number of queued operations started again after they timed out.
+     */
+    public long getRetryCount() {
+        return operationQueue.getRetryCount();
+    }
+
+    /**
+     * @return Number of callbacks that came after their request had timed out, and were dropped.
+     */
+    public long getLateCallbackCount() {
+        return operationQueue.getLateCallbackCount();
+    }
+
+    public DeadlinePolicy getDeadlinePolicy() {
+        return deadlinePolicy;
+    }
+
+    /**
+     * @return Latency histograms and result counters of operations performed by this manager.
+     */
+    public GattStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Creates a writer that streams values to a given characteristic using write without response,
+     * with at most a given number of writes in flight.
+     *
+     * @param characteristic Characteristic to write.
+     * @param window         Maximum number of writes in flight.
+     * @return Streaming writer bound to this manager.
+     */
+    public StreamingWriter createStreamingWriter(BluetoothGattCharacteristic characteristic, int window) {
+        return new StreamingWriter(this, characteristic, window);
+    }
+
+    /**
+     * Completes an operation submitted via {@link #submit(GattOperation)}, if such operation is in flight.
+     *
+     * @param operation Operation code.
+     * @param target    Characteristic or descriptor reported by GATT callback, or null.
+     * @param status    GATT status of the operation.
+     */
+    private void completeQueuedOperation(int operation, @Nullable Object target, int status) {
+        int error = (status == BluetoothGatt.GATT_SUCCESS) ? BLE_ERROR_OK : BLE_ERROR_FAIL;
+        operationQueue.onOperationCompleted(operation, target, error | bleState);
+    }
+
     /**
      * Callback for handling bluetooth GATT interaction.
      */
@@ -662,6 +1155,7 @@ public class BLEManager {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             super.onConnectionStateChange(gatt, status, newState);
+            statistics.setLastGattStatus(OP_CONNECT, status);
 
             if(DEBUG) {
                 logi("BluetoothGattCallback.onConnectionStateChange() :: start : status = " + status + " newState = " +
@@ -679,6 +1173,7 @@ public class BLEManager {
                         state = BLE_CONNECTED;
                     } else if(newState == BluetoothProfile.STATE_DISCONNECTED) {
                         state = BLE_DISCONNECTED;
+                        mtu = DEFAULT_MTU;
                         if(gatt != null) {
                             if(DEBUG) {
                                 logi("onConnectionStateChange() :: gatt != null : closing gatt");
@@ -704,6 +1199,8 @@ public class BLEManager {
                 error = BLE_ERROR_FAIL;
             }
 
+            boolean queuedConnect = false;
+
             synchronized(locker) {
                 if(inBleOp == OP_CONNECT) {
                     if(DEBUG) {
@@ -716,7 +1213,15 @@ public class BLEManager {
                     callbackCompleted = true;
                     BLEManager.this.error = error;
                     extendedError = status;
-                    locker.notify();
+                    locker.notifyAll();
+                } else if(operationQueue.getCurrentType() == OP_CONNECT) {
+                    if(DEBUG) {
+                        logi("BluetoothGattCallback.onConnectionStateChange() :: queued OP_CONNECT");
+                    }
+
+                    bleState = state;
+                    extendedError = status;
+                    queuedConnect = true;
                 } else {
                     if(DEBUG) {
                         logi("onConnectionStateChange() :: inBleOp != OP_CONNECT");
@@ -730,20 +1235,31 @@ public class BLEManager {
                     logi("BluetoothGattCallback.onConnectionStateChange() :: end");
                 }
             }
+
+            if(queuedConnect) {
+                operationQueue.onOperationCompleted(OP_CONNECT, null, error | state);
+            } else if(state == BLE_DISCONNECTED) {
+                operationQueue.abort(BLE_ERROR_FAIL | BLE_DISCONNECTED);
+            }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
             super.onServicesDiscovered(gatt, status);
+            statistics.setLastGattStatus(OP_DISCOVER_SERVICES, status);
 
             int state = BLE_SERVICES_DISCOVERED;
+            boolean handledSynchronously = false;
+            boolean lateCallback = false;
 
             synchronized(locker) {
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onServicesDiscovered() :: start : status = " + status);
                 }
 
-                if(inBleOp == OP_DISCOVER_SERVICES) {
+                if(operationQueue.consumeLateCallback(OP_DISCOVER_SERVICES, null)) {
+                    lateCallback = true;
+                } else if(inBleOp == OP_DISCOVER_SERVICES) {
                     if(DEBUG) {
                         logi("BluetoothGattCallback.onServicesDiscovered() :: inBleOp == OP_DISCOVER_SERVICES");
                     }
@@ -756,25 +1272,44 @@ public class BLEManager {
                     }
 
                     callbackCompleted = true;
-                    locker.notify();
+                    handledSynchronously = true;
+                    locker.notifyAll();
+                } else if(operationQueue.getCurrentType() == OP_DISCOVER_SERVICES) {
+                    if(status == BluetoothGatt.GATT_SUCCESS) {
+                        bleState |= state;
+                    } else {
+                        bleState &= (~state);
+                    }
                 }
 
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onServicesDiscovered() :: end");
                 }
             }
+
+            if(lateCallback) {
+                operationQueue.startNext();
+            } else if(!handledSynchronously) {
+                completeQueuedOperation(OP_DISCOVER_SERVICES, null, status);
+            }
         }
 
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicRead(gatt, characteristic, status);
+            statistics.setLastGattStatus(OP_READ_CHARACTERISTIC, status);
+
+            boolean handledSynchronously = false;
+            boolean lateCallback = false;
 
             synchronized(locker) {
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onCharacteristicRead() :: start : status = " + status);
                 }
 
-                if(inBleOp == OP_READ_CHARACTERISTIC) {
+                if(operationQueue.consumeLateCallback(OP_READ_CHARACTERISTIC, characteristic)) {
+                    lateCallback = true;
+                } else if(inBleOp == OP_READ_CHARACTERISTIC) {
                     if(DEBUG) {
                         logi("BluetoothGattCallback.onCharacteristicRead() :: inBleOp == OP_READ_CHARACTERISTIC");
                     }
@@ -787,25 +1322,38 @@ public class BLEManager {
 
                     lastCharacteristic = characteristic;
                     callbackCompleted = true;
-                    locker.notify();
+                    handledSynchronously = true;
+                    locker.notifyAll();
                 }
 
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onCharacteristicRead() :: end");
                 }
             }
+
+            if(lateCallback) {
+                operationQueue.startNext();
+            } else if(!handledSynchronously) {
+                completeQueuedOperation(OP_READ_CHARACTERISTIC, characteristic, status);
+            }
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicWrite(gatt, characteristic, status);
+            statistics.setLastGattStatus(OP_WRITE_CHARACTERISTIC, status);
+
+            boolean handledSynchronously = false;
+            boolean lateCallback = false;
 
             synchronized(locker) {
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onCharacteristicWrite() :: start : status = " + status);
                 }
 
-                if(inBleOp == OP_WRITE_CHARACTERISTIC) {
+                if(operationQueue.consumeLateCallback(OP_WRITE_CHARACTERISTIC, characteristic)) {
+                    lateCallback = true;
+                } else if(inBleOp == OP_WRITE_CHARACTERISTIC) {
                     if(DEBUG) {
                         logi("BluetoothGattCallback.onCharacteristicWrite() :: inBleOp == OP_WRITE_CHARACTERISTIC");
                     }
@@ -818,13 +1366,20 @@ public class BLEManager {
 
                     lastCharacteristic = characteristic;
                     callbackCompleted = true;
-                    locker.notify();
+                    handledSynchronously = true;
+                    locker.notifyAll();
                 }
 
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onCharacteristicWrite() :: end");
                 }
             }
+
+            if(lateCallback) {
+                operationQueue.startNext();
+            } else if(!handledSynchronously) {
+                completeQueuedOperation(OP_WRITE_CHARACTERISTIC, characteristic, status);
+            }
         }
 
         @Override
@@ -844,13 +1399,19 @@ public class BLEManager {
         @Override
         public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             super.onDescriptorRead(gatt, descriptor, status);
+            statistics.setLastGattStatus(OP_READ_DESCRIPTOR, status);
+
+            boolean handledSynchronously = false;
+            boolean lateCallback = false;
 
             synchronized(locker) {
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onDescriptorRead() :: start : status = " + status);
                 }
 
-                if(inBleOp == OP_READ_DESCRIPTOR) {
+                if(operationQueue.consumeLateCallback(OP_READ_DESCRIPTOR, descriptor)) {
+                    lateCallback = true;
+                } else if(inBleOp == OP_READ_DESCRIPTOR) {
                     if(DEBUG) {
                         logi("BluetoothGattCallback.onDescriptorRead() :: inBleOp == OP_READ_DESCRIPTOR");
                     }
@@ -862,25 +1423,38 @@ public class BLEManager {
 
                     lastDescriptor = descriptor;
                     callbackCompleted = true;
-                    locker.notify();
+                    handledSynchronously = true;
+                    locker.notifyAll();
                 }
 
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onDescriptorRead() :: end");
                 }
             }
+
+            if(lateCallback) {
+                operationQueue.startNext();
+            } else if(!handledSynchronously) {
+                completeQueuedOperation(OP_READ_DESCRIPTOR, descriptor, status);
+            }
         }
 
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             super.onDescriptorWrite(gatt, descriptor, status);
+            statistics.setLastGattStatus(OP_WRITE_DESCRIPTOR, status);
+
+            boolean handledSynchronously = false;
+            boolean lateCallback = false;
 
             synchronized(locker) {
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onDescriptorWrite() :: start : status = " + status);
                 }
 
-                if(inBleOp == OP_WRITE_DESCRIPTOR) {
+                if(operationQueue.consumeLateCallback(OP_WRITE_DESCRIPTOR, descriptor)) {
+                    lateCallback = true;
+                } else if(inBleOp == OP_WRITE_DESCRIPTOR) {
                     if(DEBUG) {
                         logi("BluetoothGattCallback.onDescriptorWrite() :: inBleOp == OP_WRITE_DESCRIPTOR");
                     }
@@ -893,13 +1467,20 @@ public class BLEManager {
 
                     lastDescriptor = descriptor;
                     callbackCompleted = true;
-                    locker.notify();
+                    handledSynchronously = true;
+                    locker.notifyAll();
                 }
 
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onDescriptorWrite() :: end");
                 }
             }
+
+            if(lateCallback) {
+                operationQueue.startNext();
+            } else if(!handledSynchronously) {
+                completeQueuedOperation(OP_WRITE_DESCRIPTOR, descriptor, status);
+            }
         }
 
         @Override
@@ -918,7 +1499,7 @@ public class BLEManager {
                 }
 
                 callbackCompleted = true;
-                locker.notify();
+                locker.notifyAll();
 
                 if(DEBUG) {
                     logi("BluetoothGattCallback.onReliableWriteCompleted() :: end");
@@ -929,6 +1510,7 @@ public class BLEManager {
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
             super.onReadRemoteRssi(gatt, rssi, status);
+            statistics.setLastGattStatus(OP_READ_REMOTE_RSSI, status);
 
             synchronized(locker) {
                 if(DEBUG) {
@@ -948,7 +1530,7 @@ public class BLEManager {
 
                     BLEManager.this.rssi = rssi;
                     callbackCompleted = true;
-                    locker.notify();
+                    locker.notifyAll();
                 }
 
                 if(DEBUG) {
@@ -960,6 +1542,10 @@ public class BLEManager {
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
             super.onMtuChanged(gatt, mtu, status);
+            statistics.setLastGattStatus(OP_MTU_CHANGED, status);
+
+            boolean handledSynchronously = false;
+            boolean lateCallback = false;
 
             synchronized(locker) {
                 if(DEBUG) {
@@ -968,14 +1554,29 @@ public class BLEManager {
 
                 if(status == BluetoothGatt.GATT_SUCCESS) {
                     error = BLE_ERROR_OK;
+                    BLEManager.this.mtu = mtu;
                 } else {
                     error = BLE_ERROR_FAIL;
                 }
 
+                if(operationQueue.consumeLateCallback(OP_MTU_CHANGED, null)) {
+                    lateCallback = true;
+                } else if(inBleOp == OP_MTU_CHANGED) {
+                    callbackCompleted = true;
+                    handledSynchronously = true;
+                    locker.notifyAll();
+                }
+
                 if(DEBUG) {
-                    logi("BluetoothGattCallback.onMtuChanged() :: end");
+                    logi("BluetoothGattCallback.onMtuChanged() :: end : mtu = " + mtu);
                 }
             }
+
+            if(lateCallback) {
+                operationQueue.startNext();
+            } else if(!handledSynchronously) {
+                completeQueuedOperation(OP_MTU_CHANGED, null, status);
+            }
         }
     };
 }
\ No newline at end of file
@@ -88,30 +88,6 @@ public class BluetoothUtils {
         return (zenMode != 0);
     }
 
-    public static void updateFirmwareMicrobit(Context ctx, String firmware) {
-        SharedPreferences pairedDevicePref = ctx.getApplicationContext().getSharedPreferences(PREFERENCES_KEY,
-                Context.MODE_MULTI_PROCESS);
-        if(pairedDevicePref.contains(PREFERENCES_PAIREDDEV_KEY)) {
-            String pairedDeviceString = pairedDevicePref.getString(PREFERENCES_PAIREDDEV_KEY, null);
-            Log.v("BluetoothUtils", "Updating the microbit firmware");
-            ConnectedDevice deviceInSharedPref = new Gson().fromJson(pairedDeviceString, ConnectedDevice.class);
-            deviceInSharedPref.mfirmware_version = firmware;
-            setPairedMicroBit(ctx, deviceInSharedPref);
-        }
-    }
-
-    public static void updateConnectionStartTime(Context ctx, long time) {
-        SharedPreferences pairedDevicePref = ctx.getApplicationContext().getSharedPreferences(PREFERENCES_KEY,
-                Context.MODE_MULTI_PROCESS);
-        if(pairedDevicePref.contains(PREFERENCES_PAIREDDEV_KEY)) {
-            String pairedDeviceString = pairedDevicePref.getString(PREFERENCES_PAIREDDEV_KEY, null);
-            Log.e("BluetoothUtils", "Updating the microbit firmware");
-            ConnectedDevice deviceInSharedPref = new Gson().fromJson(pairedDeviceString, ConnectedDevice.class);
-            deviceInSharedPref.mlast_connection_time = time;
-            setPairedMicroBit(ctx, deviceInSharedPref);
-        }
-    }
-
     public static BluetoothDevice getPairedDeviceMicroBit(Context context) {
         SharedPreferences pairedDevicePref = context.getApplicationContext().getSharedPreferences(PREFERENCES_KEY,
                 Context.MODE_MULTI_PROCESS);
@@ -147,6 +123,7 @@ public class BluetoothUtils {
             String pairedDeviceString = pairedDevicePref.getString(PREFERENCES_PAIREDDEV_KEY, null);
             Gson gson = new Gson();
             sConnectedDevice = gson.fromJson(pairedDeviceString, ConnectedDevice.class);
+            ConnectionStateStore.getInstance().applyTo(sConnectedDevice);
             //Check if the microbit is still paired with our mobile
             BluetoothAdapter mBluetoothAdapter = ((BluetoothManager) MBApp.getApp().getSystemService(Context
                     .BLUETOOTH_SERVICE)).getAdapter();
@@ -188,6 +165,8 @@ public class BluetoothUtils {
                 Context.MODE_MULTI_PROCESS);
         SharedPreferences.Editor editor = pairedDevicePref.edit();
         if(newDevice == null) {
+            // Pending state of the forgotten micro:bit mustn't be written back
+            ConnectionStateStore.getInstance().forget();
             editor.clear();
         } else {
             Gson gson = new Gson();
@@ -0,0 +1,305 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Connections to several micro:bits, keyed by device address.
+ * <p/>
+ * Each connection keeps its own {@link BLEManager}, notification subscriptions and health state.
+ * All managers of the pool share a single {@link GattScheduler}, which limits the number of GATT
+ * reads and writes running at the same time, so a busy board can't starve the others. Connecting
+ * doesn't take a permit, so reconnecting sleeping boards doesn't starve the primary one.
+ */
+public class ConnectionPool {
+
+    /**
+     * Android stacks usually can't keep more simultaneous LE connections.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+    public static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 2;
+
+    /**
+     * Connection to a single device.
+     */
+    public static final class Connection {
+        public static final int STATE_DISCONNECTED = 0;
+        public static final int STATE_CONNECTING = 1;
+        public static final int STATE_READY = 2;
+        public static final int STATE_FAILED = 3;
+
+        private final int id;
+        private final String address;
+
+        private volatile BLEManager manager;
+        private volatile EventIngestStage ingestStage;
+
+        private final Set<UUID> subscriptions = Collections.synchronizedSet(new HashSet<UUID>());
+
+        private volatile int state = STATE_DISCONNECTED;
+        private volatile long connectedSince;
+        private volatile long lastEventTime;
+        private volatile int failureCount;
+        private volatile long eventCount;
+
+        private volatile long setupStartTime;
+        private volatile long setupReadyTime;
+        private volatile long firstEventTime;
+
+        private Connection(int id, String address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        /**
+         * @return Identifier of the connection, unique within the pool.
+         */
+        public int getId() {
+            return id;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        @Nullable
+        public BLEManager getManager() {
+            return manager;
+        }
+
+        public void setManager(@Nullable BLEManager manager) {
+            this.manager = manager;
+        }
+
+        /**
+         * @return Ingest stage of events of this connection, or null if events are ingested elsewhere.
+         */
+        @Nullable
+        public EventIngestStage getIngestStage() {
+            return ingestStage;
+        }
+
+        public void setIngestStage(@Nullable EventIngestStage ingestStage) {
+            this.ingestStage = ingestStage;
+        }
+
+        public void onConnecting() {
+            state = STATE_CONNECTING;
+            setupStartTime = SystemClock.elapsedRealtime();
+            setupReadyTime = 0;
+            firstEventTime = 0;
+        }
+
+        /**
+         * Marks that connection setup requests are completed, see {@link ConnectionSetupPlan#getReadyTime()}.
+         *
+         * @param readyTime Time setup was completed, see {@link SystemClock#elapsedRealtime()}.
+         */
+        public void onSetupReady(long readyTime) {
+            setupReadyTime = readyTime;
+        }
+
+        public void onReady() {
+            state = STATE_READY;
+            connectedSince = System.currentTimeMillis();
+            failureCount = 0;
+        }
+
+        public void onDisconnected() {
+            state = STATE_DISCONNECTED;
+            connectedSince = 0;
+            subscriptions.clear();
+        }
+
+        public void onFailed() {
+            state = STATE_FAILED;
+            connectedSince = 0;
+            failureCount++;
+            subscriptions.clear();
+        }
+
+        /**
+         * Marks that a notification was received. Called on the bluetooth callback thread, so it only
+         * updates counters.
+         */
+        public void onEvent() {
+            lastEventTime = System.currentTimeMillis();
+            eventCount++;
+
+            if(firstEventTime == 0 && setupStartTime != 0) {
+                firstEventTime = SystemClock.elapsedRealtime();
+            }
+        }
+
+        public int getState() {
+            return state;
+        }
+
+        public boolean isReady() {
+            return state == STATE_READY;
+        }
+
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * @return Time from start of connecting to completed setup requests in milliseconds, or -1 if not known.
+         */
+        public long getTimeToReady() {
+            long ready = setupReadyTime;
+            return ready != 0 && setupStartTime != 0 ? ready - setupStartTime : -1;
+        }
+
+        /**
+         * @return Time from start of connecting to the first event in milliseconds, or -1 if not known.
+         */
+        public long getTimeToFirstEvent() {
+            long firstEvent = firstEventTime;
+            return firstEvent != 0 && setupStartTime != 0 ? firstEvent - setupStartTime : -1;
+        }
+
+        /**
+         * Remembers a characteristic the connection is subscribed to or unsubscribed from.
+         *
+         * @param characteristic Characteristic UUID.
+         * @param subscribed     True if notifications are enabled.
+         */
+        public void setSubscribed(UUID characteristic, boolean subscribed) {
+            if(subscribed) {
+                subscriptions.add(characteristic);
+            } else {
+                subscriptions.remove(characteristic);
+            }
+        }
+
+        private static String stateName(int state) {
+            switch(state) {
+                case STATE_DISCONNECTED:
+                    return "DISCONNECTED";
+                case STATE_CONNECTING:
+                    return "CONNECTING";
+                case STATE_READY:
+                    return "READY";
+                case STATE_FAILED:
+                    return "FAILED";
+                default:
+                    return String.valueOf(state);
+            }
+        }
+
+        @Override
+        public String toString() {
+            long now = System.currentTimeMillis();
+            return "Connection{id=" + id +
+                    ", address=" + address +
+                    ", state=" + stateName(state) +
+                    ", uptime=" + (connectedSince != 0 ? (now - connectedSince) + "ms" : "-") +
+                    ", lastEvent=" + (lastEventTime != 0 ? (now - lastEventTime) + "ms ago" : "-") +
+                    ", events=" + eventCount +
+                    ", timeToReady=" + getTimeToReady() + "ms" +
+                    ", timeToFirstEvent=" + getTimeToFirstEvent() + "ms" +
+                    ", failures=" + failureCount +
+                    ", subscriptions=" + subscriptions.size() +
+                    '}';
+        }
+    }
+
+    private final int maxConnections;
+    private final GattScheduler scheduler;
+
+    private final Map<String, Connection> connections = new LinkedHashMap<>();
+    private int nextId = 1;
+
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONCURRENT_OPERATIONS);
+    }
+
+    /**
+     * @param maxConnections          Maximal number of connections in the pool.
+     * @param maxConcurrentOperations Maximal number of GATT reads and writes running at the same time across connections.
+     */
+    public ConnectionPool(int maxConnections, int maxConcurrentOperations) {
+        this.maxConnections = maxConnections;
+        this.scheduler = new GattScheduler(maxConcurrentOperations);
+    }
+
+    /**
+     * Returns a connection to a device, adding it to the pool if needed.
+     *
+     * @param address Device address.
+     * @return Connection, or null if the pool is full.
+     */
+    @Nullable
+    public synchronized Connection obtain(String address) {
+        Connection connection = connections.get(address);
+        if(connection == null) {
+            if(connections.size() >= maxConnections) {
+                return null;
+            }
+
+            connection = new Connection(nextId++, address);
+            connections.put(address, connection);
+        }
+
+        return connection;
+    }
+
+    @Nullable
+    public synchronized Connection get(String address) {
+        return address != null ? connections.get(address) : null;
+    }
+
+    /**
+     * Removes a connection from the pool. Its manager should be reset by the caller.
+     *
+     * @param address Device address.
+     * @return Removed connection, or null if there was no one.
+     */
+    @Nullable
+    public synchronized Connection remove(String address) {
+        return connections.remove(address);
+    }
+
+    /**
+     * @return Snapshot of connections in the order they were added.
+     */
+    public synchronized List<Connection> getConnections() {
+        return new ArrayList<>(connections.values());
+    }
+
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    /**
+     * @return Scheduler to be set to managers of the pool, see {@link BLEManager#setGattScheduler(GattScheduler)}.
+     */
+    public GattScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Prints state of the pool and its connections.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + scheduler);
+        for(Connection connection : getConnections()) {
+            writer.println(prefix + connection);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.samsung.microbit.data.constants.CharacteristicUUIDs;
+import com.samsung.microbit.data.constants.GattFormats;
+import com.samsung.microbit.data.constants.UUIDs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered batch of GATT writes needed to set up a connection. The whole batch is submitted to
+ * the operation queue of {@link BLEManager} at once, so writes follow each other without waiting
+ * for a calling thread, and a single ready time is reported once the last of them is completed.
+ */
+public class ConnectionSetupPlan {
+
+    /**
+     * Notified once all operations of a plan are completed.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread that completed the last operation, usually the bluetooth GATT callback thread.
+         *
+         * @param plan Completed plan.
+         */
+        void onReady(ConnectionSetupPlan plan);
+    }
+
+    private final List<GattOperation> operations = new ArrayList<>();
+
+    @Nullable
+    private final GattOperationCallback callback;
+    private Listener listener;
+
+    private int remaining;
+    private int failedCount;
+    private volatile long startTime;
+    private volatile long readyTime;
+
+    private final GattOperationCallback stepCallback = new GattOperationCallback() {
+        @Override
+        public void onOperationCompleted(GattOperation operation, int result) {
+            if(callback != null) {
+                callback.onOperationCompleted(operation, result);
+            }
+
+            Listener readyListener = null;
+
+            synchronized(ConnectionSetupPlan.this) {
+                if(!GattOperation.isSuccessful(result)) {
+                    failedCount++;
+                }
+
+                if(--remaining == 0) {
+                    readyTime = SystemClock.elapsedRealtime();
+                    readyListener = listener;
+                }
+            }
+
+            if(readyListener != null) {
+                readyListener.onReady(ConnectionSetupPlan.this);
+            }
+        }
+    };
+
+    /**
+     * @param callback Callback notified about each operation of the plan, may be null.
+     */
+    public ConnectionSetupPlan(@Nullable GattOperationCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Builds a plan for micro:bit event service. Events are what users wait for, so writes needed
+     * to receive them go first: client requirements, then micro:bit event notifications, then
+     * micro:bit requirements notifications.
+     *
+     * @param eventService       Event service of micro:bit.
+     * @param clientRequirements Event categories to register for. Skipped when disabling.
+     * @param enable             Enable or disable notifications.
+     * @param callback           Callback notified about each operation of the plan, may be null.
+     * @return Plan, possibly empty if the service misses characteristics.
+     */
+    public static ConnectionSetupPlan forEventService(BluetoothGattService eventService, int[] clientRequirements,
+                                                      boolean enable, @Nullable GattOperationCallback callback) {
+        ConnectionSetupPlan plan = new ConnectionSetupPlan(callback);
+
+        BluetoothGattCharacteristic requirements = eventService.getCharacteristic(CharacteristicUUIDs
+                .ES_CLIENT_REQUIREMENTS);
+        if(enable && requirements != null) {
+            for(int requirement : clientRequirements) {
+                plan.addWrite(requirements, requirement, GattFormats.FORMAT_UINT32);
+            }
+        }
+
+        plan.addNotification(eventService.getCharacteristic(CharacteristicUUIDs.ES_MICROBIT_EVENT), enable);
+        plan.addNotification(eventService.getCharacteristic(CharacteristicUUIDs.ES_MICROBIT_REQUIREMENTS), enable);
+
+        return plan;
+    }
+
+    /**
+     * Adds a characteristic write.
+     *
+     * @param characteristic Characteristic to write.
+     * @param value          Value to write.
+     * @param formatType     Format of the value, e.g. {@link GattFormats#FORMAT_UINT32}.
+     */
+    public void addWrite(BluetoothGattCharacteristic characteristic, int value, int formatType) {
+        operations.add(GattOperation.writeCharacteristic(characteristic, value, formatType, stepCallback));
+    }
+
+    /**
+     * Adds enabling or disabling of notifications of a characteristic, if it has a client
+     * configuration descriptor.
+     *
+     * @param characteristic Characteristic, may be null.
+     * @param enable         Enable or disable notifications.
+     * @return True if operation was added.
+     */
+    public boolean addNotification(@Nullable BluetoothGattCharacteristic characteristic, boolean enable) {
+        BluetoothGattDescriptor descriptor = characteristic != null ? characteristic.getDescriptor(UUIDs
+                .CLIENT_DESCRIPTOR) : null;
+        if(descriptor == null) {
+            return false;
+        }
+
+        operations.add(GattOperation.enableCharacteristicNotification(characteristic, descriptor, enable,
+                stepCallback));
+        return true;
+    }
+
+    /**
+     * Checks if the plan enables notifications of a given characteristic.
+     *
+     * @param characteristic Characteristic to check.
+     * @return True if there is an operation on a descriptor of the characteristic.
+     */
+    public boolean hasNotification(BluetoothGattCharacteristic characteristic) {
+        for(GattOperation operation : operations) {
+            if(operation.getDescriptor() != null && operation.getCharacteristic() == characteristic) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Submits all operations to a manager. A plan can be submitted only once.
+     *
+     * @param manager  Manager to submit operations to.
+     * @param listener Listener to notify once all operations are completed, may be null.
+     */
+    public void submit(BLEManager manager, @Nullable Listener listener) {
+        boolean empty;
+
+        synchronized(this) {
+            if(startTime != 0) {
+                throw new IllegalStateException("Plan is already submitted");
+            }
+
+            this.listener = listener;
+            startTime = SystemClock.elapsedRealtime();
+            remaining = operations.size();
+            empty = remaining == 0;
+            if(empty) {
+                readyTime = startTime;
+            }
+        }
+
+        if(empty) {
+            if(listener != null) {
+                listener.onReady(this);
+            }
+
+            return;
+        }
+
+        for(GattOperation operation : operations) {
+            manager.submit(operation);
+        }
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public boolean isReady() {
+        return readyTime != 0;
+    }
+
+    /**
+     * @return Time the plan was submitted, see {@link SystemClock#elapsedRealtime()}, or 0.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Time the last operation was completed, see {@link SystemClock#elapsedRealtime()}, or 0.
+     */
+    public long getReadyTime() {
+        return readyTime;
+    }
+
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConnectionSetupPlan{operations=" + operations.size() +
+                ", remaining=" + remaining +
+                ", failed=" + failedCount +
+                ", duration=" + (readyTime != 0 ? (readyTime - startTime) + "ms" : "-") +
+                '}';
+    }
+}
@@ -0,0 +1,359 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.model.ConnectedDevice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * In-memory state of the connection to the paired micro:bit: connection status, firmware, last
+ * error and micro:bit requests not yet seen by observers.
+ * <p/>
+ * State is updated by {@link com.samsung.microbit.service.IPCService} from any thread. Observers are
+ * notified on the main thread, and updates that come before a notification is delivered are merged
+ * into it. Changes of the paired device are written to preferences lazily, and until then
+ * {@link BluetoothUtils#getPairedMicrobit(Context)} reads them from here. They are written only to the
+ * device still stored in preferences, and dropped when the device is forgotten.
+ */
+public final class ConnectionStateStore {
+    private static final String TAG = ConnectionStateStore.class.getSimpleName();
+
+    public static final int CHANGED_CONNECTION = 1;
+    public static final int CHANGED_FIRMWARE = 1 << 1;
+    public static final int CHANGED_REQUESTS = 1 << 2;
+
+    /**
+     * Delay of writing changes to preferences, so a burst of them is written once.
+     */
+    private static final long PERSIST_DELAY = 2000;
+
+    /**
+     * Observer of connection state.
+     */
+    public interface Observer {
+        /**
+         * Called on the main thread.
+         *
+         * @param update Merged changes since the previous notification.
+         */
+        void onConnectionStateChanged(Update update);
+    }
+
+    /**
+     * Snapshot of connection state with changes since the previous notification.
+     */
+    public static final class Update {
+        /**
+         * What has changed, e.g. {@link #CHANGED_CONNECTION}.
+         */
+        public final int changes;
+        public final boolean connected;
+        public final int errorCode;
+        @Nullable
+        public final String errorMessage;
+        @Nullable
+        public final String firmware;
+        /**
+         * micro:bit requests came since the previous notification, e.g.
+         * {@link EventCategories#IPC_BLE_NOTIFICATION_INCOMING_CALL}.
+         */
+        public final int[] requests;
+
+        private Update(int changes, boolean connected, int errorCode, String errorMessage, String firmware,
+                       int[] requests) {
+            this.changes = changes;
+            this.connected = connected;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+            this.firmware = firmware;
+            this.requests = requests;
+        }
+
+        public boolean hasChanged(int what) {
+            return (changes & what) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Update{changes=" + changes +
+                    ", connected=" + connected +
+                    ", errorCode=" + errorCode +
+                    ", errorMessage=" + errorMessage +
+                    ", firmware=" + firmware +
+                    ", requests=" + Arrays.toString(requests) +
+                    '}';
+        }
+    }
+
+    private static ConnectionStateStore instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Observer> observers = new CopyOnWriteArrayList<>();
+
+    private Context context;
+
+    private String address;
+    private boolean hasStatus;
+    private boolean connected;
+    private int errorCode;
+    private String errorMessage;
+    private String firmware;
+    private long connectionStartTime;
+
+    private int pendingChanges;
+    private final List<Integer> pendingRequests = new ArrayList<>();
+    private boolean notifyScheduled;
+
+    private boolean dirty;
+    private boolean persistScheduled;
+
+    private final Runnable notifyTask = new Runnable() {
+        @Override
+        public void run() {
+            notifyObservers();
+        }
+    };
+
+    private final Runnable persistTask = new Runnable() {
+        @Override
+        public void run() {
+            persist();
+        }
+    };
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private ConnectionStateStore() {
+    }
+
+    public static synchronized ConnectionStateStore getInstance() {
+        if(instance == null) {
+            instance = new ConnectionStateStore();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Adds an observer. It's notified about changes that come after subscribing.
+     *
+     * @param observer Observer to add.
+     */
+    public void subscribe(Observer observer) {
+        observers.addIfAbsent(observer);
+    }
+
+    public void unsubscribe(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Updates connection status of the paired micro:bit.
+     *
+     * @param context      Context used to write preferences later.
+     * @param address      Address of the micro:bit, may be null if not known.
+     * @param connected    True if connected.
+     * @param errorCode    Error code, 0 if there is no error.
+     * @param errorMessage Error description.
+     */
+    public void onConnectionChanged(Context context, @Nullable String address, boolean connected, int errorCode,
+                                    @Nullable String errorMessage) {
+        synchronized(this) {
+            this.context = context.getApplicationContext();
+            if(address != null) {
+                this.address = address;
+            }
+
+            hasStatus = true;
+            this.connected = connected;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+
+            pendingChanges |= CHANGED_CONNECTION;
+            markDirty();
+            scheduleNotify();
+        }
+    }
+
+    /**
+     * Updates firmware version of the paired micro:bit.
+     */
+    public void onFirmware(Context context, String firmware) {
+        synchronized(this) {
+            this.context = context.getApplicationContext();
+            this.firmware = firmware;
+
+            pendingChanges |= CHANGED_FIRMWARE;
+            markDirty();
+            scheduleNotify();
+        }
+    }
+
+    /**
+     * Adds a request of micro:bit, e.g. {@link EventCategories#IPC_BLE_NOTIFICATION_INCOMING_CALL}.
+     */
+    public void onMicrobitRequest(int request) {
+        synchronized(this) {
+            pendingRequests.add(request);
+            pendingChanges |= CHANGED_REQUESTS;
+            scheduleNotify();
+        }
+    }
+
+    /**
+     * Updates time the connection was established.
+     */
+    public synchronized void setConnectionStartTime(Context context, long time) {
+        this.context = context.getApplicationContext();
+        connectionStartTime = time;
+        markDirty();
+    }
+
+    public synchronized boolean isConnected() {
+        return hasStatus && connected;
+    }
+
+    @Nullable
+    public synchronized String getFirmware() {
+        return firmware;
+    }
+
+    /**
+     * Applies state not yet written to preferences to a device read from them.
+     *
+     * @param device Device read from preferences.
+     */
+    synchronized void applyTo(ConnectedDevice device) {
+        // Without an address the state is of the paired micro:bit, whichever it is
+        if(address != null && !address.equals(device.mAddress)) {
+            return;
+        }
+
+        if(hasStatus) {
+            device.mStatus = connected;
+        }
+
+        if(firmware != null) {
+            device.mfirmware_version = firmware;
+        }
+
+        if(connectionStartTime != 0) {
+            device.mlast_connection_time = connectionStartTime;
+        }
+    }
+
+    /**
+     * Drops state not yet written to preferences, when the paired micro:bit is forgotten.
+     */
+    synchronized void forget() {
+        mainHandler.removeCallbacks(persistTask);
+        persistScheduled = false;
+        dirty = false;
+
+        address = null;
+        hasStatus = false;
+        firmware = null;
+        connectionStartTime = 0;
+    }
+
+    /**
+     * Writes pending changes to preferences right away, e.g. when the process is going away.
+     */
+    public void flush() {
+        mainHandler.removeCallbacks(persistTask);
+        persist();
+    }
+
+    private void markDirty() {
+        dirty = true;
+        if(!persistScheduled) {
+            persistScheduled = true;
+            mainHandler.postDelayed(persistTask, PERSIST_DELAY);
+        }
+    }
+
+    private void scheduleNotify() {
+        if(!notifyScheduled) {
+            notifyScheduled = true;
+            mainHandler.post(notifyTask);
+        }
+    }
+
+    private void notifyObservers() {
+        Update update;
+
+        synchronized(this) {
+            notifyScheduled = false;
+            if(pendingChanges == 0) {
+                return;
+            }
+
+            int[] requests = new int[pendingRequests.size()];
+            for(int i = 0; i < requests.length; i++) {
+                requests[i] = pendingRequests.get(i);
+            }
+
+            update = new Update(pendingChanges, hasStatus && connected, errorCode, errorMessage, firmware, requests);
+            pendingChanges = 0;
+            pendingRequests.clear();
+        }
+
+        logi("notifyObservers() :: " + update + " observers = " + observers.size());
+
+        for(Observer observer : observers) {
+            observer.onConnectionStateChanged(update);
+        }
+    }
+
+    private void persist() {
+        Context ctx;
+
+        synchronized(this) {
+            persistScheduled = false;
+            if(!dirty || context == null) {
+                return;
+            }
+
+            dirty = false;
+            ctx = context;
+        }
+
+        // Read preferences rather than getPairedMicrobit(), which falls back to the last device it returned
+        SharedPreferences preferences = BluetoothUtils.getPreferences(ctx);
+        String pairedDeviceString = preferences.getString(BluetoothUtils.PREFERENCES_PAIREDDEV_KEY, null);
+        if(pairedDeviceString == null) {
+            logi("persist() :: no paired micro:bit");
+            return;
+        }
+
+        ConnectedDevice device = new Gson().fromJson(pairedDeviceString, ConnectedDevice.class);
+        synchronized(this) {
+            if(device.mAddress == null || (address != null && !address.equals(device.mAddress))) {
+                logi("persist() :: paired micro:bit has changed");
+                return;
+            }
+
+            applyTo(device);
+        }
+
+        BluetoothUtils.setPairedMicroBit(ctx, device);
+        logi("persist() :: status = " + device.mStatus + " firmware = " + device.mfirmware_version);
+    }
+}
@@ -0,0 +1,180 @@
+package com.samsung.microbit.core.bluetooth;
+
+import java.io.PrintWriter;
+
+/**
+ * Chooses how long to wait for a GATT operation, per {@link BLEManager} operation code.
+ * <p/>
+ * Deadline is estimated the way TCP estimates its retransmission timeout: a smoothed latency plus
+ * four times its mean deviation, bounded by a floor and a ceiling of the operation. Until the first
+ * sample is known, the ceiling is used. Each timeout doubles the deadline of the operation until
+ * a next successful result arrives, so a slow handset doesn't keep timing out, and a retry of a timed
+ * out operation, see {@link GattOperationQueue}, waits longer than the attempt before. Only successful
+ * results are latency samples: a request that fails straight away says nothing about how long
+ * a working one takes.
+ */
+public class DeadlinePolicy {
+
+    private static final int OPERATION_COUNT = BLEManager.OP_MTU_CHANGED + 1;
+
+    /**
+     * Gain of smoothed latency, 1/8.
+     */
+    private static final int ALPHA_SHIFT = 3;
+    /**
+     * Gain of latency deviation, 1/4.
+     */
+    private static final int BETA_SHIFT = 2;
+    private static final int DEVIATION_MULTIPLIER = 4;
+
+    public static final long DEFAULT_FLOOR = 1000;
+    public static final long DEFAULT_CEILING = BLEManager.BLE_WAIT_TIMEOUT;
+
+    private final long[] floors = new long[OPERATION_COUNT];
+    private final long[] ceilings = new long[OPERATION_COUNT];
+
+    private final long[] smoothedLatencies = new long[OPERATION_COUNT];
+    private final long[] latencyDeviations = new long[OPERATION_COUNT];
+    private final boolean[] hasSamples = new boolean[OPERATION_COUNT];
+    private final int[] backoffShifts = new int[OPERATION_COUNT];
+
+    private final long[] lastDeadlines = new long[OPERATION_COUNT];
+    private final long[] metDeadlines = new long[OPERATION_COUNT];
+    private final long[] missedDeadlines = new long[OPERATION_COUNT];
+
+    public DeadlinePolicy() {
+        for(int i = 0; i < OPERATION_COUNT; i++) {
+            floors[i] = DEFAULT_FLOOR;
+            ceilings[i] = DEFAULT_CEILING;
+        }
+
+        // Establishing connection and discovering services take seconds even on a healthy link.
+        setBounds(BLEManager.OP_CONNECT, 5000, DEFAULT_CEILING);
+        setBounds(BLEManager.OP_DISCOVER_SERVICES, 2000, DEFAULT_CEILING);
+    }
+
+    private static boolean isValid(int operation) {
+        return operation >= 0 && operation < OPERATION_COUNT;
+    }
+
+    /**
+     * Sets bounds of a deadline of an operation.
+     *
+     * @param operation Operation code.
+     * @param floor     Minimal deadline in milliseconds.
+     * @param ceiling   Maximal deadline in milliseconds.
+     */
+    public synchronized void setBounds(int operation, long floor, long ceiling) {
+        if(!isValid(operation) || floor <= 0 || ceiling < floor) {
+            throw new IllegalArgumentException("Wrong bounds for operation " + operation + ": " + floor + ".." +
+                    ceiling);
+        }
+
+        floors[operation] = floor;
+        ceilings[operation] = ceiling;
+    }
+
+    /**
+     * Chooses a deadline for an operation that is about to start.
+     *
+     * @param operation Operation code.
+     * @return Time to wait for a result, in milliseconds.
+     */
+    public synchronized long getDeadline(int operation) {
+        if(!isValid(operation)) {
+            return DEFAULT_CEILING;
+        }
+
+        long deadline;
+        if(hasSamples[operation]) {
+            deadline = smoothedLatencies[operation] + DEVIATION_MULTIPLIER * latencyDeviations[operation];
+            deadline = Math.max(deadline, floors[operation]) << backoffShifts[operation];
+        } else {
+            deadline = ceilings[operation];
+        }
+
+        deadline = Math.min(Math.max(deadline, floors[operation]), ceilings[operation]);
+        lastDeadlines[operation] = deadline;
+        return deadline;
+    }
+
+    /**
+     * Updates the estimate with a result of an operation.
+     *
+     * @param operation Operation code.
+     * @param latency   Time from request to result, in milliseconds.
+     * @param result    Result encoded the same way as results of synchronous {@link BLEManager} methods.
+     */
+    public synchronized void onResult(int operation, long latency, int result) {
+        if(!isValid(operation) || result == BLEManager.BLE_ERROR_NOOP) {
+            return;
+        }
+
+        if((result & BLEManager.BLE_ERROR_TIMEOUT) != 0) {
+            missedDeadlines[operation]++;
+            if(backoffShifts[operation] < 4) {
+                backoffShifts[operation]++;
+            }
+
+            return;
+        }
+
+        if((result & BLEManager.BLE_ERROR_FAIL) != 0) {
+            return;
+        }
+
+        metDeadlines[operation]++;
+        backoffShifts[operation] = 0;
+
+        if(!hasSamples[operation]) {
+            smoothedLatencies[operation] = latency;
+            latencyDeviations[operation] = latency / 2;
+            hasSamples[operation] = true;
+        } else {
+            long error = latency - smoothedLatencies[operation];
+            latencyDeviations[operation] += (Math.abs(error) - latencyDeviations[operation]) >> BETA_SHIFT;
+            smoothedLatencies[operation] += error >> ALPHA_SHIFT;
+        }
+    }
+
+    /**
+     * @return Last deadline chosen for an operation, or 0 if there was no one.
+     */
+    public synchronized long getLastDeadline(int operation) {
+        return isValid(operation) ? lastDeadlines[operation] : 0;
+    }
+
+    public synchronized long getSmoothedLatency(int operation) {
+        return isValid(operation) ? smoothedLatencies[operation] : 0;
+    }
+
+    public synchronized long getMetDeadlineCount(int operation) {
+        return isValid(operation) ? metDeadlines[operation] : 0;
+    }
+
+    public synchronized long getMissedDeadlineCount(int operation) {
+        return isValid(operation) ? missedDeadlines[operation] : 0;
+    }
+
+    /**
+     * Prints estimates of operations that were performed at least once.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        for(int operation = 0; operation < OPERATION_COUNT; operation++) {
+            if(lastDeadlines[operation] == 0) {
+                continue;
+            }
+
+            writer.println(prefix + GattStatistics.operationName(operation) +
+                    ": deadline=" + lastDeadlines[operation] + "ms" +
+                    " srtt=" + smoothedLatencies[operation] + "ms" +
+                    " rttvar=" + latencyDeviations[operation] + "ms" +
+                    " backoff=x" + (1 << backoffShifts[operation]) +
+                    " met=" + metDeadlines[operation] +
+                    " missed=" + missedDeadlines[operation]);
+        }
+    }
+}
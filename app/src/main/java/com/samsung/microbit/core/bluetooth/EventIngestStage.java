@@ -0,0 +1,155 @@
+package com.samsung.microbit.core.bluetooth;
+
+/**
+ * Ingest stage for micro:bit event notifications.
+ * <p/>
+ * Bluetooth callback thread only copies raw event words into a preallocated {@link EventRingBuffer}
+ * via {@link #ingest(byte[])}. A single consumer thread decodes words into event source and event
+ * value pairs and passes them to a {@link Dispatcher}. Neither side allocates per event.
+ */
+public class EventIngestStage {
+
+    /**
+     * Size of a single event word in a notification: event source and event value, 16 bits each,
+     * little endian.
+     */
+    public static final int EVENT_WORD_SIZE = 4;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Receives decoded events on the consumer thread.
+     */
+    public interface Dispatcher {
+        /**
+         * @param eventSrc Event source, e.g. one of event categories.
+         * @param event    Event value.
+         */
+        void dispatch(int eventSrc, int event);
+    }
+
+    private final EventRingBuffer ringBuffer;
+    private final Dispatcher dispatcher;
+    private final int minEventSrc;
+    private final Thread consumerThread;
+
+    private volatile long ingestedCount;
+    private volatile long filteredCount;
+    private volatile long dispatchedCount;
+
+    /**
+     * @param name        Name of the consumer thread.
+     * @param capacity    Capacity of the ring buffer.
+     * @param minEventSrc Events with a lower event source are ignored right on the ingest side.
+     * @param dispatcher  Dispatcher of decoded events.
+     */
+    public EventIngestStage(String name, int capacity, int minEventSrc, Dispatcher dispatcher) {
+        this.ringBuffer = new EventRingBuffer(capacity);
+        this.dispatcher = dispatcher;
+        this.minEventSrc = minEventSrc;
+        this.consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name);
+    }
+
+    public void start() {
+        consumerThread.start();
+    }
+
+    /**
+     * Stops the consumer thread once already ingested events are dispatched.
+     */
+    public void stop() {
+        ringBuffer.close();
+    }
+
+    /**
+     * Copies event words of a notification value into the ring buffer. Must be called from
+     * a single producer thread, e.g. bluetooth GATT callback thread.
+     *
+     * @param value Raw notification value. May contain several event words.
+     * @return Number of events accepted.
+     */
+    public int ingest(byte[] value) {
+        if(value == null) {
+            return 0;
+        }
+
+        int accepted = 0;
+        for(int offset = 0; offset + EVENT_WORD_SIZE <= value.length; offset += EVENT_WORD_SIZE) {
+            int word = (value[offset] & 0xFF)
+                    | ((value[offset + 1] & 0xFF) << 8)
+                    | ((value[offset + 2] & 0xFF) << 16)
+                    | ((value[offset + 3] & 0xFF) << 24);
+
+            if(ingestWord(word)) {
+                accepted++;
+            }
+        }
+
+        return accepted;
+    }
+
+    /**
+     * Puts a single event word into the ring buffer.
+     *
+     * @param word Event word. Lower 16 bits are event source, upper 16 bits are event value.
+     * @return True if event was accepted.
+     */
+    public boolean ingestWord(int word) {
+        ingestedCount++;
+
+        if((word & 0xFFFF) < minEventSrc) {
+            filteredCount++;
+            return false;
+        }
+
+        return ringBuffer.offer(word);
+    }
+
+    private void consume() {
+        try {
+            while(true) {
+                long word = ringBuffer.take();
+                if(word == EventRingBuffer.CLOSED) {
+                    return;
+                }
+
+                dispatcher.dispatch((int) (word & 0xFFFF), (int) ((word >>> 16) & 0xFFFF));
+                dispatchedCount++;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public EventRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    public long getIngestedCount() {
+        return ingestedCount;
+    }
+
+    public long getFilteredCount() {
+        return filteredCount;
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "EventIngestStage{ingested=" + ingestedCount +
+                ", filtered=" + filteredCount +
+                ", dispatched=" + dispatchedCount +
+                ", dropped=" + ringBuffer.getDroppedCount() +
+                ", depth=" + ringBuffer.size() + "/" + ringBuffer.capacity() +
+                ", maxDepth=" + ringBuffer.getMaxDepth() +
+                '}';
+    }
+}
@@ -0,0 +1,147 @@
+package com.samsung.microbit.core.bluetooth;
+
+/**
+ * Preallocated single producer, single consumer ring buffer of raw micro:bit event words.
+ * <p/>
+ * Neither {@link #offer(int)} nor {@link #take()} allocate, so a burst of events doesn't cause
+ * garbage collection. When the buffer is full, new events are dropped and counted.
+ */
+public class EventRingBuffer {
+
+    /**
+     * Returned by {@link #take()} when the buffer is closed and drained.
+     */
+    public static final long CLOSED = -1L;
+
+    private final int[] buffer;
+    private final int mask;
+
+    private final Object lock = new Object();
+
+    /**
+     * Written by producer only.
+     */
+    private volatile long tail;
+    /**
+     * Written by consumer only.
+     */
+    private volatile long head;
+
+    private volatile boolean consumerWaiting;
+    private volatile boolean closed;
+
+    private volatile long droppedCount;
+    private volatile int maxDepth;
+
+    /**
+     * @param capacity Buffer capacity. Rounded up to a power of two.
+     */
+    public EventRingBuffer(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity) {
+            size <<= 1;
+        }
+
+        this.buffer = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an event word. Must be called from a single producer thread.
+     *
+     * @param word Raw event word.
+     * @return False if the buffer is full or closed and the word was dropped.
+     */
+    public boolean offer(int word) {
+        long currentTail = tail;
+        int depth = (int) (currentTail - head);
+
+        if(closed || depth == buffer.length) {
+            droppedCount++;
+            return false;
+        }
+
+        buffer[(int) currentTail & mask] = word;
+        tail = currentTail + 1;
+
+        if(depth + 1 > maxDepth) {
+            maxDepth = depth + 1;
+        }
+
+        if(consumerWaiting) {
+            synchronized(lock) {
+                lock.notify();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Takes next event word, waiting for it if the buffer is empty. Must be called from a single
+     * consumer thread.
+     *
+     * @return Event word as unsigned int value, or {@link #CLOSED} if the buffer is closed and drained.
+     * @throws InterruptedException If consumer thread was interrupted while waiting.
+     */
+    public long take() throws InterruptedException {
+        long currentHead = head;
+
+        if(currentHead == tail) {
+            synchronized(lock) {
+                consumerWaiting = true;
+                try {
+                    while(currentHead == tail) {
+                        if(closed) {
+                            return CLOSED;
+                        }
+
+                        lock.wait();
+                    }
+                } finally {
+                    consumerWaiting = false;
+                }
+            }
+        }
+
+        int word = buffer[(int) currentHead & mask];
+        head = currentHead + 1;
+        return word & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Stops accepting new events and wakes up the consumer once pending events are taken.
+     */
+    public void close() {
+        synchronized(lock) {
+            closed = true;
+            lock.notify();
+        }
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return Number of events dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return Maximum number of events ever waiting in the buffer.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+}
@@ -0,0 +1,486 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+/**
+ * Represents a single GATT operation that can be submitted to a {@link GattOperationQueue}
+ * via {@link BLEManager#submit(GattOperation)}.
+ * <p/>
+ * Operation is started by the queue as soon as previous one is completed, and its
+ * {@link GattOperationCallback} is invoked directly from a bluetooth GATT callback thread.
+ */
+public abstract class GattOperation {
+
+    /**
+     * One of {@link BLEManager} operation codes, e.g. {@link BLEManager#OP_WRITE_CHARACTERISTIC}.
+     * Used to match an operation with a GATT callback.
+     */
+    private final int type;
+    private final GattOperationCallback callback;
+
+    private volatile int result = BLEManager.BLE_ERROR_NOOP;
+
+    /**
+     * Time the operation was started by the queue, used for statistics.
+     */
+    volatile long startTime;
+
+    /**
+     * Number of attempts that timed out, guarded by the lock of the queue.
+     */
+    int attempts;
+
+    GattOperation(int type, @Nullable GattOperationCallback callback) {
+        this.type = type;
+        this.callback = callback;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * @return Characteristic associated with the operation, or null if there is no one.
+     */
+    @Nullable
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return null;
+    }
+
+    /**
+     * @return Descriptor associated with the operation, or null if there is no one.
+     */
+    @Nullable
+    public BluetoothGattDescriptor getDescriptor() {
+        return null;
+    }
+
+    /**
+     * @return Value read by the operation, or null if operation doesn't read anything
+     * or wasn't successful.
+     */
+    @Nullable
+    public byte[] getValue() {
+        return null;
+    }
+
+    /**
+     * Triggers asynchronous GATT request.
+     *
+     * @param host Host that provides access to the GATT client.
+     * @return True if request was successfully initiated and completion callback is expected.
+     */
+    abstract boolean execute(GattOperationQueue.Host host);
+
+    /**
+     * @return False if the operation has no GATT callback and is completed as soon as
+     * it's successfully executed.
+     */
+    boolean awaitsCallback() {
+        return true;
+    }
+
+    /**
+     * @return True if the operation may be started again after it timed out, i.e. repeating it has no
+     * effect on the device beyond the first time.
+     */
+    boolean isRetryable() {
+        return true;
+    }
+
+    /**
+     * @return True if the operation takes a permit of {@link GattScheduler}. Only reads and writes on an
+     * established link do, setting the link up doesn't wait for other connections.
+     */
+    boolean needsPermit() {
+        return type == BLEManager.OP_READ_CHARACTERISTIC || type == BLEManager.OP_WRITE_CHARACTERISTIC ||
+                type == BLEManager.OP_READ_DESCRIPTOR || type == BLEManager.OP_WRITE_DESCRIPTOR;
+    }
+
+    /**
+     * Called by the queue when the operation is finished.
+     *
+     * @param result Result code.
+     */
+    void complete(int result) {
+        this.result = result;
+
+        onCompleted(result);
+
+        if(callback != null) {
+            callback.onOperationCompleted(this, result);
+        }
+    }
+
+    /**
+     * Allows operation to capture its own result before a callback is invoked.
+     *
+     * @param result Result code.
+     */
+    void onCompleted(int result) {
+    }
+
+    /**
+     * Checks if the result of an operation is successful.
+     *
+     * @param result Result code.
+     * @return True if successful.
+     */
+    public static boolean isSuccessful(int result) {
+        return result != BLEManager.BLE_ERROR_NOOP && (result & BLEManager.BLE_ERROR_FAIL) == 0;
+    }
+
+    /**
+     * Converts integer value to byte array in a way
+     * {@link BluetoothGattCharacteristic#setValue(int, int, int)} does.
+     *
+     * @param value      Value to convert.
+     * @param formatType Format type, e.g. {@link BluetoothGattCharacteristic#FORMAT_UINT32}.
+     * @return Little endian representation of the value.
+     */
+    public static byte[] toBytes(int value, int formatType) {
+        byte[] bytes = new byte[formatType & 0xF];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((value >> (i * 8)) & 0xFF);
+        }
+
+        return bytes;
+    }
+
+    public static GattOperation connect(boolean autoReconnect, @Nullable GattOperationCallback callback) {
+        return new ConnectOperation(autoReconnect, callback);
+    }
+
+    public static GattOperation discoverServices(@Nullable GattOperationCallback callback) {
+        return new DiscoverServicesOperation(callback);
+    }
+
+    public static GattOperation readCharacteristic(BluetoothGattCharacteristic characteristic,
+                                                   @Nullable GattOperationCallback callback) {
+        return new ReadCharacteristicOperation(characteristic, callback);
+    }
+
+    public static GattOperation writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value,
+                                                    @Nullable GattOperationCallback callback) {
+        return new WriteCharacteristicOperation(characteristic, value,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, callback);
+    }
+
+    public static GattOperation writeCharacteristic(BluetoothGattCharacteristic characteristic, int value,
+                                                    int formatType, @Nullable GattOperationCallback callback) {
+        return writeCharacteristic(characteristic, toBytes(value, formatType), callback);
+    }
+
+    public static GattOperation readDescriptor(BluetoothGattDescriptor descriptor,
+                                               @Nullable GattOperationCallback callback) {
+        return new ReadDescriptorOperation(descriptor, callback);
+    }
+
+    public static GattOperation writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value,
+                                                @Nullable GattOperationCallback callback) {
+        return new WriteDescriptorOperation(descriptor, value, callback);
+    }
+
+    /**
+     * Enables or disables notifications for a given characteristic. Local notification
+     * state is changed right before the client configuration descriptor is written.
+     */
+    public static GattOperation enableCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+                                                                 BluetoothGattDescriptor descriptor,
+                                                                 boolean enable,
+                                                                 @Nullable GattOperationCallback callback) {
+        return new EnableNotificationOperation(characteristic, descriptor, enable, callback);
+    }
+
+    /**
+     * Requests a connection priority update once all previously submitted operations are completed,
+     * e.g. to switch back to {@link BLEManager#CONNECTION_PRIORITY_BALANCED} after a bulk transfer.
+     */
+    public static GattOperation requestConnectionPriority(int priority, @Nullable GattOperationCallback callback) {
+        return new ConnectionPriorityOperation(priority, callback);
+    }
+
+    /**
+     * Negotiates ATT MTU once all previously submitted operations are completed. Negotiated MTU
+     * is available via {@link BLEManager#getMtu()}. Fails straight away before Android 5.0.
+     */
+    public static GattOperation requestMtu(int mtu, @Nullable GattOperationCallback callback) {
+        return new MtuOperation(mtu, callback);
+    }
+
+    private static final class ConnectOperation extends GattOperation {
+        private final boolean autoReconnect;
+
+        ConnectOperation(boolean autoReconnect, GattOperationCallback callback) {
+            super(BLEManager.OP_CONNECT, callback);
+            this.autoReconnect = autoReconnect;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            if(gatt == null) {
+                return host.connectGatt(autoReconnect) != null;
+            }
+
+            return !host.isConnected() && gatt.connect();
+        }
+
+        /**
+         * A connection attempt goes on after it timed out, a late connection is reported as unexpected.
+         */
+        @Override
+        boolean isRetryable() {
+            return false;
+        }
+    }
+
+    private static final class ConnectionPriorityOperation extends GattOperation {
+        private final int priority;
+
+        ConnectionPriorityOperation(int priority, GattOperationCallback callback) {
+            super(BLEManager.OP_NOOP, callback);
+            this.priority = priority;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && gatt != null && gatt
+                    .requestConnectionPriority(priority);
+        }
+
+        @Override
+        boolean awaitsCallback() {
+            return false;
+        }
+    }
+
+    private static final class MtuOperation extends GattOperation {
+        private final int mtu;
+
+        MtuOperation(int mtu, GattOperationCallback callback) {
+            super(BLEManager.OP_MTU_CHANGED, callback);
+            this.mtu = mtu;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && gatt != null && gatt.requestMtu(mtu);
+        }
+    }
+
+    private static final class DiscoverServicesOperation extends GattOperation {
+        DiscoverServicesOperation(GattOperationCallback callback) {
+            super(BLEManager.OP_DISCOVER_SERVICES, callback);
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            return gatt != null && gatt.discoverServices();
+        }
+    }
+
+    private static final class ReadCharacteristicOperation extends GattOperation {
+        private final BluetoothGattCharacteristic characteristic;
+        private volatile byte[] value;
+
+        ReadCharacteristicOperation(BluetoothGattCharacteristic characteristic, GattOperationCallback callback) {
+            super(BLEManager.OP_READ_CHARACTERISTIC, callback);
+            this.characteristic = characteristic;
+        }
+
+        @Override
+        public BluetoothGattCharacteristic getCharacteristic() {
+            return characteristic;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            return gatt != null && gatt.readCharacteristic(characteristic);
+        }
+
+        @Override
+        void onCompleted(int result) {
+            if(isSuccessful(result)) {
+                value = characteristic.getValue();
+            }
+        }
+    }
+
+    static final class WriteCharacteristicOperation extends GattOperation {
+        private final BluetoothGattCharacteristic characteristic;
+        private final int writeType;
+        /**
+         * Value is captured at submission time, so the same characteristic
+         * can be written several times in a row with different values.
+         */
+        private byte[] value;
+        private boolean started;
+
+        WriteCharacteristicOperation(BluetoothGattCharacteristic characteristic, byte[] value, int writeType,
+                                     GattOperationCallback callback) {
+            super(BLEManager.OP_WRITE_CHARACTERISTIC, callback);
+            this.characteristic = characteristic;
+            this.value = value;
+            this.writeType = writeType;
+        }
+
+        @Override
+        public BluetoothGattCharacteristic getCharacteristic() {
+            return characteristic;
+        }
+
+        @Override
+        public synchronized byte[] getValue() {
+            return value;
+        }
+
+        /**
+         * Replaces a value to write if the operation is not started yet.
+         *
+         * @param value New value.
+         * @return True if value was replaced.
+         */
+        synchronized boolean replaceValue(byte[] value) {
+            if(started) {
+                return false;
+            }
+
+            this.value = value;
+            return true;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            byte[] valueToWrite;
+
+            synchronized(this) {
+                started = true;
+                valueToWrite = value;
+            }
+
+            BluetoothGatt gatt = host.getGatt();
+            if(gatt == null) {
+                return false;
+            }
+
+            characteristic.setWriteType(writeType);
+            characteristic.setValue(valueToWrite);
+            return gatt.writeCharacteristic(characteristic);
+        }
+
+        /**
+         * A timed out write may have reached the device, and micro:bit would see an event twice.
+         */
+        @Override
+        boolean isRetryable() {
+            return false;
+        }
+    }
+
+    private static final class ReadDescriptorOperation extends GattOperation {
+        private final BluetoothGattDescriptor descriptor;
+        private volatile byte[] value;
+
+        ReadDescriptorOperation(BluetoothGattDescriptor descriptor, GattOperationCallback callback) {
+            super(BLEManager.OP_READ_DESCRIPTOR, callback);
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public BluetoothGattDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            return gatt != null && gatt.readDescriptor(descriptor);
+        }
+
+        @Override
+        void onCompleted(int result) {
+            if(isSuccessful(result)) {
+                value = descriptor.getValue();
+            }
+        }
+    }
+
+    private static class WriteDescriptorOperation extends GattOperation {
+        private final BluetoothGattDescriptor descriptor;
+        private final byte[] value;
+
+        WriteDescriptorOperation(BluetoothGattDescriptor descriptor, byte[] value, GattOperationCallback callback) {
+            super(BLEManager.OP_WRITE_DESCRIPTOR, callback);
+            this.descriptor = descriptor;
+            this.value = value;
+        }
+
+        @Override
+        public BluetoothGattDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            if(gatt == null) {
+                return false;
+            }
+
+            descriptor.setValue(value);
+            return gatt.writeDescriptor(descriptor);
+        }
+    }
+
+    private static final class EnableNotificationOperation extends WriteDescriptorOperation {
+        private final BluetoothGattCharacteristic characteristic;
+        private final boolean enable;
+
+        EnableNotificationOperation(BluetoothGattCharacteristic characteristic, BluetoothGattDescriptor descriptor,
+                                    boolean enable, GattOperationCallback callback) {
+            super(descriptor, enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE :
+                    BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, callback);
+            this.characteristic = characteristic;
+            this.enable = enable;
+        }
+
+        @Override
+        public BluetoothGattCharacteristic getCharacteristic() {
+            return characteristic;
+        }
+
+        @Override
+        boolean execute(GattOperationQueue.Host host) {
+            BluetoothGatt gatt = host.getGatt();
+            return gatt != null && gatt.setCharacteristicNotification(characteristic, enable) && super.execute(host);
+        }
+    }
+}
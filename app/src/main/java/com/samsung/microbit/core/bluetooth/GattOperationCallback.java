@@ -0,0 +1,12 @@
+package com.samsung.microbit.core.bluetooth;
+
+public interface GattOperationCallback {
+    /**
+     * Callback triggered when a queued GATT operation is completed, failed or timed out.
+     *
+     * @param operation Completed operation.
+     * @param result    Operation result. Encoded the same way as results of synchronous
+     *                  {@link BLEManager} methods, e.g. {@link BLEManager#connect(boolean)}.
+     */
+    void onOperationCompleted(GattOperation operation, int result);
+}
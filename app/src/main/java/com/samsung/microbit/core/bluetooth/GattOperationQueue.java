@@ -0,0 +1,576 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Queue of asynchronous GATT operations. Android allows only one GATT request to be in flight,
+ * so operations are issued one by one, and the next one is started directly from the
+ * completion callback of the previous one. Neither submitting thread nor GATT callback
+ * thread waits for an operation result.
+ * <p/>
+ * Queue shares its lock with {@link BLEManager}, so queued operations never overlap
+ * with synchronous requests of the manager.
+ * <p/>
+ * If a {@link GattScheduler} is set, each read and write takes a permit from it before starting
+ * and returns it once finished, so queues of several connections take turns. Connecting and the
+ * rest of link setup don't take a permit, see {@link GattOperation#needsPermit()}.
+ * <p/>
+ * When a request times out, Android still has it outstanding, and it rejects new requests until the
+ * late callback arrives. So after a timeout of a queued operation or a synchronous request of the
+ * manager, see {@link #onTimedOut(int, Object)}, nothing is started until the late callback is
+ * consumed via {@link #consumeLateCallback(int, Object)}. If it doesn't arrive within
+ * {@link #LATE_CALLBACK_TIMEOUT}, the connection is dropped via {@link Host#onStuck()}. A timed out
+ * operation that is safe to repeat is retried up to {@link #MAX_ATTEMPTS} times in all, with the
+ * longer deadline the timeout has caused, before it fails.
+ */
+public class GattOperationQueue {
+    private static final String TAG = GattOperationQueue.class.getSimpleName();
+
+    /**
+     * Time to wait for a late callback of a timed out request before giving up on the connection.
+     */
+    static final long LATE_CALLBACK_TIMEOUT = BLEManager.BLE_WAIT_TIMEOUT;
+
+    /**
+     * Maximal number of times a queued operation is started, the first attempt included.
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Provides access to the GATT client for queued operations.
+     */
+    interface Host {
+        BluetoothGatt getGatt();
+
+        BluetoothGatt connectGatt(boolean autoReconnect);
+
+        boolean isConnected();
+
+        /**
+         * @return Current ble state, used to build result codes.
+         */
+        int getState();
+
+        /**
+         * @return True if a synchronous request of {@link BLEManager} is in progress or waiting to start.
+         */
+        boolean isSynchronousOperationPending();
+
+        /**
+         * Called when a timed out request got no late callback, so no further request can be made.
+         *
+         * @return True if the connection is being dropped, queued operations are then failed once it's down.
+         */
+        boolean onStuck();
+    }
+
+    private final Object lock;
+    private final Host host;
+    private final GattStatistics statistics;
+    private final DeadlinePolicy deadlinePolicy;
+    private final Handler timeoutHandler;
+
+    private final ArrayDeque<GattOperation> pendingOperations = new ArrayDeque<>();
+    private GattOperation currentOperation;
+
+    private GattScheduler scheduler;
+    private boolean holdsPermit;
+
+    /**
+     * Type and target of a timed out request whose late callback hasn't arrived yet, or
+     * {@link BLEManager#OP_NOOP} if there is no one.
+     */
+    private int lateType = BLEManager.OP_NOOP;
+    private Object lateTarget;
+    private long lateCallbackCount;
+    private long retryCount;
+
+    private final Runnable lateCallbackTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            int type;
+
+            synchronized(lock) {
+                if(lateType == BLEManager.OP_NOOP) {
+                    return;
+                }
+
+                type = lateType;
+                clearLateLocked();
+            }
+
+            Log.e(TAG, "No late callback of timed out operation " + type + ", dropping connection");
+            if(!host.onStuck()) {
+                startNext();
+            }
+        }
+    };
+
+    private final GattScheduler.Client permitClient = new GattScheduler.Client() {
+        @Override
+        public void onPermitGranted() {
+            synchronized(lock) {
+                holdsPermit = true;
+            }
+
+            startNext();
+        }
+    };
+
+    private static void logi(String message) {
+        Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+    }
+
+    GattOperationQueue(Object lock, GattStatistics statistics, DeadlinePolicy deadlinePolicy, Host host) {
+        this.lock = lock;
+        this.statistics = statistics;
+        this.deadlinePolicy = deadlinePolicy;
+        this.host = host;
+        this.timeoutHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Sets a scheduler shared with other connections. Must be set before operations are submitted.
+     *
+     * @param scheduler Scheduler to take permits from, or null to run operations without permits.
+     */
+    void setScheduler(@Nullable GattScheduler scheduler) {
+        synchronized(lock) {
+            this.scheduler = scheduler;
+        }
+    }
+
+    /**
+     * Adds operation to the end of the queue. Starts it immediately if nothing is in flight.
+     *
+     * @param operation Operation to submit.
+     */
+    public void submit(GattOperation operation) {
+        synchronized(lock) {
+            pendingOperations.add(operation);
+        }
+
+        startNext();
+    }
+
+    /**
+     * @return True if there are no operations in flight.
+     */
+    public boolean isIdle() {
+        synchronized(lock) {
+            return currentOperation == null;
+        }
+    }
+
+    /**
+     * @return Type of the operation in flight, or {@link BLEManager#OP_NOOP} if there is no one.
+     */
+    public int getCurrentType() {
+        synchronized(lock) {
+            return currentOperation == null ? BLEManager.OP_NOOP : currentOperation.getType();
+        }
+    }
+
+    /**
+     * @return True if a timed out request is still outstanding, so no request may be made.
+     */
+    boolean isAwaitingLateCallback() {
+        synchronized(lock) {
+            return lateType != BLEManager.OP_NOOP;
+        }
+    }
+
+    /**
+     * Records that a request timed out but may still get its callback. Called for synchronous
+     * requests of the manager, holding the lock.
+     *
+     * @param type   Operation type.
+     * @param target Characteristic or descriptor of the request, or null.
+     */
+    void onTimedOut(int type, @Nullable Object target) {
+        synchronized(lock) {
+            markLateLocked(type, target);
+        }
+    }
+
+    private void markLateLocked(int type, @Nullable Object target) {
+        lateType = type;
+        lateTarget = target;
+        timeoutHandler.removeCallbacks(lateCallbackTimeoutTask);
+        timeoutHandler.postDelayed(lateCallbackTimeoutTask, LATE_CALLBACK_TIMEOUT);
+    }
+
+    /**
+     * Checks if a GATT callback is the late one of a timed out request. Its result belongs to nobody
+     * waiting now, so it must be dropped. Can be called holding the lock, the queue has to be started
+     * via {@link #startNext()} after leaving it then.
+     *
+     * @param type   Operation type reported by GATT callback.
+     * @param target Characteristic or descriptor reported by GATT callback, or null.
+     * @return True if the callback was the late one and has been consumed.
+     */
+    boolean consumeLateCallback(int type, @Nullable Object target) {
+        synchronized(lock) {
+            if(lateType != type || (target != null && lateTarget != null && lateTarget != target)) {
+                return false;
+            }
+
+            lateCallbackCount++;
+            clearLateLocked();
+        }
+
+        if(DEBUG) {
+            logi("consumeLateCallback() :: dropped late callback of operation " + type);
+        }
+
+        return true;
+    }
+
+    private void clearLateLocked() {
+        lateType = BLEManager.OP_NOOP;
+        lateTarget = null;
+        timeoutHandler.removeCallbacks(lateCallbackTimeoutTask);
+        // Synchronous requests of the manager wait for the late callback as well
+        lock.notifyAll();
+    }
+
+    long getLateCallbackCount() {
+        synchronized(lock) {
+            return lateCallbackCount;
+        }
+    }
+
+    long getRetryCount() {
+        synchronized(lock) {
+            return retryCount;
+        }
+    }
+
+    /**
+     * Starts next pending operation if nothing is in flight. Operations that fail to start
+     * are completed with {@link BLEManager#BLE_ERROR_FAIL} straight away.
+     */
+    void startNext() {
+        while(true) {
+            GattOperation operation;
+            GattScheduler unusedPermit = null;
+
+            synchronized(lock) {
+                if(currentOperation != null) {
+                    return;
+                }
+
+                if(host.isSynchronousOperationPending() || lateType != BLEManager.OP_NOOP ||
+                        pendingOperations.isEmpty()) {
+                    // Don't keep a permit other connections could use
+                    if(holdsPermit) {
+                        holdsPermit = false;
+                        unusedPermit = scheduler;
+                    }
+
+                    operation = null;
+                } else {
+                    operation = pendingOperations.peek();
+                    if(scheduler != null && operation.needsPermit()) {
+                        if(!holdsPermit && !scheduler.tryAcquire(permitClient)) {
+                            // Started again from the permit client
+                            return;
+                        }
+
+                        holdsPermit = true;
+                    } else if(holdsPermit) {
+                        holdsPermit = false;
+                        unusedPermit = scheduler;
+                    }
+
+                    pendingOperations.poll();
+                    currentOperation = operation;
+                }
+            }
+
+            if(unusedPermit != null) {
+                unusedPermit.release();
+            }
+
+            if(operation == null) {
+                return;
+            }
+
+            operation.startTime = SystemClock.elapsedRealtime();
+
+            if(DEBUG) {
+                logi("startNext() :: operation = " + operation.getType());
+            }
+
+            scheduleTimeout(operation);
+
+            if(operation.execute(host)) {
+                if(operation.awaitsCallback()) {
+                    return;
+                }
+
+                if(detach(operation)) {
+                    finish(operation, BLEManager.BLE_ERROR_OK | host.getState());
+                }
+
+                continue;
+            }
+
+            if(DEBUG) {
+                logi("startNext() :: failed to start operation = " + operation.getType());
+            }
+
+            if(detach(operation)) {
+                finish(operation, BLEManager.BLE_ERROR_FAIL | host.getState());
+            }
+        }
+    }
+
+    /**
+     * Completes operation in flight, if it matches a given type and target, and starts the next one.
+     * Matching the target keeps a late callback of a timed out operation from completing
+     * a next operation of the same type.
+     *
+     * @param type   Operation type reported by GATT callback.
+     * @param target Characteristic or descriptor reported by GATT callback, or null.
+     * @param result Result code.
+     * @return True if the queue had a matching operation in flight.
+     */
+    boolean onOperationCompleted(int type, @Nullable Object target, int result) {
+        GattOperation operation;
+
+        synchronized(lock) {
+            operation = currentOperation;
+            if(operation == null || operation.getType() != type) {
+                return false;
+            }
+
+            if(target != null && operation.getDescriptor() != null) {
+                if(operation.getDescriptor() != target) {
+                    return false;
+                }
+            } else if(target != null && operation.getCharacteristic() != null && operation.getCharacteristic() !=
+                    target) {
+                return false;
+            }
+        }
+
+        if(detach(operation)) {
+            finish(operation, result);
+        }
+
+        startNext();
+        return true;
+    }
+
+    /**
+     * @return True if there are neither operations in flight nor pending ones.
+     */
+    boolean isEmpty() {
+        synchronized(lock) {
+            return currentOperation == null && pendingOperations.isEmpty();
+        }
+    }
+
+    /**
+     * Fails an operation in flight and all pending operations. Must not be called holding the lock,
+     * use {@link #detachAll()} then.
+     *
+     * @param result Result code to complete operations with.
+     */
+    void abort(int result) {
+        detachAll().complete(result);
+    }
+
+    /**
+     * Takes an operation in flight and all pending operations off the queue, without completing them.
+     * Can be called holding the lock, operations are then completed via {@link Aborted#complete(int)}
+     * once it's released, so their callbacks and the permit handover don't run under the lock.
+     *
+     * @return Operations taken off the queue.
+     */
+    Aborted detachAll() {
+        synchronized(lock) {
+            GattOperation operation = currentOperation;
+            currentOperation = null;
+
+            GattScheduler permitOwner = null;
+            if(holdsPermit) {
+                holdsPermit = false;
+                permitOwner = scheduler;
+            }
+
+            GattOperation[] pending = pendingOperations.toArray(new GattOperation[pendingOperations.size()]);
+            pendingOperations.clear();
+
+            if(scheduler != null) {
+                scheduler.cancel(permitClient);
+            }
+
+            // Nothing is outstanding once the connection is down
+            clearLateLocked();
+            return new Aborted(operation, pending, permitOwner);
+        }
+    }
+
+    /**
+     * Operations taken off the queue by {@link #detachAll()}.
+     */
+    final class Aborted {
+        private final GattOperation operation;
+        private final GattOperation[] pending;
+        private final GattScheduler permitOwner;
+
+        private Aborted(@Nullable GattOperation operation, GattOperation[] pending,
+                        @Nullable GattScheduler permitOwner) {
+            this.operation = operation;
+            this.pending = pending;
+            this.permitOwner = permitOwner;
+        }
+
+        /**
+         * Returns the permit and fails the operations. Must not be called holding the lock.
+         *
+         * @param result Result code to complete operations with.
+         */
+        void complete(int result) {
+            if(operation != null) {
+                timeoutHandler.removeCallbacksAndMessages(operation);
+            }
+
+            if(permitOwner != null) {
+                permitOwner.release();
+            }
+
+            if(operation != null) {
+                finish(operation, result);
+            }
+
+            for(GattOperation pendingOperation : pending) {
+                pendingOperation.complete(result);
+            }
+        }
+    }
+
+    private void scheduleTimeout(final GattOperation operation) {
+        long deadline = deadlinePolicy.getDeadline(operation.getType());
+        statistics.setLastDeadline(operation.getType(), deadline);
+
+        timeoutHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(operation);
+            }
+        }, operation, SystemClock.uptimeMillis() + deadline);
+    }
+
+    private void onTimeout(GattOperation operation) {
+        int result = BLEManager.BLE_ERROR_FAIL | BLEManager.BLE_ERROR_TIMEOUT | host.getState();
+        GattScheduler permitOwner = null;
+        boolean retry;
+
+        synchronized(lock) {
+            if(currentOperation != operation) {
+                return;
+            }
+
+            currentOperation = null;
+
+            if(holdsPermit) {
+                holdsPermit = false;
+                permitOwner = scheduler;
+            }
+
+            // Connection state changes are handled whenever they come, they don't hold other requests
+            if(operation.getType() != BLEManager.OP_CONNECT) {
+                markLateLocked(operation.getType(), operation.getDescriptor() != null ? operation
+                        .getDescriptor() : operation.getCharacteristic());
+            }
+
+            retry = operation.isRetryable() && ++operation.attempts < MAX_ATTEMPTS;
+            if(retry) {
+                // Goes first once the late callback is in
+                pendingOperations.addFirst(operation);
+                retryCount++;
+            }
+
+            lock.notifyAll();
+        }
+
+        if(permitOwner != null) {
+            permitOwner.release();
+        }
+
+        Log.e(TAG, "Operation timed out: " + operation.getType() + (retry ? ", retrying" : ""));
+        if(retry) {
+            // Raises the deadline of the next attempt
+            record(operation, result);
+        } else {
+            finish(operation, result);
+        }
+
+        startNext();
+    }
+
+    /**
+     * Records statistics of a started operation and completes it.
+     *
+     * @param operation Operation to complete.
+     * @param result    Result code.
+     */
+    private void finish(GattOperation operation, int result) {
+        record(operation, result);
+        operation.complete(result);
+    }
+
+    private void record(GattOperation operation, int result) {
+        if(operation.getType() != BLEManager.OP_NOOP) {
+            long latency = SystemClock.elapsedRealtime() - operation.startTime;
+            statistics.record(operation.getType(), latency, result);
+            deadlinePolicy.onResult(operation.getType(), latency, result);
+        }
+    }
+
+    /**
+     * Removes operation from flight, so it's completed only once, and returns its permit.
+     *
+     * @param operation Operation to detach.
+     * @return True if operation was in flight.
+     */
+    private boolean detach(GattOperation operation) {
+        GattScheduler permitOwner = null;
+
+        synchronized(lock) {
+            if(currentOperation != operation) {
+                return false;
+            }
+
+            currentOperation = null;
+
+            if(holdsPermit) {
+                holdsPermit = false;
+                permitOwner = scheduler;
+            }
+
+            // Synchronous requests of the manager wait for the queue to become idle
+            lock.notifyAll();
+        }
+
+        timeoutHandler.removeCallbacksAndMessages(operation);
+
+        if(permitOwner != null) {
+            permitOwner.release();
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,184 @@
+package com.samsung.microbit.core.bluetooth;
+
+import java.util.ArrayDeque;
+
+/**
+ * Limits the number of GATT reads and writes running at the same time across several connections.
+ * Connection establishment isn't gated, so a board that is slow to connect doesn't hold up the
+ * established links.
+ * <p/>
+ * Permits are handed out in a round-robin way: a released permit goes straight to the client that
+ * has been waiting the longest, and a client that wants another permit has to queue up behind
+ * the others. So a connection with a long burst of operations can't starve other connections.
+ */
+public class GattScheduler {
+
+    /**
+     * Receives a permit asynchronously, when it wasn't available at {@link #tryAcquire(Client)}.
+     */
+    public interface Client {
+        /**
+         * Called when a permit is handed over to the client. The client owns the permit and must
+         * {@link #release()} it once its operation is finished or if it no longer needs it.
+         */
+        void onPermitGranted();
+    }
+
+    private final int maxConcurrent;
+
+    private int inUse;
+    private final ArrayDeque<Client> waiting = new ArrayDeque<>();
+
+    private long grantedCount;
+    private long deferredCount;
+
+    /**
+     * @param maxConcurrent Maximal number of operations running at the same time.
+     */
+    public GattScheduler(int maxConcurrent) {
+        if(maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + maxConcurrent);
+        }
+
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Takes a permit if it's available and nobody is waiting for it. Otherwise puts the client
+     * in line, and it's notified via {@link Client#onPermitGranted()} later.
+     *
+     * @param client Client that needs a permit.
+     * @return True if permit was taken.
+     */
+    public synchronized boolean tryAcquire(Client client) {
+        if(inUse < maxConcurrent && waiting.isEmpty()) {
+            inUse++;
+            grantedCount++;
+            return true;
+        }
+
+        if(!waiting.contains(client)) {
+            waiting.add(client);
+            deferredCount++;
+        }
+
+        return false;
+    }
+
+    /**
+     * Takes a permit, waiting for it if needed. Used by synchronous requests.
+     *
+     * @param timeout Maximal time to wait, in milliseconds.
+     * @return True if permit was taken, false if timed out.
+     * @throws InterruptedException If waiting thread was interrupted. No permit is held then.
+     */
+    public boolean acquire(long timeout) throws InterruptedException {
+        BlockingClient client = new BlockingClient();
+        if(tryAcquire(client)) {
+            return true;
+        }
+
+        try {
+            if(client.await(timeout)) {
+                return true;
+            }
+        } catch(InterruptedException e) {
+            boolean granted;
+            synchronized(this) {
+                granted = !waiting.remove(client);
+            }
+
+            // Permit was granted right before the interrupt, pass it on
+            if(granted) {
+                release();
+            }
+
+            throw e;
+        }
+
+        synchronized(this) {
+            if(waiting.remove(client)) {
+                return false;
+            }
+        }
+
+        // Permit was granted right after timeout
+        return true;
+    }
+
+    /**
+     * Returns a permit. If somebody is waiting, the permit is handed over to it.
+     * <p/>
+     * The next client's {@link Client#onPermitGranted()} is called on the calling thread and may take
+     * the lock of another connection, so this must not be called holding a connection lock.
+     */
+    public void release() {
+        Client next;
+
+        synchronized(this) {
+            next = waiting.poll();
+            if(next == null) {
+                if(inUse > 0) {
+                    inUse--;
+                }
+
+                return;
+            }
+
+            grantedCount++;
+        }
+
+        next.onPermitGranted();
+    }
+
+    /**
+     * Removes a client from the line, e.g. when its connection is closed.
+     *
+     * @param client Client to remove.
+     */
+    public synchronized void cancel(Client client) {
+        waiting.remove(client);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized int getInUseCount() {
+        return inUse;
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GattScheduler{inUse=" + inUse + "/" + maxConcurrent +
+                ", waiting=" + waiting.size() +
+                ", granted=" + grantedCount +
+                ", deferred=" + deferredCount +
+                '}';
+    }
+
+    private static final class BlockingClient implements Client {
+        private boolean granted;
+
+        @Override
+        public synchronized void onPermitGranted() {
+            granted = true;
+            notifyAll();
+        }
+
+        synchronized boolean await(long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while(!granted && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            return granted;
+        }
+    }
+}
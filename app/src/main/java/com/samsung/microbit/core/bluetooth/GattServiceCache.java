@@ -0,0 +1,140 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.samsung.microbit.data.model.GattServiceTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Persistent cache of discovered GATT service tables, keyed by device address.
+ * <p/>
+ * Android still requires services to be discovered on every connection, but a table that
+ * matches the cached one lets connection setup show information read on a previous
+ * connection (e.g. firmware revision) before it's read again. A board may be flashed with
+ * another firmware keeping the same services, so the information is read on every
+ * connection anyway, and the table is replaced if it differs.
+ */
+public class GattServiceCache {
+    private static final String TAG = GattServiceCache.class.getSimpleName();
+
+    public static final String PREFERENCES_KEY = "Microbit_GattServiceCache";
+
+    private final SharedPreferences preferences;
+    private final Gson gson = new Gson();
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    public GattServiceCache(Context context) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_KEY,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param address Device address.
+     * @return Cached service table, or null if there is no one.
+     */
+    @Nullable
+    public GattServiceTable get(String address) {
+        if(address == null) {
+            return null;
+        }
+
+        String json = preferences.getString(address, null);
+        if(json == null) {
+            return null;
+        }
+
+        try {
+            return gson.fromJson(json, GattServiceTable.class);
+        } catch(JsonSyntaxException e) {
+            Log.e(TAG, e.toString());
+            invalidate(address);
+            return null;
+        }
+    }
+
+    /**
+     * Returns cached service table only if it matches a given discovered one. A mismatching
+     * table is removed from the cache.
+     *
+     * @param address  Device address.
+     * @param services Discovered services.
+     * @return Matching cached table, or null.
+     */
+    @Nullable
+    public GattServiceTable getMatching(String address, @Nullable List<BluetoothGattService> services) {
+        GattServiceTable table = get(address);
+        if(table == null || services == null) {
+            return null;
+        }
+
+        if(table.mLayout == null || !table.mLayout.equals(layoutOf(services))) {
+            logi("getMatching() :: layout changed for " + address);
+            invalidate(address);
+            return null;
+        }
+
+        return table;
+    }
+
+    /**
+     * Stores a service table of a device.
+     *
+     * @param address  Device address.
+     * @param firmware Firmware revision of the device.
+     * @param services Discovered services.
+     */
+    public void put(String address, String firmware, List<BluetoothGattService> services) {
+        if(address == null || services == null) {
+            return;
+        }
+
+        GattServiceTable table = new GattServiceTable(address, firmware, layoutOf(services),
+                System.currentTimeMillis());
+        preferences.edit().putString(address, gson.toJson(table)).apply();
+    }
+
+    public void invalidate(String address) {
+        if(address != null) {
+            preferences.edit().remove(address).apply();
+        }
+    }
+
+    /**
+     * Builds a comparable layout of services: service UUID to sorted characteristic UUIDs.
+     */
+    private static Map<String, List<String>> layoutOf(List<BluetoothGattService> services) {
+        Map<String, List<String>> layout = new TreeMap<>();
+
+        for(BluetoothGattService service : services) {
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            List<String> uuids = new ArrayList<>(characteristics.size());
+            for(BluetoothGattCharacteristic characteristic : characteristics) {
+                uuids.add(characteristic.getUuid().toString());
+            }
+
+            Collections.sort(uuids);
+            layout.put(service.getUuid().toString(), uuids);
+        }
+
+        return layout;
+    }
+}
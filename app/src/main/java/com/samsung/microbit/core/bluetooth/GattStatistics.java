@@ -0,0 +1,253 @@
+package com.samsung.microbit.core.bluetooth;
+
+import java.io.PrintWriter;
+
+/**
+ * Collects latency histograms and result counters of GATT operations per {@link BLEManager}
+ * operation code, e.g. {@link BLEManager#OP_DISCOVER_SERVICES}.
+ * <p/>
+ * Latencies are kept in power of two buckets: bucket 0 counts operations faster than 1 ms,
+ * bucket {@code i} counts operations that took from 2^(i-1) to 2^i ms, and the last bucket
+ * counts everything slower.
+ */
+public class GattStatistics {
+
+    public static final int BUCKET_COUNT = 16;
+
+    private static final int OPERATION_COUNT = BLEManager.OP_MTU_CHANGED + 1;
+
+    private static final String[] OPERATION_NAMES = {
+            "NOOP",
+            "CONNECT",
+            "DISCOVER_SERVICES",
+            "READ_CHARACTERISTIC",
+            "WRITE_CHARACTERISTIC",
+            "READ_DESCRIPTOR",
+            "WRITE_DESCRIPTOR",
+            "CHARACTERISTIC_CHANGED",
+            "RELIABLE_WRITE_COMPLETED",
+            "READ_REMOTE_RSSI",
+            "MTU_CHANGED"
+    };
+
+    /**
+     * Marks that no GATT status was reported for an operation yet.
+     */
+    public static final int NO_STATUS = -1;
+
+    private final long[][] histograms = new long[OPERATION_COUNT][BUCKET_COUNT];
+    private final long[] successCounts = new long[OPERATION_COUNT];
+    private final long[] failureCounts = new long[OPERATION_COUNT];
+    private final long[] timeoutCounts = new long[OPERATION_COUNT];
+    private final long[] totalDurations = new long[OPERATION_COUNT];
+    private final long[] maxDurations = new long[OPERATION_COUNT];
+    private final int[] lastGattStatuses = new int[OPERATION_COUNT];
+    private final long[] lastDeadlines = new long[OPERATION_COUNT];
+
+    public GattStatistics() {
+        reset();
+    }
+
+    private static boolean isValid(int operation) {
+        return operation >= 0 && operation < OPERATION_COUNT;
+    }
+
+    /**
+     * @param durationMs Operation duration in milliseconds.
+     * @return Index of histogram bucket for a given duration.
+     */
+    public static int bucketOf(long durationMs) {
+        if(durationMs < 1) {
+            return 0;
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(durationMs);
+        return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+    }
+
+    /**
+     * @param bucket Histogram bucket index.
+     * @return Exclusive upper bound of a bucket in milliseconds, or {@link Long#MAX_VALUE} for the last one.
+     */
+    public static long bucketUpperBound(int bucket) {
+        return bucket < BUCKET_COUNT - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    public static String operationName(int operation) {
+        return isValid(operation) ? OPERATION_NAMES[operation] : String.valueOf(operation);
+    }
+
+    /**
+     * Records a finished operation.
+     *
+     * @param operation  Operation code.
+     * @param durationMs Time from request to result.
+     * @param result     Result encoded the same way as results of synchronous {@link BLEManager} methods.
+     */
+    public synchronized void record(int operation, long durationMs, int result) {
+        if(!isValid(operation) || result == BLEManager.BLE_ERROR_NOOP) {
+            return;
+        }
+
+        histograms[operation][bucketOf(durationMs)]++;
+        totalDurations[operation] += durationMs;
+        if(durationMs > maxDurations[operation]) {
+            maxDurations[operation] = durationMs;
+        }
+
+        if((result & BLEManager.BLE_ERROR_TIMEOUT) != 0) {
+            timeoutCounts[operation]++;
+        } else if((result & BLEManager.BLE_ERROR_FAIL) != 0) {
+            failureCounts[operation]++;
+        } else {
+            successCounts[operation]++;
+        }
+    }
+
+    /**
+     * Remembers GATT status reported by a bluetooth GATT callback.
+     *
+     * @param operation Operation code.
+     * @param status    GATT status, e.g. {@link android.bluetooth.BluetoothGatt#GATT_SUCCESS}.
+     */
+    public synchronized void setLastGattStatus(int operation, int status) {
+        if(isValid(operation)) {
+            lastGattStatuses[operation] = status;
+        }
+    }
+
+    /**
+     * Remembers a deadline the last operation was given, see {@link DeadlinePolicy}.
+     *
+     * @param operation  Operation code.
+     * @param deadlineMs Deadline in milliseconds.
+     */
+    public synchronized void setLastDeadline(int operation, long deadlineMs) {
+        if(isValid(operation)) {
+            lastDeadlines[operation] = deadlineMs;
+        }
+    }
+
+    public synchronized long getLastDeadline(int operation) {
+        return isValid(operation) ? lastDeadlines[operation] : 0;
+    }
+
+    public synchronized long getSuccessCount(int operation) {
+        return isValid(operation) ? successCounts[operation] : 0;
+    }
+
+    public synchronized long getFailureCount(int operation) {
+        return isValid(operation) ? failureCounts[operation] : 0;
+    }
+
+    public synchronized long getTimeoutCount(int operation) {
+        return isValid(operation) ? timeoutCounts[operation] : 0;
+    }
+
+    public synchronized long getCount(int operation) {
+        return getSuccessCount(operation) + getFailureCount(operation) + getTimeoutCount(operation);
+    }
+
+    public synchronized long getMaxDuration(int operation) {
+        return isValid(operation) ? maxDurations[operation] : 0;
+    }
+
+    /**
+     * @return Last GATT status of an operation, or {@link #NO_STATUS}.
+     */
+    public synchronized int getLastGattStatus(int operation) {
+        return isValid(operation) ? lastGattStatuses[operation] : NO_STATUS;
+    }
+
+    /**
+     * @return Copy of latency histogram of an operation.
+     */
+    public synchronized long[] getHistogram(int operation) {
+        return isValid(operation) ? histograms[operation].clone() : new long[BUCKET_COUNT];
+    }
+
+    /**
+     * Estimates a latency percentile as the upper bound of a bucket it falls into.
+     *
+     * @param operation  Operation code.
+     * @param percentile Percentile from 0 to 100.
+     * @return Latency upper bound in milliseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentile(int operation, double percentile) {
+        long count = getCount(operation);
+        if(count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        long[] histogram = histograms[operation];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += histogram[i];
+            if(seen >= rank && histogram[i] > 0) {
+                return Math.min(bucketUpperBound(i), maxDurations[operation]);
+            }
+        }
+
+        return maxDurations[operation];
+    }
+
+    public synchronized void reset() {
+        for(int i = 0; i < OPERATION_COUNT; i++) {
+            for(int j = 0; j < BUCKET_COUNT; j++) {
+                histograms[i][j] = 0;
+            }
+
+            successCounts[i] = 0;
+            failureCounts[i] = 0;
+            timeoutCounts[i] = 0;
+            totalDurations[i] = 0;
+            maxDurations[i] = 0;
+            lastGattStatuses[i] = NO_STATUS;
+            lastDeadlines[i] = 0;
+        }
+    }
+
+    /**
+     * Prints statistics of operations that were performed at least once.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        for(int operation = 0; operation < OPERATION_COUNT; operation++) {
+            long count = getCount(operation);
+            if(count == 0 && lastGattStatuses[operation] == NO_STATUS) {
+                continue;
+            }
+
+            writer.print(prefix);
+            writer.print(operationName(operation));
+            writer.print(": ok=" + successCounts[operation]);
+            writer.print(" fail=" + failureCounts[operation]);
+            writer.print(" timeout=" + timeoutCounts[operation]);
+            writer.print(" lastStatus=" + lastGattStatuses[operation]);
+            writer.print(" lastDeadline=" + lastDeadlines[operation] + "ms");
+            if(count > 0) {
+                writer.print(" avg=" + (totalDurations[operation] / count) + "ms");
+                writer.print(" p50<=" + getPercentile(operation, 50) + "ms");
+                writer.print(" p99<=" + getPercentile(operation, 99) + "ms");
+                writer.print(" max=" + maxDurations[operation] + "ms");
+            }
+            writer.println();
+
+            if(count > 0) {
+                writer.print(prefix);
+                writer.print("  histogram(ms):");
+                long[] histogram = histograms[operation];
+                for(int i = 0; i < BUCKET_COUNT; i++) {
+                    if(histogram[i] > 0) {
+                        writer.print(" <" + (i < BUCKET_COUNT - 1 ? String.valueOf(bucketUpperBound(i)) : "inf") +
+                                ":" + histogram[i]);
+                    }
+                }
+                writer.println();
+            }
+        }
+    }
+}
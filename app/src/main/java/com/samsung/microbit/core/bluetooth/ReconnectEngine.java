@@ -0,0 +1,355 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.Random;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Schedules connection attempts to a micro:bit without blocking a caller.
+ * <p/>
+ * Attempts are retried with exponential backoff and random jitter. Once direct attempts are
+ * exhausted, the engine gives up, or, if the owner asked for it when starting, switches to
+ * a background connection, where the system connects as soon as the device becomes available.
+ * Pending attempts are postponed while the bluetooth adapter is off or the device is bonding, and
+ * resumed by the corresponding broadcasts. Reconnection can be cancelled at any point.
+ * <p/>
+ * Timing is handled on an own handler thread, attempts themselves are run on a handler given
+ * by the owner, so they are serialized with its other work. Attempts block, so the handler
+ * shouldn't run on the main looper.
+ */
+public class ReconnectEngine {
+    private static final String TAG = ReconnectEngine.class.getSimpleName();
+
+    public static final long DEFAULT_BASE_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 30000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 6;
+
+    /**
+     * Performs attempts. All methods are called on the attempt handler.
+     */
+    public interface Callback {
+        /**
+         * Makes a direct connection attempt. Result must be reported via
+         * {@link #onAttemptFinished(boolean)}.
+         *
+         * @param attempt Number of the attempt, starting from 1.
+         */
+        void onConnectAttempt(int attempt);
+
+        /**
+         * Direct attempts are exhausted, so a background connection should be requested.
+         * The engine stays idle until the owner reports a connection or cancels it.
+         */
+        void onBackgroundConnect();
+
+        /**
+         * Direct attempts are exhausted and background connection wasn't asked for.
+         *
+         * @param attempts Number of attempts made.
+         */
+        void onGaveUp(int attempts);
+    }
+
+    private final Context context;
+    private final Handler attemptHandler;
+    private final Callback callback;
+
+    private final HandlerThread timerThread;
+    private final Handler timerHandler;
+    private final Random random = new Random();
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    private final Object lock = new Object();
+
+    private String deviceAddress;
+    private boolean backgroundFallback;
+    private boolean active;
+    private boolean attemptInProgress;
+    private boolean waitingForAdapter;
+    private boolean waitingForBond;
+    private int attempt;
+
+    private final Runnable attemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final int currentAttempt;
+
+            synchronized(lock) {
+                if(!active || attemptInProgress || waitingForAdapter || waitingForBond) {
+                    return;
+                }
+
+                if(!isAdapterEnabled()) {
+                    logi("attempt() :: adapter is off, waiting");
+                    waitingForAdapter = true;
+                    return;
+                }
+
+                attemptInProgress = true;
+                currentAttempt = ++attempt;
+            }
+
+            attemptHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(lock) {
+                        if(!active) {
+                            attemptInProgress = false;
+                            return;
+                        }
+                    }
+
+                    logi("attempt() :: " + currentAttempt);
+                    callback.onConnectAttempt(currentAttempt);
+                }
+            });
+        }
+    };
+
+    private final BroadcastReceiver stateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+
+            if(BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+                int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+                logi("onReceive() :: adapter state = " + state);
+
+                synchronized(lock) {
+                    if(state == BluetoothAdapter.STATE_ON && waitingForAdapter) {
+                        waitingForAdapter = false;
+                        attempt = 0;
+                        scheduleLocked(0);
+                    } else if(state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+                        if(active) {
+                            waitingForAdapter = true;
+                            timerHandler.removeCallbacks(attemptRunnable);
+                        }
+                    }
+                }
+            } else if(BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.ERROR);
+
+                synchronized(lock) {
+                    if(device == null || !device.getAddress().equals(deviceAddress)) {
+                        return;
+                    }
+
+                    logi("onReceive() :: bond state = " + bondState);
+
+                    if(bondState == BluetoothDevice.BOND_BONDING) {
+                        waitingForBond = true;
+                        timerHandler.removeCallbacks(attemptRunnable);
+                    } else if(waitingForBond) {
+                        waitingForBond = false;
+                        scheduleLocked(0);
+                    }
+                }
+            }
+        }
+    };
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    public ReconnectEngine(Context context, Handler attemptHandler, Callback callback) {
+        this(context, attemptHandler, callback, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param context           Context to register broadcast receivers with.
+     * @param attemptHandler    Handler to run attempts on.
+     * @param callback          Callback that performs attempts.
+     * @param baseDelay         Delay before the first retry, in milliseconds.
+     * @param maxDelay          Maximal delay between retries, in milliseconds.
+     * @param maxAttempts       Number of direct attempts.
+     */
+    public ReconnectEngine(Context context, Handler attemptHandler, Callback callback, long baseDelay, long
+            maxDelay, int maxAttempts) {
+        this.context = context.getApplicationContext();
+        this.attemptHandler = attemptHandler;
+        this.callback = callback;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+
+        this.timerThread = new HandlerThread("BLEReconnect");
+        this.timerThread.start();
+        this.timerHandler = new Handler(timerThread.getLooper());
+
+        IntentFilter filter = new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        this.context.registerReceiver(stateReceiver, filter, null, timerHandler);
+    }
+
+    /**
+     * Starts connecting to a device. Cancels previous reconnection, if any.
+     *
+     * @param address            Device address.
+     * @param initialDelay       Delay before the first attempt, in milliseconds.
+     * @param backgroundFallback Defines if background connection is requested once direct attempts are
+     *                           exhausted, e.g. to recover from an unexpected disconnection. Otherwise
+     *                           {@link Callback#onGaveUp(int)} is called, so a waiting user gets an answer.
+     */
+    public void start(String address, long initialDelay, boolean backgroundFallback) {
+        synchronized(lock) {
+            timerHandler.removeCallbacks(attemptRunnable);
+
+            deviceAddress = address;
+            this.backgroundFallback = backgroundFallback;
+            active = true;
+            attempt = 0;
+            waitingForAdapter = false;
+            waitingForBond = isBonding(address);
+
+            logi("start() :: address = " + address + " waitingForBond = " + waitingForBond);
+
+            if(!waitingForBond) {
+                scheduleLocked(initialDelay);
+            }
+        }
+    }
+
+    /**
+     * Reports a result of an attempt started by {@link Callback#onConnectAttempt(int)}.
+     *
+     * @param success True if connection was established.
+     */
+    public void onAttemptFinished(boolean success) {
+        boolean gaveUp = false;
+        boolean background = false;
+        int attempts;
+
+        synchronized(lock) {
+            attemptInProgress = false;
+            attempts = attempt;
+
+            if(!active) {
+                return;
+            }
+
+            if(success) {
+                logi("onAttemptFinished() :: connected after " + attempt + " attempts");
+                active = false;
+                return;
+            }
+
+            if(waitingForAdapter || waitingForBond) {
+                return;
+            }
+
+            if(attempt < maxAttempts) {
+                scheduleLocked(nextDelay(attempt));
+            } else if(backgroundFallback) {
+                background = true;
+            } else {
+                active = false;
+                gaveUp = true;
+            }
+        }
+
+        if(background) {
+            logi("onAttemptFinished() :: switching to background connection");
+            callback.onBackgroundConnect();
+        } else if(gaveUp) {
+            logi("onAttemptFinished() :: gave up after " + attempts + " attempts");
+            callback.onGaveUp(attempts);
+        }
+    }
+
+    /**
+     * Reports that a connection was established outside of attempts, e.g. by a background connection.
+     */
+    public void onConnected() {
+        synchronized(lock) {
+            active = false;
+            timerHandler.removeCallbacks(attemptRunnable);
+        }
+    }
+
+    /**
+     * Cancels pending attempts. An attempt in progress is finished, but not retried.
+     */
+    public void cancel() {
+        synchronized(lock) {
+            if(active) {
+                logi("cancel()");
+            }
+
+            active = false;
+            waitingForAdapter = false;
+            waitingForBond = false;
+            timerHandler.removeCallbacks(attemptRunnable);
+        }
+    }
+
+    public boolean isActive() {
+        synchronized(lock) {
+            return active;
+        }
+    }
+
+    /**
+     * Cancels reconnection and releases resources. Engine can't be used after that.
+     */
+    public void release() {
+        cancel();
+        context.unregisterReceiver(stateReceiver);
+        timerThread.quit();
+    }
+
+    /**
+     * Calculates a delay before the next attempt: exponentially growing, with the upper half randomized,
+     * so several devices don't retry in lockstep.
+     *
+     * @param attemptsMade Number of attempts made.
+     * @return Delay in milliseconds.
+     */
+    long nextDelay(int attemptsMade) {
+        int shift = Math.min(Math.max(attemptsMade - 1, 0), 16);
+        long delay = Math.min(baseDelay << shift, maxDelay);
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    private void scheduleLocked(long delay) {
+        if(!active) {
+            return;
+        }
+
+        logi("schedule() :: delay = " + delay);
+        timerHandler.removeCallbacks(attemptRunnable);
+        timerHandler.postDelayed(attemptRunnable, delay);
+    }
+
+    private static boolean isAdapterEnabled() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        return adapter != null && adapter.isEnabled();
+    }
+
+    private static boolean isBonding(String address) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if(adapter == null || address == null || !BluetoothAdapter.checkBluetoothAddress(address)) {
+            return false;
+        }
+
+        return adapter.getRemoteDevice(address).getBondState() == BluetoothDevice.BOND_BONDING;
+    }
+}
@@ -0,0 +1,260 @@
+package com.samsung.microbit.core.bluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Streams values to a single characteristic using write without response.
+ * <p/>
+ * Number of writes in flight is bounded by a credit window. A credit is taken when a write is
+ * submitted to the operation queue and returned when the write is completed. When no credits
+ * are left, a new value replaces a value of a not yet started write with the same coalescing key,
+ * otherwise it's dropped.
+ * <p/>
+ * Values without a coalescing key, e.g. discrete events, are never replaced. One credit of the window
+ * is kept for them, so values with a key can't take all of it. When no credits are left, they wait in
+ * a backlog of up to {@link #MAX_BACKLOG} values and are written in order as credits come back. Only
+ * values that don't fit in the backlog are dropped. Counters of sent, coalesced, queued and dropped
+ * writes are exposed for diagnostics.
+ * <p/>
+ * If the characteristic doesn't support write without response, acknowledged writes are used,
+ * but they are still pipelined and flow controlled the same way.
+ */
+public class StreamingWriter {
+    private static final String TAG = StreamingWriter.class.getSimpleName();
+
+    /**
+     * Key for values that should never be coalesced.
+     */
+    public static final int NO_COALESCING = -1;
+
+    /**
+     * Maximal number of values without a coalescing key waiting for a credit.
+     */
+    public static final int MAX_BACKLOG = 32;
+
+    private final BLEManager bleManager;
+    private final BluetoothGattCharacteristic characteristic;
+    private final int writeType;
+    private final int window;
+    /**
+     * Credits values with a coalescing key must leave for values without one.
+     */
+    private final int reservedCredits;
+
+    private final Object lock = new Object();
+
+    private int credits;
+    private final SparseArray<GattOperation.WriteCharacteristicOperation> pendingByKey = new SparseArray<>();
+    private final ArrayDeque<byte[]> backlog = new ArrayDeque<>();
+
+    private long sentCount;
+    private long failedCount;
+    private long coalescedCount;
+    private long queuedCount;
+    private long droppedCount;
+
+    private final GattOperationCallback completionCallback = new GattOperationCallback() {
+        @Override
+        public void onOperationCompleted(GattOperation operation, int result) {
+            GattOperation next = null;
+
+            synchronized(lock) {
+                credits++;
+
+                int index = pendingByKey.indexOfValue((GattOperation.WriteCharacteristicOperation) operation);
+                if(index >= 0) {
+                    pendingByKey.removeAt(index);
+                }
+
+                if(GattOperation.isSuccessful(result)) {
+                    sentCount++;
+                } else {
+                    failedCount++;
+                }
+
+                if(!backlog.isEmpty()) {
+                    credits--;
+                    next = newOperation(backlog.poll());
+                }
+            }
+
+            if(DEBUG && !GattOperation.isSuccessful(result)) {
+                logi("onOperationCompleted() :: write failed. Return Value = 0x" + Integer.toHexString(result));
+            }
+
+            if(next != null) {
+                bleManager.submit(next);
+            }
+        }
+    };
+
+    private static void logi(String message) {
+        Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+    }
+
+    StreamingWriter(BLEManager bleManager, BluetoothGattCharacteristic characteristic, int window) {
+        if(window <= 0) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+
+        this.bleManager = bleManager;
+        this.characteristic = characteristic;
+        this.window = window;
+        this.reservedCredits = window > 1 ? 1 : 0;
+        this.credits = window;
+
+        if((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            this.writeType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        } else {
+            this.writeType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        }
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    /**
+     * @return True if writes are done without response.
+     */
+    public boolean isWriteWithoutResponse() {
+        return writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+    }
+
+    /**
+     * Writes a value or, if the window is full, coalesces, queues or drops it.
+     *
+     * @param value       Value to write.
+     * @param coalesceKey Values with the same non-negative key may replace each other
+     *                    while they are waiting in the queue. Use {@link #NO_COALESCING}
+     *                    to disable it, the value then waits for a credit if there is none.
+     * @return True if value was submitted, coalesced or queued, false if it was dropped. A value that doesn't fit
+     * in a single packet, see {@link BLEManager#getMaxPayloadSize()}, is always dropped, as a write without
+     * response would be truncated.
+     */
+    public boolean write(byte[] value, int coalesceKey) {
+        GattOperation.WriteCharacteristicOperation operation;
+
+        synchronized(lock) {
+            if(value.length > bleManager.getMaxPayloadSize()) {
+                Log.w(TAG, "write() :: value of " + value.length + " bytes exceeds payload size " +
+                        bleManager.getMaxPayloadSize());
+                droppedCount++;
+                return false;
+            }
+
+            if(coalesceKey >= 0) {
+                GattOperation.WriteCharacteristicOperation pending = pendingByKey.get(coalesceKey);
+                if(pending != null && pending.replaceValue(value)) {
+                    coalescedCount++;
+                    return true;
+                }
+            }
+
+            if(coalesceKey >= 0) {
+                if(credits <= reservedCredits) {
+                    droppedCount++;
+                    return false;
+                }
+            } else if(credits == 0 || !backlog.isEmpty()) {
+                // Queued values go first, so events keep their order
+                if(backlog.size() >= MAX_BACKLOG) {
+                    Log.w(TAG, "write() :: backlog of " + MAX_BACKLOG + " values is full, dropping");
+                    droppedCount++;
+                    return false;
+                }
+
+                backlog.add(value);
+                queuedCount++;
+                return true;
+            }
+
+            credits--;
+            operation = newOperation(value);
+            if(coalesceKey >= 0) {
+                pendingByKey.put(coalesceKey, operation);
+            }
+        }
+
+        bleManager.submit(operation);
+        return true;
+    }
+
+    private GattOperation.WriteCharacteristicOperation newOperation(byte[] value) {
+        return new GattOperation.WriteCharacteristicOperation(characteristic, value, writeType, completionCallback);
+    }
+
+    /**
+     * Writes an integer value in a given format.
+     *
+     * @see #write(byte[], int)
+     */
+    public boolean write(int value, int formatType, int coalesceKey) {
+        return write(GattOperation.toBytes(value, formatType), coalesceKey);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return Number of writes submitted and not completed yet.
+     */
+    public int getInFlightCount() {
+        synchronized(lock) {
+            return window - credits;
+        }
+    }
+
+    public long getSentCount() {
+        synchronized(lock) {
+            return sentCount;
+        }
+    }
+
+    public long getFailedCount() {
+        synchronized(lock) {
+            return failedCount;
+        }
+    }
+
+    public long getCoalescedCount() {
+        synchronized(lock) {
+            return coalescedCount;
+        }
+    }
+
+    public long getQueuedCount() {
+        synchronized(lock) {
+            return queuedCount;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized(lock) {
+            return droppedCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized(lock) {
+            return "StreamingWriter{" + characteristic.getUuid() +
+                    ", noResponse=" + isWriteWithoutResponse() +
+                    ", inFlight=" + (window - credits) + "/" + window +
+                    ", sent=" + sentCount +
+                    ", failed=" + failedCount +
+                    ", coalesced=" + coalescedCount +
+                    ", backlog=" + backlog.size() +
+                    ", queued=" + queuedCount +
+                    ", dropped=" + droppedCount +
+                    '}';
+        }
+    }
+}
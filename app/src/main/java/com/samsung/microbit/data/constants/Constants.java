@@ -34,6 +34,11 @@ public class Constants {
     }
 
     public static final long JUST_PAIRED_DELAY_ON_CONNECTION = 11000;
+    /**
+     * Delay before the first connection attempt to a just paired micro:bit.
+     * Further attempts are retried with backoff until it's restarted.
+     */
+    public static final long JUST_PAIRED_FIRST_ATTEMPT_DELAY = 2000;
 
     public static final String MICROBIT_HEX_MIME_TYPE = "application/x-microbit-hex";
 }
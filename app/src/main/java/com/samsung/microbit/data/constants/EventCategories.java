@@ -12,6 +12,27 @@ public class EventCategories {
     public static final int IPC_BLE_DISCONNECT = 1;
     public static final int IPC_BLE_CONNECT = 2;
     public static final int IPC_BIND_SERVICES = 10;
+    /**
+     * Connects or disconnects an additional micro:bit, given by {@link IPCConstants#BUNDLE_DEVICE_ADDRESS}.
+     */
+    public static final int IPC_BLE_CONNECT_DEVICE = 11;
+    public static final int IPC_BLE_DISCONNECT_DEVICE = 12;
+    /**
+     * Writes an event to micro:bit, sent straight to BLEService by MicroBitEventChannel.
+     * Event value is carried in arg2, encoded by Utils.makeMicroBitValue().
+     */
+    public static final int IPC_WRITE_EVENT = 13;
+    /**
+     * Sent by ServiceConnector to BLEService and PluginService with the messenger of the other one
+     * in replyTo, so they can talk directly. Addressee of the messenger is given in arg2 as ServiceIds.
+     * A null replyTo drops the route.
+     */
+    public static final int IPC_SET_ROUTE = 14;
+    /**
+     * Sent by BLEService to PluginService when an event category is known to be used by micro:bit,
+     * so its plugin is created ahead of the first event. Category is carried as the command.
+     */
+    public static final int IPC_PLUGIN_PREWARM = 15;
 
     public static final int IPC_BLE_RECONNECT = 3;
     public static final int IPC_WRITE_CHARACTERISTIC = 4;
@@ -56,6 +77,21 @@ public class EventCategories {
      */
     public static final int SAMSUNG_SIGNAL_STRENGTH_ID = 1101; //0x044D
 
+    /**
+     * Category for battery level. Event value is the level in percent, 0 - 100.
+     *
+     * @see com.samsung.microbit.utils.Utils#makeMicroBitValue(int, int) Utils.makeBicrobitValue(int, int)
+     */
+    public static final int SAMSUNG_BATTERY_LEVEL_ID = 1104; //0x0450
+
+    /**
+     * Category for ambient temperature. Event value is the temperature in tenths of a degree Celsius,
+     * as a signed 16 bit number.
+     *
+     * @see com.samsung.microbit.utils.Utils#makeMicroBitValue(int, int) Utils.makeBicrobitValue(int, int)
+     */
+    public static final int SAMSUNG_TEMPERATURE_ID = 1105; //0x0451
+
     /**
      * Category for remote controls
      * <p/>
@@ -36,6 +36,10 @@ public class EventSubCodes {
     public static final int SAMSUNG_CAMERA_EVT_STOP_PHOTO_MODE = 6;
     public static final int SAMSUNG_CAMERA_EVT_STOP_VIDEO_MODE = 7;
     public static final int SAMSUNG_CAMERA_EVT_TOGGLE_FRONT_REAR = 8;
+    /**
+     * Not sent by the micro:bit runtime yet, it needs a matching camera event value there.
+     */
+    public static final int SAMSUNG_CAMERA_EVT_TAKE_BURST = 9;
 
     /**
      * Samsung remote control sub codes. Related to event Category {@link EventCategories#SAMSUNG_AUDIO_RECORDER_ID}
@@ -96,4 +100,11 @@ public class EventSubCodes {
     public static final int SAMSUNG_INCOMING_CALL = 7;
     public static final int SAMSUNG_INCOMING_SMS = 8;
     public static final int SAMSUNG_DEVICE_BATTERY_STRENGTH = 9; // not specified
+    public static final int SAMSUNG_DEVICE_GESTURE_TILT_LEFT = 10;
+    public static final int SAMSUNG_DEVICE_GESTURE_TILT_RIGHT = 11;
+    public static final int SAMSUNG_DEVICE_GESTURE_TILT_UP = 12;
+    public static final int SAMSUNG_DEVICE_GESTURE_TILT_DOWN = 13;
+    public static final int SAMSUNG_DEVICE_GESTURE_FACE_UP = 14;
+    public static final int SAMSUNG_DEVICE_GESTURE_FACE_DOWN = 15;
+    public static final int SAMSUNG_DEVICE_GESTURE_FREEFALL = 16;
 }
@@ -15,14 +15,11 @@ public class IPCConstants {
     public static final String BUNDLE_CHARACTERISTIC_TYPE = "BUNDLE_CHARACTERISTIC_TYPE";
     public static final String BUNDLE_CHARACTERISTIC_VALUE = "BUNDLE_CHARACTERISTIC_VALUE";
     public static final String BUNDLE_DEVICE_ADDRESS = "BUNDLE_DEVICE_ADDRESS";
+    public static final String BUNDLE_CONNECTION_TYPE = "BUNDLE_CONNECTION_TYPE";
 
-    public static final String INTENT_BLE_NOTIFICATION = "com.samsung.microbit.service.IPCService" +
-            ".INTENT_BLE_NOTIFICATION";
     public static final String INTENT_MICRO_BIT_NOTIFICATION = "com.samsung.microbit.service.IPCService" +
             ".INTENT_MICROBIT_NOTIFICATION";
 
-    public static final String NOTIFICATION_CAUSE = "com.samsung.microbit.service.IPCService.CAUSE";
-
     public static final String INTENT_TYPE = "com.samsung.intent_type";
     public static final String INTENT_MBS_SERVICE = "com.samsung.mbs_service";
     public static final String INTENT_REPLY_TO = "com.samsung.reply_to";
@@ -0,0 +1,30 @@
+package com.samsung.microbit.data.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a cached GATT service table of a micro:bit board.
+ * It contains service and characteristic layout discovered on the
+ * last connection, and firmware revision read at that time.
+ */
+public class GattServiceTable {
+
+    public String mAddress;
+    public String mFirmware;
+    /**
+     * Service UUID to sorted list of its characteristic UUIDs.
+     */
+    public Map<String, List<String>> mLayout;
+    public long mCachedTime;
+
+    public GattServiceTable() {
+    }
+
+    public GattServiceTable(String address, String firmware, Map<String, List<String>> layout, long cachedTime) {
+        this.mAddress = address;
+        this.mFirmware = firmware;
+        this.mLayout = layout;
+        this.mCachedTime = cachedTime;
+    }
+}
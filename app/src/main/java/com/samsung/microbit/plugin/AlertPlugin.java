@@ -1,8 +1,6 @@
 package com.samsung.microbit.plugin;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.media.MediaPlayer;
 import android.media.RingtoneManager;
@@ -15,13 +13,14 @@ import com.samsung.microbit.R;
 import com.samsung.microbit.data.constants.EventSubCodes;
 import com.samsung.microbit.data.constants.InternalPaths;
 import com.samsung.microbit.data.model.CmdArg;
+import com.samsung.microbit.presentation.AudioDurationCache;
+import com.samsung.microbit.presentation.LowLatencySoundPool;
 import com.samsung.microbit.presentation.PlayAudioPresenter;
 import com.samsung.microbit.presentation.PlayRingtonePresenter;
 import com.samsung.microbit.presentation.Presenter;
 import com.samsung.microbit.presentation.VibratePresenter;
 import com.samsung.microbit.ui.PopUp;
 
-import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -35,7 +34,7 @@ import static com.samsung.microbit.plugin.AlertPlugin.AlertType.*;
  * It can make your mobile device ring and vibrate so you can figure out
  * where it is if you can't find it.
  */
-public class AlertPlugin implements AbstractPlugin {
+public class AlertPlugin implements AbstractPlugin, PrewarmablePlugin {
     private static final String TAG = AlertPlugin.class.getSimpleName();
 
     private static final int MAX_RINGTONE_DURATION = (int) TimeUnit.SECONDS.toMillis(10);
@@ -43,7 +42,20 @@ public class AlertPlugin implements AbstractPlugin {
     private List<Presenter> activePresenters = new ArrayList<>();
     private List<Integer> alertTypes = new ArrayList<>();
 
-    private MediaPlayer mediaPlayer;
+    /**
+     * Reads durations of default sounds and preloads the find my phone sound, so an alert starts
+     * without preparing a media player.
+     */
+    @Override
+    public void prewarm() {
+        Context context = MBApp.getApp();
+
+        getMaxRingtoneDuration(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION));
+        getMaxRingtoneDuration(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE));
+        getMaxAudioDuration(InternalPaths.FIND_MY_PHONE_AUDIO);
+
+        LowLatencySoundPool.getInstance().preload(context, InternalPaths.FIND_MY_PHONE_AUDIO);
+    }
 
     @Override
     public void handleEntry(CmdArg cmd) {
@@ -136,47 +148,8 @@ public class AlertPlugin implements AbstractPlugin {
         }
     }
 
-    public static int getDuration(MediaPlayer mediaPlayer, AssetFileDescriptor afd) {
-        int duration = 500;
-
-        try {
-            mediaPlayer.reset();
-            mediaPlayer.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            afd.close();
-            mediaPlayer.prepare();
-            duration = mediaPlayer.getDuration();
-        } catch(IOException e) {
-            Log.e(TAG, e.toString());
-        }
-
-        mediaPlayer.reset();
-
-        return duration;
-    }
-
-    public static int getDuration(MediaPlayer mediaPlayer, Uri fileUri) {
-        int duration = 500;
-
-        try {
-            mediaPlayer.reset();
-            mediaPlayer.setDataSource(MBApp.getApp(), fileUri);
-            mediaPlayer.prepare();
-            duration = mediaPlayer.getDuration();
-        } catch(IOException e) {
-            Log.e(TAG, e.toString());
-        }
-
-        mediaPlayer.reset();
-
-        return duration;
-    }
-
-    private int getMaxRingtoneDuration(Uri ringtoneUri) {
-        if(mediaPlayer == null) {
-            mediaPlayer = new MediaPlayer();
-        }
-
-        int duration = getDuration(mediaPlayer, ringtoneUri);
+    private static int getMaxRingtoneDuration(Uri ringtoneUri) {
+        int duration = AudioDurationCache.getInstance().getDuration(MBApp.getApp(), ringtoneUri);
 
         if(MAX_RINGTONE_DURATION > 0 && duration > MAX_RINGTONE_DURATION) {
             duration = MAX_RINGTONE_DURATION;
@@ -185,18 +158,8 @@ public class AlertPlugin implements AbstractPlugin {
         return duration;
     }
 
-    private int getMaxAudioDuration(String rawNameForPlay) {
-        MBApp app = MBApp.getApp();
-
-        Resources resources = app.getResources();
-        int resID = resources.getIdentifier(rawNameForPlay, "raw", app.getPackageName());
-        AssetFileDescriptor afd = resources.openRawResourceFd(resID);
-
-        if(mediaPlayer == null) {
-            mediaPlayer = new MediaPlayer();
-        }
-
-        int duration = getDuration(mediaPlayer, afd);
+    private static int getMaxAudioDuration(String rawNameForPlay) {
+        int duration = AudioDurationCache.getInstance().getRawDuration(MBApp.getApp(), rawNameForPlay);
 
         if(MAX_RINGTONE_DURATION > 0 && duration > MAX_RINGTONE_DURATION) {
             duration = MAX_RINGTONE_DURATION;
@@ -216,7 +179,7 @@ public class AlertPlugin implements AbstractPlugin {
             playRingtonePresenter = (PlayRingtonePresenter) activePresenters.get(playRingtoneIndex);
         }
 
-        playRingtonePresenter.reInit(mediaPlayer, ringtoneUri, maxDuration, isAlarm);
+        playRingtonePresenter.reInit(ringtoneUri, maxDuration, isAlarm);
 
         if(playRingtoneIndex == -1) {
             activePresenters.add(playRingtonePresenter);
@@ -317,6 +280,7 @@ public class AlertPlugin implements AbstractPlugin {
             presenter.destroy();
         }
         activePresenters.clear();
+        alertTypes.clear();
     }
 
     @Retention(RetentionPolicy.RUNTIME)
@@ -4,19 +4,22 @@ import android.content.Context;
 import android.content.Intent;
 import android.media.MediaPlayer;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.samsung.microbit.MBApp;
 import com.samsung.microbit.data.constants.EventSubCodes;
 import com.samsung.microbit.data.constants.InternalPaths;
 import com.samsung.microbit.data.model.CmdArg;
+import com.samsung.microbit.presentation.AudioDurationCache;
+import com.samsung.microbit.presentation.LowLatencySoundPool;
 import com.samsung.microbit.presentation.PlayAudioPresenter;
 import com.samsung.microbit.ui.activity.CameraActivityPermissionChecker;
 
 /**
  * Allows to start and interact with a device camera.
  */
-public class CameraPlugin implements AbstractPlugin {
+public class CameraPlugin implements AbstractPlugin, PrewarmablePlugin {
     private static final String TAG = CameraPlugin.class.getSimpleName();
 
     public static final String OPEN_FOR_PIC_ACTION = "OPEN_FOR_PIC";
@@ -28,11 +31,25 @@ public class CameraPlugin implements AbstractPlugin {
     public static final String ACTION_STOP_VIDEO = "STOP_VIDEO";
     public static final String ACTION_CLOSE = "CLOSE";
 
+    /**
+     * Time a picture was triggered, see {@link SystemClock#elapsedRealtime()}. Long extra of
+     * {@link #ACTION_TAKE_PICTURE}.
+     */
+    public static final String EXTRA_TRIGGER_TIME = "trigger_time";
+    /**
+     * Number of pictures to take in a row. Int extra of {@link #ACTION_TAKE_PICTURE}, 1 by default.
+     */
+    public static final String EXTRA_BURST_COUNT = "burst_count";
+
+    public static final int BURST_COUNT = 3;
+
     private PowerManager mPowerManager;
     private PowerManager.WakeLock mWakeLock;
 
     private int m_CurrentState;
     private int m_NextState;
+    private int m_BurstCount = 1;
+    private long m_TriggerTime;
     private PlayAudioPresenter playAudioPresenter;
 
     private MediaPlayer.OnCompletionListener onCompletionListener = new MediaPlayer.OnCompletionListener() {
@@ -43,13 +60,37 @@ public class CameraPlugin implements AbstractPlugin {
     };
 
     @Override
-    public void handleEntry(CmdArg cmd) {
+    public void prewarm() {
         Context ctx = MBApp.getApp();
 
+        initWakeLock(ctx);
+
+        if(playAudioPresenter == null) {
+            playAudioPresenter = new PlayAudioPresenter();
+        }
+
+        //Camera is launched once these are played
+        LowLatencySoundPool soundPool = LowLatencySoundPool.getInstance();
+        AudioDurationCache durationCache = AudioDurationCache.getInstance();
+        for(String rawName : new String[]{InternalPaths.LAUNCH_CAMERA_AUDIO_PHOTO, InternalPaths
+                .LAUNCH_CAMERA_AUDIO_VIDEO}) {
+            soundPool.preload(ctx, rawName);
+            durationCache.getRawDuration(ctx, rawName);
+        }
+    }
+
+    private void initWakeLock(Context ctx) {
         if(mPowerManager == null) {
             mPowerManager = (PowerManager) ctx.getApplicationContext().getSystemService(Context.POWER_SERVICE);
             mWakeLock = mPowerManager.newWakeLock(PowerManager.SCREEN_BRIGHT_WAKE_LOCK | PowerManager.ACQUIRE_CAUSES_WAKEUP, TAG);
         }
+    }
+
+    @Override
+    public void handleEntry(CmdArg cmd) {
+        Context ctx = MBApp.getApp();
+
+        initWakeLock(ctx);
 
         int cmdArg = cmd.getCMD();
 
@@ -95,6 +136,15 @@ public class CameraPlugin implements AbstractPlugin {
 
             case EventSubCodes.SAMSUNG_CAMERA_EVT_TAKE_PHOTO:
                 m_NextState = EventSubCodes.SAMSUNG_CAMERA_EVT_TAKE_PHOTO;
+                m_BurstCount = 1;
+                m_TriggerTime = SystemClock.elapsedRealtime();
+                performOnEnd();
+                break;
+
+            case EventSubCodes.SAMSUNG_CAMERA_EVT_TAKE_BURST:
+                m_NextState = EventSubCodes.SAMSUNG_CAMERA_EVT_TAKE_PHOTO;
+                m_BurstCount = BURST_COUNT;
+                m_TriggerTime = SystemClock.elapsedRealtime();
                 performOnEnd();
                 break;
 
@@ -119,10 +169,14 @@ public class CameraPlugin implements AbstractPlugin {
     @Override
     public void destroy() {
         if(playAudioPresenter != null) {
-            playAudioPresenter.stop();
             playAudioPresenter.setCallBack(null);
+            playAudioPresenter.destroy();
             playAudioPresenter = null;
         }
+
+        if(mWakeLock != null && mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
     }
 
     /**
@@ -138,7 +192,7 @@ public class CameraPlugin implements AbstractPlugin {
                 launchCamera(false);
                 break;
             case EventSubCodes.SAMSUNG_CAMERA_EVT_TAKE_PHOTO:
-                takePic();
+                takePic(m_TriggerTime, m_BurstCount);
                 break;
             case EventSubCodes.SAMSUNG_CAMERA_EVT_START_VIDEO_CAPTURE:
                 recVideoStart();
@@ -148,9 +202,14 @@ public class CameraPlugin implements AbstractPlugin {
 
     /**
      * Sends a broadcast intent to take a picture.
+     *
+     * @param triggerTime Time the picture was triggered.
+     * @param burstCount  Number of pictures to take in a row.
      */
-    private static void takePic() {
+    private static void takePic(long triggerTime, int burstCount) {
         Intent intent = new Intent(ACTION_TAKE_PICTURE);
+        intent.putExtra(EXTRA_TRIGGER_TIME, triggerTime);
+        intent.putExtra(EXTRA_BURST_COUNT, burstCount);
         MBApp.getApp().sendBroadcast(intent);
     }
 
@@ -2,22 +2,21 @@ package com.samsung.microbit.plugin;
 
 import android.support.annotation.IntDef;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.samsung.microbit.data.constants.RegistrationIds;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.presentation.BatteryPresenter;
+import com.samsung.microbit.presentation.GesturePresenter;
 import com.samsung.microbit.presentation.OrientationChangedPresenter;
 import com.samsung.microbit.presentation.Presenter;
 import com.samsung.microbit.presentation.ScreenOnOffPresenter;
-import com.samsung.microbit.presentation.ShakePresenter;
 import com.samsung.microbit.presentation.SignalStrengthPresenter;
 import com.samsung.microbit.presentation.TemperaturePresenter;
 import com.samsung.microbit.utils.ServiceUtils;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.ArrayList;
-import java.util.List;
 
 import static com.samsung.microbit.plugin.InformationPlugin.AlertType.TYPE_BATTERY;
 import static com.samsung.microbit.plugin.InformationPlugin.AlertType.TYPE_ORIENTATION;
@@ -32,8 +31,7 @@ import static com.samsung.microbit.plugin.InformationPlugin.AlertType.TYPE_TEMPE
 public class InformationPlugin implements AbstractPlugin {
     private static final String TAG = InformationPlugin.class.getSimpleName();
 
-    private List<Presenter> activePresenters = new ArrayList<>();
-    private List<Integer> alertTypes = new ArrayList<>();
+    private final SparseArray<Presenter> presenters = new SparseArray<>();
 
     @Override
     public void handleEntry(CmdArg cmd) {
@@ -42,156 +40,88 @@ public class InformationPlugin implements AbstractPlugin {
             register = cmd.getValue().toLowerCase().equals("on");
         }
 
+        int alertType;
         switch(cmd.getCMD()) {
             case RegistrationIds.REG_SIGNALSTRENGTH:
-                if(register) {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_SIGNAL_STRENGTH);
-                    if(presenter == null) {
-                        SignalStrengthPresenter signalStrengthPresenter = new SignalStrengthPresenter();
-                        signalStrengthPresenter.setInformationPlugin(this);
-                        activePresenters.add(signalStrengthPresenter);
-                        alertTypes.add(AlertType.TYPE_SIGNAL_STRENGTH);
-
-                        presenter = signalStrengthPresenter;
-                    }
-
-                    presenter.start();
-                } else {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_SIGNAL_STRENGTH);
-                    if(presenter != null) {
-                        presenter.stop();
-                    }
-                }
+                alertType = TYPE_SIGNAL_STRENGTH;
                 break;
-
             case RegistrationIds.REG_DEVICEORIENTATION:
-                if(register) {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_ORIENTATION);
-                    if(presenter == null) {
-                        OrientationChangedPresenter orientationChangedPresenter = new OrientationChangedPresenter();
-                        activePresenters.add(orientationChangedPresenter);
-                        alertTypes.add(AlertType.TYPE_ORIENTATION);
-
-                        presenter = orientationChangedPresenter;
-                    }
-
-                    presenter.start();
-                } else {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_ORIENTATION);
-                    if(presenter != null) {
-                        presenter.stop();
-                    }
-                }
+                alertType = TYPE_ORIENTATION;
                 break;
-
             case RegistrationIds.REG_DEVICEGESTURE:
-                if(register) {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_SHAKE);
-                    if(presenter == null) {
-                        ShakePresenter shakePresenter = new ShakePresenter();
-                        shakePresenter.setInformationPlugin(this);
-                        activePresenters.add(shakePresenter);
-                        alertTypes.add(AlertType.TYPE_SHAKE);
-
-                        presenter = shakePresenter;
-                    }
-
-                    presenter.start();
-                } else {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_SHAKE);
-                    if(presenter != null) {
-                        presenter.stop();
-                    }
-                }
+                alertType = TYPE_SHAKE;
                 break;
-
             case RegistrationIds.REG_BATTERYSTRENGTH:
-                if(register) {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_BATTERY);
-                    if(presenter == null) {
-                        BatteryPresenter batteryPresenter = new BatteryPresenter();
-                        batteryPresenter.setInformationPlugin(this);
-                        activePresenters.add(batteryPresenter);
-                        alertTypes.add(AlertType.TYPE_BATTERY);
-
-                        presenter = batteryPresenter;
-                    }
-
-                    presenter.start();
-                } else {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_BATTERY);
-                    if(presenter != null) {
-                        presenter.stop();
-                    }
-                }
+                alertType = TYPE_BATTERY;
                 break;
-
             case RegistrationIds.REG_TEMPERATURE:
-                if(register) {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_TEMPERATURE);
-                    if(presenter == null) {
-                        TemperaturePresenter temperaturePresenter = new TemperaturePresenter();
-                        temperaturePresenter.setInformationPlugin(this);
-                        activePresenters.add(temperaturePresenter);
-                        alertTypes.add(AlertType.TYPE_TEMPERATURE);
-
-                        presenter = temperaturePresenter;
-                    }
-
-                    presenter.start();
-                } else {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_TEMPERATURE);
-                    if(presenter != null) {
-                        presenter.stop();
-                    }
-                }
+                alertType = TYPE_TEMPERATURE;
                 break;
             case RegistrationIds.REG_DISPLAY:
-                if(register) {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_SCREEN_ON_OFF);
-                    if(presenter == null) {
-                        ScreenOnOffPresenter screenOnOffPresenter = new ScreenOnOffPresenter();
-                        activePresenters.add(screenOnOffPresenter);
-                        alertTypes.add(AlertType.TYPE_SCREEN_ON_OFF);
-
-                        presenter = screenOnOffPresenter;
-                    }
-
-                    presenter.start();
-                } else {
-                    Presenter presenter = findPresenterByType(AlertType.TYPE_SCREEN_ON_OFF);
-                    if(presenter != null) {
-                        presenter.stop();
-                    }
-                }
+                alertType = TYPE_SCREEN_ON_OFF;
                 break;
             default:
                 Log.e(TAG, "Unknown category");
+                return;
         }
-    }
 
-    public void sendReplyCommand(int mbsService, CmdArg cmd) {
-        // TODO not needed ??? remove
-        ServiceUtils.sendReplyCommand(mbsService, cmd);
+        Presenter presenter = presenters.get(alertType);
+        if(register) {
+            if(presenter == null) {
+                presenter = createPresenter(alertType);
+                presenters.put(alertType, presenter);
+            }
+
+            presenter.start();
+        } else if(presenter != null) {
+            presenter.stop();
+        }
     }
 
-    private Presenter findPresenterByType(@AlertType int alertType) {
-        int index = alertTypes.indexOf(alertType);
+    private Presenter createPresenter(@AlertType int alertType) {
+        switch(alertType) {
+            case TYPE_SIGNAL_STRENGTH:
+                SignalStrengthPresenter signalStrengthPresenter = new SignalStrengthPresenter();
+                signalStrengthPresenter.setInformationPlugin(this);
+                return signalStrengthPresenter;
 
-        if(index != -1) {
-            return activePresenters.get(index);
-        } else {
-            return null;
+            case TYPE_ORIENTATION:
+                return new OrientationChangedPresenter();
+
+            case TYPE_SHAKE:
+                GesturePresenter gesturePresenter = new GesturePresenter();
+                gesturePresenter.setInformationPlugin(this);
+                return gesturePresenter;
+
+            case TYPE_BATTERY:
+                BatteryPresenter batteryPresenter = new BatteryPresenter();
+                batteryPresenter.setInformationPlugin(this);
+                return batteryPresenter;
+
+            case TYPE_TEMPERATURE:
+                TemperaturePresenter temperaturePresenter = new TemperaturePresenter();
+                temperaturePresenter.setInformationPlugin(this);
+                return temperaturePresenter;
+
+            case TYPE_SCREEN_ON_OFF:
+            default:
+                return new ScreenOnOffPresenter();
         }
     }
 
+    public void sendReplyCommand(int mbsService, CmdArg cmd) {
+        // TODO not needed ??? remove
+        ServiceUtils.sendReplyCommand(mbsService, cmd);
+    }
+
     @Override
     public void destroy() {
-        for(Presenter presenter : activePresenters) {
+        for(int i = 0; i < presenters.size(); i++) {
+            Presenter presenter = presenters.valueAt(i);
             presenter.stop();
             presenter.destroy();
         }
-        activePresenters.clear();
+        presenters.clear();
     }
 
     @Retention(RetentionPolicy.RUNTIME)
@@ -0,0 +1,152 @@
+package com.samsung.microbit.plugin;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared timer of plugins and their presenters, e.g. for sending media keys or stopping a ringtone
+ * after its duration.
+ * <p/>
+ * Tasks run one at a time on a background thread, in the order they are due, tasks due at the same
+ * time in the order they were scheduled. So media keys are sent in the order they were pressed, and
+ * tasks must be short. The thread exits when idle. At most {@link #MAX_PENDING} tasks wait at a time,
+ * further ones are rejected, so a flood of events from micro:bit can't grow the queue without limit.
+ * Tasks that must not be lost, e.g. stop timers, are never rejected. Lateness of tasks, i.e. time from
+ * when a task is due to when it starts, is measured.
+ */
+public final class PluginScheduler {
+    private static final String TAG = PluginScheduler.class.getSimpleName();
+
+    private static final int POOL_SIZE = 1;
+    private static final long KEEP_ALIVE_TIME = 30;
+
+    public static final int MAX_PENDING = 32;
+
+    private static PluginScheduler instance;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private int scheduledCount;
+    private int rejectedCount;
+    private int executedCount;
+    private long totalLateness;
+    private long maxLateness;
+
+    private PluginScheduler() {
+        executor = new ScheduledThreadPoolExecutor(POOL_SIZE, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "PluginTimer-" + threadCount.incrementAndGet());
+            }
+        });
+        executor.setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Cancelled stop timers would otherwise wait in the queue until they are due
+            executor.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    public static synchronized PluginScheduler getInstance() {
+        if(instance == null) {
+            instance = new PluginScheduler();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Runs a task after a delay.
+     *
+     * @param task  Task to run.
+     * @param delay Delay in milliseconds, 0 to run the task as soon as possible.
+     * @return Future to cancel the task with, or null if too many tasks are waiting.
+     */
+    @Nullable
+    public ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return schedule(task, delay, true);
+    }
+
+    /**
+     * Runs a task after a delay, however many tasks are waiting. For tasks that must run, e.g. a timer
+     * stopping a ringtone, of which each caller has at most one pending.
+     *
+     * @param task  Task to run.
+     * @param delay Delay in milliseconds.
+     * @return Future to cancel the task with.
+     */
+    public ScheduledFuture<?> scheduleAlways(Runnable task, long delay) {
+        return schedule(task, delay, false);
+    }
+
+    private synchronized ScheduledFuture<?> schedule(final Runnable task, long delay, boolean mayReject) {
+        if(mayReject && executor.getQueue().size() >= MAX_PENDING) {
+            rejectedCount++;
+            Log.w(TAG, "schedule() :: rejected, " + MAX_PENDING + " tasks pending");
+            return null;
+        }
+
+        final long dueTime = SystemClock.uptimeMillis() + delay;
+
+        try {
+            ScheduledFuture<?> future = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onStarted(SystemClock.uptimeMillis() - dueTime);
+                    task.run();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+
+            scheduledCount++;
+            return future;
+        } catch(RejectedExecutionException e) {
+            Log.e(TAG, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Cancels a task, if it hasn't started yet.
+     *
+     * @param future Future of the task, may be null.
+     */
+    public static void cancel(@Nullable ScheduledFuture<?> future) {
+        if(future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private synchronized void onStarted(long lateness) {
+        executedCount++;
+        totalLateness += lateness;
+        maxLateness = Math.max(maxLateness, lateness);
+    }
+
+    /**
+     * Prints counters and lateness of tasks.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "PluginScheduler{pending=" + executor.getQueue().size() +
+                ", scheduled=" + scheduledCount +
+                ", rejected=" + rejectedCount +
+                ", executed=" + executedCount +
+                ", avgLateness=" + (executedCount > 0 ? totalLateness / executedCount : 0) + "ms" +
+                ", maxLateness=" + maxLateness + "ms" +
+                '}');
+    }
+}
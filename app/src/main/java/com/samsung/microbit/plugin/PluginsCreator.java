@@ -1,24 +1,112 @@
 package com.samsung.microbit.plugin;
 
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseLongArray;
 
 import com.samsung.microbit.data.constants.EventCategories;
 
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import static com.samsung.microbit.BuildConfig.DEBUG;
 
 /**
  * Used for creating plugins, and cache them whether it's possible.
+ * <p/>
+ * Plugins of categories micro:bit is going to use can be {@link #prewarm(int, Handler) prewarmed}: created,
+ * and {@link PrewarmablePlugin#prewarm() set up} if they support it, on a background thread, so the first
+ * event doesn't wait for that. Plugins that are not used for the idle timeout are destroyed to free their
+ * media resources, and created again by the next event. Plugins holding registrations of micro:bit,
+ * i.e. information and telephony ones, are kept.
+ * <p/>
+ * Plugins are handed out, used and evicted on the thread the creator is made on. Plugins are constructed and
+ * prewarmed outside of the cache lock, so handing out a cached plugin never waits for a prewarm of another one.
  */
 public class PluginsCreator {
     private static final String TAG = PluginsCreator.class.getSimpleName();
 
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
     private static void logi(String message) {
         Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
     }
 
-    private SparseArray<AbstractPlugin> cachedPlugins = new SparseArray<>();
+    private final Object lock = new Object();
+
+    private final SparseArray<AbstractPlugin> cachedPlugins = new SparseArray<>();
+    private final SparseArray<PendingPlugin> pendingPlugins = new SparseArray<>();
+    private final SparseLongArray lastUsedTimes = new SparseLongArray();
+
+    private final long idleTimeout;
+    private final Handler evictionHandler;
+    private final ExecutorService prewarmExecutor;
+
+    private boolean evictionScheduled;
+    private boolean destroyed;
+
+    private int createdCount;
+    private int prewarmedCount;
+    private int evictedCount;
+
+    /**
+     * Plugin being created, so other callers wait for it instead of creating another one.
+     */
+    private static final class PendingPlugin {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile AbstractPlugin plugin;
+
+        void complete(AbstractPlugin plugin) {
+            this.plugin = plugin;
+            done.countDown();
+        }
+
+        AbstractPlugin await() {
+            try {
+                done.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            return plugin;
+        }
+    }
+
+    private final Runnable evictionTask = new Runnable() {
+        @Override
+        public void run() {
+            evictIdle();
+        }
+    };
+
+    public PluginsCreator() {
+        this(DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param idleTimeout Time in milliseconds a plugin is kept without events, 0 to keep plugins forever.
+     */
+    public PluginsCreator(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.evictionHandler = new Handler(Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
+        // Plain thread without a looper, see PrewarmablePlugin
+        this.prewarmExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PluginPrewarm");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
 
     /**
      * Creates plugin for managing concrete category of events.
@@ -31,61 +119,256 @@ public class PluginsCreator {
             logi("handleMessage() ##  " + eventCategory);
         }
 
-        AbstractPlugin cachedPlugin = cachedPlugins.get(eventCategory);
+        // Waits for a prewarm of the same plugin, if it's running
+        AbstractPlugin abstractPlugin = obtain(eventCategory, serviceHandler, false);
+
+        if(abstractPlugin == null) {
+            Log.e(TAG, "Plugin not initialized");
+        } else {
+            scheduleEviction();
+        }
+        return abstractPlugin;
+    }
+
+    /**
+     * Creates a plugin of a category on a background thread, if it's not created yet.
+     *
+     * @param eventCategory  Category of events, unknown ones are ignored.
+     * @param serviceHandler Handler of the plugin service.
+     */
+    public void prewarm(final int eventCategory, final Handler serviceHandler) {
+        synchronized(lock) {
+            if(cachedPlugins.get(eventCategory) != null || pendingPlugins.get(eventCategory) != null ||
+                    prewarmExecutor.isShutdown()) {
+                return;
+            }
+        }
+
+        prewarmExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(obtain(eventCategory, serviceHandler, true) != null) {
+                    evictionHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            scheduleEviction();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private AbstractPlugin obtain(int eventCategory, Handler serviceHandler, boolean prewarm) {
+        PendingPlugin pending;
+        boolean creating = false;
+
+        synchronized(lock) {
+            AbstractPlugin cachedPlugin = cachedPlugins.get(eventCategory);
+            if(cachedPlugin != null) {
+                lastUsedTimes.put(eventCategory, SystemClock.elapsedRealtime());
+                return cachedPlugin;
+            }
+
+            pending = pendingPlugins.get(eventCategory);
+            if(pending == null) {
+                pending = new PendingPlugin();
+                pendingPlugins.put(eventCategory, pending);
+                creating = true;
+            } else if(prewarm) {
+                // Already being created
+                return null;
+            }
+        }
+
+        if(!creating) {
+            // Being prewarmed right now, waiting is shorter than creating another one
+            AbstractPlugin plugin = pending.await();
+            if(plugin != null) {
+                synchronized(lock) {
+                    lastUsedTimes.put(eventCategory, SystemClock.elapsedRealtime());
+                }
+            }
+
+            return plugin;
+        }
+
+        AbstractPlugin plugin = null;
+        boolean prewarmed = false;
+        try {
+            plugin = newPlugin(eventCategory, serviceHandler);
+            if(plugin != null && prewarm && plugin instanceof PrewarmablePlugin) {
+                ((PrewarmablePlugin) plugin).prewarm();
+                prewarmed = true;
+            }
+        } finally {
+            plugin = publish(eventCategory, plugin, prewarmed);
+            pending.complete(plugin);
+        }
+
+        if(DEBUG && plugin != null) {
+            logi("obtain() :: created " + plugin.getClass().getSimpleName() + " prewarm = " + prewarm);
+        }
+
+        return plugin;
+    }
+
+    /**
+     * Puts a created plugin into the cache, unless the creator was destroyed meanwhile.
+     *
+     * @return The plugin, or null if it wasn't created or was destroyed.
+     */
+    private AbstractPlugin publish(int eventCategory, AbstractPlugin plugin, boolean prewarmed) {
+        synchronized(lock) {
+            pendingPlugins.remove(eventCategory);
+
+            if(plugin != null && !destroyed) {
+                cachedPlugins.put(eventCategory, plugin);
+                lastUsedTimes.put(eventCategory, SystemClock.elapsedRealtime());
+                createdCount++;
+                if(prewarmed) {
+                    prewarmedCount++;
+                }
+
+                return plugin;
+            }
+        }
 
-        if(cachedPlugin != null) {
-            return cachedPlugin;
+        if(plugin != null) {
+            plugin.destroy();
         }
 
-        final AbstractPlugin abstractPlugin;
+        return null;
+    }
 
+    private static AbstractPlugin newPlugin(int eventCategory, Handler serviceHandler) {
         switch(eventCategory) {
             case EventCategories.SAMSUNG_REMOTE_CONTROL_ID:
-                abstractPlugin = new RemoteControlPlugin();
-                break;
+                return new RemoteControlPlugin();
 
             case EventCategories.SAMSUNG_ALERTS_ID:
-                abstractPlugin = new AlertPlugin();
-                break;
+                return new AlertPlugin();
 
             case EventCategories.SAMSUNG_AUDIO_RECORDER_ID:
-                abstractPlugin = new AudioRecordPlugin();
-                break;
+                return new AudioRecordPlugin();
 
             case EventCategories.SAMSUNG_CAMERA_ID:
-                abstractPlugin = new CameraPlugin();
-                break;
+                return new CameraPlugin();
 
             case EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID:
-                abstractPlugin = new InformationPlugin();
-                break;
+                return new InformationPlugin();
 
             case EventCategories.SAMSUNG_DEVICE_INFO_ID:
-                abstractPlugin = new InformationPlugin();
-                break;
+                return new InformationPlugin();
 
             case EventCategories.SAMSUNG_TELEPHONY_ID:
-                abstractPlugin = new TelephonyPlugin(serviceHandler);
-                break;
+                return new TelephonyPlugin(serviceHandler);
             default:
-                abstractPlugin = null;
+                return null;
         }
+    }
 
-        if(abstractPlugin == null) {
-            Log.e(TAG, "Plugin not initialized");
-        } else {
-            cachedPlugins.put(eventCategory, abstractPlugin);
+    /**
+     * @return True if a plugin of the category keeps no state between events, which would be lost
+     * by destroying it.
+     */
+    private static boolean isEvictable(int eventCategory) {
+        switch(eventCategory) {
+            case EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID:
+            case EventCategories.SAMSUNG_DEVICE_INFO_ID:
+            case EventCategories.SAMSUNG_TELEPHONY_ID:
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    private void scheduleEviction() {
+        if(idleTimeout <= 0 || evictionScheduled) {
+            return;
+        }
+
+        evictionScheduled = true;
+        evictionHandler.postDelayed(evictionTask, idleTimeout);
+    }
+
+    /**
+     * Destroys plugins idle for the timeout and schedules the next check for the rest.
+     */
+    private void evictIdle() {
+        evictionScheduled = false;
+
+        long now = SystemClock.elapsedRealtime();
+        long nextCheck = Long.MAX_VALUE;
+
+        synchronized(lock) {
+            for(int i = cachedPlugins.size() - 1; i >= 0; i--) {
+                int category = cachedPlugins.keyAt(i);
+                if(!isEvictable(category)) {
+                    continue;
+                }
+
+                long idleFor = now - lastUsedTimes.get(category);
+                if(idleFor >= idleTimeout) {
+                    AbstractPlugin plugin = cachedPlugins.valueAt(i);
+                    cachedPlugins.removeAt(i);
+                    lastUsedTimes.delete(category);
+                    evictedCount++;
+
+                    plugin.destroy();
+                    if(DEBUG) {
+                        logi("evictIdle() :: evicted " + plugin.getClass().getSimpleName() + " idle for " +
+                                idleFor);
+                    }
+                } else {
+                    nextCheck = Math.min(nextCheck, idleTimeout - idleFor);
+                }
+            }
+        }
+
+        if(nextCheck != Long.MAX_VALUE) {
+            evictionScheduled = true;
+            evictionHandler.postDelayed(evictionTask, nextCheck);
+        }
+    }
+
+    /**
+     * Prints cached plugins and counters.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        long now = SystemClock.elapsedRealtime();
+
+        synchronized(lock) {
+            writer.println(prefix + "PluginsCreator{idleTimeout=" + idleTimeout + "ms, created=" + createdCount +
+                    ", prewarmed=" + prewarmedCount + ", evicted=" + evictedCount + '}');
+            for(int i = 0; i < cachedPlugins.size(); i++) {
+                int category = cachedPlugins.keyAt(i);
+                writer.println(prefix + "  " + category + ": " + cachedPlugins.valueAt(i).getClass().getSimpleName() +
+                        " idle " + (now - lastUsedTimes.get(category)) + "ms" +
+                        (isEvictable(category) ? "" : " (kept)"));
+            }
         }
-        return abstractPlugin;
     }
 
     /**
      * Free plugin resources.
      */
     public void destroy() {
-        for(int i = 0; i < cachedPlugins.size(); i++) {
-            cachedPlugins.valueAt(i).destroy();
+        prewarmExecutor.shutdownNow();
+        evictionHandler.removeCallbacks(evictionTask);
+        evictionScheduled = false;
+
+        synchronized(lock) {
+            destroyed = true;
+            for(int i = 0; i < cachedPlugins.size(); i++) {
+                cachedPlugins.valueAt(i).destroy();
+            }
+            cachedPlugins.clear();
+            lastUsedTimes.clear();
         }
-        cachedPlugins.clear();
     }
 }
@@ -0,0 +1,13 @@
+package com.samsung.microbit.plugin;
+
+/**
+ * Plugin with setup that can be done ahead of the first event, e.g. creating a media player.
+ * See {@link PluginsCreator#prewarm(int, android.os.Handler)}.
+ */
+public interface PrewarmablePlugin {
+    /**
+     * Called once on a background thread, before the plugin is handed out. The thread has no looper,
+     * so media callbacks set up here are delivered on the main thread, as for the plugin itself.
+     */
+    void prewarm();
+}
@@ -3,6 +3,7 @@ package com.samsung.microbit.plugin;
 import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 
@@ -10,15 +11,17 @@ import com.samsung.microbit.MBApp;
 import com.samsung.microbit.data.constants.EventSubCodes;
 import com.samsung.microbit.data.model.CmdArg;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import static com.samsung.microbit.BuildConfig.DEBUG;
 
 /**
  * Provides remote control of a media player.
  * For example, it can start a music player on your phone and control playback
  * using keys on a micro:bit board.
+ * <p/>
+ * Key events are sent by tasks of the shared {@link PluginScheduler} rather than a timer of the plugin.
+ * Key up follows key down after {@link #KEY_UP_DELAY}, as some players ignore shorter presses. It's
+ * scheduled once key down is sent, and never rejected, so a key isn't left pressed. The scheduler runs
+ * tasks one at a time, so presses are sent in the order they arrived.
  */
 public class RemoteControlPlugin implements AbstractPlugin {
     private static final String TAG = RemoteControlPlugin.class.getSimpleName();
@@ -32,7 +35,13 @@ public class RemoteControlPlugin implements AbstractPlugin {
         Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
     }
 
-    private Timer timer;
+    /**
+     * Time between key down and key up of a press, in milliseconds.
+     */
+    private static final long KEY_UP_DELAY = 100;
+
+    private int pressCount;
+    private long maxPressLatency;
 
     @Override
     public void handleEntry(CmdArg cmd) {
@@ -40,10 +49,6 @@ public class RemoteControlPlugin implements AbstractPlugin {
             logi("pluginEntry() ##  " + cmd.getCMD());
         }
 
-        if(timer == null) {
-            timer = new Timer();
-        }
-
         switch(cmd.getCMD()) {
             case EventSubCodes.SAMSUNG_REMOTE_CONTROL_EVT_PLAY:
                 play();
@@ -99,54 +104,65 @@ public class RemoteControlPlugin implements AbstractPlugin {
     }
 
     /**
-     * Provides schedule to send media key event.
+     * Sends a press of a media key, i.e. key down as soon as possible and key up {@link #KEY_UP_DELAY} later.
      *
-     * @param action Event action.
-     * @param code   Event code.
-     * @param delay  Schedule delay.
+     * @param code Key code.
      */
-    private void scheduleMediaKeyEvent(final int action, final int code, final int delay) {
-        timer.schedule(new TimerTask() {
+    private void pressMediaKey(final int code) {
+        final long pressTime = SystemClock.uptimeMillis();
+
+        PluginScheduler.getInstance().schedule(new Runnable() {
             @Override
             public void run() {
-                sendMediaKeyEvent(action, code);
+                sendMediaKeyEvent(KeyEvent.ACTION_DOWN, code);
+                PluginScheduler.getInstance().scheduleAlways(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendMediaKeyEvent(KeyEvent.ACTION_UP, code);
+                    }
+                }, KEY_UP_DELAY);
+
+                onPressed(code, SystemClock.uptimeMillis() - pressTime);
             }
-        }, delay);
+        }, 0);
+    }
+
+    private synchronized void onPressed(int code, long latency) {
+        pressCount++;
+        maxPressLatency = Math.max(maxPressLatency, latency);
+
+        if(DEBUG) {
+            logi("onPressed() :: key " + code + " latency " + latency + "ms, max " + maxPressLatency + "ms of " +
+                    pressCount);
+        }
     }
 
     private void play() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_PLAY, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_PLAY, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_PLAY);
     }
 
     private void pause() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_PAUSE, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_PAUSE, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_PAUSE);
     }
 
     private void stopPlaying() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_STOP, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_STOP, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_STOP);
     }
 
     private void nextTrack() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_NEXT, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_NEXT, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_NEXT);
     }
 
     private void previousTrack() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_PREVIOUS, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_PREVIOUS, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
     }
 
     private void forward() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_FAST_FORWARD, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_FAST_FORWARD, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_FAST_FORWARD);
     }
 
     private void rewind() {
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_REWIND, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_REWIND, 100);
+        pressMediaKey(KeyEvent.KEYCODE_MEDIA_REWIND);
     }
 
     private void volumeUp() {
@@ -154,8 +170,7 @@ public class RemoteControlPlugin implements AbstractPlugin {
         audio.adjustStreamVolume(AudioManager.STREAM_MUSIC,
                 AudioManager.ADJUST_RAISE, AudioManager.FLAG_SHOW_UI);
         /*
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_VOLUME_UP, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_VOLUME_UP, 100);
+        pressMediaKey(KeyEvent.KEYCODE_VOLUME_UP);
         */
     }
 
@@ -164,16 +179,12 @@ public class RemoteControlPlugin implements AbstractPlugin {
         audio.adjustStreamVolume(AudioManager.STREAM_MUSIC,
                 AudioManager.ADJUST_LOWER, AudioManager.FLAG_SHOW_UI);
 		/*
-        scheduleMediaKeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_VOLUME_DOWN, 0);
-        scheduleMediaKeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_VOLUME_DOWN, 100);
+        pressMediaKey(KeyEvent.KEYCODE_VOLUME_DOWN);
         */
     }
 
     @Override
     public void destroy() {
-        if(timer != null) {
-            timer.cancel();
-            timer = null;
-        }
+        // Presses already scheduled are sent, nothing else to free
     }
 }
@@ -0,0 +1,202 @@
+package com.samsung.microbit.presentation;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Cache of durations of ringtones and raw audio files, keyed by ringtone uri or raw resource name.
+ * <p/>
+ * Durations are read from file metadata, without preparing a media player. Default ringtone, notification
+ * and alarm uris point to whatever sound is chosen in settings, so their entries are dropped when
+ * those settings change.
+ */
+public final class AudioDurationCache {
+    private static final String TAG = AudioDurationCache.class.getSimpleName();
+
+    /**
+     * Duration used when it can't be read.
+     */
+    public static final int DEFAULT_DURATION = 500;
+
+    private static final String SETTINGS_URI_PREFIX = "content://settings/";
+
+    private static AudioDurationCache instance;
+
+    private final Map<String, Integer> durations = new HashMap<>();
+
+    private boolean observing;
+    private int hitCount;
+    private int missCount;
+
+    private final ContentObserver settingsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidateDefaults();
+        }
+    };
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private AudioDurationCache() {
+    }
+
+    public static synchronized AudioDurationCache getInstance() {
+        if(instance == null) {
+            instance = new AudioDurationCache();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @param context     Context.
+     * @param ringtoneUri Uri of a ringtone, e.g. {@link android.media.RingtoneManager#getDefaultUri(int)}.
+     * @return Duration in milliseconds, or {@link #DEFAULT_DURATION} if it can't be read.
+     */
+    public int getDuration(Context context, Uri ringtoneUri) {
+        String key = ringtoneUri.toString();
+
+        synchronized(this) {
+            startObserving(context);
+
+            Integer duration = durations.get(key);
+            if(duration != null) {
+                hitCount++;
+                return duration;
+            }
+
+            missCount++;
+        }
+
+        int duration = DEFAULT_DURATION;
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, ringtoneUri);
+            duration = parseDuration(retriever);
+        } catch(RuntimeException e) {
+            Log.e(TAG, e.toString());
+        } finally {
+            retriever.release();
+        }
+
+        return put(key, duration);
+    }
+
+    /**
+     * @param context Context.
+     * @param rawName Name of a raw resource, e.g. {@link com.samsung.microbit.data.constants.InternalPaths#FIND_MY_PHONE_AUDIO}.
+     * @return Duration in milliseconds, or {@link #DEFAULT_DURATION} if it can't be read.
+     */
+    public int getRawDuration(Context context, String rawName) {
+        synchronized(this) {
+            Integer duration = durations.get(rawName);
+            if(duration != null) {
+                hitCount++;
+                return duration;
+            }
+
+            missCount++;
+        }
+
+        int duration = DEFAULT_DURATION;
+
+        Resources resources = context.getResources();
+        int resID = resources.getIdentifier(rawName, "raw", context.getPackageName());
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        AssetFileDescriptor afd = null;
+        try {
+            afd = resources.openRawResourceFd(resID);
+            retriever.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+            duration = parseDuration(retriever);
+        } catch(RuntimeException e) {
+            Log.e(TAG, e.toString());
+        } finally {
+            retriever.release();
+            if(afd != null) {
+                try {
+                    afd.close();
+                } catch(IOException e) {
+                    Log.e(TAG, e.toString());
+                }
+            }
+        }
+
+        return put(rawName, duration);
+    }
+
+    private static int parseDuration(MediaMetadataRetriever retriever) {
+        String value = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        if(value == null) {
+            return DEFAULT_DURATION;
+        }
+
+        try {
+            return Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            return DEFAULT_DURATION;
+        }
+    }
+
+    private synchronized int put(String key, int duration) {
+        durations.put(key, duration);
+        logi("put() :: " + key + " = " + duration);
+        return duration;
+    }
+
+    private void startObserving(Context context) {
+        if(observing) {
+            return;
+        }
+
+        ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        resolver.registerContentObserver(Settings.System.getUriFor(Settings.System.RINGTONE), false,
+                settingsObserver);
+        resolver.registerContentObserver(Settings.System.getUriFor(Settings.System.NOTIFICATION_SOUND), false,
+                settingsObserver);
+        resolver.registerContentObserver(Settings.System.getUriFor(Settings.System.ALARM_ALERT), false,
+                settingsObserver);
+        observing = true;
+    }
+
+    /**
+     * Drops durations of default ringtone, notification and alarm sounds.
+     */
+    private synchronized void invalidateDefaults() {
+        Iterator<String> iterator = durations.keySet().iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().startsWith(SETTINGS_URI_PREFIX)) {
+                iterator.remove();
+            }
+        }
+
+        logi("invalidateDefaults()");
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AudioDurationCache{size=" + durations.size() +
+                ", hits=" + hitCount +
+                ", misses=" + missCount +
+                '}';
+    }
+}
@@ -7,9 +7,13 @@ import android.content.IntentFilter;
 import android.os.BatteryManager;
 
 import com.samsung.microbit.MBApp;
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.constants.RegistrationIds;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.plugin.InformationPlugin;
 import com.samsung.microbit.service.PluginService;
+import com.samsung.microbit.service.ReportingPolicy;
+import com.samsung.microbit.service.SensorEventCoalescer;
 
 public class BatteryPresenter implements Presenter {
     private BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
@@ -17,26 +21,30 @@ public class BatteryPresenter implements Presenter {
         public void onReceive(Context context, Intent intent) {
             int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
             int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-            int batteryPct = (int) (level / (float) scale * 100);
+            if(level < 0 || scale <= 0) {
+                return;
+            }
 
-            if(batteryPct != previousBatteryPct) {
-                if(informationPlugin != null) {
-                    CmdArg cmd = new CmdArg(InformationPlugin.AlertType.TYPE_BATTERY, "Battery level " + batteryPct);
-                    informationPlugin.sendReplyCommand(PluginService.INFORMATION, cmd);
-                }
+            int batteryPct = (int) (level / (float) scale * 100);
 
-                previousBatteryPct = batteryPct;
-            }
+            SensorEventCoalescer.getInstance().offer(RegistrationIds.REG_BATTERYSTRENGTH, batteryPct);
         }
     };
 
+    /**
+     * Battery level changes slowly, so one report in 10 seconds is enough. Level may go back
+     * and forth by a percent while charging, which isn't worth a report.
+     */
+    private static final ReportingPolicy REPORTING_POLICY = new ReportingPolicy(10000, 1, 1);
+
     private MBApp application;
     private InformationPlugin informationPlugin;
-    private int previousBatteryPct;
     private boolean isRegistered;
 
     public BatteryPresenter() {
         application = MBApp.getApp();
+        SensorEventCoalescer.getInstance().configure(RegistrationIds.REG_BATTERYSTRENGTH, REPORTING_POLICY,
+                new SensorEventCoalescer.ChannelSink(EventCategories.SAMSUNG_BATTERY_LEVEL_ID));
     }
 
     public void setInformationPlugin(InformationPlugin informationPlugin) {
@@ -61,6 +69,7 @@ public class BatteryPresenter implements Presenter {
     public void stop() {
         if(isRegistered) {
             application.unregisterReceiver(batteryReceiver);
+            SensorEventCoalescer.getInstance().reset(RegistrationIds.REG_BATTERYSTRENGTH);
 
             if(informationPlugin != null) {
                 CmdArg cmd = new CmdArg(0, "Unregistered Battery.");
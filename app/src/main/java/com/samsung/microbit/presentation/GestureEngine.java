@@ -0,0 +1,310 @@
+package com.samsung.microbit.presentation;
+
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+
+import com.samsung.microbit.data.constants.EventSubCodes;
+import com.samsung.microbit.service.SensorHub;
+
+/**
+ * Recognises gestures of the device from accelerometer samples: shake, tilt left, right, up and down,
+ * face up and down, and freefall. Each gesture is reported as one of
+ * {@code EventSubCodes.SAMSUNG_DEVICE_GESTURE_*} codes.
+ * <p/>
+ * Runs on the sensor thread of {@link SensorHub}. State is kept in preallocated fields, so a sample
+ * allocates nothing. Times are taken from sample timestamps, so batched samples are judged by when they
+ * were measured rather than when they arrived. Tilt and face gestures are reported when the device
+ * holds a new posture for {@link #DEFAULT_POSTURE_HOLD_TIME}, shake when it swings several times within
+ * {@link #DEFAULT_SHAKE_WINDOW}. Thresholds are in g and can be tuned via {@link Thresholds} when the
+ * engine is created.
+ */
+public class GestureEngine implements SensorHub.Subscriber {
+
+    /**
+     * Receives recognised gestures.
+     */
+    public interface Listener {
+        /**
+         * Called on the sensor thread.
+         *
+         * @param gesture Gesture code, e.g. {@link EventSubCodes#SAMSUNG_DEVICE_GESTURE_DEVICE_SHAKEN}.
+         */
+        void onGesture(int gesture);
+    }
+
+    /**
+     * Deviation from 1 g a swing of a shake must reach.
+     */
+    public static final float DEFAULT_SHAKE_THRESHOLD = 1.0f;
+    public static final int DEFAULT_SHAKE_SWING_COUNT = 3;
+    public static final long DEFAULT_SHAKE_WINDOW = 1000;
+
+    /**
+     * Share of gravity along the x or y axis that makes a tilt, about 30 degrees.
+     */
+    public static final float DEFAULT_TILT_THRESHOLD = 0.5f;
+
+    /**
+     * Share of gravity along the z axis that makes the device lie face up or down, about 55 degrees.
+     */
+    public static final float DEFAULT_FACE_THRESHOLD = 0.8f;
+    public static final long DEFAULT_POSTURE_HOLD_TIME = 200;
+
+    public static final float DEFAULT_FREEFALL_THRESHOLD = 0.35f;
+    public static final long DEFAULT_FREEFALL_TIME = 80;
+
+    /**
+     * Thresholds of gesture recognition. Changes made after the engine is created have no effect.
+     */
+    public static final class Thresholds {
+        /**
+         * Deviation from 1 g a swing of a shake must reach.
+         */
+        public float shakeThreshold = DEFAULT_SHAKE_THRESHOLD;
+        /**
+         * Number of swings that make a shake.
+         */
+        public int shakeSwingCount = DEFAULT_SHAKE_SWING_COUNT;
+        /**
+         * Time in milliseconds the swings must fit in.
+         */
+        public long shakeWindow = DEFAULT_SHAKE_WINDOW;
+        /**
+         * Share of gravity along the x or y axis that makes a tilt.
+         */
+        public float tiltThreshold = DEFAULT_TILT_THRESHOLD;
+        /**
+         * Share of gravity along the z axis that makes the device lie face up or down.
+         */
+        public float faceThreshold = DEFAULT_FACE_THRESHOLD;
+        /**
+         * Time in milliseconds a posture must be held to be reported.
+         */
+        public long postureHoldTime = DEFAULT_POSTURE_HOLD_TIME;
+        /**
+         * Acceleration in g below which the device is falling.
+         */
+        public float freefallThreshold = DEFAULT_FREEFALL_THRESHOLD;
+        /**
+         * Time in milliseconds the device must be falling to be reported.
+         */
+        public long freefallTime = DEFAULT_FREEFALL_TIME;
+    }
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * Samples closer to the previous swing belong to the same swing.
+     */
+    private static final long MIN_SWING_INTERVAL = 80 * NANOS_PER_MILLI;
+
+    /**
+     * Time constant of the low-pass filter separating gravity from motion.
+     */
+    private static final long GRAVITY_TIME_CONSTANT = 100 * NANOS_PER_MILLI;
+
+    private static final int POSTURE_NONE = EventSubCodes.SAMSUNG_DEVICE_GESTURE_NONE;
+
+    private final Listener listener;
+
+    private final float shakeThreshold;
+    private final int shakeSwingCount;
+    private final long shakeWindow;
+    private final float tiltThreshold;
+    private final float faceThreshold;
+    private final long postureHoldTime;
+    private final float freefallThreshold;
+    private final long freefallTime;
+
+    private volatile boolean resetPending = true;
+
+    private long lastTimestamp;
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+
+    private int swingCount;
+    private long firstSwingTime;
+    private long lastSwingTime;
+    private long shakeQuietUntil;
+
+    private int posture;
+    private int candidatePosture;
+    private long candidateSince;
+
+    private boolean falling;
+    private long fallingSince;
+    private boolean freefallReported;
+
+    private volatile long gestureCount;
+
+    public GestureEngine(Listener listener) {
+        this(listener, new Thresholds());
+    }
+
+    /**
+     * @param listener   Receives recognised gestures.
+     * @param thresholds Thresholds to use, copied once.
+     */
+    public GestureEngine(Listener listener, Thresholds thresholds) {
+        this.listener = listener;
+        this.shakeThreshold = thresholds.shakeThreshold;
+        this.shakeSwingCount = thresholds.shakeSwingCount;
+        this.shakeWindow = thresholds.shakeWindow * NANOS_PER_MILLI;
+        this.tiltThreshold = thresholds.tiltThreshold;
+        this.faceThreshold = thresholds.faceThreshold;
+        this.postureHoldTime = thresholds.postureHoldTime * NANOS_PER_MILLI;
+        this.freefallThreshold = thresholds.freefallThreshold;
+        this.freefallTime = thresholds.freefallTime * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Forgets the current posture and partial gestures, e.g. before subscribing again. Takes effect
+     * with the next sample.
+     */
+    public void reset() {
+        resetPending = true;
+    }
+
+    public long getGestureCount() {
+        return gestureCount;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        long timestamp = event.timestamp;
+        float x = event.values[0];
+        float y = event.values[1];
+        float z = event.values[2];
+
+        if(resetPending) {
+            resetPending = false;
+            resetState(timestamp, x, y, z);
+            return;
+        }
+
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z) / SensorManager.GRAVITY_EARTH;
+
+        detectFreefall(timestamp, magnitude);
+        detectShake(timestamp, magnitude);
+        updateGravity(timestamp, x, y, z);
+        if(!falling) {
+            detectPosture(timestamp);
+        }
+
+        lastTimestamp = timestamp;
+    }
+
+    private void resetState(long timestamp, float x, float y, float z) {
+        lastTimestamp = timestamp;
+        gravityX = x;
+        gravityY = y;
+        gravityZ = z;
+
+        swingCount = 0;
+        shakeQuietUntil = 0;
+
+        posture = POSTURE_NONE;
+        candidatePosture = POSTURE_NONE;
+        candidateSince = timestamp;
+
+        falling = false;
+        freefallReported = false;
+    }
+
+    private void detectFreefall(long timestamp, float magnitude) {
+        if(magnitude >= freefallThreshold) {
+            falling = false;
+            freefallReported = false;
+            return;
+        }
+
+        if(!falling) {
+            falling = true;
+            fallingSince = timestamp;
+        } else if(!freefallReported && timestamp - fallingSince >= freefallTime) {
+            freefallReported = true;
+            report(EventSubCodes.SAMSUNG_DEVICE_GESTURE_FREEFALL);
+        }
+    }
+
+    private void detectShake(long timestamp, float magnitude) {
+        if(timestamp < shakeQuietUntil || Math.abs(magnitude - 1f) < shakeThreshold) {
+            return;
+        }
+
+        if(swingCount > 0) {
+            if(timestamp - lastSwingTime < MIN_SWING_INTERVAL) {
+                return;
+            }
+
+            if(timestamp - firstSwingTime > shakeWindow) {
+                swingCount = 0;
+            }
+        }
+
+        if(swingCount == 0) {
+            firstSwingTime = timestamp;
+        }
+
+        lastSwingTime = timestamp;
+        swingCount++;
+
+        if(swingCount >= shakeSwingCount) {
+            swingCount = 0;
+            // One shake per window, however long the device is shaken
+            shakeQuietUntil = timestamp + shakeWindow;
+            report(EventSubCodes.SAMSUNG_DEVICE_GESTURE_DEVICE_SHAKEN);
+        }
+    }
+
+    private void updateGravity(long timestamp, float x, float y, float z) {
+        long dt = Math.max(0, timestamp - lastTimestamp);
+        float alpha = (float) dt / (GRAVITY_TIME_CONSTANT + dt);
+
+        gravityX += alpha * (x - gravityX);
+        gravityY += alpha * (y - gravityY);
+        gravityZ += alpha * (z - gravityZ);
+    }
+
+    private void detectPosture(long timestamp) {
+        float gx = gravityX / SensorManager.GRAVITY_EARTH;
+        float gy = gravityY / SensorManager.GRAVITY_EARTH;
+        float gz = gravityZ / SensorManager.GRAVITY_EARTH;
+
+        int newPosture = POSTURE_NONE;
+        if(gz > faceThreshold) {
+            newPosture = EventSubCodes.SAMSUNG_DEVICE_GESTURE_FACE_UP;
+        } else if(gz < -faceThreshold) {
+            newPosture = EventSubCodes.SAMSUNG_DEVICE_GESTURE_FACE_DOWN;
+        } else if(Math.abs(gx) >= Math.abs(gy)) {
+            // Left edge down turns the x axis, which points right, up
+            if(gx > tiltThreshold) {
+                newPosture = EventSubCodes.SAMSUNG_DEVICE_GESTURE_TILT_LEFT;
+            } else if(gx < -tiltThreshold) {
+                newPosture = EventSubCodes.SAMSUNG_DEVICE_GESTURE_TILT_RIGHT;
+            }
+        } else {
+            if(gy > tiltThreshold) {
+                newPosture = EventSubCodes.SAMSUNG_DEVICE_GESTURE_TILT_UP;
+            } else if(gy < -tiltThreshold) {
+                newPosture = EventSubCodes.SAMSUNG_DEVICE_GESTURE_TILT_DOWN;
+            }
+        }
+
+        if(newPosture != candidatePosture) {
+            candidatePosture = newPosture;
+            candidateSince = timestamp;
+        } else if(newPosture != posture && timestamp - candidateSince >= postureHoldTime) {
+            posture = newPosture;
+            if(posture != POSTURE_NONE) {
+                report(posture);
+            }
+        }
+    }
+
+    private void report(int gesture) {
+        gestureCount++;
+        listener.onGesture(gesture);
+    }
+}
@@ -0,0 +1,84 @@
+package com.samsung.microbit.presentation;
+
+import android.hardware.Sensor;
+
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.constants.EventSubCodes;
+import com.samsung.microbit.data.model.CmdArg;
+import com.samsung.microbit.plugin.InformationPlugin;
+import com.samsung.microbit.service.MicroBitEventChannel;
+import com.samsung.microbit.service.PluginService;
+import com.samsung.microbit.service.SensorHub;
+
+/**
+ * Sends gestures of the device, recognised by {@link GestureEngine}, to micro:bit.
+ */
+public class GesturePresenter implements Presenter {
+    private static final String TAG = GesturePresenter.class.getSimpleName();
+
+    private final GestureEngine.Listener gestureListener = new GestureEngine.Listener() {
+        @Override
+        public void onGesture(int gesture) {
+            if(gesture == EventSubCodes.SAMSUNG_DEVICE_GESTURE_DEVICE_SHAKEN && informationPlugin != null) {
+                //notify BLE client
+                CmdArg cmd = new CmdArg(InformationPlugin.AlertType.TYPE_SHAKE, "Device Shaked");
+                informationPlugin.sendReplyCommand(PluginService.INFORMATION, cmd);
+            }
+
+            MicroBitEventChannel.getInstance().publish(EventCategories.SAMSUNG_DEVICE_INFO_ID, gesture);
+        }
+    };
+
+    private final GestureEngine gestureEngine = new GestureEngine(gestureListener);
+
+    private volatile InformationPlugin informationPlugin;
+    private boolean isRegistered;
+
+    public void setInformationPlugin(InformationPlugin informationPlugin) {
+        this.informationPlugin = informationPlugin;
+    }
+
+    public GestureEngine getGestureEngine() {
+        return gestureEngine;
+    }
+
+    @Override
+    public void start() {
+        if(!isRegistered) {
+            isRegistered = true;
+            gestureEngine.reset();
+            // Swings and falls last a fraction of a second, so samples can't be sparse or batched
+            SensorHub.getInstance().subscribe(Sensor.TYPE_ACCELEROMETER, SensorHub.SAMPLING_PERIOD_GAME, 0,
+                    gestureEngine);
+
+            if(informationPlugin != null) {
+                CmdArg cmd = new CmdArg(0, "Registered Gestures.");
+                informationPlugin.sendReplyCommand(PluginService.INFORMATION, cmd);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if(isRegistered) {
+            SensorHub.getInstance().unsubscribe(Sensor.TYPE_ACCELEROMETER, gestureEngine);
+
+            if(informationPlugin != null) {
+                CmdArg cmd = new CmdArg(0, "Unregistered Gestures.");
+                informationPlugin.sendReplyCommand(PluginService.INFORMATION, cmd);
+            }
+
+            isRegistered = false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{registered=" + isRegistered + ", gestures=" + gestureEngine.getGestureCount() + '}';
+    }
+}
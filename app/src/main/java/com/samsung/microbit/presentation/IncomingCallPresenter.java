@@ -1,7 +1,6 @@
 package com.samsung.microbit.presentation;
 
 import android.content.Context;
-import android.content.Intent;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
@@ -9,12 +8,10 @@ import android.util.Log;
 import com.samsung.microbit.MBApp;
 import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.EventSubCodes;
-import com.samsung.microbit.data.constants.IPCConstants;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.plugin.TelephonyPlugin;
-import com.samsung.microbit.service.IPCService;
+import com.samsung.microbit.service.MicroBitEventChannel;
 import com.samsung.microbit.service.PluginService;
-import com.samsung.microbit.utils.Utils;
 
 public class IncomingCallPresenter implements Presenter {
     private static final String TAG = IncomingCallPresenter.class.getSimpleName();
@@ -26,13 +23,8 @@ public class IncomingCallPresenter implements Presenter {
                 case TelephonyManager.CALL_STATE_RINGING:
                     Log.i(TAG, "onCallStateChanged: " + state);
 
-                    MBApp application = MBApp.getApp();
-
-                    Intent intent = new Intent(application, IPCService.class);
-                    intent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED);
-                    intent.putExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, Utils.makeMicroBitValue
-                            (EventCategories.SAMSUNG_DEVICE_INFO_ID, EventSubCodes.SAMSUNG_INCOMING_CALL));
-                    application.startService(intent);
+                    MicroBitEventChannel.getInstance().publish(EventCategories.SAMSUNG_DEVICE_INFO_ID,
+                            EventSubCodes.SAMSUNG_INCOMING_CALL);
                     break;
             }
         }
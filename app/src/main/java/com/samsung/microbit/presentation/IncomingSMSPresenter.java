@@ -9,12 +9,10 @@ import android.provider.Telephony;
 import com.samsung.microbit.MBApp;
 import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.EventSubCodes;
-import com.samsung.microbit.data.constants.IPCConstants;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.plugin.TelephonyPlugin;
-import com.samsung.microbit.service.IPCService;
+import com.samsung.microbit.service.MicroBitEventChannel;
 import com.samsung.microbit.service.PluginService;
-import com.samsung.microbit.utils.Utils;
 
 public class IncomingSMSPresenter implements Presenter {
     private static final String TAG = IncomingSMSPresenter.class.getSimpleName();
@@ -23,13 +21,8 @@ public class IncomingSMSPresenter implements Presenter {
         @Override
         public void onReceive(Context context, Intent intent) {
             if(intent.getAction().equals(Telephony.Sms.Intents.SMS_RECEIVED_ACTION)) {
-                MBApp application = MBApp.getApp();
-
-                Intent charChangedIntent = new Intent(application, IPCService.class);
-                charChangedIntent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED);
-                charChangedIntent.putExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, Utils.makeMicroBitValue
-                        (EventCategories.SAMSUNG_DEVICE_INFO_ID, EventSubCodes.SAMSUNG_INCOMING_SMS));
-                application.startService(charChangedIntent);
+                MicroBitEventChannel.getInstance().publish(EventCategories.SAMSUNG_DEVICE_INFO_ID,
+                        EventSubCodes.SAMSUNG_INCOMING_SMS);
             }
         }
     }
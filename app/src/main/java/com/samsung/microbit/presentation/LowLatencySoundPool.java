@@ -0,0 +1,153 @@
+package com.samsung.microbit.presentation;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Pool of short built-in sounds decoded ahead of time, so they start playing without preparing a media player.
+ * <p/>
+ * Sounds are raw resources, e.g. {@link com.samsung.microbit.data.constants.InternalPaths#FIND_MY_PHONE_AUDIO},
+ * {@link #preload(Context, String) preloaded} in the background. A sound that isn't loaded yet can't be played,
+ * so callers fall back to a media player. Sounds are played on the notification stream, as by
+ * {@link PlayAudioPresenter}.
+ */
+public final class LowLatencySoundPool {
+    private static final String TAG = LowLatencySoundPool.class.getSimpleName();
+
+    private static final int MAX_STREAMS = 2;
+
+    private static LowLatencySoundPool instance;
+
+    private SoundPool soundPool;
+
+    private final Map<String, Integer> soundIds = new HashMap<>();
+    private final SparseBooleanArray loadedSounds = new SparseBooleanArray();
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private LowLatencySoundPool() {
+    }
+
+    public static synchronized LowLatencySoundPool getInstance() {
+        if(instance == null) {
+            instance = new LowLatencySoundPool();
+        }
+
+        return instance;
+    }
+
+    @SuppressWarnings("deprecation")
+    private SoundPool createSoundPool() {
+        SoundPool pool;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            pool = new SoundPool.Builder()
+                    .setMaxStreams(MAX_STREAMS)
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_NOTIFICATION)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                            .build())
+                    .build();
+        } else {
+            pool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_NOTIFICATION, 0);
+        }
+
+        pool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                synchronized(LowLatencySoundPool.this) {
+                    if(status == 0) {
+                        loadedSounds.put(sampleId, true);
+                    }
+                }
+                logi("onLoadComplete() :: sampleId = " + sampleId + " status = " + status);
+            }
+        });
+
+        return pool;
+    }
+
+    /**
+     * Starts decoding a raw sound, if it isn't loaded yet. Decoding runs on a thread of the pool.
+     *
+     * @param context Context.
+     * @param rawName Name of a raw resource.
+     */
+    public synchronized void preload(Context context, String rawName) {
+        if(soundIds.containsKey(rawName)) {
+            return;
+        }
+
+        Context appContext = context.getApplicationContext();
+        int resID = appContext.getResources().getIdentifier(rawName, "raw", appContext.getPackageName());
+        if(resID == 0) {
+            Log.e(TAG, "preload() :: not found " + rawName);
+            return;
+        }
+
+        if(soundPool == null) {
+            soundPool = createSoundPool();
+        }
+
+        soundIds.put(rawName, soundPool.load(appContext, resID, 1));
+    }
+
+    /**
+     * @return True if the sound is decoded and can be played right away.
+     */
+    public synchronized boolean isLoaded(String rawName) {
+        Integer soundId = soundIds.get(rawName);
+        return soundId != null && loadedSounds.get(soundId);
+    }
+
+    /**
+     * Plays a preloaded sound once, at full volume of the stream.
+     *
+     * @param rawName Name of a raw resource.
+     * @return Stream id to {@link #stop(int)} the sound with, or 0 if the sound isn't loaded.
+     */
+    public synchronized int play(String rawName) {
+        if(!isLoaded(rawName)) {
+            return 0;
+        }
+
+        return soundPool.play(soundIds.get(rawName), 1f, 1f, 1, 0, 1f);
+    }
+
+    public synchronized void stop(int streamId) {
+        if(soundPool != null && streamId != 0) {
+            soundPool.stop(streamId);
+        }
+    }
+
+    /**
+     * Releases all sounds, they are loaded again by the next {@link #preload(Context, String)}.
+     */
+    public synchronized void release() {
+        if(soundPool != null) {
+            soundPool.release();
+            soundPool = null;
+        }
+
+        soundIds.clear();
+        loadedSounds.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LowLatencySoundPool{sounds=" + soundIds.size() + ", loaded=" + loadedSounds.size() + '}';
+    }
+}
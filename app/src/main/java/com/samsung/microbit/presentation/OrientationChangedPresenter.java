@@ -1,19 +1,13 @@
 package com.samsung.microbit.presentation;
 
-import android.content.Context;
-import android.content.Intent;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.util.Log;
 
-import com.samsung.microbit.MBApp;
-import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.EventSubCodes;
-import com.samsung.microbit.data.constants.IPCConstants;
-import com.samsung.microbit.service.IPCService;
-import com.samsung.microbit.utils.Utils;
+import com.samsung.microbit.data.constants.RegistrationIds;
+import com.samsung.microbit.service.SensorEventCoalescer;
+import com.samsung.microbit.service.SensorHub;
 
 public class OrientationChangedPresenter implements Presenter {
 
@@ -21,7 +15,13 @@ public class OrientationChangedPresenter implements Presenter {
 
     private static final String TAG = OrientationChangedPresenter.class.getSimpleName();
 
-    private SensorEventListener orientationListener = new SensorEventListener() {
+    /**
+     * Orientation changes are coalesced anyway, so samples can wait for the sensor to fill its batch
+     * for that long, unless shake detection needs them right away.
+     */
+    private static final int MAX_REPORT_LATENCY_US = 200000;
+
+    private SensorHub.Subscriber orientationListener = new SensorHub.Subscriber() {
         int orientation = -1;
 
         @Override
@@ -39,37 +39,21 @@ public class OrientationChangedPresenter implements Presenter {
             }
 
             if(previousOrientation != orientation) {
-                MBApp application = MBApp.getApp();
-
-                Intent intent = new Intent(application, IPCService.class);
-                intent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED);
-                intent.putExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, Utils.makeMicroBitValue
-                        (EventCategories.SAMSUNG_DEVICE_INFO_ID, orientation));
-                application.startService(intent);
+                SensorEventCoalescer.getInstance().offer(RegistrationIds.REG_DEVICEORIENTATION, orientation);
 
                 previousOrientation = orientation;
             }
         }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-        }
     };
 
-    private int previousOrientation = -1;
-    private SensorManager sensorManager;
+    private volatile int previousOrientation = -1;
     private boolean isRegistered;
 
-    public OrientationChangedPresenter() {
-        sensorManager = (SensorManager) MBApp.getApp().getSystemService(Context.SENSOR_SERVICE);
-    }
-
     @Override
     public void start() {
         if(!isRegistered) {
-            sensorManager.registerListener(orientationListener, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                    SensorManager.SENSOR_DELAY_NORMAL);
+            SensorHub.getInstance().subscribe(Sensor.TYPE_ACCELEROMETER, SensorHub.SAMPLING_PERIOD_NORMAL,
+                    MAX_REPORT_LATENCY_US, orientationListener);
             isRegistered = true;
         }
     }
@@ -77,7 +61,9 @@ public class OrientationChangedPresenter implements Presenter {
     @Override
     public void stop() {
         if(isRegistered) {
-            sensorManager.unregisterListener(orientationListener);
+            SensorHub.getInstance().unsubscribe(Sensor.TYPE_ACCELEROMETER, orientationListener);
+            SensorEventCoalescer.getInstance().reset(RegistrationIds.REG_DEVICEORIENTATION);
+            previousOrientation = -1;
             isRegistered = false;
         }
     }
@@ -5,6 +5,8 @@ import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.samsung.microbit.MBApp;
@@ -13,6 +15,9 @@ import java.io.IOException;
 
 /**
  * Provides methods to manage a media player and play raw audio files.
+ * <p/>
+ * Files preloaded into {@link LowLatencySoundPool} are played from there, the media player is used
+ * for the rest, which are then preloaded for next time.
  */
 public class PlayAudioPresenter implements Presenter {
     private static final String TAG = PlayAudioPresenter.class.getSimpleName();
@@ -26,6 +31,20 @@ public class PlayAudioPresenter implements Presenter {
     private MediaPlayer mediaplayer;
     private MediaPlayer.OnCompletionListener callBack;
 
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private int poolStreamId;
+
+    private final Runnable poolCompletionTask = new Runnable() {
+        @Override
+        public void run() {
+            poolStreamId = 0;
+            restoreAudioMode();
+            if(callBack != null) {
+                callBack.onCompletion(null);
+            }
+        }
+    };
+
     public PlayAudioPresenter() {
     }
 
@@ -41,6 +60,10 @@ public class PlayAudioPresenter implements Presenter {
     public void start() {
         MBApp app = MBApp.getApp();
 
+        if(startFromPool(app)) {
+            return;
+        }
+
         Resources resources = app.getResources();
         int resID = resources.getIdentifier(internalPath, "raw", app.getPackageName());
         AssetFileDescriptor afd = resources.openRawResourceFd(resID);
@@ -79,6 +102,44 @@ public class PlayAudioPresenter implements Presenter {
         mediaplayer.start();
     }
 
+    /**
+     * Plays the file from the sound pool, if it's preloaded there. Completion is reported after
+     * the duration of the file.
+     *
+     * @return True if the file is playing.
+     */
+    private boolean startFromPool(Context context) {
+        LowLatencySoundPool soundPool = LowLatencySoundPool.getInstance();
+        if(!soundPool.isLoaded(internalPath)) {
+            soundPool.preload(context, internalPath);
+            return false;
+        }
+
+        stopPoolStream();
+        preparePhoneToPlayAudio(context);
+
+        poolStreamId = soundPool.play(internalPath);
+        if(poolStreamId == 0) {
+            restoreAudioMode();
+            return false;
+        }
+
+        handler.postDelayed(poolCompletionTask, AudioDurationCache.getInstance().getRawDuration(context,
+                internalPath));
+        return true;
+    }
+
+    private void stopPoolStream() {
+        if(poolStreamId == 0) {
+            return;
+        }
+
+        handler.removeCallbacks(poolCompletionTask);
+        LowLatencySoundPool.getInstance().stop(poolStreamId);
+        poolStreamId = 0;
+        restoreAudioMode();
+    }
+
     private void preparePhoneToPlayAudio(Context context) {
         audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         originalRingerMode = audioManager.getRingerMode();
@@ -100,6 +161,8 @@ public class PlayAudioPresenter implements Presenter {
 
     @Override
     public void stop() {
+        stopPoolStream();
+
         if(mediaplayer != null) {
             try {
                 if(mediaplayer.isPlaying()) {
@@ -114,6 +177,8 @@ public class PlayAudioPresenter implements Presenter {
 
     @Override
     public void destroy() {
+        stopPoolStream();
+
         if(mediaplayer != null) {
             stop();
             mediaplayer.release();
@@ -1,34 +1,30 @@
 package com.samsung.microbit.presentation;
 
 import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 
 import com.samsung.microbit.MBApp;
-import com.samsung.microbit.plugin.AlertPlugin;
+import com.samsung.microbit.plugin.PluginScheduler;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 public class PlayRingtonePresenter implements Presenter {
     private static final String TAG = PlayRingtonePresenter.class.getSimpleName();
 
-    private MediaPlayer mediaPlayer;
     private Uri ringtoneUri;
     private int maxDuration;
     private boolean isAlarm;
 
     private Ringtone ringtone;
-    private Timer timer;
+    private ScheduledFuture<?> stopTask;
 
     public PlayRingtonePresenter() {
 
     }
 
-    public void reInit(MediaPlayer mediaPlayer, Uri ringtoneUri, int maxDuration, boolean isAlarm) {
-        this.mediaPlayer = mediaPlayer;
+    public void reInit(Uri ringtoneUri, int maxDuration, boolean isAlarm) {
         this.ringtoneUri = ringtoneUri;
         this.maxDuration = maxDuration;
         this.isAlarm = isAlarm;
@@ -36,7 +32,7 @@ public class PlayRingtonePresenter implements Presenter {
 
     @Override
     public void start() {
-        int duration = AlertPlugin.getDuration(mediaPlayer, ringtoneUri);
+        int duration = AudioDurationCache.getInstance().getDuration(MBApp.getApp(), ringtoneUri);
 
         if(maxDuration > 0 && duration > maxDuration) {
             duration = maxDuration;
@@ -46,12 +42,7 @@ public class PlayRingtonePresenter implements Presenter {
             ringtone.stop();
         }
 
-        if(timer != null) {
-            //After this operation the timer cannot be used anymore
-            timer.cancel();
-        }
-
-        timer = new Timer();
+        PluginScheduler.cancel(stopTask);
 
         ringtone = RingtoneManager.getRingtone(MBApp.getApp(), ringtoneUri);
 
@@ -61,14 +52,12 @@ public class PlayRingtonePresenter implements Presenter {
 
         ringtone.play();
 
-        TimerTask stopTask = new TimerTask() {
+        stopTask = PluginScheduler.getInstance().scheduleAlways(new Runnable() {
             @Override
             public void run() {
                 stop();
             }
-        };
-
-        timer.schedule(stopTask, duration);
+        }, duration);
     }
 
     @Override
@@ -77,8 +66,8 @@ public class PlayRingtonePresenter implements Presenter {
             ringtone.stop();
             ringtone = null;
 
-            timer.cancel();
-            timer = null;
+            PluginScheduler.cancel(stopTask);
+            stopTask = null;
         }
     }
 
@@ -86,9 +75,7 @@ public class PlayRingtonePresenter implements Presenter {
     public void destroy() {
         stop();
 
-        if(timer != null) {
-            timer.cancel();
-            timer = null;
-        }
+        PluginScheduler.cancel(stopTask);
+        stopTask = null;
     }
 }
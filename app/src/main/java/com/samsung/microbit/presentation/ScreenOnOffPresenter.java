@@ -9,9 +9,7 @@ import android.util.Log;
 import com.samsung.microbit.MBApp;
 import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.EventSubCodes;
-import com.samsung.microbit.data.constants.IPCConstants;
-import com.samsung.microbit.service.IPCService;
-import com.samsung.microbit.utils.Utils;
+import com.samsung.microbit.service.MicroBitEventChannel;
 
 public class ScreenOnOffPresenter implements Presenter {
     private static final String TAG = ScreenOnOffPresenter.class.getSimpleName();
@@ -20,21 +18,11 @@ public class ScreenOnOffPresenter implements Presenter {
         @Override
         public void onReceive(Context context, Intent intent) {
             if(intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
-                MBApp application = MBApp.getApp();
-
-                Intent charChangedIntent = new Intent(application, IPCService.class);
-                charChangedIntent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED);
-                charChangedIntent.putExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, Utils.makeMicroBitValue
-                        (EventCategories.SAMSUNG_DEVICE_INFO_ID, EventSubCodes.SAMSUNG_DEVICE_DISPLAY_OFF));
-                application.startService(charChangedIntent);
+                MicroBitEventChannel.getInstance().publish(EventCategories.SAMSUNG_DEVICE_INFO_ID,
+                        EventSubCodes.SAMSUNG_DEVICE_DISPLAY_OFF);
             } else if(intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
-                MBApp application = MBApp.getApp();
-
-                Intent charChangedIntent = new Intent(application, IPCService.class);
-                charChangedIntent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED);
-                charChangedIntent.putExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, Utils.makeMicroBitValue
-                        (EventCategories.SAMSUNG_DEVICE_INFO_ID, EventSubCodes.SAMSUNG_DEVICE_DISPLAY_ON));
-                application.startService(charChangedIntent);
+                MicroBitEventChannel.getInstance().publish(EventCategories.SAMSUNG_DEVICE_INFO_ID,
+                        EventSubCodes.SAMSUNG_DEVICE_DISPLAY_ON);
             }
         }
     };
@@ -1,21 +1,18 @@
 package com.samsung.microbit.presentation;
 
 import android.content.Context;
-import android.content.Intent;
 import android.telephony.PhoneStateListener;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import com.samsung.microbit.MBApp;
-import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.EventSubCodes;
-import com.samsung.microbit.data.constants.IPCConstants;
+import com.samsung.microbit.data.constants.RegistrationIds;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.plugin.InformationPlugin;
-import com.samsung.microbit.service.IPCService;
 import com.samsung.microbit.service.PluginService;
-import com.samsung.microbit.utils.Utils;
+import com.samsung.microbit.service.SensorEventCoalescer;
 
 public class SignalStrengthPresenter implements Presenter {
     private static final String TAG = SignalStrengthPresenter.class.getSimpleName();
@@ -60,6 +57,8 @@ public class SignalStrengthPresenter implements Presenter {
     public void stop() {
         if(isRegistered) {
             telephonyManager.listen(phoneListener, PhoneStateListener.LISTEN_NONE);
+            SensorEventCoalescer.getInstance().reset(RegistrationIds.REG_SIGNALSTRENGTH);
+            sCurrentSignalStrength = 0;
 
             if(informationPlugin != null) {
                 CmdArg cmd = new CmdArg(0, "Unregistered Signal Strength.");
@@ -96,13 +95,7 @@ public class SignalStrengthPresenter implements Presenter {
         if(level != sCurrentSignalStrength) {
             sCurrentSignalStrength = level;
 
-            MBApp application = MBApp.getApp();
-
-            Intent intent = new Intent(application, IPCService.class);
-            intent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED);
-            intent.putExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, Utils.makeMicroBitValue
-                    (EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID, level));
-            application.startService(intent);
+            SensorEventCoalescer.getInstance().offer(RegistrationIds.REG_SIGNALSTRENGTH, level);
         }
     }
 
@@ -1,45 +1,53 @@
 package com.samsung.microbit.presentation;
 
-import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 
-import com.samsung.microbit.MBApp;
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.constants.RegistrationIds;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.plugin.InformationPlugin;
 import com.samsung.microbit.service.PluginService;
+import com.samsung.microbit.service.ReportingPolicy;
+import com.samsung.microbit.service.SensorEventCoalescer;
+import com.samsung.microbit.service.SensorHub;
 
 public class TemperaturePresenter implements Presenter {
     /*
      * Temperature listener
      */
-    private SensorEventListener temperatureListener = new SensorEventListener() {
+    private SensorHub.Subscriber temperatureListener = new SensorHub.Subscriber() {
         @Override
         public void onSensorChanged(SensorEvent event) {
-            float temperature = event.values[0];
+            // Tenths of a degree
+            int temperature = Math.round(event.values[0] * 10);
 
-            if(informationPlugin != null) {
-                //notify BLE
-                CmdArg cmd = new CmdArg(InformationPlugin.AlertType.TYPE_TEMPERATURE, "Temperature " + temperature);
-                informationPlugin.sendReplyCommand(PluginService.INFORMATION, cmd);
-            }
-        }
-
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            SensorEventCoalescer.getInstance().offer(RegistrationIds.REG_TEMPERATURE, temperature);
         }
     };
 
-    private SensorManager sensorManager;
+    /**
+     * Ambient temperature sensors report several times a second, but only changes of half a degree
+     * every 2 seconds are worth sending. Going back needs another 0.3 degree, so sensor noise
+     * around a value doesn't make it flip.
+     */
+    private static final long MIN_REPORT_INTERVAL = 2000;
+    private static final ReportingPolicy REPORTING_POLICY = new ReportingPolicy(MIN_REPORT_INTERVAL, 5, 3);
+
+    /**
+     * A sample a second, batched by the sensor up to the report interval.
+     */
+    private static final int SAMPLING_PERIOD_US = 1000000;
+    private static final int MAX_REPORT_LATENCY_US = (int) MIN_REPORT_INTERVAL * 1000;
+
     private InformationPlugin informationPlugin;
-    private Sensor temperatureSensor;
+    private boolean hasTemperatureSensor;
     private boolean isRegistered;
 
     public TemperaturePresenter() {
-        sensorManager = (SensorManager) MBApp.getApp().getSystemService(Context.SENSOR_SERVICE);
-        temperatureSensor = sensorManager.getDefaultSensor(Sensor.TYPE_AMBIENT_TEMPERATURE);
+        hasTemperatureSensor = SensorHub.getInstance().hasSensor(Sensor.TYPE_AMBIENT_TEMPERATURE);
+        SensorEventCoalescer.getInstance().configure(RegistrationIds.REG_TEMPERATURE, REPORTING_POLICY,
+                new SensorEventCoalescer.ChannelSink(EventCategories.SAMSUNG_TEMPERATURE_ID));
     }
 
     public void setInformationPlugin(InformationPlugin informationPlugin) {
@@ -48,7 +56,7 @@ public class TemperaturePresenter implements Presenter {
 
     @Override
     public void start() {
-        if(temperatureSensor == null) {
+        if(!hasTemperatureSensor) {
             //no temperature sensor
             return;
         }
@@ -56,7 +64,8 @@ public class TemperaturePresenter implements Presenter {
         if(!isRegistered) {
             isRegistered = true;
 
-            sensorManager.registerListener(temperatureListener, temperatureSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            SensorHub.getInstance().subscribe(Sensor.TYPE_AMBIENT_TEMPERATURE, SAMPLING_PERIOD_US,
+                    MAX_REPORT_LATENCY_US, temperatureListener);
 
             if(informationPlugin != null) {
                 CmdArg cmd = new CmdArg(0, "Registered Temperature.");
@@ -67,12 +76,13 @@ public class TemperaturePresenter implements Presenter {
 
     @Override
     public void stop() {
-        if(temperatureSensor == null) {
+        if(!hasTemperatureSensor) {
             return;
         }
 
         if(isRegistered) {
-            sensorManager.unregisterListener(temperatureListener);
+            SensorHub.getInstance().unsubscribe(Sensor.TYPE_AMBIENT_TEMPERATURE, temperatureListener);
+            SensorEventCoalescer.getInstance().reset(RegistrationIds.REG_TEMPERATURE);
 
             if(informationPlugin != null) {
                 CmdArg cmd = new CmdArg(0, "Unregistered Temperature.");
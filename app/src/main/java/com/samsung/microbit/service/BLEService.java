@@ -6,19 +6,20 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
+import android.os.Trace;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
@@ -28,6 +29,16 @@ import com.samsung.microbit.R;
 import com.samsung.microbit.core.bluetooth.BLEManager;
 import com.samsung.microbit.core.bluetooth.BluetoothUtils;
 import com.samsung.microbit.core.bluetooth.CharacteristicChangeListener;
+import com.samsung.microbit.core.bluetooth.ConnectionPool;
+import com.samsung.microbit.core.bluetooth.ConnectionSetupPlan;
+import com.samsung.microbit.core.bluetooth.DeadlinePolicy;
+import com.samsung.microbit.core.bluetooth.EventIngestStage;
+import com.samsung.microbit.core.bluetooth.GattOperation;
+import com.samsung.microbit.core.bluetooth.GattOperationCallback;
+import com.samsung.microbit.core.bluetooth.GattServiceCache;
+import com.samsung.microbit.core.bluetooth.GattStatistics;
+import com.samsung.microbit.core.bluetooth.ReconnectEngine;
+import com.samsung.microbit.core.bluetooth.StreamingWriter;
 import com.samsung.microbit.core.bluetooth.UnexpectedConnectionEventListener;
 import com.samsung.microbit.data.constants.CharacteristicUUIDs;
 import com.samsung.microbit.data.constants.Constants;
@@ -37,12 +48,16 @@ import com.samsung.microbit.data.constants.GattServiceUUIDs;
 import com.samsung.microbit.data.constants.IPCConstants;
 import com.samsung.microbit.data.constants.RegistrationIds;
 import com.samsung.microbit.data.constants.ServiceIds;
-import com.samsung.microbit.data.constants.UUIDs;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.data.model.ConnectedDevice;
+import com.samsung.microbit.data.model.GattServiceTable;
 import com.samsung.microbit.data.model.NameValuePair;
+import com.samsung.microbit.utils.IpcCodec;
+import com.samsung.microbit.utils.IpcFields;
 import com.samsung.microbit.utils.ServiceUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.UUID;
@@ -60,15 +75,43 @@ public class BLEService extends Service {
     private static final int ERROR_UNKNOWN_2 = 1;
     private static final int ERROR_UNKNOWN_3 = 2;
 
+    /**
+     * Maximum number of event writes to micro:bit in flight.
+     */
+    private static final int EVENT_WRITE_WINDOW = 4;
+
+    /**
+     * Value sent along with every micro:bit event to plugins.
+     */
+    private static final String EVENT_CMD_VALUE = "1000";
+
     public static final int SIMULATE = 10;
 
     public static final String GATT_FORCE_CLOSED = "com.microbit.gatt_force_closed";
 
+    /**
+     * Action of the binding of {@link MicroBitEventChannel}. It's unbound separately from the binding of
+     * {@link ServiceConnector}, and its unbinding doesn't disconnect micro:bit.
+     */
+    public static final String ACTION_EVENT_CHANNEL = "com.microbit.ble_event_channel";
+
+    /**
+     * Event categories the app registers for on every micro:bit.
+     */
+    private static final int[] CLIENT_REQUIREMENTS = {
+            EventCategories.SAMSUNG_REMOTE_CONTROL_ID,
+            EventCategories.SAMSUNG_CAMERA_ID,
+            EventCategories.SAMSUNG_ALERTS_ID,
+            EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID,
+            EventCategories.SAMSUNG_DEVICE_INFO_ID
+            //EventCategories.SAMSUNG_TELEPHONY_ID
+    };
+
     private static final class BLEHandler extends Handler {
         private WeakReference<BLEService> bleServiceWeakReference;
 
-        private BLEHandler(BLEService bleService) {
-            super();
+        private BLEHandler(BLEService bleService, Looper looper) {
+            super(looper);
             bleServiceWeakReference = new WeakReference<>(bleService);
         }
 
@@ -85,6 +128,38 @@ public class BLEService extends Service {
 
     private BLEManager bleManager;
 
+    /**
+     * Streams events to micro:bit client event characteristic.
+     */
+    private StreamingWriter eventWriter;
+
+    /**
+     * Statistics of GATT operations, kept for the lifetime of the service.
+     */
+    private final GattStatistics gattStatistics = new GattStatistics();
+
+    /**
+     * Deadlines of GATT operations, learned for the lifetime of the service.
+     */
+    private final DeadlinePolicy deadlinePolicy = new DeadlinePolicy();
+
+    private GattServiceCache gattServiceCache;
+
+    /**
+     * Reconnects after unexpected disconnections and connects to just paired devices.
+     */
+    private ReconnectEngine reconnectEngine;
+
+    /**
+     * Connections to the paired micro:bit and additional ones, see {@link EventCategories#IPC_BLE_CONNECT_DEVICE}.
+     */
+    private final ConnectionPool connectionPool = new ConnectionPool();
+
+    /**
+     * Pool entry of the paired micro:bit, served by {@link #bleManager}.
+     */
+    private volatile ConnectionPool.Connection primaryConnection;
+
     private BluetoothManager bluetoothManager;
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothDevice bluetoothDevice;
@@ -93,14 +168,48 @@ public class BLEService extends Service {
 
     private int actualError = ERROR_NONE;
 
-    private Messenger inputMessenger;
+    private volatile Messenger inputMessenger;
+
+    /**
+     * Messenger of {@link PluginService}, published by {@link ServiceConnector}. Plugin messages go
+     * straight to it, instead of a hop through {@link IPCService}.
+     */
+    private volatile Messenger pluginMessenger;
+
+    /**
+     * Moves micro:bit events off the bluetooth callback thread.
+     */
+    private EventIngestStage eventIngestStage;
 
     private BLEHandler bleHandler;
 
+    /**
+     * Runs {@link #bleHandler} and connection attempts, which wait for GATT requests, off the main looper.
+     */
+    private HandlerThread bleThread;
+
     private ServiceConnection connection;
 
+    /**
+     * Logs results of GATT operations submitted to the operation queue of {@link BLEManager}.
+     */
+    private final GattOperationCallback operationLogger = new GattOperationCallback() {
+        @Override
+        public void onOperationCompleted(GattOperation operation, int result) {
+            if(!GattOperation.isSuccessful(result)) {
+                Log.e(TAG, "GATT operation " + operation.getType() + " failed. Return Value = 0x" + Integer
+                        .toHexString(result));
+            } else if(DEBUG) {
+                BluetoothGattCharacteristic characteristic = operation.getCharacteristic();
+                logi("GATT operation " + operation.getType() + " completed" + (characteristic != null ? " for " +
+                        characteristic.getUuid() : "") + ". Return Value = 0x" + Integer.toHexString(result));
+            }
+        }
+    };
+
     @Override
     public void onCreate() {
+        Trace.beginSection("BLEService.onCreate");
         super.onCreate();
 
         connection = new ServiceConnection() {
@@ -117,27 +226,120 @@ public class BLEService extends Service {
 
         //TODO This is HACK for android not allow to kill IPCService
         bindService(new Intent(this, IPCService.class), connection, BIND_IMPORTANT);
+
+        gattServiceCache = new GattServiceCache(this);
+
+        bleThread = new HandlerThread("BLEService");
+        bleThread.start();
+
+        reconnectEngine = new ReconnectEngine(this, new Handler(bleThread.getLooper()), new ReconnectEngine.Callback() {
+            @Override
+            public void onConnectAttempt(int attempt) {
+                reconnectEngine.onAttemptFinished(attemptConnection());
+            }
+
+            @Override
+            public void onBackgroundConnect() {
+                initBLEManager();
+                if(bleManager == null || !bleManager.connectInBackground()) {
+                    reportConnectionFailure(ERROR_UNKNOWN_1);
+                }
+            }
+
+            @Override
+            public void onGaveUp(int attempts) {
+                reportConnectionFailure(ERROR_UNKNOWN_1);
+            }
+        });
+
+        eventIngestStage = new EventIngestStage("MicroBitEventIngest", EventIngestStage.DEFAULT_CAPACITY,
+                EventCategories.SAMSUNG_REMOTE_CONTROL_ID, new EventIngestStage.Dispatcher() {
+            @Override
+            public void dispatch(int eventSrc, int event) {
+                sendMessage(deviceAddress, eventSrc, event);
+            }
+        });
+        eventIngestStage.start();
+        Trace.endSection();
     }
 
     @Override
     public void onDestroy() {
+        if(reconnectEngine != null) {
+            reconnectEngine.release();
+        }
+
+        for(ConnectionPool.Connection additional : connectionPool.getConnections()) {
+            if(additional != primaryConnection) {
+                removeAdditionalConnection(additional.getAddress());
+            }
+        }
+
+        if(eventIngestStage != null) {
+            logi("onDestroy() :: " + eventIngestStage);
+            eventIngestStage.stop();
+        }
+
         if(connection != null) {
             unbindService(connection);
         }
+
+        //Lets disconnection requested from onUnbind() finish
+        bleThread.quitSafely();
         super.onDestroy();
     }
 
+    /**
+     * Prints GATT operation statistics, e.g. via {@code adb shell dumpsys activity service BLEService}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        BLEManager manager = bleManager;
+
+        writer.println("BLEService: device = " + deviceAddress);
+        if(manager == null) {
+            writer.println("  not connected");
+        } else {
+            writer.println("  connected = " + manager.isConnected() + " mtu = " + manager.getMtu() +
+                    " retries = " + manager.getRetryCount() + " late callbacks = " + manager.getLateCallbackCount());
+        }
+
+        writer.println("  GATT operations:");
+        gattStatistics.dump(writer, "    ");
+        writer.println("  GATT deadlines:");
+        deadlinePolicy.dump(writer, "    ");
+
+        if(eventWriter != null) {
+            writer.println("  " + eventWriter);
+        }
+
+        if(eventIngestStage != null) {
+            writer.println("  " + eventIngestStage);
+        }
+
+        writer.println("  Connections:");
+        connectionPool.dump(writer, "    ");
+        for(ConnectionPool.Connection connection : connectionPool.getConnections()) {
+            EventIngestStage stage = connection.getIngestStage();
+            if(stage != null) {
+                writer.println("    " + connection.getId() + ": " + stage);
+            }
+        }
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        bleHandler = new BLEHandler(this);
+        if(bleHandler == null) {
+            bleHandler = new BLEHandler(this, bleThread.getLooper());
+        }
 
         return new Messenger(bleHandler).getBinder();
     }
 
     @Override
     public boolean onUnbind(Intent intent) {
-        if(bleHandler != null) {
+        if(bleHandler != null && !ACTION_EVENT_CHANNEL.equals(intent.getAction())) {
             Message disconnectMessage = Message.obtain(null, IPCConstants.MESSAGE_ANDROID);
             disconnectMessage.arg1 = EventCategories.IPC_BLE_DISCONNECT;
             bleHandler.sendMessage(disconnectMessage);
@@ -146,38 +348,49 @@ public class BLEService extends Service {
     }
 
     private void handleMessage(Message msg) {
-        inputMessenger = msg.replyTo;
+        if(msg.what == IPCConstants.MESSAGE_ANDROID && msg.arg1 == EventCategories.IPC_SET_ROUTE) {
+            if(msg.arg2 == ServiceIds.SERVICE_PLUGIN) {
+                logi("handleMessage() :: plugin route = " + msg.replyTo);
+                pluginMessenger = msg.replyTo;
+            }
+            return;
+        }
+
+        //Messages of MicroBitEventChannel have no one to reply to
+        if(msg.replyTo != null) {
+            inputMessenger = msg.replyTo;
+        }
+
         logi("handleIncomingMessage()");
-        Bundle bundle = msg.getData();
         if(msg.what == IPCConstants.MESSAGE_ANDROID) {
             logi("IPCMessageManager.MESSAGE_ANDROID msg.arg1 = " + msg.arg1);
             if(msg.arg1 == SIMULATE) {
-                try {
-                    Thread.sleep(10000);
-                } catch(InterruptedException e) {
-                    Log.e(TAG, e.toString());
-                }
-                sendMessage(EventCategories.SAMSUNG_REMOTE_CONTROL_ID, 10);
+                bleHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendMessage(deviceAddress, EventCategories.SAMSUNG_REMOTE_CONTROL_ID, 10);
+                    }
+                }, 10000);
                 return;
             }
 
             switch(msg.arg1) {
                 case EventCategories.IPC_BLE_CONNECT:
+                    reconnectEngine.cancel();
                     int justPaired = msg.arg2;
                     if(justPaired == IPCConstants.JUST_PAIRED) {
-                        Log.e(TAG, "just paired delay");
-                        try {
-                            Thread.sleep(Constants.JUST_PAIRED_DELAY_ON_CONNECTION);
-                        } catch(InterruptedException e) {
-                            Log.e(TAG, e.toString());
-                        }
+                        // Micro:bit restarts after pairing, so keep trying until it's back
+                        Log.e(TAG, "just paired, connecting with retries");
+                        reconnectEngine.start(BluetoothUtils.getPairedMicrobit(this).mAddress,
+                                Constants.JUST_PAIRED_FIRST_ATTEMPT_DELAY, false);
                     } else {
                         Log.e(TAG, "paired earlier");
+                        setupBLE();
                     }
-                    setupBLE();
                     break;
 
                 case EventCategories.IPC_BLE_DISCONNECT:
+                    reconnectEngine.cancel();
                     initBLEManager();
                     if(reset()) {
                         setNotification(false, ERROR_NONE);
@@ -186,23 +399,53 @@ public class BLEService extends Service {
                     break;
 
                 case EventCategories.IPC_BLE_RECONNECT:
+                    reconnectEngine.cancel();
                     if(reset()) {
                         setupBLE();
                     }
 
                     break;
 
+                case EventCategories.IPC_BLE_CONNECT_DEVICE: {
+                    IpcCodec.Payload payload = IpcCodec.decode(msg);
+                    setupAdditionalConnection(payload.getString(IpcFields.FIELD_DEVICE_ADDRESS));
+                    payload.recycle();
+                    break;
+                }
+
+                case EventCategories.IPC_BLE_DISCONNECT_DEVICE: {
+                    IpcCodec.Payload payload = IpcCodec.decode(msg);
+                    removeAdditionalConnection(payload.getString(IpcFields.FIELD_DEVICE_ADDRESS));
+                    payload.recycle();
+                    break;
+                }
+
                 default:
             }
         } else if(msg.what == IPCConstants.MESSAGE_MICROBIT) {
             logi("IPCMessageManager.MESSAGE_MICROBIT msg.arg1 = " + msg.arg1);
             switch(msg.arg1) {
-                case EventCategories.IPC_WRITE_CHARACTERISTIC:
-                    String service = (String) bundle.getSerializable(IPCConstants.BUNDLE_SERVICE_GUID);
-                    String characteristic = (String) bundle.getSerializable(IPCConstants.BUNDLE_CHARACTERISTIC_GUID);
-                    int value = (int) bundle.getSerializable(IPCConstants.BUNDLE_CHARACTERISTIC_VALUE);
-                    int type = (int) bundle.getSerializable(IPCConstants.BUNDLE_CHARACTERISTIC_TYPE);
-                    writeCharacteristic(service, characteristic, value, type);
+                case EventCategories.IPC_WRITE_CHARACTERISTIC: {
+                    IpcCodec.Payload payload = IpcCodec.decode(msg);
+                    UUID service = payload.getUuid(IpcFields.FIELD_SERVICE_GUID);
+                    UUID characteristic = payload.getUuid(IpcFields.FIELD_CHARACTERISTIC_GUID);
+                    int value = payload.getInt(IpcFields.FIELD_CHARACTERISTIC_VALUE, 0);
+                    int type = payload.getInt(IpcFields.FIELD_CHARACTERISTIC_TYPE, GattFormats.FORMAT_UINT32);
+                    String address = payload.getString(IpcFields.FIELD_DEVICE_ADDRESS);
+                    payload.recycle();
+
+                    if(service == null || characteristic == null) {
+                        Log.e(TAG, "IPC_WRITE_CHARACTERISTIC without service or characteristic");
+                    } else if(address == null || address.equals(deviceAddress)) {
+                        writeCharacteristic(service, characteristic, value, type);
+                    } else {
+                        writeCharacteristic(address, service, characteristic, value, type);
+                    }
+                    break;
+                }
+
+                case EventCategories.IPC_WRITE_EVENT:
+                    writeClientEvent(msg.arg2);
                     break;
 
                 default:
@@ -230,9 +473,14 @@ public class BLEService extends Service {
         boolean rc = false;
         if(bleManager != null) {
             disconnectAll();
+            releaseEventWriter();
             rc = bleManager.reset();
             if(rc) {
                 bleManager = null;
+                if(primaryConnection != null) {
+                    primaryConnection.setManager(null);
+                    primaryConnection.onDisconnected();
+                }
             }
         }
 
@@ -247,24 +495,6 @@ public class BLEService extends Service {
     private boolean registerNotifications(boolean enable) {
         logi("registerNotifications() : " + enable);
 
-        //Read micro:bit firmware version
-        BluetoothGattService deviceInfoService = getService(GattServiceUUIDs.DEVICE_INFORMATION_SERVICE);
-        if(deviceInfoService != null) {
-            BluetoothGattCharacteristic firmwareCharacteristic = deviceInfoService.getCharacteristic
-                    (CharacteristicUUIDs.FIRMWARE_REVISION_UUID);
-            if(firmwareCharacteristic != null) {
-                String firmware = "";
-                BluetoothGattCharacteristic characteristic = readCharacteristic(firmwareCharacteristic);
-                if(characteristic != null && characteristic.getValue() != null && characteristic.getValue().length != 0) {
-                    firmware = firmwareCharacteristic.getStringValue(0);
-                }
-                sendMicrobitFirmware(firmware);
-                logi("Micro:bit firmware version String = " + firmware);
-            }
-        } else {
-            Log.e(TAG, "Not found DeviceInformationService");
-        }
-
         BluetoothGattService eventService = getService(GattServiceUUIDs.EVENT_SERVICE);
         if(eventService == null) {
             Log.e(TAG, "Not found EventService");
@@ -277,73 +507,115 @@ public class BLEService extends Service {
         logi("Constants.ES_CLIENT_EVENT   = " + CharacteristicUUIDs.ES_CLIENT_EVENT.toString());
         logi("Constants.ES_MICROBIT_EVENT   = " + CharacteristicUUIDs.ES_MICROBIT_EVENT.toString());
         logi("Constants.ES_CLIENT_REQUIREMENTS   = " + CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS.toString());
-        if(!registerMicrobitRequirements(eventService, enable)) {
-            if(DEBUG) {
-                logi("***************** Cannot Register Microbit Requirements.. Will continue ************** ");
-            }
-        }
 
-        register_AppRequirement(eventService, enable);
+        registerForSignalStrength(enable);
+        registerForDeviceInfo(enable);
 
-        if(!registerMicroBitEvents(eventService, enable)) {
+        //Writes needed to receive events go first, as one batch
+        ConnectionSetupPlan plan = ConnectionSetupPlan.forEventService(eventService, CLIENT_REQUIREMENTS, enable,
+                subscriptionCallback(primaryConnection, enable));
+        if(!plan.hasNotification(eventService.getCharacteristic(CharacteristicUUIDs.ES_MICROBIT_EVENT))) {
             logi("Failed to registerMicroBitEvents");
             return false;
         }
-        logi("registerNotifications() : done");
-        return true;
-    }
 
-    private BluetoothGattService getService(UUID uuid) {
-        if(bleManager != null) {
-            return bleManager.getService(uuid);
-        }
+        final ConnectionPool.Connection connection = primaryConnection;
+        plan.submit(bleManager, !enable ? null : new ConnectionSetupPlan.Listener() {
+            @Override
+            public void onReady(ConnectionSetupPlan plan) {
+                logi("registerNotifications() :: ready " + plan);
+                if(connection != null) {
+                    onSetupCompleted(connection, plan);
+                }
 
-        return null;
-    }
+                //micro:bit can send events of these categories from now on
+                for(int category : CLIENT_REQUIREMENTS) {
+                    prewarmPlugin(category);
+                }
+            }
+        });
 
-    /**
-     * Reads the requested characteristic from the associated remote device.
-     *
-     * @param characteristic Characteristic to read from the remote device.
-     * @return Operation result code.
-     */
-    private BluetoothGattCharacteristic readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if(bleManager != null) {
-            int rc = bleManager.readCharacteristic(characteristic);
-            rc = interpretCode(rc);
-            if(rc == ERROR_NONE) {
-                return bleManager.getLastCharacteristic();
+        if(!enable) {
+            logi("registerNotifications() : done");
+            return true;
+        }
+
+        //Reads queued after the batch, so they don't delay the first event
+        if(!registerMicrobitRequirements(eventService)) {
+            if(DEBUG) {
+                logi("***************** Cannot Register Microbit Requirements.. Will continue ************** ");
             }
         }
 
-        return null;
+        //Known service table lets clients show firmware version before it's read again
+        GattServiceTable cachedTable = gattServiceCache.getMatching(deviceAddress, bleManager.getServices());
+        String cachedFirmware = null;
+        if(cachedTable != null) {
+            cachedFirmware = cachedTable.mFirmware;
+            sendMicrobitFirmware(cachedFirmware);
+            logi("Micro:bit firmware version String (cached) = " + cachedFirmware);
+        }
+
+        readMicrobitFirmware(cachedFirmware);
+
+        logi("registerNotifications() : done");
+        return true;
     }
 
     /**
-     * Interprets code result number and returns new result number.
+     * Reads micro:bit firmware version, sends it to clients and caches it together
+     * with discovered service table. The same service table doesn't mean the same firmware,
+     * so a cached version is checked against the read one, and replaced if it differs.
      *
-     * @param rc Result code number.
-     * @return New result code number.
+     * @param cachedFirmware Firmware version already sent from the cache, or null.
      */
-    private int interpretCode(int rc) {
-        if(rc > 0) {
-            if((rc & BLEManager.BLE_ERROR_FAIL) != 0) {
-                if((rc & BLEManager.BLE_ERROR_TIMEOUT) != 0) {
-                    rc = ERROR_TIME_OUT;
-                } else {
-                    rc = ERROR_UNKNOWN_1;
-                }
-            } else {
-                rc &= 0x0000ffff;
-                if(rc == BLEManager.BLE_DISCONNECTED) {
-                    rc = ERROR_UNKNOWN_2;
-                } else {
-                    rc = ERROR_NONE;
+    private void readMicrobitFirmware(@Nullable final String cachedFirmware) {
+        BluetoothGattService deviceInfoService = getService(GattServiceUUIDs.DEVICE_INFORMATION_SERVICE);
+        if(deviceInfoService == null) {
+            Log.e(TAG, "Not found DeviceInformationService");
+            return;
+        }
+
+        BluetoothGattCharacteristic firmwareCharacteristic = deviceInfoService.getCharacteristic(CharacteristicUUIDs
+                .FIRMWARE_REVISION_UUID);
+        if(firmwareCharacteristic == null) {
+            return;
+        }
+
+        final BLEManager manager = bleManager;
+        final String address = deviceAddress;
+        manager.submit(GattOperation.readCharacteristic(firmwareCharacteristic, new GattOperationCallback() {
+            @Override
+            public void onOperationCompleted(GattOperation operation, int result) {
+                String firmware = "";
+                byte[] value = operation.getValue();
+                if(GattOperation.isSuccessful(result) && value != null && value.length != 0) {
+                    firmware = new String(value);
+                    if(firmware.equals(cachedFirmware)) {
+                        logi("Micro:bit firmware version String matches the cached one");
+                        return;
+                    }
+
+                    gattServiceCache.put(address, firmware, manager.getServices());
+                } else if(cachedFirmware != null) {
+                    // Can't tell if the cached version is still right
+                    gattServiceCache.invalidate(address);
+                    Log.w(TAG, "Failed to read firmware version, keeping the cached one");
+                    return;
                 }
+
+                sendMicrobitFirmware(firmware);
+                logi("Micro:bit firmware version String = " + firmware);
             }
+        }));
+    }
+
+    private BluetoothGattService getService(UUID uuid) {
+        if(bleManager != null) {
+            return bleManager.getService(uuid);
         }
 
-        return rc;
+        return null;
     }
 
     private void sendMicrobitFirmware(String firmware) {
@@ -372,11 +644,13 @@ public class BLEService extends Service {
      * You can send events to the micro:bit that haven't been asked for, but as no-one will
      * be listening, they will be silently dropped.
      *
+     * <p/>
+     * Requirements are read with queued requests, one after another, so connection setup doesn't wait for them.
+     *
      * @param eventService Bluetooth GATT service.
-     * @param enable       Enable or disable.
      * @return True, if successful.
      */
-    private boolean registerMicrobitRequirements(BluetoothGattService eventService, boolean enable) {
+    private boolean registerMicrobitRequirements(BluetoothGattService eventService) {
         BluetoothGattCharacteristic microbit_requirements = eventService.getCharacteristic(CharacteristicUUIDs
                 .ES_MICROBIT_REQUIREMENTS);
         if(microbit_requirements == null) {
@@ -384,34 +658,57 @@ public class BLEService extends Service {
             return false;
         }
 
-        BluetoothGattDescriptor microbit_requirementsDescriptor = microbit_requirements.getDescriptor(UUIDs
-                .CLIENT_DESCRIPTOR);
-        if(microbit_requirementsDescriptor == null) {
-            logi("register_eventsFromMicrobit() :: CLIENT_DESCRIPTOR Not found");
-            return false;
-        }
+        logi("registerMicrobitRequirements() :: found Constants.ES_MICROBIT_REQUIREMENTS ");
+        readMicrobitRequirement(bleManager, microbit_requirements);
+        return true;
+    }
 
-        BluetoothGattCharacteristic characteristic = readCharacteristic(microbit_requirements);
-        while(characteristic != null && characteristic.getValue() != null && characteristic.getValue().length != 0) {
-            String service = BluetoothUtils.parse(characteristic);
-            logi("microbit interested in  = " + service);
-            if(service.equalsIgnoreCase("4F-04-07-00")) //Incoming Call service
-            {
-                sendMicroBitNeedsCallNotification();
-            }
-            if(service.equalsIgnoreCase("4F-04-08-00")) //Incoming SMS service
-            {
-                sendMicroBitNeedsSmsNotification();
-            }
-            characteristic = readCharacteristic(microbit_requirements);
-        }
+    /**
+     * Reads next micro:bit requirement and, if there is one, submits a read of the following one.
+     *
+     * @param manager               Manager to submit reads to.
+     * @param microbit_requirements Micro:bit requirements characteristic.
+     */
+    private void readMicrobitRequirement(final BLEManager manager, final BluetoothGattCharacteristic
+            microbit_requirements) {
+        manager.submit(GattOperation.readCharacteristic(microbit_requirements, new GattOperationCallback() {
+            @Override
+            public void onOperationCompleted(GattOperation operation, int result) {
+                byte[] value = operation.getValue();
+                if(!GattOperation.isSuccessful(result) || value == null || value.length == 0) {
+                    return;
+                }
 
-        registerForSignalStrength(enable);
-        registerForDeviceInfo(enable);
+                String service = BluetoothUtils.parse(microbit_requirements);
+                logi("microbit interested in  = " + service);
+                if(value.length >= 2) {
+                    prewarmPlugin((value[0] & 0xFF) | ((value[1] & 0xFF) << 8));
+                }
+                if(service.equalsIgnoreCase("4F-04-07-00")) //Incoming Call service
+                {
+                    sendMicroBitNeedsCallNotification();
+                }
+                if(service.equalsIgnoreCase("4F-04-08-00")) //Incoming SMS service
+                {
+                    sendMicroBitNeedsSmsNotification();
+                }
 
-        logi("registerMicrobitRequirements() :: found Constants.ES_MICROBIT_REQUIREMENTS ");
-        enableCharacteristicNotification(microbit_requirements, microbit_requirementsDescriptor, enable);
-        return true;
+                readMicrobitRequirement(manager, microbit_requirements);
+            }
+        }));
+    }
+
+    /**
+     * Asks PluginService to create a plugin of a category ahead of its first event.
+     *
+     * @param category Event category, e.g. {@link EventCategories#SAMSUNG_ALERTS_ID}.
+     */
+    private void prewarmPlugin(int category) {
+        Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_ANDROID, EventCategories
+                .IPC_PLUGIN_PREWARM, ServiceIds.SERVICE_PLUGIN, new CmdArg(category, null), null);
+        if(message != null) {
+            sendToPlugin(message);
+        }
     }
 
     private void sendMicroBitNeedsCallNotification() {
@@ -459,24 +756,7 @@ public class BLEService extends Service {
      * @param register Register or unregister.
      */
     private void registerForSignalStrength(boolean register) {
-        if(inputMessenger == null) {
-            Log.e(TAG, "wrong inputMessenger");
-            return;
-        }
-
-        CmdArg cmd = register ? new CmdArg(RegistrationIds.REG_SIGNALSTRENGTH, "On") : new CmdArg(RegistrationIds
-                .REG_SIGNALSTRENGTH, "Off");
-
-        Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_SIGNAL_STRENGTH_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
+        sendRegistration(EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID, RegistrationIds.REG_SIGNALSTRENGTH, register);
     }
 
     /**
@@ -486,229 +766,166 @@ public class BLEService extends Service {
      * @param register Register or unregister.
      */
     private void registerForDeviceInfo(boolean register) {
-        if(inputMessenger == null) {
-            Log.e(TAG, "wrong inputMessenger");
-            return;
-        }
-
         logi("registerForDeviceInfo() -- " + register);
 
         //Device Orientation
-        CmdArg cmd = register ? new CmdArg(RegistrationIds.REG_DEVICEORIENTATION, "On") : new CmdArg(RegistrationIds
-                .REG_DEVICEORIENTATION, "Off");
-        Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_DEVICE_INFO_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-
+        sendRegistration(EventCategories.SAMSUNG_DEVICE_INFO_ID, RegistrationIds.REG_DEVICEORIENTATION, register);
         //Device Gesture
-        cmd = register ? new CmdArg(RegistrationIds.REG_DEVICEGESTURE, "On") : new CmdArg(RegistrationIds.REG_DEVICEGESTURE,
-                "Off");
-        message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_DEVICE_INFO_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-
+        sendRegistration(EventCategories.SAMSUNG_DEVICE_INFO_ID, RegistrationIds.REG_DEVICEGESTURE, register);
         //Device Battery Strength
-        cmd = register ? new CmdArg(RegistrationIds.REG_BATTERYSTRENGTH, "On") : new CmdArg(RegistrationIds.REG_BATTERYSTRENGTH,
-                "Off");
-        message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_DEVICE_INFO_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-
+        sendRegistration(EventCategories.SAMSUNG_DEVICE_INFO_ID, RegistrationIds.REG_BATTERYSTRENGTH, register);
         //Device Temperature
-        cmd = register ? new CmdArg(RegistrationIds.REG_TEMPERATURE, "On") : new CmdArg(RegistrationIds.REG_TEMPERATURE, "Off");
-        message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_DEVICE_INFO_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-
+        sendRegistration(EventCategories.SAMSUNG_DEVICE_INFO_ID, RegistrationIds.REG_TEMPERATURE, register);
         //Register Telephony
-        cmd = register ? new CmdArg(RegistrationIds.REG_TELEPHONY, "On") : new CmdArg(RegistrationIds.REG_TELEPHONY, "Off");
-        message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_TELEPHONY_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-
+        sendRegistration(EventCategories.SAMSUNG_TELEPHONY_ID, RegistrationIds.REG_TELEPHONY, register);
         //Register Messaging
-        cmd = register ? new CmdArg(RegistrationIds.REG_MESSAGING, "On") : new CmdArg(RegistrationIds.REG_MESSAGING, "Off");
-        message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_TELEPHONY_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-
+        sendRegistration(EventCategories.SAMSUNG_TELEPHONY_ID, RegistrationIds.REG_MESSAGING, register);
         //Register Display
-        cmd = register ? new CmdArg(RegistrationIds.REG_DISPLAY, "On") : new CmdArg(RegistrationIds.REG_DISPLAY, "Off");
-        message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories
-                .SAMSUNG_TELEPHONY_ID, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
-        }
+        sendRegistration(EventCategories.SAMSUNG_TELEPHONY_ID, RegistrationIds.REG_DISPLAY, register);
     }
 
     /**
-     * Enable or disable notifications/indications for a given characteristic.
+     * Sends a registration command to a plugin.
      *
-     * @param characteristic The characteristic for which to enable notifications.
-     * @param descriptor     Bluetooth GATT descriptor.
-     * @param enable         Enable or disable notification.
-     * @return Result code number.
+     * @param category       Plugin category, e.g. {@link EventCategories#SAMSUNG_DEVICE_INFO_ID}.
+     * @param registrationId Registration id, see {@link RegistrationIds}.
+     * @param register       Register or unregister.
      */
-    private int enableCharacteristicNotification(BluetoothGattCharacteristic characteristic, BluetoothGattDescriptor
-            descriptor, boolean enable) {
-        int rc = ERROR_UNKNOWN_1;
-
-        if(bleManager != null) {
-            rc = bleManager.enableCharacteristicNotification(characteristic, descriptor, enable);
-        }
+    private void sendRegistration(int category, int registrationId, boolean register) {
+        CmdArg cmd = new CmdArg(registrationId, register ? "On" : "Off");
 
-        return rc;
+        Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT, category, ServiceIds
+                .SERVICE_PLUGIN, cmd, null);
+        if(message != null) {
+            sendToPlugin(message);
+        }
     }
 
     /**
-     * write repeatedly to (4) to register for the events your app wants to see from the micro:bit.
-     * e.g. write <1,1> to register for a 'DOWN' event on ButtonA.
-     * Any events matching this will then start to be delivered via the MicroBit Event characteristic.
+     * Sends a message to {@link PluginService}. The message goes straight to the plugin process once
+     * the route is known, otherwise through {@link IPCService}.
      *
-     * @param eventService Bluetooth GATT service.
-     * @param enable       Enable or disable.
+     * @param message Message, addressed to {@link ServiceIds#SERVICE_PLUGIN}.
      */
-    private void register_AppRequirement(BluetoothGattService eventService, boolean enable) {
-        if(!enable) {
+    private void sendToPlugin(Message message) {
+        Messenger messenger = pluginMessenger;
+        if(messenger != null) {
+            try {
+                messenger.send(message);
+                return;
+            } catch(RemoteException e) {
+                Log.e(TAG, e.toString());
+                pluginMessenger = null;
+            }
+        }
+
+        messenger = inputMessenger;
+        if(messenger == null) {
+            Log.e(TAG, "wrong inputMessenger");
             return;
         }
 
-        BluetoothGattCharacteristic app_requirements = eventService.getCharacteristic(CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS);
-        if(app_requirements != null) {
-            logi("register_AppRequirement() :: found Constants.ES_CLIENT_REQUIREMENTS ");
-            /*
-            Registering for everything at the moment
-            <1,0> which means give me all the events from ButtonA.
-            <2,0> which means give me all the events from ButtonB.
-            <0,0> which means give me all the events from everything.
-            writeCharacteristic(Constants.EVENT_SERVICE.toString(), Constants.ES_CLIENT_REQUIREMENTS.toString(), 0, BluetoothGattCharacteristic.FORMAT_UINT32);
-            */
-            writeCharacteristic(GattServiceUUIDs.EVENT_SERVICE.toString(), CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS.toString(),
-                    EventCategories.SAMSUNG_REMOTE_CONTROL_ID, GattFormats.FORMAT_UINT32);
-            writeCharacteristic(GattServiceUUIDs.EVENT_SERVICE.toString(), CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS.toString(),
-                    EventCategories.SAMSUNG_CAMERA_ID, GattFormats.FORMAT_UINT32);
-            writeCharacteristic(GattServiceUUIDs.EVENT_SERVICE.toString(), CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS.toString(),
-                    EventCategories.SAMSUNG_ALERTS_ID, GattFormats.FORMAT_UINT32);
-            writeCharacteristic(GattServiceUUIDs.EVENT_SERVICE.toString(), CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS.toString(),
-                    EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID, GattFormats.FORMAT_UINT32);
-            writeCharacteristic(GattServiceUUIDs.EVENT_SERVICE.toString(), CharacteristicUUIDs.ES_CLIENT_REQUIREMENTS.toString(),
-                    EventCategories.SAMSUNG_DEVICE_INFO_ID, GattFormats.FORMAT_UINT32);
-            //writeCharacteristic(GattServiceUUIDs.EVENT_SERVICE.toString(), CharacteristicUUIDs
-            //        .ES_CLIENT_REQUIREMENTS.toString(), EventCategories.SAMSUNG_TELEPHONY_ID,
-            //        GattFormats.FORMAT_UINT32);
+        try {
+            messenger.send(message);
+        } catch(RemoteException e) {
+            Log.e(TAG, e.toString());
         }
     }
 
-    private void writeCharacteristic(String serviceGuid, String characteristic, int value, int type) {
+    private void writeCharacteristic(UUID serviceGuid, UUID characteristic, int value, int type) {
         if(!isConnected()) {
             logi("writeCharacteristic() :: Not connected. Returning");
             return;
         }
 
-        BluetoothGattService s = getService(UUID.fromString(serviceGuid));
+        BluetoothGattService s = getService(serviceGuid);
         if(s == null) {
             logi("writeCharacteristic() :: Service not found");
             return;
         }
 
-        BluetoothGattCharacteristic c = s.getCharacteristic(UUID.fromString(characteristic));
+        BluetoothGattCharacteristic c = s.getCharacteristic(characteristic);
         if(c == null) {
             logi("writeCharacteristic() :: characteristic not found");
             return;
         }
 
-        c.setValue(value, type, 0);
-        int ret = writeCharacteristic(c);
-        logi("writeCharacteristic() :: returns - " + ret);
+        if(CharacteristicUUIDs.ES_CLIENT_EVENT.equals(c.getUuid())) {
+            writeEvent(c, value, type);
+        } else {
+            bleManager.submit(GattOperation.writeCharacteristic(c, value, type, operationLogger));
+        }
     }
 
-    private boolean isConnected() {
-        return bleManager != null && bleManager.isConnected();
+    /**
+     * Writes an event to micro:bit client event characteristic.
+     *
+     * @param value Event value, see {@link com.samsung.microbit.utils.Utils#makeMicroBitValue(int, int)}.
+     */
+    private void writeClientEvent(int value) {
+        if(!isConnected()) {
+            logi("writeClientEvent() :: Not connected. Returning");
+            return;
+        }
+
+        BluetoothGattService s = getService(GattServiceUUIDs.EVENT_SERVICE);
+        BluetoothGattCharacteristic c = s != null ? s.getCharacteristic(CharacteristicUUIDs.ES_CLIENT_EVENT) : null;
+        if(c == null) {
+            logi("writeClientEvent() :: characteristic not found");
+            return;
+        }
+
+        writeEvent(c, value, GattFormats.FORMAT_UINT32);
     }
 
     /**
-     * Writes a given characteristic and its values to the associated remote device.
+     * Streams an event to micro:bit. Telemetry events of the same category replace each other
+     * while waiting to be written. Other events wait for their turn if too many writes are in flight.
      *
-     * @param characteristic Characteristic to write on the remote device.
-     * @return Operation result code.
+     * @param characteristic Client event characteristic.
+     * @param value          Event value. Lower 16 bits are used as event category.
+     * @param type           Format type of the value.
      */
-    private int writeCharacteristic(BluetoothGattCharacteristic characteristic) {
-        int rc = ERROR_UNKNOWN_1;
-
-        if(bleManager != null) {
-            rc = bleManager.writeCharacteristic(characteristic);
-            rc = interpretCode(rc);
+    private void writeEvent(BluetoothGattCharacteristic characteristic, int value, int type) {
+        if(eventWriter == null || eventWriter.getCharacteristic() != characteristic) {
+            releaseEventWriter();
+            eventWriter = bleManager.createStreamingWriter(characteristic, EVENT_WRITE_WINDOW);
+        }
 
-            logi("Data written to " + characteristic.getUuid() + " value : (0x)" + BluetoothUtils.parse
-                    (characteristic) + " Return Value = 0x" + Integer.toHexString(rc));
+        if(!eventWriter.write(value, type, getCoalesceKey(value))) {
+            Log.w(TAG, "writeEvent() :: dropped. " + eventWriter);
         }
-        return rc;
     }
 
     /**
-     * Enables or disables micro:bit event by given event and enable/disable flag.
+     * Only the latest value of a telemetry category matters, so a newer one may replace a waiting one.
+     * Discrete events, e.g. gestures sharing {@link EventCategories#SAMSUNG_DEVICE_INFO_ID}, are never
+     * replaced. They are queued when the window is full and dropped only if that queue overflows.
      *
-     * @param eventService Bluetooth GATT service to be registered.
-     * @param enable       Enable or disable.
-     * @return True, if successful.
+     * @param value Event value.
+     * @return Coalescing key of the event.
      */
-    private boolean registerMicroBitEvents(BluetoothGattService eventService, boolean enable) {
-        // Read (or register for notify) on (1) to receive events generated by the micro:bit.
-        BluetoothGattCharacteristic microbit_requirements = eventService.getCharacteristic(CharacteristicUUIDs
-                .ES_MICROBIT_EVENT);
-        if(microbit_requirements == null) {
-            logi("register_eventsFromMicrobit() :: ES_MICROBIT_EVENT Not found");
-            return false;
+    private static int getCoalesceKey(int value) {
+        int category = value & 0xFFFF;
+        switch(category) {
+            case EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID:
+            case EventCategories.SAMSUNG_BATTERY_LEVEL_ID:
+            case EventCategories.SAMSUNG_TEMPERATURE_ID:
+                return category;
+            default:
+                return StreamingWriter.NO_COALESCING;
         }
-        BluetoothGattDescriptor microbit_requirementsDescriptor = microbit_requirements.getDescriptor(UUIDs
-                .CLIENT_DESCRIPTOR);
-        if(microbit_requirementsDescriptor == null) {
-            logi("register_eventsFromMicrobit() :: CLIENT_DESCRIPTOR Not found");
-            return false;
+    }
+
+    private void releaseEventWriter() {
+        if(eventWriter != null) {
+            logi("releaseEventWriter() :: " + eventWriter);
+            eventWriter = null;
         }
+    }
 
-        enableCharacteristicNotification(microbit_requirements, microbit_requirementsDescriptor, enable);
-        return true;
+    private boolean isConnected() {
+        return bleManager != null && bleManager.isConnected();
     }
 
     /**
@@ -717,7 +934,7 @@ public class BLEService extends Service {
     private void setupBLE() {
         initBLEManager();
 
-        startupConnection();
+        startupConnection(true);
     }
 
     private void initBLEManager() {
@@ -742,6 +959,21 @@ public class BLEService extends Service {
             return;
         }
 
+        if(primaryConnection != null && !primaryConnection.getAddress().equals(deviceAddress)) {
+            connectionPool.remove(primaryConnection.getAddress());
+            primaryConnection = null;
+        }
+
+        if(primaryConnection == null) {
+            // Paired micro:bit takes a place of an additional one if the pool is full
+            primaryConnection = connectionPool.obtain(deviceAddress);
+            if(primaryConnection == null) {
+                List<ConnectionPool.Connection> connections = connectionPool.getConnections();
+                removeAdditionalConnection(connections.get(connections.size() - 1).getAddress());
+                primaryConnection = connectionPool.obtain(deviceAddress);
+            }
+        }
+
         bleManager = new BLEManager(getApplicationContext(), bluetoothDevice,
                 new CharacteristicChangeListener() {
                     @Override
@@ -764,8 +996,13 @@ public class BLEService extends Service {
                             handleUnexpectedConnectionEvent(event, gattForceClosed);
                         }
                     }
-                });
+                },
+                gattStatistics, deadlinePolicy);
+        bleManager.setGattScheduler(connectionPool.getScheduler());
 
+        if(primaryConnection != null) {
+            primaryConnection.setManager(bleManager);
+        }
     }
 
     private String searchDeviceAddress() {
@@ -846,44 +1083,43 @@ public class BLEService extends Service {
         //TODO use notificationString, notifyMgr, and onGoingNotification
     }
 
+    /**
+     * Copies raw micro:bit events into the ingest stage. Called on the bluetooth callback thread,
+     * so it doesn't decode, allocate or log anything in release builds. Events are decoded and sent
+     * by {@link #sendMessage(String, int, int)} on the ingest consumer thread.
+     */
     private void handleCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        String UUID = characteristic.getUuid().toString();
+        ConnectionPool.Connection connection = primaryConnection;
+        if(connection != null) {
+            connection.onEvent();
+        }
 
-        Integer integerValue = characteristic.getIntValue(GattFormats.FORMAT_UINT32, 0);
+        int accepted = eventIngestStage.ingest(characteristic.getValue());
 
-        if(integerValue == null) {
-            return;
-        }
-        int value = integerValue;
-        int eventSrc = value & 0x0ffff;
-        if(eventSrc < 1001) {
-            return;
+        if(DEBUG) {
+            logi("Characteristic UUID = " + characteristic.getUuid() + " events accepted = " + accepted);
         }
-        logi("Characteristic UUID = " + UUID);
-        logi("Characteristic Value = " + value);
-        logi("eventSrc = " + eventSrc);
-
-        int event = (value >> 16) & 0x0ffff;
-        logi("event = " + event);
-        sendMessage(eventSrc, event);
     }
 
-    private void sendMessage(int eventSrc, int event) {
-        if(inputMessenger == null) {
-            Log.e(TAG, "wrong inputMessenger");
-            return;
+    /**
+     * Sends a micro:bit event to plugins. Runs for every event, so the payload is filled straight
+     * from a pooled {@link IpcCodec.Payload} rather than through {@link CmdArg} and {@link NameValuePair}.
+     * The message is taken from the system pool; only the bundle and encoded bytes, which are
+     * handed over to the binder, are allocated.
+     *
+     * @param address  Address of the micro:bit the event came from.
+     * @param eventSrc Event source.
+     * @param event    Event value.
+     */
+    private void sendMessage(String address, int eventSrc, int event) {
+        if(DEBUG) {
+            logi("Sending eventSrc " + eventSrc + "  event=" + event + " from " + address);
         }
-
-        logi("Sending eventSrc " + eventSrc + "  event=" + event);
-        int msgService;
-        CmdArg cmd;
         switch(eventSrc) {
             case EventCategories.SAMSUNG_REMOTE_CONTROL_ID:
             case EventCategories.SAMSUNG_ALERTS_ID:
             case EventCategories.SAMSUNG_AUDIO_RECORDER_ID:
             case EventCategories.SAMSUNG_CAMERA_ID:
-                msgService = eventSrc;
-                cmd = new CmdArg(event, "1000");
                 break;
 
             default:
@@ -891,21 +1127,25 @@ public class BLEService extends Service {
                 return;
         }
 
-        Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_MICROBIT,
-                msgService, ServiceIds.SERVICE_PLUGIN, cmd, null);
-        if(message != null) {
-            try {
-                inputMessenger.send(message);
-            } catch(RemoteException e) {
-                e.printStackTrace();
-            }
+        Message message;
+        IpcCodec.Payload payload = IpcCodec.Payload.obtain();
+        try {
+            payload.putInt(IpcFields.FIELD_CMD, event)
+                    .putString(IpcFields.FIELD_VALUE, EVENT_CMD_VALUE)
+                    .putString(IpcFields.FIELD_DEVICE_ADDRESS, address);
+
+            message = IpcCodec.obtainMessage(IPCConstants.MESSAGE_MICROBIT, eventSrc, ServiceIds.SERVICE_PLUGIN,
+                    payload);
+        } finally {
+            payload.recycle();
         }
+
+        sendToPlugin(message);
     }
 
     private void handleUnexpectedConnectionEvent(int event, boolean gattForceClosed) {
         logi("handleUnexpectedConnectionEvent() :: event = " + event);
 
-        //TODO make something when unexpected disconnect happened
         /*if(gattForceClosed) {
             Context appContext = getApplicationContext();
 
@@ -921,12 +1161,27 @@ public class BLEService extends Service {
 
         if((event & BLEManager.BLE_CONNECTED) != 0) {
             logi("handleUnexpectedConnectionEvent() :: BLE_CONNECTED");
-            discoverServices();
+            reconnectEngine.onConnected();
+            if(primaryConnection != null) {
+                primaryConnection.onConnecting();
+            }
+
+            requestConnectionPriority(BLEManager.CONNECTION_PRIORITY_HIGH);
+            if(discoverServices() == ERROR_NONE) {
+                //Called on GATT callback thread, so don't wait for the result
+                submitMtuRequest();
+            }
             registerNotifications(true);
+            submitConnectionPriority(BLEManager.CONNECTION_PRIORITY_BALANCED);
             setNotification(true, ERROR_NONE);
         } else if(event == BLEManager.BLE_DISCONNECTED) {
             logi("handleUnexpectedConnectionEvent() :: BLE_DISCONNECTED");
+            if(primaryConnection != null) {
+                primaryConnection.onDisconnected();
+            }
+
             setNotification(false, ERROR_NONE);
+            reconnectEngine.start(deviceAddress, ReconnectEngine.DEFAULT_BASE_DELAY, true);
         }
     }
 
@@ -951,6 +1206,48 @@ public class BLEService extends Service {
         return rc;
     }
 
+    /**
+     * Requests the largest possible ATT MTU. Result is kept by {@link BLEManager},
+     * so callers can size their payloads via {@link BLEManager#getMaxPayloadSize()}.
+     */
+    private void negotiateMtu() {
+        if(bleManager != null) {
+            int rc = bleManager.requestMtu(BLEManager.MAX_MTU);
+            logi("negotiateMtu() :: rc = 0x" + Integer.toHexString(rc) + " mtu = " + bleManager.getMtu());
+        }
+    }
+
+    /**
+     * Requests the largest possible ATT MTU once all submitted GATT operations are completed.
+     */
+    private void submitMtuRequest() {
+        if(bleManager != null) {
+            bleManager.submit(GattOperation.requestMtu(BLEManager.MAX_MTU, operationLogger));
+        }
+    }
+
+    /**
+     * Changes connection priority immediately, e.g. to speed up connection setup.
+     *
+     * @param priority Connection priority.
+     */
+    private void requestConnectionPriority(int priority) {
+        if(bleManager != null) {
+            bleManager.requestConnectionPriority(priority);
+        }
+    }
+
+    /**
+     * Changes connection priority once all submitted GATT operations are completed.
+     *
+     * @param priority Connection priority.
+     */
+    private void submitConnectionPriority(int priority) {
+        if(bleManager != null) {
+            bleManager.submit(GattOperation.requestConnectionPriority(priority, operationLogger));
+        }
+    }
+
     /**
      * Interprets a result code number comparing with expected code number.
      *
@@ -989,6 +1286,28 @@ public class BLEService extends Service {
     private boolean initialize() {
         logi("initialize() :: remoteDevice = " + deviceAddress);
 
+        boolean rc = initializeAdapter();
+
+        if(rc && (bluetoothDevice == null)) {
+            if(deviceAddress != null) {
+                bluetoothDevice = bluetoothAdapter.getRemoteDevice(deviceAddress);
+                rc = bluetoothAdapter != null;
+            } else {
+                rc = false;
+            }
+        }
+
+        logi("initialize() :: complete rc = " + rc);
+
+        return rc;
+    }
+
+    /**
+     * Obtains bluetooth adapter.
+     *
+     * @return True, if successful.
+     */
+    private boolean initializeAdapter() {
         boolean rc = true;
 
         if(bluetoothManager == null) {
@@ -1001,32 +1320,56 @@ public class BLEService extends Service {
             rc = bluetoothAdapter != null;
         }
 
-        if(rc && (bluetoothDevice == null)) {
-            if(deviceAddress != null) {
-                bluetoothDevice = bluetoothAdapter.getRemoteDevice(deviceAddress);
-                rc = bluetoothAdapter != null;
-            } else {
-                rc = false;
-            }
+        return rc;
+    }
+
+    /**
+     * Makes a single connection attempt on behalf of {@link ReconnectEngine}.
+     * A failed attempt releases the bluetooth manager without notifying anyone,
+     * so the next attempt starts from scratch.
+     *
+     * @return True, if connected.
+     */
+    private boolean attemptConnection() {
+        initBLEManager();
+        if(bleManager == null) {
+            return false;
         }
 
-        logi("initialize() :: complete rc = " + rc);
+        return startupConnection(false);
+    }
 
-        return rc;
+    private void reportConnectionFailure(int errorCode) {
+        reset();
+        setNotification(false, errorCode);
+        Toast.makeText(MBApp.getApp(), R.string.bluetooth_pairing_internal_error, Toast.LENGTH_LONG).show();
     }
 
-    private void startupConnection() {
+    /**
+     * Connects to a device and setups services.
+     *
+     * @param reportFailure Defines if failure should be reported to clients and user.
+     * @return True, if successful.
+     */
+    private boolean startupConnection(boolean reportFailure) {
         logi("startupConnection() bleManager=" + bleManager);
 
         boolean success = true;
+        if(primaryConnection != null) {
+            primaryConnection.onConnecting();
+        }
+
         int rc = connect();
         if(rc == ERROR_NONE) {
             logi("startupConnection() :: connectMaybeInit() == 0");
+            requestConnectionPriority(BLEManager.CONNECTION_PRIORITY_HIGH);
             rc = discoverServices();
             if(rc == ERROR_NONE) {
 
                 logi("startupConnection() :: discoverServices() == 0");
+                negotiateMtu();
                 if(registerNotifications(true)) {
+                    submitConnectionPriority(BLEManager.CONNECTION_PRIORITY_BALANCED);
                     setNotification(true, 0);
                 } else {
                     rc = ERROR_UNKNOWN_2;
@@ -1043,14 +1386,21 @@ public class BLEService extends Service {
 
         if(!success) {
             logi("startupConnection() :: Failed ErrorCode = " + rc);
+            if(primaryConnection != null) {
+                primaryConnection.onFailed();
+            }
+
             if(bleManager != null) {
-                reset();
-                setNotification(false, rc);
-                Toast.makeText(MBApp.getApp(), R.string.bluetooth_pairing_internal_error, Toast.LENGTH_LONG).show();
+                if(reportFailure) {
+                    reportConnectionFailure(rc);
+                } else {
+                    reset();
+                }
             }
         }
 
         logi("startupConnection() :: end");
+        return success;
     }
 
     private void discoverFailed() {
@@ -1081,4 +1431,255 @@ public class BLEService extends Service {
 
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a callback that tracks notification subscriptions of a connection.
+     *
+     * @param connection Connection to track subscriptions of, may be null.
+     * @param enable     True if notifications are being enabled.
+     */
+    private GattOperationCallback subscriptionCallback(@Nullable final ConnectionPool.Connection connection,
+                                                       final boolean enable) {
+        return new GattOperationCallback() {
+            @Override
+            public void onOperationCompleted(GattOperation operation, int result) {
+                operationLogger.onOperationCompleted(operation, result);
+
+                if(connection != null && operation.getDescriptor() != null && GattOperation.isSuccessful(result)) {
+                    connection.setSubscribed(operation.getCharacteristic().getUuid(), enable);
+                }
+            }
+        };
+    }
+
+    /**
+     * Connects to an additional micro:bit and registers for its events. The paired micro:bit is
+     * served by {@link #setupBLE()}, additional ones get a lighter setup: no firmware and
+     * requirements reads, no telephony and device info registration.
+     *
+     * @param address Address of the micro:bit.
+     */
+    private void setupAdditionalConnection(final String address) {
+        logi("setupAdditionalConnection() :: address = " + address);
+
+        if(address == null || address.equals(deviceAddress)) {
+            return;
+        }
+
+        if(!initializeAdapter() || !BluetoothAdapter.checkBluetoothAddress(address)) {
+            Log.e(TAG, "Cannot connect to " + address);
+            return;
+        }
+
+        final ConnectionPool.Connection connection = connectionPool.obtain(address);
+        if(connection == null) {
+            Log.e(TAG, "Too many connections, ignoring " + address);
+            return;
+        }
+
+        BLEManager manager = connection.getManager();
+        if(manager != null && connection.isReady() && manager.isConnected()) {
+            return;
+        }
+
+        if(manager == null) {
+            manager = new BLEManager(getApplicationContext(), bluetoothAdapter.getRemoteDevice(address),
+                    new CharacteristicChangeListener() {
+                        @Override
+                        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic
+                                characteristic) {
+                            connection.onEvent();
+
+                            EventIngestStage stage = connection.getIngestStage();
+                            if(stage != null) {
+                                stage.ingest(characteristic.getValue());
+                            }
+                        }
+                    },
+                    new UnexpectedConnectionEventListener() {
+                        @Override
+                        public void handleConnectionEvent(final int event, boolean gattForceClosed) {
+                            bleHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    handleAdditionalConnectionEvent(connection, event);
+                                }
+                            });
+                        }
+                    },
+                    gattStatistics, deadlinePolicy);
+            manager.setGattScheduler(connectionPool.getScheduler());
+            connection.setManager(manager);
+        }
+
+        if(connection.getIngestStage() == null) {
+            EventIngestStage stage = new EventIngestStage("MicroBitEventIngest-" + connection.getId(),
+                    EventIngestStage.DEFAULT_CAPACITY, EventCategories.SAMSUNG_REMOTE_CONTROL_ID,
+                    new EventIngestStage.Dispatcher() {
+                        @Override
+                        public void dispatch(int eventSrc, int event) {
+                            sendMessage(address, eventSrc, event);
+                        }
+                    });
+            stage.start();
+            connection.setIngestStage(stage);
+        }
+
+        connection.onConnecting();
+
+        BluetoothGattService eventService = null;
+        if(isSuccessful(manager.connect(AUTO_RECONNECT), BLEManager.BLE_CONNECTED)
+                && isSuccessful(manager.discoverServices(), BLEManager.BLE_SERVICES_DISCOVERED)) {
+            eventService = manager.getService(GattServiceUUIDs.EVENT_SERVICE);
+        }
+
+        ConnectionSetupPlan plan = null;
+        if(eventService != null) {
+            plan = new ConnectionSetupPlan(subscriptionCallback(connection, true));
+            BluetoothGattCharacteristic requirements = eventService.getCharacteristic(CharacteristicUUIDs
+                    .ES_CLIENT_REQUIREMENTS);
+            if(requirements != null) {
+                for(int requirement : CLIENT_REQUIREMENTS) {
+                    plan.addWrite(requirements, requirement, GattFormats.FORMAT_UINT32);
+                }
+            }
+
+            if(requirements == null || !plan.addNotification(eventService.getCharacteristic(CharacteristicUUIDs
+                    .ES_MICROBIT_EVENT), true)) {
+                plan = null;
+            }
+        }
+
+        if(plan == null) {
+            Log.e(TAG, "Cannot setup connection to " + address);
+            connection.onFailed();
+            manager.reset();
+            connection.setManager(null);
+            return;
+        }
+
+        plan.submit(manager, new ConnectionSetupPlan.Listener() {
+            @Override
+            public void onReady(ConnectionSetupPlan plan) {
+                logi("setupAdditionalConnection() :: ready " + plan);
+                onSetupCompleted(connection, plan);
+            }
+        });
+
+        logi("setupAdditionalConnection() :: " + connection);
+    }
+
+    /**
+     * Marks a connection ready once its setup requests are completed, rather than when they are submitted.
+     *
+     * @param connection Connection being set up.
+     * @param plan       Completed setup plan.
+     */
+    private static void onSetupCompleted(ConnectionPool.Connection connection, ConnectionSetupPlan plan) {
+        connection.onSetupReady(plan.getReadyTime());
+        if(plan.getFailedCount() == 0) {
+            connection.onReady();
+        } else if(connection.getState() == ConnectionPool.Connection.STATE_CONNECTING) {
+            Log.w(TAG, "Connection setup failed: " + plan);
+            connection.onFailed();
+        }
+    }
+
+    /**
+     * Disconnects an additional micro:bit and removes it from the pool.
+     *
+     * @param address Address of the micro:bit.
+     */
+    private void removeAdditionalConnection(String address) {
+        logi("removeAdditionalConnection() :: address = " + address);
+
+        if(address == null || address.equals(deviceAddress)) {
+            return;
+        }
+
+        ConnectionPool.Connection connection = connectionPool.remove(address);
+        if(connection == null) {
+            return;
+        }
+
+        BLEManager manager = connection.getManager();
+        if(manager != null) {
+            manager.reset();
+            connection.setManager(null);
+        }
+
+        EventIngestStage stage = connection.getIngestStage();
+        if(stage != null) {
+            stage.stop();
+            connection.setIngestStage(null);
+        }
+
+        connection.onDisconnected();
+    }
+
+    /**
+     * Handles unexpected connection changes of an additional micro:bit. A lost board is set up again
+     * once, after a short delay.
+     *
+     * @param connection Connection the event happened on.
+     * @param event      Connection event.
+     */
+    private void handleAdditionalConnectionEvent(final ConnectionPool.Connection connection, int event) {
+        logi("handleAdditionalConnectionEvent() :: " + connection + " event = " + event);
+
+        if(connectionPool.get(connection.getAddress()) != connection) {
+            return;
+        }
+
+        if(event == BLEManager.BLE_DISCONNECTED) {
+            connection.onDisconnected();
+            bleHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if(connectionPool.get(connection.getAddress()) == connection && !connection.isReady()) {
+                        setupAdditionalConnection(connection.getAddress());
+                    }
+                }
+            }, ReconnectEngine.DEFAULT_BASE_DELAY);
+        }
+    }
+
+    /**
+     * Writes a characteristic of an additional micro:bit.
+     *
+     * @param address        Address of the micro:bit.
+     * @param serviceGuid    Service UUID.
+     * @param characteristic Characteristic UUID.
+     * @param value          Value to write.
+     * @param type           Format type of the value.
+     */
+    private void writeCharacteristic(String address, UUID serviceGuid, UUID characteristic, int value, int type) {
+        ConnectionPool.Connection connection = connectionPool.get(address);
+        BLEManager manager = connection != null ? connection.getManager() : null;
+        if(manager == null || !manager.isConnected()) {
+            logi("writeCharacteristic() :: Not connected to " + address + ". Returning");
+            return;
+        }
+
+        BluetoothGattService s = manager.getService(serviceGuid);
+        BluetoothGattCharacteristic c = s != null ? s.getCharacteristic(characteristic) : null;
+        if(c == null) {
+            logi("writeCharacteristic() :: characteristic not found");
+            return;
+        }
+
+        manager.submit(GattOperation.writeCharacteristic(c, value, type, operationLogger));
+    }
+
+    /**
+     * Checks a result of a synchronous {@link BLEManager} request without touching {@link #actualError},
+     * which belongs to the paired micro:bit.
+     *
+     * @param rc       Result of the request.
+     * @param goodCode Expected ble state.
+     * @return True if request succeeded and resulted in the expected state.
+     */
+    private static boolean isSuccessful(int rc, int goodCode) {
+        return rc > 0 && (rc & BLEManager.BLE_ERROR_FAIL) == 0 && (rc & 0x0ffff & goodCode) != 0;
+    }
+}
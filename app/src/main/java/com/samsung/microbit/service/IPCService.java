@@ -7,20 +7,24 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
-import android.os.Messenger;
-import android.os.RemoteException;
+import android.os.Trace;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import com.samsung.microbit.core.bluetooth.BluetoothUtils;
+import com.samsung.microbit.core.CameraSessionManager;
+import com.samsung.microbit.core.bluetooth.ConnectionStateStore;
 import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.IPCConstants;
 import com.samsung.microbit.data.constants.ServiceIds;
 import com.samsung.microbit.data.model.CmdArg;
-import com.samsung.microbit.data.model.ConnectedDevice;
+import com.samsung.microbit.data.model.NameValuePair;
+import com.samsung.microbit.utils.IpcCodec;
+import com.samsung.microbit.utils.IpcFields;
 import com.samsung.microbit.utils.ServiceUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 
 /**
@@ -32,8 +36,6 @@ public class IPCService extends Service {
 
     private ServiceConnector serviceConnector;
 
-    private int justPaired;
-
     private static final class IPCHandler extends Handler {
         private WeakReference<IPCService> ipcServiceWeakReference;
 
@@ -53,20 +55,33 @@ public class IPCService extends Service {
 
     @Override
     public void onCreate() {
+        Trace.beginSection("IPCService.onCreate");
         super.onCreate();
         serviceConnector = new ServiceConnector(this);
+        // Set before binding, since intents are handled through the same lanes as messages
+        serviceConnector.setClientHandler(new IPCHandler(this));
         serviceConnector.bindServices();
+        Trace.endSection();
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        IPCHandler ipcHandler = new IPCHandler(this);
-        serviceConnector.setClientHandler(ipcHandler);
-
         return serviceConnector.mClientMessenger.getBinder();
     }
 
+    /**
+     * Prints state of message lanes and service bindings, e.g. via
+     * {@code adb shell dumpsys activity service IPCService}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("IPCService:");
+        serviceConnector.getLanes().dump(writer, "  ");
+        serviceConnector.dump(writer, "  ");
+        CameraSessionManager.getInstance().dump(writer, "  ");
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         int category = intent.getIntExtra(IPCConstants.INTENT_TYPE, EventCategories.CATEGORY_UNKNOWN);
@@ -78,12 +93,16 @@ public class IPCService extends Service {
 
         switch(category) {
             case EventCategories.IPC_BLE_CONNECT: {
+                // Connection type travels with the message, as it may be handled on either lane thread
+                NameValuePair[] args = new NameValuePair[1];
+                args[0] = new NameValuePair(IPCConstants.BUNDLE_CONNECTION_TYPE, intent.getIntExtra(IPCConstants
+                        .INTENT_CONNECTION_TYPE, 0));
+
                 Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_ANDROID, EventCategories
-                        .IPC_BLE_CONNECT, ServiceIds.SERVICE_BLE, null, null);
+                        .IPC_BLE_CONNECT, ServiceIds.SERVICE_BLE, null, args);
 
                 if(message != null) {
-                    justPaired = intent.getIntExtra(IPCConstants.INTENT_CONNECTION_TYPE, 0);
-                    handleMessage(message);
+                    serviceConnector.dispatch(message);
                 }
                 break;
             }
@@ -92,7 +111,21 @@ public class IPCService extends Service {
                         .IPC_BLE_DISCONNECT, ServiceIds.SERVICE_BLE, null, null);
 
                 if(message != null) {
-                    handleMessage(message);
+                    serviceConnector.dispatch(message);
+                }
+                break;
+            }
+            case EventCategories.IPC_BLE_CONNECT_DEVICE:
+            case EventCategories.IPC_BLE_DISCONNECT_DEVICE: {
+                NameValuePair[] args = new NameValuePair[1];
+                args[0] = new NameValuePair(IPCConstants.BUNDLE_DEVICE_ADDRESS, intent.getStringExtra(IPCConstants
+                        .BUNDLE_DEVICE_ADDRESS));
+
+                Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_ANDROID, category,
+                        ServiceIds.SERVICE_BLE, null, args);
+
+                if(message != null) {
+                    serviceConnector.dispatch(message);
                 }
                 break;
             }
@@ -106,12 +139,12 @@ public class IPCService extends Service {
             case EventCategories.IPC_PLUGIN_STOP_PLAYING: {
                 Message message = ServiceUtils.composeMessage(IPCConstants.MESSAGE_ANDROID,
                         EventCategories.IPC_PLUGIN_STOP_PLAYING, ServiceIds.SERVICE_PLUGIN, null, null);
-                handleMessage(message);
+                serviceConnector.dispatch(message);
                 break;
             }
             case EventCategories.IPC_BLE_NOTIFICATION_CHARACTERISTIC_CHANGED: {
                 Message message = ServiceUtils.composeBLECharacteristicMessage(intent.getIntExtra(IPCConstants.INTENT_CHARACTERISTIC_MESSAGE, 0));
-                handleMessage(message);
+                serviceConnector.dispatch(message);
                 break;
             }
             default:
@@ -122,68 +155,43 @@ public class IPCService extends Service {
     }
 
     private void handleMessage(Message message) {
-        String replyToServiceName = null;
-        switch(message.arg2) {
-            case ServiceIds.SERVICE_PLUGIN:
-                replyToServiceName = PluginService.class.getName();
-                break;
-            case ServiceIds.SERVICE_BLE:
-                replyToServiceName = BLEService.class.getName();
-                break;
-        }
-
-        if(replyToServiceName != null) {
-            ServiceUtils.IMessengerFinder messengerFinder = serviceConnector.getConnection();
-
-            if(messengerFinder != null) {
-                Messenger messenger = messengerFinder.getMessengerForService(replyToServiceName);
-                if(messenger != null) {
-                    Message newMessage = ServiceUtils.copyMessageFromOld(message, ServiceIds.SERVICE_NONE);
-                    newMessage.replyTo = serviceConnector.mClientMessenger;
-                    if(justPaired != 0) {
-                        newMessage.arg2 = justPaired;
-                        justPaired = 0;
-                    }
-                    try {
-                        messenger.send(newMessage);
-                    } catch(RemoteException e) {
-                        Log.e(TAG, e.toString());
-                    }
-                }
+        if(message.arg2 == ServiceIds.SERVICE_PLUGIN || message.arg2 == ServiceIds.SERVICE_BLE) {
+            int serviceId = message.arg2;
+            Message newMessage = ServiceUtils.copyMessageFromOld(message, ServiceIds.SERVICE_NONE);
+            newMessage.replyTo = serviceConnector.mClientMessenger;
+            if(message.what == IPCConstants.MESSAGE_ANDROID && message.arg1 == EventCategories.IPC_BLE_CONNECT) {
+                // BLEService reads connection type from arg2
+                IpcCodec.Payload payload = IpcCodec.decode(message);
+                newMessage.arg2 = payload.getInt(IpcFields.FIELD_CONNECTION_TYPE, 0);
+                payload.recycle();
             }
+            // Binds the service on the first message
+            serviceConnector.send(serviceId, newMessage);
         } else {
             if(message.what == IPCConstants.MESSAGE_ANDROID) {
                 Context appContext = getApplicationContext();
+                ConnectionStateStore stateStore = ConnectionStateStore.getInstance();
 
-                if (message.arg1 == EventCategories.IPC_BLE_NOTIFICATION_GATT_CONNECTED ||
-                        message.arg1 == EventCategories.IPC_BLE_NOTIFICATION_GATT_DISCONNECTED) {
-
-                    ConnectedDevice cd = BluetoothUtils.getPairedMicrobit(appContext);
-                    cd.mStatus = (message.arg1 == EventCategories.IPC_BLE_NOTIFICATION_GATT_CONNECTED);
-                    BluetoothUtils.setPairedMicroBit(appContext, cd);
-                }
+                IpcCodec.Payload payload = IpcCodec.decode(message);
 
-                Bundle messageData = message.getData();
-
-                int errorCode = (int) messageData.getSerializable(IPCConstants.BUNDLE_ERROR_CODE);
-
-                String error_message = (String) messageData.getSerializable(IPCConstants.BUNDLE_ERROR_MESSAGE);
-
-                String firmware = (String) messageData.getSerializable(IPCConstants.BUNDLE_MICROBIT_FIRMWARE);
+                if(message.arg1 == EventCategories.IPC_BLE_NOTIFICATION_GATT_CONNECTED ||
+                        message.arg1 == EventCategories.IPC_BLE_NOTIFICATION_GATT_DISCONNECTED) {
+                    stateStore.onConnectionChanged(appContext, payload.getString(IpcFields.FIELD_DEVICE_ADDRESS),
+                            message.arg1 == EventCategories.IPC_BLE_NOTIFICATION_GATT_CONNECTED,
+                            payload.getInt(IpcFields.FIELD_ERROR_CODE, 0),
+                            payload.getString(IpcFields.FIELD_ERROR_MESSAGE));
+                } else {
+                    String firmware = payload.getString(IpcFields.FIELD_FIRMWARE);
+                    if(firmware != null && !firmware.isEmpty()) {
+                        stateStore.onFirmware(appContext, firmware);
+                    }
 
-                int microbitRequest = -1;
-                if(messageData.getSerializable(IPCConstants.BUNDLE_MICROBIT_REQUESTS) != null) {
-                    microbitRequest = (int) messageData.getSerializable(IPCConstants.BUNDLE_MICROBIT_REQUESTS);
+                    if(payload.has(IpcFields.FIELD_REQUESTS)) {
+                        stateStore.onMicrobitRequest(payload.getInt(IpcFields.FIELD_REQUESTS, -1));
+                    }
                 }
 
-                Intent intent = new Intent(IPCConstants.INTENT_BLE_NOTIFICATION);
-                intent.putExtra(IPCConstants.NOTIFICATION_CAUSE, message.arg1);
-                intent.putExtra(IPCConstants.BUNDLE_ERROR_CODE, errorCode);
-                intent.putExtra(IPCConstants.BUNDLE_ERROR_MESSAGE, error_message);
-                intent.putExtra(IPCConstants.BUNDLE_MICROBIT_FIRMWARE, firmware);
-                intent.putExtra(IPCConstants.BUNDLE_MICROBIT_REQUESTS, microbitRequest);
-
-                LocalBroadcastManager.getInstance(appContext).sendBroadcast(intent);
+                payload.recycle();
 
             } else if(message.what == IPCConstants.MESSAGE_MICROBIT) {
                 LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(new Intent(IPCConstants
@@ -212,5 +220,6 @@ public class IPCService extends Service {
     public void onDestroy() {
         super.onDestroy();
         serviceConnector.unbindServices();
+        ConnectionStateStore.getInstance().flush();
     }
 }
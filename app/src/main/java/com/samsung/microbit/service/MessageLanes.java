@@ -0,0 +1,315 @@
+package com.samsung.microbit.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.util.Log;
+
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.constants.IPCConstants;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Prioritized lanes of messages handled by {@link IPCService}.
+ * <p/>
+ * Messages are sorted into three lanes, each with its own queue and overflow policy:
+ * <ul>
+ * <li>control - connecting, disconnecting, routes, plugin registrations, micro:bit buttons.
+ * Handled right away on the receiving thread and never dropped.</li>
+ * <li>alerts - user-visible notifications, e.g. stop playing or incoming call requests.
+ * Queued on a bulk thread, the oldest one is dropped when the lane is full.</li>
+ * <li>telemetry - sensor values. Queued behind alerts, a new value replaces the queued one of the
+ * same kind when the lane is full, otherwise the oldest value is dropped.</li>
+ * </ul>
+ * So control messages never wait behind queued alerts or telemetry, and the bulk thread always takes
+ * an alert before telemetry.
+ */
+public final class MessageLanes {
+    private static final String TAG = MessageLanes.class.getSimpleName();
+
+    public static final int LANE_CONTROL = 0;
+    public static final int LANE_ALERTS = 1;
+    public static final int LANE_TELEMETRY = 2;
+
+    private static final int ALERTS_CAPACITY = 32;
+    private static final int TELEMETRY_CAPACITY = 16;
+
+    private static final int POLICY_DROP_OLDEST = 0;
+    private static final int POLICY_REPLACE_SAME_KIND = 1;
+
+    /**
+     * Handles messages taken from lanes.
+     */
+    public interface Dispatcher {
+        void dispatch(Message message);
+    }
+
+    private static final class Lane {
+        final String name;
+        final int capacity;
+        final int policy;
+        final ArrayDeque<Message> queue;
+
+        long enqueuedCount;
+        long droppedCount;
+        long replacedCount;
+        int maxDepth;
+
+        Lane(String name, int capacity, int policy) {
+            this.name = name;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.queue = new ArrayDeque<>(capacity);
+        }
+
+        /**
+         * Adds a message, applying the overflow policy.
+         */
+        void add(Message message) {
+            enqueuedCount++;
+
+            if(queue.size() >= capacity) {
+                Message removed = null;
+
+                if(policy == POLICY_REPLACE_SAME_KIND && isReplaceable(message)) {
+                    Iterator<Message> iterator = queue.iterator();
+                    while(iterator.hasNext()) {
+                        Message queued = iterator.next();
+                        if(queued.what == message.what && queued.arg1 == message.arg1) {
+                            iterator.remove();
+                            removed = queued;
+                            replacedCount++;
+                            break;
+                        }
+                    }
+                }
+
+                if(removed == null) {
+                    removed = queue.poll();
+                    droppedCount++;
+                }
+
+                removed.recycle();
+            }
+
+            queue.add(message);
+            maxDepth = Math.max(maxDepth, queue.size());
+        }
+
+        /**
+         * Writes to micro:bit carry discrete events, e.g. gestures, whose kind can't be told from the message,
+         * so they never replace each other. Telemetry among them is coalesced by {@link BLEService}.
+         */
+        private static boolean isReplaceable(Message message) {
+            return message.what != IPCConstants.MESSAGE_MICROBIT || (message.arg1 != EventCategories
+                    .IPC_WRITE_CHARACTERISTIC && message.arg1 != EventCategories.IPC_WRITE_EVENT);
+        }
+
+        @Override
+        public String toString() {
+            return name + "{depth=" + queue.size() + "/" + capacity +
+                    ", maxDepth=" + maxDepth +
+                    ", enqueued=" + enqueuedCount +
+                    ", replaced=" + replacedCount +
+                    ", dropped=" + droppedCount +
+                    '}';
+        }
+    }
+
+    private final Dispatcher dispatcher;
+
+    private final Lane alerts = new Lane("alerts", ALERTS_CAPACITY, POLICY_DROP_OLDEST);
+    private final Lane telemetry = new Lane("telemetry", TELEMETRY_CAPACITY, POLICY_REPLACE_SAME_KIND);
+
+    private long controlCount;
+
+    private final HandlerThread bulkThread;
+    private final Handler bulkHandler;
+    private boolean drainScheduled;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainOne();
+        }
+    };
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    /**
+     * @param dispatcher Handler of messages of all lanes.
+     */
+    public MessageLanes(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+
+        bulkThread = new HandlerThread("IPCbulkThread");
+        bulkThread.start();
+        bulkHandler = new Handler(bulkThread.getLooper());
+    }
+
+    /**
+     * Sorts a message into a lane.
+     *
+     * @param message Message to handle.
+     * @return Lane of the message.
+     */
+    public static int laneOf(Message message) {
+        if(message.what == IPCConstants.MESSAGE_ANDROID) {
+            switch(message.arg1) {
+                case EventCategories.IPC_BLE_CONNECT:
+                case EventCategories.IPC_BLE_DISCONNECT:
+                case EventCategories.IPC_BLE_RECONNECT:
+                case EventCategories.IPC_BLE_CONNECT_DEVICE:
+                case EventCategories.IPC_BLE_DISCONNECT_DEVICE:
+                case EventCategories.IPC_DISCONNECT_FOR_FLASH:
+                case EventCategories.IPC_SET_ROUTE:
+                case EventCategories.IPC_BLE_NOTIFICATION_GATT_CONNECTED:
+                case EventCategories.IPC_BLE_NOTIFICATION_GATT_DISCONNECTED:
+                    return LANE_CONTROL;
+
+                default:
+                    return LANE_ALERTS;
+            }
+        } else if(message.what == IPCConstants.MESSAGE_MICROBIT) {
+            switch(message.arg1) {
+                case EventCategories.SAMSUNG_REMOTE_CONTROL_ID:
+                case EventCategories.SAMSUNG_CAMERA_ID:
+                case EventCategories.SAMSUNG_AUDIO_RECORDER_ID:
+                    // Buttons pressed on micro:bit
+                case EventCategories.SAMSUNG_SIGNAL_STRENGTH_ID:
+                case EventCategories.SAMSUNG_DEVICE_INFO_ID:
+                case EventCategories.SAMSUNG_TELEPHONY_ID:
+                    // Plugin registrations
+                    return LANE_CONTROL;
+
+                case EventCategories.SAMSUNG_ALERTS_ID:
+                    return LANE_ALERTS;
+
+                default:
+                    return LANE_TELEMETRY;
+            }
+        }
+
+        return LANE_TELEMETRY;
+    }
+
+    /**
+     * Handles a message on the calling thread if it's a control one, or queues a copy of it.
+     * The caller keeps ownership of the given message.
+     *
+     * @param message Message to handle.
+     */
+    public void offer(Message message) {
+        int lane = laneOf(message);
+        if(lane == LANE_CONTROL) {
+            synchronized(this) {
+                controlCount++;
+            }
+
+            dispatcher.dispatch(message);
+            return;
+        }
+
+        Message copy = Message.obtain(message);
+        copy.setTarget(null);
+
+        synchronized(this) {
+            (lane == LANE_ALERTS ? alerts : telemetry).add(copy);
+            if(!drainScheduled) {
+                drainScheduled = true;
+                bulkHandler.post(drainTask);
+            }
+        }
+    }
+
+    /**
+     * Handles a single queued message, alerts first. Other messages are left to the next run,
+     * so an alert queued meanwhile goes before the remaining telemetry.
+     */
+    private void drainOne() {
+        Message message;
+
+        synchronized(this) {
+            message = alerts.queue.poll();
+            if(message == null) {
+                message = telemetry.queue.poll();
+            }
+
+            if(message == null) {
+                drainScheduled = false;
+                return;
+            }
+
+            if(alerts.queue.isEmpty() && telemetry.queue.isEmpty()) {
+                drainScheduled = false;
+            } else {
+                bulkHandler.post(drainTask);
+            }
+        }
+
+        try {
+            dispatcher.dispatch(message);
+        } catch(RuntimeException e) {
+            Log.e(TAG, "Failed to handle message " + message.arg1, e);
+        } finally {
+            message.recycle();
+        }
+    }
+
+    /**
+     * @param lane One of {@link #LANE_ALERTS} and {@link #LANE_TELEMETRY}.
+     * @return Number of queued messages.
+     */
+    public synchronized int getDepth(int lane) {
+        switch(lane) {
+            case LANE_ALERTS:
+                return alerts.queue.size();
+            case LANE_TELEMETRY:
+                return telemetry.queue.size();
+            default:
+                return 0;
+        }
+    }
+
+    public synchronized long getDroppedCount() {
+        return alerts.droppedCount + telemetry.droppedCount + telemetry.replacedCount;
+    }
+
+    public void quit() {
+        synchronized(this) {
+            for(Message message : alerts.queue) {
+                message.recycle();
+            }
+            alerts.queue.clear();
+
+            for(Message message : telemetry.queue) {
+                message.recycle();
+            }
+            telemetry.queue.clear();
+        }
+
+        bulkThread.quitSafely();
+        logi("quit() :: " + this);
+    }
+
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MessageLanes{control=" + controlCount +
+                ", " + alerts +
+                ", " + telemetry +
+                '}';
+    }
+}
@@ -0,0 +1,257 @@
+package com.samsung.microbit.service;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.constants.IPCConstants;
+import com.samsung.microbit.utils.Utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Channel of events sent to micro:bit by presenters and plugins.
+ * <p/>
+ * Channel keeps a single binding to {@link BLEService} and sends each event as a bare {@link Message}
+ * with {@link EventCategories#IPC_WRITE_EVENT}, so an event costs neither a service start nor a Bundle.
+ * The binding is made on the first event without {@link Context#BIND_AUTO_CREATE}, so {@link BLEService}
+ * is neither started nor kept alive by the plugin process, and it uses its own action, so
+ * {@link BLEService#onUnbind(Intent)} disconnects micro:bit regardless of it. Until the binding is
+ * established, the messenger routed by {@link ServiceConnector} is used. If there is none yet,
+ * events wait in the channel, at most {@link #MAX_PENDING} of them, and are sent in order as soon as
+ * a messenger is known, so a later event never overtakes an earlier one.
+ */
+public final class MicroBitEventChannel {
+    private static final String TAG = MicroBitEventChannel.class.getSimpleName();
+
+    /**
+     * Maximal number of events waiting for a messenger. When full, the oldest event is dropped.
+     */
+    public static final int MAX_PENDING = 64;
+
+    private static MicroBitEventChannel instance;
+
+    private Context context;
+    private volatile boolean bound;
+
+    private volatile Messenger bleMessenger;
+    private volatile Messenger routedMessenger;
+
+    /**
+     * Guards pending events and keeps sends in order.
+     */
+    private final Object sendLock = new Object();
+    private final int[] pendingValues = new int[MAX_PENDING];
+    private int pendingHead;
+    private int pendingCount;
+
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            logi("onServiceConnected()");
+            bleMessenger = new Messenger(service);
+            flush();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            logi("onServiceDisconnected()");
+            bleMessenger = null;
+        }
+    };
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private MicroBitEventChannel() {
+    }
+
+    public static synchronized MicroBitEventChannel getInstance() {
+        if(instance == null) {
+            instance = new MicroBitEventChannel();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Enables binding to {@link BLEService}, which is made when the first event is sent. Should be called
+     * once the process starts serving plugins, e.g. from {@link PluginService#onCreate()}.
+     *
+     * @param context Context to bind with.
+     */
+    public synchronized void bind(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    private synchronized void bindIfNeeded() {
+        if(bound || context == null) {
+            return;
+        }
+
+        // Connected once BLEService is created by ServiceConnector
+        Intent intent = new Intent(context, BLEService.class).setAction(BLEService.ACTION_EVENT_CHANNEL);
+        bound = context.bindService(intent, connection, 0);
+        logi("bindIfNeeded() :: bound = " + bound);
+    }
+
+    public synchronized void unbind() {
+        if(!bound) {
+            context = null;
+            return;
+        }
+
+        context.unbindService(connection);
+        context = null;
+        bound = false;
+        bleMessenger = null;
+        logi("unbind() :: " + this);
+    }
+
+    /**
+     * Sets messenger of {@link BLEService} published by {@link ServiceConnector}.
+     *
+     * @param messenger Messenger, or null if the route is dropped.
+     */
+    public void setRoute(@Nullable Messenger messenger) {
+        logi("setRoute() :: " + messenger);
+        routedMessenger = messenger;
+        if(messenger != null) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends an event to micro:bit.
+     *
+     * @param category Event category, e.g. {@link EventCategories#SAMSUNG_DEVICE_INFO_ID}.
+     * @param event    Event value within the category.
+     */
+    public void publish(int category, int event) {
+        send(Utils.makeMicroBitValue(category, event));
+    }
+
+    /**
+     * Sends an event value already encoded by {@link Utils#makeMicroBitValue(int, int)}.
+     *
+     * @param value Encoded event value.
+     */
+    public void send(int value) {
+        Messenger messenger = getMessenger();
+
+        synchronized(sendLock) {
+            // Events queued earlier go first
+            if(messenger != null && flushLocked(messenger) && deliver(messenger, value)) {
+                return;
+            }
+
+            enqueueLocked(value);
+        }
+    }
+
+    @Nullable
+    private Messenger getMessenger() {
+        Messenger messenger = bleMessenger;
+        if(messenger == null) {
+            if(!bound) {
+                bindIfNeeded();
+            }
+
+            messenger = routedMessenger;
+        }
+
+        return messenger;
+    }
+
+    /**
+     * Sends events waiting for a messenger, if there is one now.
+     */
+    private void flush() {
+        Messenger messenger = getMessenger();
+        if(messenger == null) {
+            return;
+        }
+
+        synchronized(sendLock) {
+            if(flushLocked(messenger) && DEBUG) {
+                logi("flush() :: " + this);
+            }
+        }
+    }
+
+    /**
+     * @return True if no events are left waiting.
+     */
+    private boolean flushLocked(Messenger messenger) {
+        while(pendingCount > 0) {
+            if(!deliver(messenger, pendingValues[pendingHead])) {
+                return false;
+            }
+
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingCount--;
+        }
+
+        return true;
+    }
+
+    private void enqueueLocked(int value) {
+        if(pendingCount == MAX_PENDING) {
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingCount--;
+            droppedCount.incrementAndGet();
+        }
+
+        pendingValues[(pendingHead + pendingCount) % MAX_PENDING] = value;
+        pendingCount++;
+        queuedCount.incrementAndGet();
+    }
+
+    private boolean deliver(Messenger messenger, int value) {
+        Message message = Message.obtain(null, IPCConstants.MESSAGE_MICROBIT, EventCategories.IPC_WRITE_EVENT, value);
+        try {
+            messenger.send(message);
+            sentCount.incrementAndGet();
+            return true;
+        } catch(RemoteException e) {
+            Log.e(TAG, e.toString());
+            if(messenger == bleMessenger) {
+                bleMessenger = null;
+            } else if(messenger == routedMessenger) {
+                routedMessenger = null;
+            }
+
+            return false;
+        }
+    }
+
+    public boolean isConnected() {
+        return bleMessenger != null || routedMessenger != null;
+    }
+
+    @Override
+    public String toString() {
+        return "MicroBitEventChannel{connected=" + isConnected() +
+                ", sent=" + sentCount +
+                ", queued=" + queuedCount +
+                ", dropped=" + droppedCount +
+                '}';
+    }
+}
@@ -2,21 +2,29 @@ package com.samsung.microbit.service;
 
 import android.app.Service;
 import android.content.Intent;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Trace;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.EventSubCodes;
 import com.samsung.microbit.data.constants.IPCConstants;
+import com.samsung.microbit.data.constants.ServiceIds;
 import com.samsung.microbit.data.model.CmdArg;
 import com.samsung.microbit.plugin.AbstractPlugin;
+import com.samsung.microbit.plugin.PluginScheduler;
 import com.samsung.microbit.plugin.PluginsCreator;
+import com.samsung.microbit.presentation.AudioDurationCache;
+import com.samsung.microbit.presentation.LowLatencySoundPool;
+import com.samsung.microbit.utils.IpcCodec;
+import com.samsung.microbit.utils.IpcFields;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 
 import static com.samsung.microbit.BuildConfig.DEBUG;
@@ -67,14 +75,34 @@ public class PluginService extends Service {
 
     @Override
     public void onCreate() {
+        Trace.beginSection("PluginService.onCreate");
         super.onCreate();
         pluginsCreator = new PluginsCreator();
+        MicroBitEventChannel.getInstance().bind(this);
+        Trace.endSection();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         pluginsCreator.destroy();
+        LowLatencySoundPool.getInstance().release();
+        MicroBitEventChannel.getInstance().unbind();
+    }
+
+    /**
+     * Prints state of event delivery, e.g. via {@code adb shell dumpsys activity service PluginService}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("PluginService:");
+        writer.println("  " + MicroBitEventChannel.getInstance());
+        SensorEventCoalescer.getInstance().dump(writer, "  ");
+        SensorHub.getInstance().dump(writer, "  ");
+        pluginsCreator.dump(writer, "  ");
+        PluginScheduler.getInstance().dump(writer, "  ");
+        writer.println("  " + LowLatencySoundPool.getInstance());
+        writer.println("  " + AudioDurationCache.getInstance());
     }
 
     private static void logi(String message) {
@@ -101,11 +129,13 @@ public class PluginService extends Service {
      * Handler of incoming messages from BLEListener.
      */
     private void handleMicroBitMessage(Message msg) {
-        Bundle data = msg.getData();
-        CmdArg cmd = new CmdArg(data.getInt(IPCConstants.BUNDLE_DATA), data.getString(IPCConstants.BUNDLE_VALUE));
+        IpcCodec.Payload payload = IpcCodec.decode(msg);
+        CmdArg cmd = new CmdArg(payload.getInt(IpcFields.FIELD_CMD, 0), payload.getString(IpcFields.FIELD_VALUE));
+
+        logi("handleMicrobitMessage() ## msg.arg1 = " + msg.arg1 + " ## cmd=" + cmd.getCMD() + " ## value=" + cmd
+                .getValue() + " ## device=" + payload.getString(IpcFields.FIELD_DEVICE_ADDRESS));
 
-        logi("handleMicrobitMessage() ## msg.arg1 = " + msg.arg1 + " ## data.getInt=" + data.getInt(IPCConstants
-                .BUNDLE_DATA) + " ## data.getString=" + data.getString(IPCConstants.BUNDLE_VALUE));
+        payload.recycle();
 
         AbstractPlugin abstractPlugin = pluginsCreator.createPlugin(msg.arg1, pluginHandler);
 
@@ -115,7 +145,17 @@ public class PluginService extends Service {
     }
 
     private void handleAndroidMessage(Message msg) {
-        if(msg.arg1 == EventCategories.IPC_PLUGIN_STOP_PLAYING) {
+        if(msg.arg1 == EventCategories.IPC_SET_ROUTE) {
+            if(msg.arg2 == ServiceIds.SERVICE_BLE) {
+                MicroBitEventChannel.getInstance().setRoute(msg.replyTo);
+            }
+        } else if(msg.arg1 == EventCategories.IPC_PLUGIN_PREWARM) {
+            IpcCodec.Payload payload = IpcCodec.decode(msg);
+            int category = payload.getInt(IpcFields.FIELD_CMD, EventCategories.CATEGORY_UNKNOWN);
+            payload.recycle();
+
+            pluginsCreator.prewarm(category, pluginHandler);
+        } else if(msg.arg1 == EventCategories.IPC_PLUGIN_STOP_PLAYING) {
             AbstractPlugin abstractPlugin = pluginsCreator.createPlugin(EventCategories.SAMSUNG_ALERTS_ID,
                     pluginHandler);
 
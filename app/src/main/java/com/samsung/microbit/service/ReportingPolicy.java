@@ -0,0 +1,68 @@
+package com.samsung.microbit.service;
+
+/**
+ * Rules deciding which values of a sensor are worth sending to micro:bit, applied by a lane of
+ * {@link SensorEventCoalescer}.
+ * <p/>
+ * A value is sent if it differs from the last sent one by at least the delta. Once values move in
+ * one direction, moving back needs the delta plus the hysteresis, so noise around a level doesn't
+ * toggle it. Values are sent no more often than the minimal interval, the latest one wins.
+ */
+public final class ReportingPolicy {
+
+    private final long minInterval;
+    private final int delta;
+    private final int hysteresis;
+
+    /**
+     * @param minInterval Minimal interval between two values in milliseconds, i.e. 1000 / maximal rate.
+     * @param delta       Minimal difference from the last sent value for a value to be sent,
+     *                    1 to suppress repeated values only, 0 to send every value.
+     * @param hysteresis  Difference a value moving against the last change needs on top of the delta,
+     *                    0 to treat both directions alike.
+     */
+    public ReportingPolicy(long minInterval, int delta, int hysteresis) {
+        this.minInterval = minInterval;
+        this.delta = delta;
+        this.hysteresis = hysteresis;
+    }
+
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+
+    public int getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * @param value         New value.
+     * @param lastSentValue Last sent value.
+     * @param lastDirection Sign of the change that led to the last sent value, 0 if unknown.
+     * @return True if the value is worth sending.
+     */
+    public boolean isSignificant(int value, int lastSentValue, int lastDirection) {
+        if(delta <= 0) {
+            return true;
+        }
+
+        int change = value - lastSentValue;
+        int required = delta;
+        if(lastDirection != 0 && Integer.signum(change) == -lastDirection) {
+            required += hysteresis;
+        }
+
+        return Math.abs(change) >= required;
+    }
+
+    @Override
+    public String toString() {
+        return "minInterval=" + minInterval + "ms" +
+                ", delta=" + delta +
+                ", hysteresis=" + hysteresis;
+    }
+}
@@ -0,0 +1,339 @@
+package com.samsung.microbit.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.samsung.microbit.data.constants.EventCategories;
+import com.samsung.microbit.data.constants.RegistrationIds;
+
+import java.io.PrintWriter;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Stage between sensor presenters of {@link com.samsung.microbit.plugin.InformationPlugin} and
+ * {@link MicroBitEventChannel}.
+ * <p/>
+ * Each {@link RegistrationIds} category is a lane with its own {@link ReportingPolicy}: maximal rate,
+ * change threshold and hysteresis. A value that isn't significant by the policy is suppressed. A value that
+ * comes sooner than the rate allows is held, and a newer value replaces it, so at most one value
+ * per lane is queued and the latest one wins. On top of that all lanes share a minimal interval
+ * between two sensor events, so sensor traffic leaves room on the link for button and control
+ * events, which go to the channel directly.
+ * <p/>
+ * Orientation and signal strength lanes are set up by default, other categories should be
+ * {@link #configure(int, ReportingPolicy, Sink) configured} before their values are offered.
+ */
+public final class SensorEventCoalescer {
+    private static final String TAG = SensorEventCoalescer.class.getSimpleName();
+
+    /**
+     * Minimal interval between any two sensor events, i.e. at most 20 events per second in total.
+     */
+    public static final long DEFAULT_SHARED_MIN_INTERVAL = 50;
+
+    /**
+     * Receives values leaving a lane.
+     */
+    public interface Sink {
+        /**
+         * Called on the main thread.
+         *
+         * @param registrationId Lane category, see {@link RegistrationIds}.
+         * @param value          Value to send.
+         */
+        void onValue(int registrationId, int value);
+    }
+
+    private static final class Lane implements Runnable {
+        final int registrationId;
+        final ReportingPolicy policy;
+        final Sink sink;
+
+        boolean hasSent;
+        int lastSentValue;
+        int lastDirection;
+        long lastSentTime;
+
+        boolean hasPending;
+        int pendingValue;
+
+        long sentCount;
+        long coalescedCount;
+        long suppressedCount;
+
+        SensorEventCoalescer owner;
+
+        Lane(int registrationId, ReportingPolicy policy, Sink sink) {
+            this.registrationId = registrationId;
+            this.policy = policy;
+            this.sink = sink;
+        }
+
+        boolean isSignificant(int value) {
+            return !hasSent || policy.isSignificant(value, lastSentValue, lastDirection);
+        }
+
+        @Override
+        public void run() {
+            owner.flush(this);
+        }
+
+        @Override
+        public String toString() {
+            return "Lane{id=0x" + Integer.toHexString(registrationId) +
+                    ", " + policy +
+                    ", pending=" + (hasPending ? 1 : 0) +
+                    ", sent=" + sentCount +
+                    ", coalesced=" + coalescedCount +
+                    ", suppressed=" + suppressedCount +
+                    '}';
+        }
+    }
+
+    /**
+     * Sends values of a lane to micro:bit as events of a given category, the value being the event.
+     */
+    public static final class ChannelSink implements Sink {
+        private final int eventCategory;
+
+        public ChannelSink(int eventCategory) {
+            this.eventCategory = eventCategory;
+        }
+
+        @Override
+        public void onValue(int registrationId, int value) {
+            MicroBitEventChannel.getInstance().publish(eventCategory, value);
+        }
+    }
+
+    private static SensorEventCoalescer instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final SparseArray<Lane> lanes = new SparseArray<>();
+
+    private long sharedMinInterval = DEFAULT_SHARED_MIN_INTERVAL;
+    private long lastSharedSendTime;
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private SensorEventCoalescer() {
+        configure(RegistrationIds.REG_DEVICEORIENTATION, 250, 1, new ChannelSink(EventCategories
+                .SAMSUNG_DEVICE_INFO_ID));
+        // Bars are coarse already, a hysteresis would keep a stale bar
+        configure(RegistrationIds.REG_SIGNALSTRENGTH, 1000, 1, new ChannelSink(EventCategories
+                .SAMSUNG_SIGNAL_STRENGTH_ID));
+    }
+
+    public static synchronized SensorEventCoalescer getInstance() {
+        if(instance == null) {
+            instance = new SensorEventCoalescer();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Sets up a lane, replacing the previous one of the category.
+     *
+     * @param registrationId  Category, see {@link RegistrationIds}.
+     * @param minInterval     Minimal interval between two values in milliseconds, i.e. 1000 / maximal rate.
+     * @param changeThreshold Minimal difference from the last sent value for a value to be sent,
+     *                        1 to suppress repeated values only, 0 to send every value.
+     * @param sink            Receiver of values.
+     */
+    public void configure(int registrationId, long minInterval, int changeThreshold, Sink sink) {
+        configure(registrationId, new ReportingPolicy(minInterval, changeThreshold, 0), sink);
+    }
+
+    /**
+     * Sets up a lane, replacing the previous one of the category.
+     *
+     * @param registrationId Category, see {@link RegistrationIds}.
+     * @param policy         Rules deciding which values are sent.
+     * @param sink           Receiver of values.
+     */
+    public synchronized void configure(int registrationId, ReportingPolicy policy, Sink sink) {
+        Lane old = lanes.get(registrationId);
+        if(old != null) {
+            handler.removeCallbacks(old);
+        }
+
+        Lane lane = new Lane(registrationId, policy, sink);
+        lane.owner = this;
+        lanes.put(registrationId, lane);
+    }
+
+    /**
+     * @param sharedMinInterval Minimal interval between any two sensor events in milliseconds, 0 to disable.
+     */
+    public synchronized void setSharedMinInterval(long sharedMinInterval) {
+        this.sharedMinInterval = sharedMinInterval;
+    }
+
+    /**
+     * Offers a value of a category.
+     *
+     * @param registrationId Category, see {@link RegistrationIds}.
+     * @param value          Value.
+     */
+    public void offer(int registrationId, int value) {
+        Lane lane;
+        boolean sendNow = false;
+
+        synchronized(this) {
+            lane = lanes.get(registrationId);
+            if(lane == null) {
+                logi("offer() :: no lane for 0x" + Integer.toHexString(registrationId));
+                return;
+            }
+
+            if(!lane.isSignificant(value)) {
+                lane.suppressedCount++;
+                if(lane.hasPending) {
+                    // Value went back, so the held one is stale
+                    lane.hasPending = false;
+                    lane.coalescedCount++;
+                    handler.removeCallbacks(lane);
+                }
+                return;
+            }
+
+            if(lane.hasPending) {
+                lane.pendingValue = value;
+                lane.coalescedCount++;
+                return;
+            }
+
+            long delay = delayOf(lane, SystemClock.elapsedRealtime());
+            if(delay <= 0) {
+                markSent(lane, value);
+                sendNow = true;
+            } else {
+                lane.hasPending = true;
+                lane.pendingValue = value;
+                handler.postDelayed(lane, delay);
+            }
+        }
+
+        if(sendNow) {
+            lane.sink.onValue(registrationId, value);
+        }
+    }
+
+    /**
+     * Drops a value held by a lane, e.g. when its presenter is stopped. Last sent value is forgotten
+     * too, so the first value after a restart is always sent.
+     *
+     * @param registrationId Category, see {@link RegistrationIds}.
+     */
+    public synchronized void reset(int registrationId) {
+        Lane lane = lanes.get(registrationId);
+        if(lane != null) {
+            handler.removeCallbacks(lane);
+            lane.hasPending = false;
+            lane.hasSent = false;
+            lane.lastDirection = 0;
+        }
+    }
+
+    private void flush(Lane lane) {
+        int value;
+
+        synchronized(this) {
+            if(!lane.hasPending || lanes.get(lane.registrationId) != lane) {
+                return;
+            }
+
+            long delay = delayOf(lane, SystemClock.elapsedRealtime());
+            if(delay > 0) {
+                // Another lane took the shared slot
+                handler.postDelayed(lane, delay);
+                return;
+            }
+
+            lane.hasPending = false;
+            value = lane.pendingValue;
+            markSent(lane, value);
+        }
+
+        lane.sink.onValue(lane.registrationId, value);
+    }
+
+    private long delayOf(Lane lane, long now) {
+        long delay = lane.hasSent ? lane.lastSentTime + lane.policy.getMinInterval() - now : 0;
+        if(sharedMinInterval > 0 && lastSharedSendTime != 0) {
+            delay = Math.max(delay, lastSharedSendTime + sharedMinInterval - now);
+        }
+
+        return delay;
+    }
+
+    private void markSent(Lane lane, int value) {
+        long now = SystemClock.elapsedRealtime();
+        lane.lastDirection = lane.hasSent ? Integer.signum(value - lane.lastSentValue) : 0;
+        lane.hasSent = true;
+        lane.lastSentValue = value;
+        lane.lastSentTime = now;
+        lane.sentCount++;
+        lastSharedSendTime = now;
+    }
+
+    /**
+     * @return Number of values held by all lanes.
+     */
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for(int i = 0; i < lanes.size(); i++) {
+            if(lanes.valueAt(i).hasPending) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return Number of values replaced by newer ones or suppressed, across all lanes.
+     */
+    public synchronized long getDroppedCount() {
+        long count = 0;
+        for(int i = 0; i < lanes.size(); i++) {
+            Lane lane = lanes.valueAt(i);
+            count += lane.coalescedCount + lane.suppressedCount;
+        }
+
+        return count;
+    }
+
+    /**
+     * @param registrationId Category, see {@link RegistrationIds}.
+     * @return Description of the lane with its counters, or null if there is no lane.
+     */
+    @Nullable
+    public synchronized String getLaneStats(int registrationId) {
+        Lane lane = lanes.get(registrationId);
+        return lane != null ? lane.toString() : null;
+    }
+
+    /**
+     * Prints lanes with their queue depths and counters.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "SensorEventCoalescer{sharedMinInterval=" + sharedMinInterval + "ms}");
+        for(int i = 0; i < lanes.size(); i++) {
+            writer.println(prefix + "  " + lanes.valueAt(i));
+        }
+    }
+}
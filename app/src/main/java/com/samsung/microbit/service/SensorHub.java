@@ -0,0 +1,254 @@
+package com.samsung.microbit.service;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.samsung.microbit.MBApp;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
+/**
+ * Single owner of sensor registrations of sensor presenters.
+ * <p/>
+ * Each sensor type is registered with {@link SensorManager} once, however many presenters subscribe to it,
+ * and its samples are passed to all of them. Sampling period and maximal report latency of the registration
+ * are the smallest ones among subscriptions, so each subscriber gets at least what it asked for, and
+ * samples are batched by the hardware as long as no subscriber needs them right away. The registration
+ * is updated when subscriptions change and dropped with the last one.
+ * <p/>
+ * Samples are delivered on a dedicated sensor thread, so high sampling rates don't load the main looper.
+ * Subscribers hand results to other threads themselves, e.g. via {@link SensorEventCoalescer}.
+ * A {@link SensorEvent} is reused by the system, so subscribers must not keep it.
+ */
+public final class SensorHub {
+    private static final String TAG = SensorHub.class.getSimpleName();
+
+    /**
+     * Sampling period of {@link SensorManager#SENSOR_DELAY_NORMAL} in microseconds.
+     */
+    public static final int SAMPLING_PERIOD_NORMAL = 200000;
+
+    /**
+     * Sampling period of {@link SensorManager#SENSOR_DELAY_GAME} in microseconds.
+     */
+    public static final int SAMPLING_PERIOD_GAME = 20000;
+
+    /**
+     * Receives samples of a sensor.
+     */
+    public interface Subscriber {
+        /**
+         * Called on the sensor thread.
+         */
+        void onSensorChanged(SensorEvent event);
+    }
+
+    private static final class Subscription {
+        final Subscriber subscriber;
+        final int samplingPeriodUs;
+        final int maxReportLatencyUs;
+
+        Subscription(Subscriber subscriber, int samplingPeriodUs, int maxReportLatencyUs) {
+            this.subscriber = subscriber;
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+        }
+    }
+
+    /**
+     * Registration of a single sensor, shared by its subscribers.
+     */
+    private static final class Channel implements SensorEventListener {
+        final Sensor sensor;
+        final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        boolean registered;
+        int samplingPeriodUs;
+        int maxReportLatencyUs;
+
+        volatile long sampleCount;
+        int registrationCount;
+
+        Channel(Sensor sensor) {
+            this.sensor = sensor;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            sampleCount++;
+            for(Subscription subscription : subscriptions) {
+                subscription.subscriber.onSensorChanged(event);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+
+        @Override
+        public String toString() {
+            return sensor.getName() + "{subscribers=" + subscriptions.size() +
+                    ", registered=" + registered +
+                    ", period=" + samplingPeriodUs + "us" +
+                    ", latency=" + maxReportLatencyUs + "us" +
+                    ", samples=" + sampleCount +
+                    ", registrations=" + registrationCount +
+                    '}';
+        }
+    }
+
+    private static SensorHub instance;
+
+    private final SensorManager sensorManager;
+    private final SparseArray<Channel> channels = new SparseArray<>();
+
+    private final HandlerThread sensorThread;
+    private final Handler sensorHandler;
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    private SensorHub() {
+        sensorManager = (SensorManager) MBApp.getApp().getSystemService(Context.SENSOR_SERVICE);
+
+        sensorThread = new HandlerThread("SensorHub", Process.THREAD_PRIORITY_FOREGROUND);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+    }
+
+    public static synchronized SensorHub getInstance() {
+        if(instance == null) {
+            instance = new SensorHub();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @param sensorType Sensor type, e.g. {@link Sensor#TYPE_ACCELEROMETER}.
+     * @return True if the device has a sensor of the type.
+     */
+    public synchronized boolean hasSensor(int sensorType) {
+        return getChannel(sensorType) != null;
+    }
+
+    /**
+     * Subscribes to samples of a sensor. Subscribing again replaces the previous subscription.
+     *
+     * @param sensorType         Sensor type, e.g. {@link Sensor#TYPE_ACCELEROMETER}.
+     * @param samplingPeriodUs   Longest acceptable period between samples, in microseconds.
+     * @param maxReportLatencyUs Longest acceptable delay of a sample, in microseconds. 0 to get samples right away.
+     * @param subscriber         Receiver of samples.
+     * @return False if the device has no sensor of the type.
+     */
+    public synchronized boolean subscribe(int sensorType, int samplingPeriodUs, int maxReportLatencyUs,
+                                          Subscriber subscriber) {
+        Channel channel = getChannel(sensorType);
+        if(channel == null) {
+            return false;
+        }
+
+        removeSubscription(channel, subscriber);
+        channel.subscriptions.add(new Subscription(subscriber, samplingPeriodUs, maxReportLatencyUs));
+        update(channel);
+        return true;
+    }
+
+    public synchronized void unsubscribe(int sensorType, Subscriber subscriber) {
+        Channel channel = channels.get(sensorType);
+        if(channel != null && removeSubscription(channel, subscriber)) {
+            update(channel);
+        }
+    }
+
+    private Channel getChannel(int sensorType) {
+        Channel channel = channels.get(sensorType);
+        if(channel == null) {
+            Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+            if(sensor == null) {
+                return null;
+            }
+
+            channel = new Channel(sensor);
+            channels.put(sensorType, channel);
+        }
+
+        return channel;
+    }
+
+    private static boolean removeSubscription(Channel channel, Subscriber subscriber) {
+        for(Subscription subscription : channel.subscriptions) {
+            if(subscription.subscriber == subscriber) {
+                channel.subscriptions.remove(subscription);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Registers, updates or unregisters a sensor for the union of its subscriptions.
+     */
+    private void update(Channel channel) {
+        if(channel.subscriptions.isEmpty()) {
+            if(channel.registered) {
+                sensorManager.unregisterListener(channel);
+                channel.registered = false;
+                logi("update() :: unregistered " + channel);
+            }
+            return;
+        }
+
+        int samplingPeriodUs = Integer.MAX_VALUE;
+        int maxReportLatencyUs = Integer.MAX_VALUE;
+        for(Subscription subscription : channel.subscriptions) {
+            samplingPeriodUs = Math.min(samplingPeriodUs, subscription.samplingPeriodUs);
+            maxReportLatencyUs = Math.min(maxReportLatencyUs, subscription.maxReportLatencyUs);
+        }
+
+        if(channel.registered && channel.samplingPeriodUs == samplingPeriodUs && channel.maxReportLatencyUs ==
+                maxReportLatencyUs) {
+            return;
+        }
+
+        // A listener can't be registered for the same sensor twice
+        if(channel.registered) {
+            sensorManager.unregisterListener(channel);
+        }
+
+        channel.samplingPeriodUs = samplingPeriodUs;
+        channel.maxReportLatencyUs = maxReportLatencyUs;
+        channel.registered = sensorManager.registerListener(channel, channel.sensor, samplingPeriodUs,
+                maxReportLatencyUs, sensorHandler);
+        channel.registrationCount++;
+        logi("update() :: registered " + channel);
+    }
+
+    /**
+     * Prints sensor registrations with their subscribers and counters.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "SensorHub:");
+        for(int i = 0; i < channels.size(); i++) {
+            writer.println(prefix + "  " + channels.valueAt(i));
+        }
+    }
+}
@@ -8,23 +8,73 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.samsung.microbit.core.bluetooth.BluetoothUtils;
 import com.samsung.microbit.data.constants.EventCategories;
 import com.samsung.microbit.data.constants.IPCConstants;
+import com.samsung.microbit.data.constants.ServiceIds;
 import com.samsung.microbit.data.model.ConnectedDevice;
 import com.samsung.microbit.utils.ServiceUtils;
 
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
 
+import static com.samsung.microbit.BuildConfig.DEBUG;
+
 /**
  * Class is used to make connection between {@link IPCService} and other services, will be used in IPC interaction.
+ * <p/>
+ * It also works as a router: once both {@link BLEService} and {@link PluginService} are bound, each of them
+ * gets the messenger of the other one via {@link EventCategories#IPC_SET_ROUTE}. So micro:bit events and
+ * plugin messages are enqueued straight to the addressee, and {@link IPCService} is left as the entry point
+ * for intents only.
+ * <p/>
+ * {@link BLEService} and {@link PluginService} are bound on demand, when the first message for a service is
+ * {@link #send(int, Message) sent}. Messages sent while the service is being bound are queued and sent in order
+ * once it's connected. Binding of each service is wrapped into a trace section and its time is logged and
+ * {@link #dump(PrintWriter, String) dumped}, so the cost of a service at app start can be seen.
  */
 public class ServiceConnector {
+    private static final String TAG = ServiceConnector.class.getSimpleName();
 
     private static final int COUNT_SERVICES_FOR_BINDING = 3;
 
+    /**
+     * Binding of a service bound on demand.
+     */
+    private static final class Binding {
+        final Class<?> serviceClass;
+        final ArrayDeque<Message> pending = new ArrayDeque<>();
+
+        volatile Messenger messenger;
+
+        boolean bindRequested;
+        long bindRequestTime;
+        long bindTime = -1;
+        int replayedCount;
+
+        Binding(Class<?> serviceClass) {
+            this.serviceClass = serviceClass;
+        }
+
+        @Override
+        public String toString() {
+            return serviceClass.getSimpleName() + "{connected=" + (messenger != null) +
+                    ", requested=" + bindRequested +
+                    ", bindTime=" + bindTime + "ms" +
+                    ", pending=" + pending.size() +
+                    ", replayed=" + replayedCount +
+                    '}';
+        }
+    }
+
     /**
      * Messenger for sending messages to the service.
      */
@@ -34,21 +84,31 @@ public class ServiceConnector {
      */
     Messenger mClientMessenger = null;
 
+    /**
+     * Routed services, bound on demand.
+     */
+    private final Binding bleBinding = new Binding(BLEService.class);
+    private final Binding pluginBinding = new Binding(PluginService.class);
+
     /**
      * Handler thread to avoid running on the main thread (UI)
      */
     private final HandlerThread handlerThread;
 
     /**
-     * Handler of incoming messages from service.
+     * Handler of incoming messages from service. Sorts them into {@link MessageLanes}: control messages
+     * are handled right away, the rest are handled on a separate thread by priority.
      */
-    static class IncomingHandler extends Handler {
+    static class IncomingHandler extends Handler implements MessageLanes.Dispatcher {
+
+        private final MessageLanes lanes;
 
         public IncomingHandler(HandlerThread thr) {
             super(thr.getLooper());
+            lanes = new MessageLanes(this);
         }
 
-        private Handler handlingHandler;
+        private volatile Handler handlingHandler;
 
         public void setHandlingHandler(Handler handlingHandler) {
             this.handlingHandler = handlingHandler;
@@ -56,8 +116,14 @@ public class ServiceConnector {
 
         @Override
         public void handleMessage(Message msg) {
-            if(handlingHandler != null) {
-                handlingHandler.handleMessage(msg);
+            lanes.offer(msg);
+        }
+
+        @Override
+        public void dispatch(Message message) {
+            Handler target = handlingHandler;
+            if(target != null) {
+                target.handleMessage(message);
             }
         }
     }
@@ -79,8 +145,6 @@ public class ServiceConnector {
      */
     private ServiceUtils.IMessengerFinder mConnection = new ServiceUtils.IMessengerFinder() {
 
-        private int countBoundServices = 0;
-
         public void onServiceConnected(ComponentName className, IBinder service) {
             // This is called when the connection with the service has been
             // established, giving us the object we can use to
@@ -91,10 +155,15 @@ public class ServiceConnector {
 
             mServiceMessengers.put(className.getClassName(), mServiceMessenger);
 
-            if(++countBoundServices == COUNT_SERVICES_FOR_BINDING) {
+            Binding binding = bindingOf(className);
+            if(binding != null) {
+                onBound(binding, mServiceMessenger);
+                publishRoutes();
+            } else if(IPCService.class.getName().equals(className.getClassName())) {
                 ConnectedDevice connectedDevice = BluetoothUtils.getPairedMicrobit(mCtx);
 
                 if(connectedDevice.mStatus) {
+                    // Binds BLEService
                     Intent intent = new Intent(mCtx, IPCService.class);
                     intent.putExtra(IPCConstants.INTENT_TYPE, EventCategories.IPC_BLE_CONNECT);
                     mCtx.startService(intent);
@@ -107,8 +176,18 @@ public class ServiceConnector {
         public void onServiceDisconnected(ComponentName className) {
             // This is called when the connection with the service has been
             // unexpectedly disconnected -- that is, its process crashed.
+            // The binding stays, so the service is connected again once restarted,
+            // and messages sent meanwhile are queued.
             mServiceMessengers.remove(className.getClassName());
-            mBound = false;
+
+            Binding binding = bindingOf(className);
+            if(binding == bleBinding) {
+                bleBinding.messenger = null;
+                sendRoute(pluginBinding.messenger, ServiceIds.SERVICE_BLE, null);
+            } else if(binding == pluginBinding) {
+                pluginBinding.messenger = null;
+                sendRoute(bleBinding.messenger, ServiceIds.SERVICE_PLUGIN, null);
+            }
         }
 
         @Override
@@ -130,7 +209,27 @@ public class ServiceConnector {
     }
 
     /**
-     * Method used for binding with the service
+     * Handles a message the same way as one received from a service, i.e. by its lane.
+     *
+     * @param message Message to handle, should not be used by the caller after that.
+     */
+    public void dispatch(Message message) {
+        handler.sendMessage(message);
+    }
+
+    public MessageLanes getLanes() {
+        return handler.lanes;
+    }
+
+    private static void logi(String message) {
+        if(DEBUG) {
+            Log.i(TAG, "### " + Thread.currentThread().getId() + " # " + message);
+        }
+    }
+
+    /**
+     * Binds to {@link IPCService}, so it keeps running. Other services are bound on demand,
+     * see {@link #send(int, Message)}.
      */
     public void bindServices() {
         /*
@@ -141,11 +240,6 @@ public class ServiceConnector {
 
         Context context = mCtx.getApplicationContext();
         context.bindService(i, mConnection, Context.BIND_AUTO_CREATE);
-
-        i = new Intent(mCtx, BLEService.class);
-        context.bindService(i, mConnection, Context.BIND_AUTO_CREATE);
-        i = new Intent(mCtx, PluginService.class);
-        context.bindService(i, mConnection, Context.BIND_AUTO_CREATE);
     }
 
     public void unbindServices() {
@@ -153,11 +247,194 @@ public class ServiceConnector {
             mCtx.getApplicationContext().unbindService(mConnection);
             mBound = false;
 
+            handler.lanes.quit();
             handlerThread.quitSafely();
         }
+
+        dropPending(bleBinding);
+        dropPending(pluginBinding);
+    }
+
+    /**
+     * Sends a message to a service, binding it first if it isn't bound yet. Until the service is connected
+     * messages are queued, and then sent in the order they came.
+     *
+     * @param serviceId Addressee, {@link ServiceIds#SERVICE_BLE} or {@link ServiceIds#SERVICE_PLUGIN}.
+     * @param message   Message to send, should not be used by the caller after that.
+     */
+    public void send(@ServiceIds int serviceId, Message message) {
+        Binding binding = bindingOf(serviceId);
+        if(binding == null) {
+            Log.e(TAG, "send() :: unknown service " + serviceId);
+            message.recycle();
+            return;
+        }
+
+        synchronized(binding) {
+            Messenger messenger = binding.messenger;
+            if(messenger == null) {
+                binding.pending.add(message);
+                requestBind(binding);
+                return;
+            }
+
+            try {
+                messenger.send(message);
+            } catch(RemoteException e) {
+                Log.e(TAG, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Binds a service, once. Must be called holding the lock of the binding.
+     */
+    private void requestBind(Binding binding) {
+        if(binding.bindRequested) {
+            return;
+        }
+
+        binding.bindRequested = true;
+        binding.bindRequestTime = SystemClock.elapsedRealtime();
+
+        Trace.beginSection("bind " + binding.serviceClass.getSimpleName());
+        try {
+            mCtx.getApplicationContext().bindService(new Intent(mCtx, binding.serviceClass), mConnection,
+                    Context.BIND_AUTO_CREATE);
+        } finally {
+            Trace.endSection();
+        }
+
+        logi("requestBind() :: " + binding.serviceClass.getSimpleName());
+    }
+
+    /**
+     * Sends queued messages and makes the service available to {@link #send(int, Message)}.
+     */
+    private void onBound(Binding binding, Messenger messenger) {
+        synchronized(binding) {
+            if(binding.bindTime < 0) {
+                binding.bindTime = SystemClock.elapsedRealtime() - binding.bindRequestTime;
+            }
+
+            Trace.beginSection("replay " + binding.serviceClass.getSimpleName());
+            try {
+                Message message;
+                while((message = binding.pending.poll()) != null) {
+                    try {
+                        messenger.send(message);
+                        binding.replayedCount++;
+                    } catch(RemoteException e) {
+                        Log.e(TAG, e.toString());
+                    }
+                }
+            } finally {
+                Trace.endSection();
+            }
+
+            // Set last, so messages sent meanwhile are queued behind the replayed ones
+            binding.messenger = messenger;
+        }
+
+        logi("onBound() :: " + binding);
+    }
+
+    private static void dropPending(Binding binding) {
+        synchronized(binding) {
+            Message message;
+            while((message = binding.pending.poll()) != null) {
+                message.recycle();
+            }
+        }
+    }
+
+    @Nullable
+    private Binding bindingOf(int serviceId) {
+        switch(serviceId) {
+            case ServiceIds.SERVICE_BLE:
+                return bleBinding;
+            case ServiceIds.SERVICE_PLUGIN:
+                return pluginBinding;
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    private Binding bindingOf(ComponentName className) {
+        if(BLEService.class.getName().equals(className.getClassName())) {
+            return bleBinding;
+        } else if(PluginService.class.getName().equals(className.getClassName())) {
+            return pluginBinding;
+        }
+
+        return null;
+    }
+
+    /**
+     * Prints bindings of services with their bind times.
+     *
+     * @param writer Writer to print to.
+     * @param prefix Line prefix.
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        synchronized(bleBinding) {
+            writer.println(prefix + bleBinding);
+        }
+        synchronized(pluginBinding) {
+            writer.println(prefix + pluginBinding);
+        }
     }
 
     public ServiceUtils.IMessengerFinder getConnection() {
         return mConnection;
     }
+
+    /**
+     * Returns a messenger of a bound service without a lookup by name.
+     *
+     * @param serviceId Service to find, {@link ServiceIds#SERVICE_BLE} or {@link ServiceIds#SERVICE_PLUGIN}.
+     * @return Messenger, or null if the service isn't bound.
+     */
+    @Nullable
+    public Messenger getMessenger(@ServiceIds int serviceId) {
+        Binding binding = bindingOf(serviceId);
+        return binding != null ? binding.messenger : null;
+    }
+
+    /**
+     * Tells {@link BLEService} and {@link PluginService} about each other, once both are bound.
+     */
+    private void publishRoutes() {
+        Messenger ble = bleBinding.messenger;
+        Messenger plugin = pluginBinding.messenger;
+        if(ble == null || plugin == null) {
+            return;
+        }
+
+        sendRoute(ble, ServiceIds.SERVICE_PLUGIN, plugin);
+        sendRoute(plugin, ServiceIds.SERVICE_BLE, ble);
+    }
+
+    /**
+     * Sends a route to a service.
+     *
+     * @param target    Service to send the route to, may be null.
+     * @param serviceId Service the route leads to.
+     * @param route     Messenger of that service, or null to drop the route.
+     */
+    private static void sendRoute(@Nullable Messenger target, @ServiceIds int serviceId, @Nullable Messenger route) {
+        if(target == null) {
+            return;
+        }
+
+        Message message = Message.obtain(null, IPCConstants.MESSAGE_ANDROID, EventCategories.IPC_SET_ROUTE,
+                serviceId);
+        message.replyTo = route;
+        try {
+            target.send(message);
+        } catch(RemoteException e) {
+            Log.e(TAG, e.toString());
+        }
+    }
 }
\ No newline at end of file
@@ -44,6 +44,7 @@ import android.widget.Toast;
 import com.samsung.microbit.BuildConfig;
 import com.samsung.microbit.MBApp;
 import com.samsung.microbit.R;
+import com.samsung.microbit.core.CameraSessionManager;
 import com.samsung.microbit.core.GoogleAnalyticsManager;
 import com.samsung.microbit.data.constants.Constants;
 import com.samsung.microbit.data.constants.FileConstants;
@@ -65,6 +66,10 @@ import java.util.Locale;
 
 /**
  * Provides actions to interact with a camera.
+ * <p/>
+ * Camera is kept open and previewing by {@link CameraSessionManager} while the activity is visible, and
+ * released when it leaves the screen. A picture triggered while the activity is in the background brings
+ * it to the front first, so the countdown is always shown before a picture is taken.
  */
 public class CameraActivity_OldAPI extends Activity {
     private static final String TAG = CameraActivity_OldAPI.class.getSimpleName();
@@ -95,6 +100,11 @@ public class CameraActivity_OldAPI extends Activity {
     private boolean isMakingPicOnResume;
     private boolean isRecordingVideoOnResume;
 
+    /**
+     * Pictures left to take for the current trigger, more than one in burst mode.
+     */
+    private int mBurstRemaining;
+
     private PlayAudioPresenter playAudioPresenter;
 
     private boolean debug = BuildConfig.DEBUG;
@@ -300,9 +310,15 @@ public class CameraActivity_OldAPI extends Activity {
         updateButtonClickIcon();
         mButtonClick.setOnClickListener(new OnClickListener() {
             public void onClick(View v) {
+                if(mBurstRemaining <= 0) {
+                    mBurstRemaining = 1;
+                }
+
                 try {
+                    CameraSessionManager.getInstance().onTakePicture();
                     mCamera.takePicture(shutterCallback, rawCallback, jpegCallback);
                 } catch(final Exception ex) {
+                    mBurstRemaining = 0;
                     sendCameraError();
                     Log.e(TAG, "Error during take picture", ex);
                 }
@@ -602,6 +618,9 @@ public class CameraActivity_OldAPI extends Activity {
                     finish();
                 } else if(!mVideo && intent.getAction().equals("TAKE_PIC")) {
                     mFrontCamera = true;
+                    CameraSessionManager.getInstance().onTrigger(intent.getLongExtra(CameraPlugin
+                            .EXTRA_TRIGGER_TIME, SystemClock.elapsedRealtime()));
+                    mBurstRemaining = intent.getIntExtra(CameraPlugin.EXTRA_BURST_COUNT, 1);
                     takePic();
                 } else if(intent.getAction().equals("TOGGLE_CAMERA")) {
                     toggleCamera();
@@ -726,7 +745,7 @@ public class CameraActivity_OldAPI extends Activity {
         mCameraIdx = getCurrentCamera();
         logi("mCameraIdx = " + mCameraIdx);
         try {
-            mCamera = Camera.open(mCameraIdx);
+            mCamera = CameraSessionManager.getInstance().open(mCameraIdx);
             if(mCamera == null) {
                 logi("Couldn't open the camera");
             }
@@ -786,9 +805,9 @@ public class CameraActivity_OldAPI extends Activity {
         }
 
         if(mCamera != null) {
-            mCamera.stopPreview();
             mPreview.setCamera(null, -1);
-            mCamera.release();
+            // Not used in the background, where newer Android versions block the camera anyway
+            CameraSessionManager.getInstance().release();
             mCamera = null;
         }
         super.onPause();
@@ -828,6 +847,8 @@ public class CameraActivity_OldAPI extends Activity {
     //Currently if the device is on silent mode no sound is going to be heard
     ShutterCallback shutterCallback = new ShutterCallback() {
         public void onShutter() {
+            CameraSessionManager.getInstance().onShutter();
+
             ImageView blinkRect = (ImageView) findViewById(R.id.blink_rectangle);
             blinkRect.setVisibility(View.VISIBLE);
             blinkRect.bringToFront();
@@ -840,6 +861,11 @@ public class CameraActivity_OldAPI extends Activity {
      */
     PictureCallback rawCallback = new PictureCallback() {
         public void onPictureTaken(byte[] data, Camera camera) {
+            if(mBurstRemaining > 1) {
+                // Only the last picture of a burst is announced
+                return;
+            }
+
             // Display toast here and play audio
             Toast toast = Toast.makeText(MBApp.getApp().getApplicationContext(), "Photo taken", Toast.LENGTH_LONG);
             toast.setGravity(Gravity.CENTER, 0, 0);
@@ -857,11 +883,37 @@ public class CameraActivity_OldAPI extends Activity {
     PictureCallback jpegCallback = new PictureCallback() {
         public void onPictureTaken(byte[] data, Camera camera) {
             new SaveImageTask(CameraActivity_OldAPI.this).execute(data);
+
+            mBurstRemaining--;
+            if(mBurstRemaining > 0) {
+                takeNextBurstPicture(camera);
+                return;
+            }
+
             DrawBlink();
             resetCam();
         }
     };
 
+    /**
+     * Takes the next picture of a burst right away, with no countdown or blink in between.
+     *
+     * @param camera Camera that took the previous picture.
+     */
+    private void takeNextBurstPicture(Camera camera) {
+        try {
+            camera.startPreview();
+            CameraSessionManager.getInstance().onTakePicture();
+            camera.takePicture(shutterCallback, rawCallback, jpegCallback);
+        } catch(RuntimeException ex) {
+            mBurstRemaining = 0;
+            sendCameraError();
+            Log.e(TAG, "Error during burst", ex);
+            DrawBlink();
+            resetCam();
+        }
+    }
+
     void DrawBlink() {
         SystemClock.sleep(500);
         ImageView blinkRect = (ImageView) findViewById(R.id.blink_rectangle);
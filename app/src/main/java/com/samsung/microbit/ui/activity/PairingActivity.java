@@ -47,8 +47,8 @@ import com.samsung.microbit.MBApp;
 import com.samsung.microbit.R;
 import com.samsung.microbit.core.GoogleAnalyticsManager;
 import com.samsung.microbit.core.bluetooth.BluetoothUtils;
+import com.samsung.microbit.core.bluetooth.ConnectionStateStore;
 import com.samsung.microbit.data.constants.EventCategories;
-import com.samsung.microbit.data.constants.IPCConstants;
 import com.samsung.microbit.data.constants.PermissionCodes;
 import com.samsung.microbit.data.constants.RequestCodes;
 import com.samsung.microbit.data.model.ConnectedDevice;
@@ -250,7 +250,7 @@ public class PairingActivity extends Activity implements View.OnClickListener, B
         }
     };
 
-    private BroadcastReceiver connectionChangedReceiver = BLEConnectionHandler.bleConnectionChangedReceiver(this);
+    private ConnectionStateStore.Observer connectionStateObserver = BLEConnectionHandler.bleConnectionObserver(this);
 
     @Override
     public void setActivityState(int baseActivityState) {
@@ -536,8 +536,7 @@ public class PairingActivity extends Activity implements View.OnClickListener, B
 
             LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(application);
 
-            IntentFilter broadcastIntentFilter = new IntentFilter(IPCConstants.INTENT_BLE_NOTIFICATION);
-            localBroadcastManager.registerReceiver(connectionChangedReceiver, broadcastIntentFilter);
+            ConnectionStateStore.getInstance().subscribe(connectionStateObserver);
 
             localBroadcastManager.registerReceiver(gattForceClosedReceiver, new IntentFilter(BLEService
                     .GATT_FORCE_CLOSED));
@@ -1473,7 +1472,7 @@ public class PairingActivity extends Activity implements View.OnClickListener, B
         LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(MBApp.getApp());
 
         localBroadcastManager.unregisterReceiver(gattForceClosedReceiver);
-        localBroadcastManager.unregisterReceiver(connectionChangedReceiver);
+        ConnectionStateStore.getInstance().unsubscribe(connectionStateObserver);
     }
 
     @Override
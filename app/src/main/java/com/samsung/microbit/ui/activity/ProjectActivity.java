@@ -36,9 +36,9 @@ import com.samsung.microbit.MBApp;
 import com.samsung.microbit.R;
 import com.samsung.microbit.core.GoogleAnalyticsManager;
 import com.samsung.microbit.core.bluetooth.BluetoothUtils;
+import com.samsung.microbit.core.bluetooth.ConnectionStateStore;
 import com.samsung.microbit.data.constants.Constants;
 import com.samsung.microbit.data.constants.EventCategories;
-import com.samsung.microbit.data.constants.IPCConstants;
 import com.samsung.microbit.data.constants.PermissionCodes;
 import com.samsung.microbit.data.constants.RequestCodes;
 import com.samsung.microbit.data.model.ConnectedDevice;
@@ -97,7 +97,7 @@ public class ProjectActivity extends Activity implements View.OnClickListener, B
 
     private int mActivityState;
 
-    private BroadcastReceiver connectionChangedReceiver = BLEConnectionHandler.bleConnectionChangedReceiver(this);
+    private ConnectionStateStore.Observer connectionStateObserver = BLEConnectionHandler.bleConnectionObserver(this);
 
     private Handler handler = new Handler();
     private int countOfReconnecting;
@@ -348,8 +348,7 @@ public class ProjectActivity extends Activity implements View.OnClickListener, B
 
             LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(application);
 
-            IntentFilter broadcastIntentFilter = new IntentFilter(IPCConstants.INTENT_BLE_NOTIFICATION);
-            localBroadcastManager.registerReceiver(connectionChangedReceiver, broadcastIntentFilter);
+            ConnectionStateStore.getInstance().subscribe(connectionStateObserver);
 
             localBroadcastManager.registerReceiver(gattForceClosedReceiver, new IntentFilter(BLEService
                     .GATT_FORCE_CLOSED));
@@ -547,7 +546,7 @@ public class ProjectActivity extends Activity implements View.OnClickListener, B
         LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(application);
 
         localBroadcastManager.unregisterReceiver(gattForceClosedReceiver);
-        localBroadcastManager.unregisterReceiver(connectionChangedReceiver);
+        ConnectionStateStore.getInstance().unsubscribe(connectionStateObserver);
 
         if(dfuResultReceiver != null) {
             localBroadcastManager.unregisterReceiver(dfuResultReceiver);
@@ -0,0 +1,395 @@
+package com.samsung.microbit.utils;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Parcel;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.samsung.microbit.data.constants.IPCConstants;
+
+import java.util.UUID;
+
+import static com.samsung.microbit.utils.IpcFields.*;
+
+/**
+ * Compact binary codec of IPC messages between services.
+ * <p/>
+ * Message type, event category and service id stay in {@link Message#what}, {@link Message#arg1}
+ * and {@link Message#arg2}. The rest of data is written as a {@link Payload} of tagged primitive
+ * fields into a pooled {@link Parcel}, and sent as a single byte array under
+ * {@link #BUNDLE_PAYLOAD}. Receivers read fields back by tag, without serializable values
+ * and their reflection-based deserialization. UUIDs take two longs instead of a 36 chars string.
+ * <p/>
+ * Layout: version, number of fields, then for each field its header {@code (tag << 8) | type}
+ * followed by the value. Fields carry their type, so a receiver skips tags it doesn't know. Tags,
+ * types and version are defined by {@link IpcFields}.
+ */
+public final class IpcCodec {
+    private static final String TAG = IpcCodec.class.getSimpleName();
+
+    public static final String BUNDLE_PAYLOAD = "BUNDLE_PAYLOAD";
+
+    private static final int POOL_SIZE = 8;
+    private static final Payload[] pool = new Payload[POOL_SIZE];
+    private static int poolCount;
+
+    private IpcCodec() {
+    }
+
+    /**
+     * Maps a bundle key from {@link IPCConstants} to a field tag.
+     *
+     * @param key Bundle key, e.g. {@link IPCConstants#BUNDLE_ERROR_CODE}.
+     * @return Field tag, or 0 if the key isn't known.
+     */
+    public static int fieldOf(String key) {
+        switch(key) {
+            case IPCConstants.BUNDLE_DATA:
+                return FIELD_CMD;
+            case IPCConstants.BUNDLE_VALUE:
+                return FIELD_VALUE;
+            case IPCConstants.BUNDLE_ERROR_CODE:
+                return FIELD_ERROR_CODE;
+            case IPCConstants.BUNDLE_ERROR_MESSAGE:
+                return FIELD_ERROR_MESSAGE;
+            case IPCConstants.BUNDLE_MICROBIT_FIRMWARE:
+                return FIELD_FIRMWARE;
+            case IPCConstants.BUNDLE_MICROBIT_REQUESTS:
+                return FIELD_REQUESTS;
+            case IPCConstants.BUNDLE_SERVICE_GUID:
+                return FIELD_SERVICE_GUID;
+            case IPCConstants.BUNDLE_CHARACTERISTIC_GUID:
+                return FIELD_CHARACTERISTIC_GUID;
+            case IPCConstants.BUNDLE_CHARACTERISTIC_VALUE:
+                return FIELD_CHARACTERISTIC_VALUE;
+            case IPCConstants.BUNDLE_CHARACTERISTIC_TYPE:
+                return FIELD_CHARACTERISTIC_TYPE;
+            case IPCConstants.BUNDLE_DEVICE_ADDRESS:
+                return FIELD_DEVICE_ADDRESS;
+            case IPCConstants.BUNDLE_CONNECTION_TYPE:
+                return FIELD_CONNECTION_TYPE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Takes a message from the system pool and writes a payload into it.
+     *
+     * @param what      Message type, see {@link IPCConstants#MESSAGE_ANDROID}.
+     * @param arg1      Event category.
+     * @param arg2      Service id or event value.
+     * @param payload   Payload to write, may be null. It's left untouched, so the caller still owns it.
+     * @return Message ready to send.
+     */
+    public static Message obtainMessage(int what, int arg1, int arg2, @Nullable Payload payload) {
+        Message message = Message.obtain(null, what, arg1, arg2);
+        if(payload != null && !payload.isEmpty()) {
+            Bundle bundle = new Bundle(1);
+            bundle.putByteArray(BUNDLE_PAYLOAD, encode(payload));
+            message.setData(bundle);
+        }
+
+        return message;
+    }
+
+    /**
+     * Encodes a payload into bytes.
+     *
+     * @param payload Payload to encode.
+     * @return Encoded payload.
+     */
+    public static byte[] encode(Payload payload) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(VERSION);
+            parcel.writeInt(Integer.bitCount(payload.present));
+
+            for(int field = 1; field < FIELD_COUNT; field++) {
+                if((payload.present & (1 << field)) == 0) {
+                    continue;
+                }
+
+                parcel.writeInt(headerOf(field));
+                switch(typeOf(field)) {
+                    case TYPE_INT:
+                        parcel.writeInt(payload.ints[field]);
+                        break;
+                    case TYPE_STRING:
+                        parcel.writeString(payload.strings[field]);
+                        break;
+                    case TYPE_UUID:
+                        parcel.writeLong(payload.uuids[field].getMostSignificantBits());
+                        parcel.writeLong(payload.uuids[field].getLeastSignificantBits());
+                        break;
+                }
+            }
+
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Decodes a payload of a message. The result should be {@link Payload#recycle() recycled} once read.
+     *
+     * @param message Received message.
+     * @return Payload, empty if the message has no one or it has an unsupported version.
+     */
+    public static Payload decode(Message message) {
+        Payload payload = Payload.obtain();
+
+        Bundle bundle = message.peekData();
+        byte[] bytes = bundle != null ? bundle.getByteArray(BUNDLE_PAYLOAD) : null;
+        if(bytes != null) {
+            decode(bytes, payload);
+        }
+
+        return payload;
+    }
+
+    /**
+     * Decodes bytes made by {@link #encode(Payload)}.
+     *
+     * @param bytes   Encoded payload.
+     * @param payload Payload to read fields into.
+     * @return False if the bytes have an unsupported version or are malformed.
+     */
+    public static boolean decode(byte[] bytes, Payload payload) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+
+            int version = parcel.readInt();
+            if(version != VERSION) {
+                Log.e(TAG, "Unsupported payload version: " + version);
+                return false;
+            }
+
+            int count = parcel.readInt();
+            for(int i = 0; i < count; i++) {
+                int header = parcel.readInt();
+                int field = fieldOfHeader(header);
+                int type = typeOfHeader(header);
+                boolean known = typeOf(field) == type;
+
+                switch(type) {
+                    case TYPE_INT: {
+                        int value = parcel.readInt();
+                        if(known) {
+                            payload.putInt(field, value);
+                        }
+                        break;
+                    }
+                    case TYPE_STRING: {
+                        String value = parcel.readString();
+                        if(known) {
+                            payload.putString(field, value);
+                        }
+                        break;
+                    }
+                    case TYPE_UUID: {
+                        long most = parcel.readLong();
+                        long least = parcel.readLong();
+                        if(known) {
+                            payload.putUuid(field, new UUID(most, least));
+                        }
+                        break;
+                    }
+                    default:
+                        // Size of the value is unknown, so the rest can't be read
+                        Log.e(TAG, "Unknown field type: " + type);
+                        return false;
+                }
+            }
+
+            return true;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Typed fields of a message. Instances are pooled: take one with {@link #obtain()} and give it
+     * back with {@link #recycle()}.
+     */
+    public static final class Payload {
+        private final int[] ints = new int[FIELD_COUNT];
+        private final String[] strings = new String[FIELD_COUNT];
+        private final UUID[] uuids = new UUID[FIELD_COUNT];
+        private int present;
+
+        private Payload() {
+        }
+
+        public static Payload obtain() {
+            synchronized(pool) {
+                if(poolCount > 0) {
+                    Payload payload = pool[--poolCount];
+                    pool[poolCount] = null;
+                    return payload;
+                }
+            }
+
+            return new Payload();
+        }
+
+        public void recycle() {
+            clear();
+
+            synchronized(pool) {
+                if(poolCount < POOL_SIZE) {
+                    pool[poolCount++] = this;
+                }
+            }
+        }
+
+        public void clear() {
+            for(int field = 1; field < FIELD_COUNT; field++) {
+                strings[field] = null;
+                uuids[field] = null;
+            }
+
+            present = 0;
+        }
+
+        public Payload putInt(int field, int value) {
+            checkType(field, TYPE_INT);
+            ints[field] = value;
+            present |= 1 << field;
+            return this;
+        }
+
+        /**
+         * Puts a string. A null value removes the field.
+         */
+        public Payload putString(int field, @Nullable String value) {
+            checkType(field, TYPE_STRING);
+            strings[field] = value;
+            setPresent(field, value != null);
+            return this;
+        }
+
+        /**
+         * Puts a UUID. A null value removes the field.
+         */
+        public Payload putUuid(int field, @Nullable UUID value) {
+            checkType(field, TYPE_UUID);
+            uuids[field] = value;
+            setPresent(field, value != null);
+            return this;
+        }
+
+        /**
+         * Puts a value given by a bundle key of {@link IPCConstants}, e.g. from a
+         * {@link com.samsung.microbit.data.model.NameValuePair}.
+         *
+         * @param key   Bundle key.
+         * @param value Integer, String or UUID, depending on the key. A UUID may be given as a string.
+         * @throws IllegalArgumentException If the key isn't known or the value has a wrong type.
+         */
+        public Payload put(String key, @Nullable Object value) {
+            int field = fieldOf(key);
+            if(field == 0) {
+                throw new IllegalArgumentException("Unknown IPC field: " + key);
+            }
+
+            if(value == null) {
+                setPresent(field, false);
+                return this;
+            }
+
+            switch(typeOf(field)) {
+                case TYPE_INT:
+                    if(value instanceof Integer) {
+                        return putInt(field, (Integer) value);
+                    }
+                    break;
+                case TYPE_STRING:
+                    if(value instanceof String) {
+                        return putString(field, (String) value);
+                    }
+                    break;
+                case TYPE_UUID:
+                    if(value instanceof UUID) {
+                        return putUuid(field, (UUID) value);
+                    } else if(value instanceof String) {
+                        return putUuid(field, UUID.fromString((String) value));
+                    }
+                    break;
+            }
+
+            throw new IllegalArgumentException("Wrong type of IPC field " + key + ": " + value.getClass());
+        }
+
+        public boolean has(int field) {
+            return (present & (1 << field)) != 0;
+        }
+
+        public boolean isEmpty() {
+            return present == 0;
+        }
+
+        public int getInt(int field, int defaultValue) {
+            return has(field) && typeOf(field) == TYPE_INT ? ints[field] : defaultValue;
+        }
+
+        @Nullable
+        public String getString(int field) {
+            if(!has(field)) {
+                return null;
+            }
+
+            if(typeOf(field) == TYPE_UUID) {
+                return uuids[field].toString();
+            }
+
+            return strings[field];
+        }
+
+        @Nullable
+        public UUID getUuid(int field) {
+            return has(field) && typeOf(field) == TYPE_UUID ? uuids[field] : null;
+        }
+
+        private void setPresent(int field, boolean set) {
+            if(set) {
+                present |= 1 << field;
+            } else {
+                present &= ~(1 << field);
+            }
+        }
+
+        private static void checkType(int field, int type) {
+            if(field <= 0 || field >= FIELD_COUNT || typeOf(field) != type) {
+                throw new IllegalArgumentException("Wrong IPC field: " + field);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Payload{");
+            for(int field = 1; field < FIELD_COUNT; field++) {
+                if(!has(field)) {
+                    continue;
+                }
+
+                if(sb.length() > 8) {
+                    sb.append(", ");
+                }
+
+                sb.append(field).append('=');
+                if(typeOf(field) == TYPE_INT) {
+                    sb.append(ints[field]);
+                } else {
+                    sb.append(getString(field));
+                }
+            }
+
+            return sb.append('}').toString();
+        }
+    }
+}
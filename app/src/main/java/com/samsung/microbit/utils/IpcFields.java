@@ -0,0 +1,80 @@
+package com.samsung.microbit.utils;
+
+/**
+ * Layout constants of {@link IpcCodec} payloads: version, field tags and their types.
+ * <p/>
+ * Kept free of Android, so the IPC benchmark is built with the same layout as the app.
+ */
+public final class IpcFields {
+
+    /**
+     * Version of the layout. Should be increased on incompatible changes only, adding a field doesn't need it.
+     */
+    public static final int VERSION = 1;
+
+    public static final int FIELD_CMD = 1;
+    public static final int FIELD_VALUE = 2;
+    public static final int FIELD_ERROR_CODE = 3;
+    public static final int FIELD_ERROR_MESSAGE = 4;
+    public static final int FIELD_FIRMWARE = 5;
+    public static final int FIELD_REQUESTS = 6;
+    public static final int FIELD_SERVICE_GUID = 7;
+    public static final int FIELD_CHARACTERISTIC_GUID = 8;
+    public static final int FIELD_CHARACTERISTIC_VALUE = 9;
+    public static final int FIELD_CHARACTERISTIC_TYPE = 10;
+    public static final int FIELD_DEVICE_ADDRESS = 11;
+    public static final int FIELD_CONNECTION_TYPE = 12;
+
+    /**
+     * Number of field tags, tag 0 isn't used.
+     */
+    public static final int FIELD_COUNT = 13;
+
+    public static final int TYPE_INT = 1;
+    public static final int TYPE_STRING = 2;
+    public static final int TYPE_UUID = 3;
+
+    private static final int[] FIELD_TYPES = new int[FIELD_COUNT];
+
+    static {
+        FIELD_TYPES[FIELD_CMD] = TYPE_INT;
+        FIELD_TYPES[FIELD_VALUE] = TYPE_STRING;
+        FIELD_TYPES[FIELD_ERROR_CODE] = TYPE_INT;
+        FIELD_TYPES[FIELD_ERROR_MESSAGE] = TYPE_STRING;
+        FIELD_TYPES[FIELD_FIRMWARE] = TYPE_STRING;
+        FIELD_TYPES[FIELD_REQUESTS] = TYPE_INT;
+        FIELD_TYPES[FIELD_SERVICE_GUID] = TYPE_UUID;
+        FIELD_TYPES[FIELD_CHARACTERISTIC_GUID] = TYPE_UUID;
+        FIELD_TYPES[FIELD_CHARACTERISTIC_VALUE] = TYPE_INT;
+        FIELD_TYPES[FIELD_CHARACTERISTIC_TYPE] = TYPE_INT;
+        FIELD_TYPES[FIELD_DEVICE_ADDRESS] = TYPE_STRING;
+        FIELD_TYPES[FIELD_CONNECTION_TYPE] = TYPE_INT;
+    }
+
+    private IpcFields() {
+    }
+
+    /**
+     * @param field Field tag.
+     * @return Type of the field, or 0 if the tag isn't known.
+     */
+    public static int typeOf(int field) {
+        return field > 0 && field < FIELD_COUNT ? FIELD_TYPES[field] : 0;
+    }
+
+    /**
+     * @param field Field tag.
+     * @return Header written before a value of the field, {@code (tag << 8) | type}.
+     */
+    public static int headerOf(int field) {
+        return (field << 8) | typeOf(field);
+    }
+
+    public static int fieldOfHeader(int header) {
+        return header >>> 8;
+    }
+
+    public static int typeOfHeader(int header) {
+        return header & 0xFF;
+    }
+}
@@ -2,7 +2,6 @@ package com.samsung.microbit.utils;
 
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.os.Bundle;
 import android.os.Message;
 import android.os.Messenger;
 
@@ -45,7 +44,8 @@ public class ServiceUtils {
     }
 
     /**
-     * Compose message for IPC communication
+     * Compose message for IPC communication. Arguments are written by {@link IpcCodec}, so their
+     * names should be bundle keys of {@link IPCConstants}.
      *
      * @param messageType   Android or microbit message. One of the {@link com.samsung.microbit.data.constants.IPCConstants#MESSAGE_ANDROID},
      *                      {@link com.samsung.microbit.data.constants.IPCConstants#MESSAGE_MICROBIT}
@@ -61,26 +61,23 @@ public class ServiceUtils {
         if(messageType != IPCConstants.MESSAGE_ANDROID && messageType != IPCConstants.MESSAGE_MICROBIT) {
             return null;
         }
-        Message msg = Message.obtain(null, messageType);
-
-        msg.arg1 = eventCategory;
-        msg.arg2 = serviceId;
-
-        Bundle bundle = new Bundle();
-        if(cmd != null) {
-            bundle.putInt(IPCConstants.BUNDLE_DATA, cmd.getCMD());
-            bundle.putString(IPCConstants.BUNDLE_VALUE, cmd.getValue());
-        }
-
-        if(args != null) {
-            for(NameValuePair arg : args) {
-                bundle.putSerializable(arg.getName(), arg.getValue());
+        IpcCodec.Payload payload = IpcCodec.Payload.obtain();
+        try {
+            if(cmd != null) {
+                payload.putInt(IpcFields.FIELD_CMD, cmd.getCMD());
+                payload.putString(IpcFields.FIELD_VALUE, cmd.getValue());
             }
-        }
 
-        msg.setData(bundle);
+            if(args != null) {
+                for(NameValuePair arg : args) {
+                    payload.put(arg.getName(), arg.getValue());
+                }
+            }
 
-        return msg;
+            return IpcCodec.obtainMessage(messageType, eventCategory, serviceId, payload);
+        } finally {
+            payload.recycle();
+        }
     }
 
     /**
@@ -89,18 +86,23 @@ public class ServiceUtils {
      * @param value characteristic value for creating final message
      */
     public static Message composeBLECharacteristicMessage(int value) {
-        NameValuePair[] args = new NameValuePair[4];
-        args[0] = new NameValuePair(IPCConstants.BUNDLE_SERVICE_GUID, GattServiceUUIDs.EVENT_SERVICE.toString());
-        args[1] = new NameValuePair(IPCConstants.BUNDLE_CHARACTERISTIC_GUID, CharacteristicUUIDs.ES_CLIENT_EVENT.toString());
-        args[2] = new NameValuePair(IPCConstants.BUNDLE_CHARACTERISTIC_VALUE, value);
-        args[3] = new NameValuePair(IPCConstants.BUNDLE_CHARACTERISTIC_TYPE, GattFormats.FORMAT_UINT32);
-
-        return composeMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories.IPC_WRITE_CHARACTERISTIC,
-                ServiceIds.SERVICE_BLE, null, args);
+        IpcCodec.Payload payload = IpcCodec.Payload.obtain();
+        try {
+            payload.putUuid(IpcFields.FIELD_SERVICE_GUID, GattServiceUUIDs.EVENT_SERVICE)
+                    .putUuid(IpcFields.FIELD_CHARACTERISTIC_GUID, CharacteristicUUIDs.ES_CLIENT_EVENT)
+                    .putInt(IpcFields.FIELD_CHARACTERISTIC_VALUE, value)
+                    .putInt(IpcFields.FIELD_CHARACTERISTIC_TYPE, GattFormats.FORMAT_UINT32);
+
+            return IpcCodec.obtainMessage(IPCConstants.MESSAGE_MICROBIT, EventCategories.IPC_WRITE_CHARACTERISTIC,
+                    ServiceIds.SERVICE_BLE, payload);
+        } finally {
+            payload.recycle();
+        }
     }
 
     /**
-     * Copy values from old message to new one.
+     * Copy values from old message to new one. Data holds only the encoded payload, which is never
+     * changed once written, so the data bundle is shared instead of cloned.
      *
      * @param oldMessage Old messages, values should be copied from.
      * @param serviceId  Identifier of service. Detect where message should be delivered to. Can be one of possible
@@ -108,10 +110,8 @@ public class ServiceUtils {
      *                   {@link ServiceIds#SERVICE_PLUGIN}
      */
     public static Message copyMessageFromOld(Message oldMessage, @ServiceIds int serviceId) {
-        Message newMessage = Message.obtain(null, oldMessage.what);
-        newMessage.arg1 = oldMessage.arg1;
-        newMessage.arg2 = serviceId;
-        newMessage.setData(new Bundle(oldMessage.getData()));
+        Message newMessage = Message.obtain(null, oldMessage.what, oldMessage.arg1, serviceId);
+        newMessage.setData(oldMessage.peekData());
         return newMessage;
     }
 
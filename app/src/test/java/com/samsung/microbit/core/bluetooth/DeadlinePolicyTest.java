@@ -0,0 +1,131 @@
+package com.samsung.microbit.core.bluetooth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeadlinePolicyTest {
+
+    private static final int OK = BLEManager.BLE_ERROR_OK | BLEManager.BLE_CONNECTED;
+    private static final int TIMEOUT = BLEManager.BLE_ERROR_FAIL | BLEManager.BLE_ERROR_TIMEOUT;
+
+    private DeadlinePolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new DeadlinePolicy();
+    }
+
+    @Test
+    public void usesCeilingUntilFirstSample() {
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getDeadline(BLEManager.OP_READ_CHARACTERISTIC));
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getLastDeadline(BLEManager.OP_READ_CHARACTERISTIC));
+    }
+
+    @Test
+    public void clampsFastOperationToFloor() {
+        policy.onResult(BLEManager.OP_READ_CHARACTERISTIC, 100, OK);
+
+        assertEquals(DeadlinePolicy.DEFAULT_FLOOR, policy.getDeadline(BLEManager.OP_READ_CHARACTERISTIC));
+    }
+
+    @Test
+    public void addsFourDeviationsToSmoothedLatency() {
+        // srtt = 3000, rttvar = 1500
+        policy.onResult(BLEManager.OP_WRITE_DESCRIPTOR, 3000, OK);
+        assertEquals(9000, policy.getDeadline(BLEManager.OP_WRITE_DESCRIPTOR));
+
+        // Same latency again: srtt stays, rttvar = 1500 + (0 - 1500) / 4
+        policy.onResult(BLEManager.OP_WRITE_DESCRIPTOR, 3000, OK);
+        assertEquals(3000, policy.getSmoothedLatency(BLEManager.OP_WRITE_DESCRIPTOR));
+        assertEquals(3000 + 4 * 1125, policy.getDeadline(BLEManager.OP_WRITE_DESCRIPTOR));
+    }
+
+    @Test
+    public void clampsSlowOperationToCeiling() {
+        policy.onResult(BLEManager.OP_READ_DESCRIPTOR, 8000, OK);
+
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getDeadline(BLEManager.OP_READ_DESCRIPTOR));
+    }
+
+    @Test
+    public void doublesDeadlineOnEachTimeoutUpToCeiling() {
+        int operation = BLEManager.OP_READ_CHARACTERISTIC;
+        policy.onResult(operation, 100, OK);
+
+        policy.onResult(operation, 1000, TIMEOUT);
+        assertEquals(2000, policy.getDeadline(operation));
+        policy.onResult(operation, 2000, TIMEOUT);
+        assertEquals(4000, policy.getDeadline(operation));
+        policy.onResult(operation, 4000, TIMEOUT);
+        assertEquals(8000, policy.getDeadline(operation));
+        policy.onResult(operation, 8000, TIMEOUT);
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getDeadline(operation));
+
+        assertEquals(4, policy.getMissedDeadlineCount(operation));
+    }
+
+    @Test
+    public void limitsBackoffToSixteenTimes() {
+        int operation = BLEManager.OP_READ_CHARACTERISTIC;
+        policy.setBounds(operation, 100, 100000);
+        policy.onResult(operation, 100, OK);
+        assertEquals(300, policy.getDeadline(operation));
+
+        for(int i = 0; i < 10; i++) {
+            policy.onResult(operation, 1000, TIMEOUT);
+        }
+
+        assertEquals(300 << 4, policy.getDeadline(operation));
+    }
+
+    @Test
+    public void resetsBackoffOnSuccess() {
+        int operation = BLEManager.OP_WRITE_CHARACTERISTIC;
+        policy.onResult(operation, 100, OK);
+        policy.onResult(operation, 1000, TIMEOUT);
+        policy.onResult(operation, 2000, TIMEOUT);
+        assertEquals(4000, policy.getDeadline(operation));
+
+        policy.onResult(operation, 100, OK);
+        assertEquals(DeadlinePolicy.DEFAULT_FLOOR, policy.getDeadline(operation));
+        assertEquals(2, policy.getMetDeadlineCount(operation));
+    }
+
+    @Test
+    public void ignoresFailuresWithoutTimeout() {
+        int operation = BLEManager.OP_READ_CHARACTERISTIC;
+        policy.onResult(operation, 5, BLEManager.BLE_ERROR_FAIL);
+        policy.onResult(operation, 5, BLEManager.BLE_ERROR_NOOP);
+
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getDeadline(operation));
+        assertEquals(0, policy.getMetDeadlineCount(operation));
+        assertEquals(0, policy.getMissedDeadlineCount(operation));
+    }
+
+    @Test
+    public void keepsLongerFloorsOfConnectAndDiscover() {
+        policy.onResult(BLEManager.OP_CONNECT, 100, OK);
+        policy.onResult(BLEManager.OP_DISCOVER_SERVICES, 100, OK);
+
+        assertEquals(5000, policy.getDeadline(BLEManager.OP_CONNECT));
+        assertEquals(2000, policy.getDeadline(BLEManager.OP_DISCOVER_SERVICES));
+    }
+
+    @Test
+    public void usesCeilingForUnknownOperation() {
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getDeadline(-1));
+        assertEquals(DeadlinePolicy.DEFAULT_CEILING, policy.getDeadline(BLEManager.OP_MTU_CHANGED + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCeilingBelowFloor() {
+        policy.setBounds(BLEManager.OP_READ_CHARACTERISTIC, 2000, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveFloor() {
+        policy.setBounds(BLEManager.OP_READ_CHARACTERISTIC, 0, 1000);
+    }
+}
@@ -0,0 +1,142 @@
+package com.samsung.microbit.core.bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GattSchedulerTest {
+
+    private final List<String> granted = new ArrayList<>();
+
+    private final class NamedClient implements GattScheduler.Client {
+        private final String name;
+
+        NamedClient(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onPermitGranted() {
+            granted.add(name);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveLimit() {
+        new GattScheduler(0);
+    }
+
+    @Test
+    public void grantsPermitsUpToLimit() {
+        GattScheduler scheduler = new GattScheduler(2);
+
+        assertTrue(scheduler.tryAcquire(new NamedClient("a")));
+        assertTrue(scheduler.tryAcquire(new NamedClient("b")));
+        assertFalse(scheduler.tryAcquire(new NamedClient("c")));
+
+        assertEquals(2, scheduler.getInUseCount());
+        assertEquals(1, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void handsReleasedPermitsOverInRoundRobin() {
+        GattScheduler scheduler = new GattScheduler(1);
+        NamedClient a = new NamedClient("a");
+        NamedClient b = new NamedClient("b");
+        NamedClient c = new NamedClient("c");
+
+        assertTrue(scheduler.tryAcquire(a));
+        assertFalse(scheduler.tryAcquire(b));
+        assertFalse(scheduler.tryAcquire(c));
+        // A busy client queues up behind the others
+        assertFalse(scheduler.tryAcquire(a));
+
+        scheduler.release();
+        scheduler.release();
+        scheduler.release();
+
+        assertEquals("[b, c, a]", granted.toString());
+        assertEquals(1, scheduler.getInUseCount());
+
+        scheduler.release();
+        assertEquals(0, scheduler.getInUseCount());
+    }
+
+    @Test
+    public void doesNotLetNewClientOvertakeWaitingOne() {
+        GattScheduler scheduler = new GattScheduler(1);
+        assertTrue(scheduler.tryAcquire(new NamedClient("a")));
+        assertFalse(scheduler.tryAcquire(new NamedClient("b")));
+
+        scheduler.release();
+
+        assertEquals("[b]", granted.toString());
+        assertFalse(scheduler.tryAcquire(new NamedClient("d")));
+    }
+
+    @Test
+    public void queuesClientOnce() {
+        GattScheduler scheduler = new GattScheduler(1);
+        NamedClient b = new NamedClient("b");
+        assertTrue(scheduler.tryAcquire(new NamedClient("a")));
+
+        assertFalse(scheduler.tryAcquire(b));
+        assertFalse(scheduler.tryAcquire(b));
+
+        assertEquals(1, scheduler.getWaitingCount());
+    }
+
+    @Test
+    public void skipsCancelledClient() {
+        GattScheduler scheduler = new GattScheduler(1);
+        NamedClient b = new NamedClient("b");
+        assertTrue(scheduler.tryAcquire(new NamedClient("a")));
+        assertFalse(scheduler.tryAcquire(b));
+        assertFalse(scheduler.tryAcquire(new NamedClient("c")));
+
+        scheduler.cancel(b);
+        scheduler.release();
+
+        assertEquals("[c]", granted.toString());
+    }
+
+    @Test
+    public void timesOutWaitingForPermit() throws InterruptedException {
+        GattScheduler scheduler = new GattScheduler(1);
+        assertTrue(scheduler.tryAcquire(new NamedClient("a")));
+
+        assertFalse(scheduler.acquire(10));
+        assertEquals(0, scheduler.getWaitingCount());
+
+        // Nobody is waiting, so the permit is returned
+        scheduler.release();
+        assertEquals(0, scheduler.getInUseCount());
+    }
+
+    @Test
+    public void wakesBlockedRequestOnRelease() throws InterruptedException {
+        final GattScheduler scheduler = new GattScheduler(1);
+        assertTrue(scheduler.tryAcquire(new NamedClient("a")));
+
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(scheduler.getWaitingCount() == 0) {
+                    Thread.yield();
+                }
+
+                scheduler.release();
+            }
+        });
+        releaser.start();
+
+        assertTrue(scheduler.acquire(BLEManager.BLE_WAIT_TIMEOUT));
+        releaser.join();
+        assertEquals(1, scheduler.getInUseCount());
+    }
+}
@@ -0,0 +1,91 @@
+package com.samsung.microbit.core.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GattStatisticsTest {
+
+    private static final int OK = BLEManager.BLE_ERROR_OK | BLEManager.BLE_CONNECTED;
+    private static final int TIMEOUT = BLEManager.BLE_ERROR_FAIL | BLEManager.BLE_ERROR_TIMEOUT;
+
+    private final GattStatistics statistics = new GattStatistics();
+
+    @Test
+    public void putsDurationsIntoPowerOfTwoBuckets() {
+        assertEquals(0, GattStatistics.bucketOf(-5));
+        assertEquals(0, GattStatistics.bucketOf(0));
+        assertEquals(1, GattStatistics.bucketOf(1));
+        assertEquals(2, GattStatistics.bucketOf(2));
+        assertEquals(2, GattStatistics.bucketOf(3));
+        assertEquals(3, GattStatistics.bucketOf(4));
+        assertEquals(10, GattStatistics.bucketOf(1023));
+        assertEquals(11, GattStatistics.bucketOf(1024));
+    }
+
+    @Test
+    public void putsSlowDurationsIntoLastBucket() {
+        int last = GattStatistics.BUCKET_COUNT - 1;
+
+        assertEquals(last - 1, GattStatistics.bucketOf((1L << (last - 1)) - 1));
+        assertEquals(last, GattStatistics.bucketOf(1L << (last - 1)));
+        assertEquals(last, GattStatistics.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, GattStatistics.bucketUpperBound(last));
+    }
+
+    @Test
+    public void keepsDurationsWithinBucketBounds() {
+        for(long duration = 0; duration < (1L << GattStatistics.BUCKET_COUNT); duration++) {
+            int bucket = GattStatistics.bucketOf(duration);
+
+            assertTrue("upper bound of " + duration, duration < GattStatistics.bucketUpperBound(bucket));
+            if(bucket > 0) {
+                assertTrue("lower bound of " + duration, duration >= GattStatistics.bucketUpperBound(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void hasNoPercentileWithoutRecords() {
+        assertEquals(0, statistics.getPercentile(BLEManager.OP_READ_CHARACTERISTIC, 50));
+    }
+
+    @Test
+    public void estimatesPercentilesByBucketUpperBound() {
+        int operation = BLEManager.OP_READ_CHARACTERISTIC;
+        for(int i = 0; i < 9; i++) {
+            statistics.record(operation, 3, OK);
+        }
+
+        statistics.record(operation, 900, TIMEOUT);
+
+        assertEquals(4, statistics.getPercentile(operation, 50));
+        assertEquals(4, statistics.getPercentile(operation, 90));
+        // The slowest bucket is bounded by the maximum seen
+        assertEquals(900, statistics.getPercentile(operation, 99));
+        assertEquals(900, statistics.getPercentile(operation, 100));
+    }
+
+    @Test
+    public void boundsPercentileByMaximum() {
+        statistics.record(BLEManager.OP_WRITE_CHARACTERISTIC, 5, OK);
+
+        assertEquals(5, statistics.getPercentile(BLEManager.OP_WRITE_CHARACTERISTIC, 50));
+    }
+
+    @Test
+    public void countsResultsByKind() {
+        int operation = BLEManager.OP_WRITE_DESCRIPTOR;
+        statistics.record(operation, 10, OK);
+        statistics.record(operation, 10, BLEManager.BLE_ERROR_FAIL);
+        statistics.record(operation, 10, TIMEOUT);
+        statistics.record(operation, 10, BLEManager.BLE_ERROR_NOOP);
+
+        assertEquals(1, statistics.getSuccessCount(operation));
+        assertEquals(1, statistics.getFailureCount(operation));
+        assertEquals(1, statistics.getTimeoutCount(operation));
+        assertEquals(3, statistics.getCount(operation));
+        assertEquals(3, statistics.getHistogram(operation)[GattStatistics.bucketOf(10)]);
+    }
+}
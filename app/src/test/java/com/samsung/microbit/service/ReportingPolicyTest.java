@@ -0,0 +1,65 @@
+package com.samsung.microbit.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportingPolicyTest {
+
+    private static final int RISING = 1;
+    private static final int FALLING = -1;
+
+    private final ReportingPolicy policy = new ReportingPolicy(1000, 5, 3);
+
+    @Test
+    public void sendsEveryValueWithoutDelta() {
+        ReportingPolicy everyValue = new ReportingPolicy(0, 0, 3);
+
+        assertTrue(everyValue.isSignificant(10, 10, 0));
+        assertTrue(everyValue.isSignificant(9, 10, RISING));
+    }
+
+    @Test
+    public void suppressesRepeatedValuesWithDeltaOfOne() {
+        ReportingPolicy changesOnly = new ReportingPolicy(0, 1, 0);
+
+        assertFalse(changesOnly.isSignificant(10, 10, 0));
+        assertTrue(changesOnly.isSignificant(11, 10, 0));
+        assertTrue(changesOnly.isSignificant(9, 10, RISING));
+    }
+
+    @Test
+    public void needsDeltaWithoutKnownDirection() {
+        assertFalse(policy.isSignificant(104, 100, 0));
+        assertTrue(policy.isSignificant(105, 100, 0));
+        assertFalse(policy.isSignificant(96, 100, 0));
+        assertTrue(policy.isSignificant(95, 100, 0));
+    }
+
+    @Test
+    public void needsDeltaToKeepDirection() {
+        assertFalse(policy.isSignificant(104, 100, RISING));
+        assertTrue(policy.isSignificant(105, 100, RISING));
+        assertFalse(policy.isSignificant(96, 100, FALLING));
+        assertTrue(policy.isSignificant(95, 100, FALLING));
+    }
+
+    @Test
+    public void needsHysteresisToTurnBack() {
+        assertFalse(policy.isSignificant(95, 100, RISING));
+        assertFalse(policy.isSignificant(93, 100, RISING));
+        assertTrue(policy.isSignificant(92, 100, RISING));
+
+        assertFalse(policy.isSignificant(105, 100, FALLING));
+        assertFalse(policy.isSignificant(107, 100, FALLING));
+        assertTrue(policy.isSignificant(108, 100, FALLING));
+    }
+
+    @Test
+    public void ignoresSameValueInAnyDirection() {
+        assertFalse(policy.isSignificant(100, 100, 0));
+        assertFalse(policy.isSignificant(100, 100, RISING));
+        assertFalse(policy.isSignificant(100, 100, FALLING));
+    }
+}
@@ -0,0 +1,131 @@
+package com.samsung.microbit.benchmark;
+
+import com.samsung.microbit.data.constants.EventCategories;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated source of micro:bit event notifications, in place of BLEManager and its bluetooth
+ * GATT callback thread.
+ * <p/>
+ * Notifications are delivered at a fixed rate on the thread calling {@link #run(long)}, in the same
+ * form as values of the micro:bit event characteristic: event words of event source and event
+ * value, 16 bits each, little endian. Event value carries a sequence number, used as an index into
+ * {@link Timeline}.
+ * <p/>
+ * Each event is stamped with the time it was due rather than the time it was delivered, so if the
+ * source falls behind, waiting for it counts as latency instead of being hidden.
+ */
+final class FakeBLEManager {
+
+    /**
+     * Receives notifications, like BLEService.handleCharacteristicChanged().
+     */
+    interface Listener {
+        void onCharacteristicChanged(byte[] value);
+    }
+
+    /**
+     * Event sources forwarded by BLEService to plugins.
+     */
+    private static final int[] EVENT_SOURCES = {
+            EventCategories.SAMSUNG_REMOTE_CONTROL_ID,
+            EventCategories.SAMSUNG_CAMERA_ID,
+            EventCategories.SAMSUNG_AUDIO_RECORDER_ID,
+            EventCategories.SAMSUNG_ALERTS_ID
+    };
+
+    /**
+     * Below this the source sleeps until the next notification is due, otherwise it spins.
+     */
+    private static final long SPIN_THRESHOLD = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int eventsPerSecond;
+    private final int wordsPerNotification;
+    private final Timeline timeline;
+    private final Listener listener;
+
+    private volatile boolean stopped;
+
+    private long notificationCount;
+    private long eventCount;
+    private long maxLag;
+
+    /**
+     * @param eventsPerSecond      Rate of events.
+     * @param wordsPerNotification Number of event words in a notification.
+     * @param timeline             Timeline to stamp injection time to.
+     * @param listener             Receiver of notifications.
+     */
+    FakeBLEManager(int eventsPerSecond, int wordsPerNotification, Timeline timeline, Listener listener) {
+        this.eventsPerSecond = eventsPerSecond;
+        this.wordsPerNotification = wordsPerNotification;
+        this.timeline = timeline;
+        this.listener = listener;
+    }
+
+    /**
+     * Delivers notifications on the calling thread.
+     *
+     * @param durationNanos How long to deliver for.
+     */
+    void run(long durationNanos) {
+        long interval = TimeUnit.SECONDS.toNanos(1) * wordsPerNotification / eventsPerSecond;
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        for(long n = 0; !stopped; n++) {
+            long due = start + n * interval;
+            if(due >= end) {
+                break;
+            }
+
+            long now = System.nanoTime();
+            while(now < due) {
+                if(due - now > SPIN_THRESHOLD) {
+                    LockSupport.parkNanos(due - now - SPIN_THRESHOLD);
+                }
+                now = System.nanoTime();
+            }
+
+            maxLag = Math.max(maxLag, now - due);
+
+            // A new value for each notification, as the bluetooth stack does
+            byte[] value = new byte[wordsPerNotification * 4];
+            for(int i = 0; i < wordsPerNotification; i++) {
+                int sequence = timeline.next(due);
+                int eventSrc = EVENT_SOURCES[(int) (eventCount % EVENT_SOURCES.length)];
+                int offset = i * 4;
+
+                value[offset] = (byte) eventSrc;
+                value[offset + 1] = (byte) (eventSrc >> 8);
+                value[offset + 2] = (byte) sequence;
+                value[offset + 3] = (byte) (sequence >> 8);
+                eventCount++;
+            }
+
+            listener.onCharacteristicChanged(value);
+            notificationCount++;
+        }
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    long getNotificationCount() {
+        return notificationCount;
+    }
+
+    long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return Longest time a notification was delivered after it was due, in nanoseconds.
+     */
+    long getMaxLag() {
+        return maxLag;
+    }
+}
@@ -0,0 +1,195 @@
+package com.samsung.microbit.benchmark;
+
+import com.samsung.microbit.core.bluetooth.EventIngestStage;
+import com.samsung.microbit.data.constants.EventCategories;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency benchmark of micro:bit events, from a GATT notification to a plugin, without
+ * bluetooth hardware.
+ * <p/>
+ * Events come from a {@link FakeBLEManager} at each of given rates, go through the same
+ * {@link EventIngestStage} as in BLEService, then over a {@link SimulatedPluginService} to plugins.
+ * For every rate it reports p50, p99 and max of each stage:
+ * <ul>
+ * <li>ingest - notification to the event leaving the ring buffer,</li>
+ * <li>ipc - encoding, queueing and decoding of the message to PluginService,</li>
+ * <li>plugin - plugin lookup and handleEntry(),</li>
+ * <li>total - all of the above,</li>
+ * </ul>
+ * plus delivered throughput and events dropped by the ring buffer.
+ * <p/>
+ * Run with {@code ./gradlew :benchmark:run -PbenchArgs="--rates 100,1000 --duration 10"}.
+ * With {@code --max-p99} it exits with 1 if the total p99 goes over the limit at any rate,
+ * so it can guard releases.
+ */
+public final class IpcLatencyBenchmark {
+
+    private static final String DEVICE_ADDRESS = "00:00:00:00:00:00";
+
+    private int[] rates = {50, 200, 1000, 5000, 20000};
+    private int durationSeconds = 5;
+    private int warmUpSeconds = 2;
+    private int wordsPerNotification = 1;
+    private int capacity = EventIngestStage.DEFAULT_CAPACITY;
+    private long pluginCostMicros;
+    private double maxP99Micros;
+
+    private IpcLatencyBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        IpcLatencyBenchmark benchmark = new IpcLatencyBenchmark();
+        if(!benchmark.parse(args)) {
+            printUsage();
+            System.exit(2);
+        }
+
+        System.exit(benchmark.runAll() ? 0 : 1);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: IpcLatencyBenchmark [options]\n" +
+                "  --rates <n,n,...>    events per second, default 50,200,1000,5000,20000\n" +
+                "  --duration <s>       measured seconds per rate, default 5\n" +
+                "  --warmup <s>         warm-up seconds per rate, default 2\n" +
+                "  --words <n>          event words per notification, default 1\n" +
+                "  --capacity <n>       ring buffer capacity, default " + EventIngestStage.DEFAULT_CAPACITY + "\n" +
+                "  --plugin-cost <us>   time each plugin call takes, default 0\n" +
+                "  --max-p99 <us>       fail if total p99 is over this");
+    }
+
+    private boolean parse(String[] args) {
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if(arg.isEmpty()) {
+                    continue;
+                }
+
+                if(i + 1 >= args.length) {
+                    return false;
+                }
+
+                String value = args[++i];
+                switch(arg) {
+                    case "--rates": {
+                        String[] parts = value.split(",");
+                        rates = new int[parts.length];
+                        for(int j = 0; j < parts.length; j++) {
+                            rates[j] = Integer.parseInt(parts[j].trim());
+                            if(rates[j] <= 0) {
+                                return false;
+                            }
+                        }
+                        break;
+                    }
+                    case "--duration":
+                        durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--warmup":
+                        warmUpSeconds = Integer.parseInt(value);
+                        break;
+                    case "--words":
+                        wordsPerNotification = Integer.parseInt(value);
+                        break;
+                    case "--capacity":
+                        capacity = Integer.parseInt(value);
+                        break;
+                    case "--plugin-cost":
+                        pluginCostMicros = Long.parseLong(value);
+                        break;
+                    case "--max-p99":
+                        maxP99Micros = Double.parseDouble(value);
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        } catch(NumberFormatException e) {
+            return false;
+        }
+
+        return durationSeconds > 0 && warmUpSeconds >= 0 && wordsPerNotification > 0 && capacity > 0;
+    }
+
+    /**
+     * @return False if the p99 limit was exceeded.
+     */
+    private boolean runAll() throws InterruptedException {
+        System.out.println("IPC latency benchmark: duration " + durationSeconds + "s, warm-up " + warmUpSeconds +
+                "s, " + wordsPerNotification + " word(s) per notification, ring capacity " + capacity +
+                ", plugin cost " + pluginCostMicros + "us");
+
+        boolean passed = true;
+        for(int rate : rates) {
+            passed &= run(rate);
+        }
+
+        return passed;
+    }
+
+    private boolean run(int rate) throws InterruptedException {
+        final Timeline timeline = new Timeline();
+        final SimulatedPluginService pluginService = new SimulatedPluginService(timeline,
+                TimeUnit.MICROSECONDS.toNanos(pluginCostMicros), rate * durationSeconds);
+
+        // Same setup as in BLEService
+        final EventIngestStage stage = new EventIngestStage("MicroBitEventIngest", capacity,
+                EventCategories.SAMSUNG_REMOTE_CONTROL_ID, new EventIngestStage.Dispatcher() {
+            @Override
+            public void dispatch(int eventSrc, int event) {
+                pluginService.send(eventSrc, event, DEVICE_ADDRESS);
+            }
+        });
+
+        FakeBLEManager bleManager = new FakeBLEManager(rate, wordsPerNotification, timeline,
+                new FakeBLEManager.Listener() {
+                    @Override
+                    public void onCharacteristicChanged(byte[] value) {
+                        stage.ingest(value);
+                    }
+                });
+
+        pluginService.start();
+        stage.start();
+
+        bleManager.run(TimeUnit.SECONDS.toNanos(warmUpSeconds));
+        long measureStart = System.nanoTime();
+        pluginService.startMeasuring(measureStart);
+        long droppedBefore = stage.getRingBuffer().getDroppedCount();
+        long eventsBefore = bleManager.getEventCount();
+
+        bleManager.run(TimeUnit.SECONDS.toNanos(durationSeconds));
+        long measureEnd = System.nanoTime();
+
+        stage.stop();
+        while(stage.getDispatchedCount() + stage.getFilteredCount() + stage.getRingBuffer().getDroppedCount()
+                < stage.getIngestedCount()) {
+            Thread.sleep(1);
+        }
+        pluginService.quit();
+
+        LatencyRecorder total = pluginService.getTotal();
+        double seconds = (measureEnd - measureStart) / 1e9;
+
+        System.out.println();
+        System.out.println(String.format("rate %d/s: offered %d, delivered %d (%.1f/s), dropped %d, " +
+                        "ring max depth %d, queue max depth %d, source max lag %.1fus", rate,
+                bleManager.getEventCount() - eventsBefore, total.getCount(), total.getCount() / seconds,
+                stage.getRingBuffer().getDroppedCount() - droppedBefore, stage.getRingBuffer().getMaxDepth(),
+                pluginService.getMaxQueueDepth(), bleManager.getMaxLag() / 1000.0));
+
+        for(LatencyRecorder recorder : pluginService.getRecorders()) {
+            System.out.println("  " + recorder);
+        }
+
+        if(maxP99Micros > 0 && total.getPercentile(99) / 1000.0 > maxP99Micros) {
+            System.out.println(String.format("  FAILED: total p99 over %.1fus", maxP99Micros));
+            return false;
+        }
+
+        return true;
+    }
+}
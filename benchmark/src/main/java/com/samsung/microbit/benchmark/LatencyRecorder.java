@@ -0,0 +1,73 @@
+package com.samsung.microbit.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Latency samples of a single stage. Not thread safe, samples are recorded by one thread and
+ * read once it's done.
+ */
+final class LatencyRecorder {
+    private final String name;
+
+    private long[] samples;
+    private int count;
+
+    /**
+     * @param name            Name of the stage.
+     * @param expectedSamples Number of samples to preallocate room for.
+     */
+    LatencyRecorder(String name, int expectedSamples) {
+        this.name = name;
+        this.samples = new long[Math.max(expectedSamples, 16)];
+    }
+
+    /**
+     * @param nanos Latency in nanoseconds.
+     */
+    void record(long nanos) {
+        if(count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+
+        samples[count++] = nanos;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile Percentile from 0 to 100.
+     * @return Latency in nanoseconds, 0 if there are no samples.
+     */
+    long getPercentile(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.min(Math.max(index, 0), count - 1)];
+    }
+
+    long getMax() {
+        long max = 0;
+        for(int i = 0; i < count; i++) {
+            max = Math.max(max, samples[i]);
+        }
+
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-8s p50 %10.1fus  p99 %10.1fus  max %10.1fus", name,
+                getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, getMax() / 1000.0);
+    }
+}
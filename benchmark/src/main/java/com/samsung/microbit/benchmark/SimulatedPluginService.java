@@ -0,0 +1,237 @@
+package com.samsung.microbit.benchmark;
+
+import com.samsung.microbit.data.constants.IPCConstants;
+import com.samsung.microbit.utils.IpcFields;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Simulated IPC hop from BLEService to PluginService and plugin dispatch behind it.
+ * <p/>
+ * {@link #send(int, int, String)} stands for BLEService.sendMessage(): it encodes an event as
+ * a message with the field layout of IpcCodec (version, number of fields, tagged fields) and
+ * queues it, like Messenger.send() does. A "PluginService" thread takes messages in order, decodes
+ * them and calls {@link Plugin#handleEntry(int, String)} of a plugin created on first use, like
+ * PluginService.handleMicroBitMessage() with PluginsCreator. There is no binder transaction, so
+ * the hop measures marshalling and the thread handover only.
+ */
+final class SimulatedPluginService {
+
+    /**
+     * ServiceIds.SERVICE_PLUGIN, which can't be built without Android.
+     */
+    private static final int SERVICE_PLUGIN = 1;
+
+    private static final byte[] QUIT = new byte[0];
+
+    /**
+     * Plugin handling events of a single category.
+     */
+    static final class Plugin {
+        private final long costNanos;
+        private long handledCount;
+
+        Plugin(long costNanos) {
+            this.costNanos = costNanos;
+        }
+
+        void handleEntry(int cmd, String value) {
+            if(costNanos > 0) {
+                long end = System.nanoTime() + costNanos;
+                while(System.nanoTime() < end) {
+                    // Simulated work of the plugin
+                }
+            }
+
+            handledCount++;
+        }
+    }
+
+    private final Timeline timeline;
+    private final long pluginCostNanos;
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final Map<Integer, Plugin> plugins = new HashMap<>();
+    private final Thread thread;
+
+    private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream(64);
+    private final DataOutputStream encoder = new DataOutputStream(encodeBuffer);
+
+    private final LatencyRecorder ingest;
+    private final LatencyRecorder ipc;
+    private final LatencyRecorder dispatch;
+    private final LatencyRecorder total;
+
+    private volatile long measureStart = Long.MAX_VALUE;
+    private volatile int maxQueueDepth;
+
+    /**
+     * @param timeline        Timeline of events.
+     * @param pluginCostNanos Time each plugin call takes, in nanoseconds.
+     * @param expectedSamples Number of samples to preallocate room for.
+     */
+    SimulatedPluginService(Timeline timeline, long pluginCostNanos, int expectedSamples) {
+        this.timeline = timeline;
+        this.pluginCostNanos = pluginCostNanos;
+
+        ingest = new LatencyRecorder("ingest", expectedSamples);
+        ipc = new LatencyRecorder("ipc", expectedSamples);
+        dispatch = new LatencyRecorder("plugin", expectedSamples);
+        total = new LatencyRecorder("total", expectedSamples);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "PluginService");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Events injected from now on are measured, earlier ones are warm-up.
+     */
+    void startMeasuring(long time) {
+        measureStart = time;
+    }
+
+    /**
+     * Sends an event to plugins. Called by the ingest consumer thread.
+     *
+     * @param eventSrc Event source.
+     * @param event    Event value, the sequence number.
+     * @param address  Address of the micro:bit.
+     */
+    void send(int eventSrc, int event, String address) {
+        timeline.setDispatched(event, System.nanoTime());
+
+        byte[] message;
+        try {
+            encodeBuffer.reset();
+            encoder.writeInt(IPCConstants.MESSAGE_MICROBIT);
+            encoder.writeInt(eventSrc);
+            encoder.writeInt(SERVICE_PLUGIN);
+            encoder.writeInt(IpcFields.VERSION);
+            encoder.writeInt(3);
+            encoder.writeInt(IpcFields.headerOf(IpcFields.FIELD_CMD));
+            encoder.writeInt(event);
+            encoder.writeInt(IpcFields.headerOf(IpcFields.FIELD_VALUE));
+            encoder.writeUTF("1000");
+            encoder.writeInt(IpcFields.headerOf(IpcFields.FIELD_DEVICE_ADDRESS));
+            encoder.writeUTF(address);
+            message = encodeBuffer.toByteArray();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        queue.add(message);
+
+        int depth = queue.size();
+        if(depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    /**
+     * Stops the service thread once queued messages are handled.
+     */
+    void quit() throws InterruptedException {
+        queue.add(QUIT);
+        thread.join();
+    }
+
+    private void loop() {
+        try {
+            while(true) {
+                byte[] message = queue.take();
+                if(message == QUIT) {
+                    return;
+                }
+
+                handleMessage(message);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void handleMessage(byte[] message) throws IOException {
+        DataInputStream decoder = new DataInputStream(new ByteArrayInputStream(message));
+        decoder.readInt();
+        int eventSrc = decoder.readInt();
+        decoder.readInt();
+
+        if(decoder.readInt() != IpcFields.VERSION) {
+            return;
+        }
+
+        int cmd = 0;
+        String value = null;
+        int count = decoder.readInt();
+        for(int i = 0; i < count; i++) {
+            int header = decoder.readInt();
+            int type = IpcFields.typeOfHeader(header);
+            int field = IpcFields.fieldOfHeader(header);
+
+            if(type == IpcFields.TYPE_INT) {
+                int intValue = decoder.readInt();
+                if(field == IpcFields.FIELD_CMD) {
+                    cmd = intValue;
+                }
+            } else {
+                String stringValue = decoder.readUTF();
+                if(field == IpcFields.FIELD_VALUE) {
+                    value = stringValue;
+                }
+            }
+        }
+
+        long received = System.nanoTime();
+
+        Plugin plugin = plugins.get(eventSrc);
+        if(plugin == null) {
+            plugin = new Plugin(pluginCostNanos);
+            plugins.put(eventSrc, plugin);
+        }
+        plugin.handleEntry(cmd, value);
+
+        long done = System.nanoTime();
+
+        long injected = timeline.getInjected(cmd);
+        if(injected < measureStart) {
+            return;
+        }
+
+        long dispatched = timeline.getDispatched(cmd);
+        ingest.record(dispatched - injected);
+        ipc.record(received - dispatched);
+        dispatch.record(done - received);
+        total.record(done - injected);
+    }
+
+    /**
+     * @return Recorders of ingest, ipc, plugin and end-to-end latency. Valid after {@link #quit()}.
+     */
+    LatencyRecorder[] getRecorders() {
+        return new LatencyRecorder[]{ingest, ipc, dispatch, total};
+    }
+
+    LatencyRecorder getTotal() {
+        return total;
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+}
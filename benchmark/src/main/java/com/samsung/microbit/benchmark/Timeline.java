@@ -0,0 +1,46 @@
+package com.samsung.microbit.benchmark;
+
+/**
+ * Per-event timestamps along the event path, indexed by the sequence number carried in the event
+ * value.
+ * <p/>
+ * Each timestamp is written by the thread of its stage and read by the next stages, once the event
+ * is handed over through the ring buffer and the message queue, which publish it. Sequence numbers
+ * wrap at 16 bits, far more than events in flight at once.
+ */
+final class Timeline {
+    static final int SIZE = 1 << 16;
+
+    private final long[] injected = new long[SIZE];
+    private final long[] dispatched = new long[SIZE];
+
+    private int nextSequence;
+
+    /**
+     * Called by the source thread.
+     *
+     * @param time Injection time in nanoseconds.
+     * @return Sequence number of the event.
+     */
+    int next(long time) {
+        int sequence = nextSequence;
+        nextSequence = (nextSequence + 1) & (SIZE - 1);
+        injected[sequence] = time;
+        return sequence;
+    }
+
+    long getInjected(int sequence) {
+        return injected[sequence];
+    }
+
+    /**
+     * Called by the ingest consumer thread, when the event leaves the ring buffer.
+     */
+    void setDispatched(int sequence, long time) {
+        dispatched[sequence] = time;
+    }
+
+    long getDispatched(int sequence) {
+        return dispatched[sequence];
+    }
+}